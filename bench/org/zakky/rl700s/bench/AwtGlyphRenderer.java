@@ -0,0 +1,86 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.text.GlyphRenderer;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+
+/**
+ * Java2D でグリフを描画する {@link GlyphRenderer} です。
+ * <p>
+ * 通常の JVM で {@link org.zakky.rl700s.text.TextLabel} を動かすためのもので、
+ * {@link org.zakky.rl700s.render.PaintGlyphRenderer} と同じく、インクのある範囲だけをアンチエイリアスをかけて描画します。
+ * </p>
+ */
+final class AwtGlyphRenderer implements GlyphRenderer {
+
+    private final Font font_;
+
+    private final FontRenderContext context_;
+
+    private final int ascent_;
+
+    private final int descent_;
+
+    AwtGlyphRenderer(int textSize) {
+        font_ = new Font(Font.SANS_SERIF, Font.BOLD, textSize);
+        context_ = new FontRenderContext(null, true, true);
+        final Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY)
+                .createGraphics();
+        try {
+            final FontMetrics metrics = g.getFontMetrics(font_);
+            ascent_ = metrics.getAscent();
+            descent_ = metrics.getDescent();
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @Override
+    public int getAscent() {
+        return ascent_;
+    }
+
+    @Override
+    public int getDescent() {
+        return descent_;
+    }
+
+    @Override
+    public byte[] render(int codePoint, int[] metrics) {
+        final GlyphVector vector = font_.createGlyphVector(context_, new String(Character
+                .toChars(codePoint)));
+        final Rectangle bounds = vector.getPixelBounds(context_, 0, 0);
+        metrics[0] = Math.round(vector.getGlyphMetrics(0).getAdvance());
+        metrics[1] = bounds.x;
+        metrics[2] = bounds.y;
+        if (bounds.isEmpty()) {
+            metrics[3] = 0;
+            metrics[4] = 0;
+            return new byte[0];
+        }
+        metrics[3] = bounds.width;
+        metrics[4] = bounds.height;
+
+        final BufferedImage image = new BufferedImage(bounds.width, bounds.height,
+                BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g.drawGlyphVector(vector, -bounds.x, -bounds.y);
+        } finally {
+            g.dispose();
+        }
+        // 黒地に白で描いたので、グレースケールの画素値がそのまま濃さになる
+        final byte[] coverage = new byte[bounds.width * bounds.height];
+        image.getRaster().getDataElements(0, 0, bounds.width, bounds.height, coverage);
+        return coverage;
+    }
+}
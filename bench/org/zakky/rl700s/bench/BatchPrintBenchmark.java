@@ -0,0 +1,348 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.batch.BatchPrinter;
+import org.zakky.rl700s.batch.DataFormat;
+import org.zakky.rl700s.batch.LabelTemplate;
+import org.zakky.rl700s.batch.RecordReader;
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+import org.zakky.rl700s.metrics.BatchSummary;
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.print.PrintSession;
+import org.zakky.rl700s.print.PrintSettings;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.status.StatusListener;
+import org.zakky.rl700s.status.StatusMonitor;
+import org.zakky.rl700s.text.GlyphAtlas;
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.PipelinedOutput;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link SimulatedPrinter} を相手に、 {@link BatchPrinter} でデータファイルから連続印刷するベンチマーク兼耐久試験です。
+ * <p>
+ * 指定の件数のレコードを CSV と JSON のデータファイルに書き出し、文字ラベル、 Code 128、 QR コードのテンプレートで
+ * {@value #CHAIN_LENGTH} 枚ずつハーフカットでつなげて印刷して、それぞれの1分あたりの枚数を表示します。 Code 128
+ * では {@value #NON_ASCII_INTERVAL} 件に1件の ASCII 以外の文字を含むレコードを飛ばします。
+ * プリンターが受け取ったラベルの枚数や、飛ばしたレコード、排出の回数が合わない場合、 不正なコマンドを受け取った場合は、終了コード
+ * 1 で終了します。
+ * </p>
+ * <p>
+ * {@code --realistic} を指定すると、 {@link SimulatedPrintBenchmark} と同じ USB の転送時間と印刷速度を模倣します。
+ * 指定しなければ待ち時間なしで実行するので、ラベルの作成が追いつくかどうかを確かめられます。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.BatchPrintBenchmark [--records N]
+ *         [--workers N] [--realistic]
+ * </pre>
+ */
+public final class BatchPrintBenchmark {
+
+    private static final int DEFAULT_RECORDS = 500;
+
+    private static final int CHAIN_LENGTH = 10;
+
+    private static final int RENDER_AHEAD = 8;
+
+    private static final int OUTPUT_WINDOW = 4;
+
+    /**
+     * ASCII 以外の文字を含むレコードの間隔。
+     */
+    private static final int NON_ASCII_INTERVAL = 50;
+
+    /**
+     * 実機の印刷速度 (30 mm/s、 360 dpi)。
+     */
+    private static final int REALISTIC_LINES_PER_SECOND = 425;
+
+    private static final long STATUS_WAIT_MILLIS = 10 * 1000L;
+
+    private BatchPrintBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int records = DEFAULT_RECORDS;
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean realistic = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--records".equals(args[i]) && i + 1 < args.length) {
+                records = Integer.parseInt(args[++i]);
+            } else if ("--workers".equals(args[i]) && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if ("--realistic".equals(args[i])) {
+                realistic = true;
+            } else {
+                System.err.println("usage: BatchPrintBenchmark [--records N] [--workers N]"
+                        + " [--realistic]");
+                System.exit(2);
+            }
+        }
+
+        final TapeGeometry tape = TapeGeometry.TAPE_24MM;
+        final PrintSettings settings = new PrintSettings(PrintSettings.DEFAULT.getPaper(), tape,
+                PrintSettings.DEFAULT.getMargin(), true);
+        final SimulatedPrinter printer = new SimulatedPrinter(settings.getPaper(), tape);
+        if (realistic) {
+            printer.setTransferLatency(1000000L, 52000L);
+            printer.setPrintSpeed(REALISTIC_LINES_PER_SECOND);
+        }
+
+        final CountingListener listener = new CountingListener();
+        final StatusMonitor monitor = new StatusMonitor(printer.getTransport(), listener,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        monitor.start();
+        final PipelineMetrics metrics = new PipelineMetrics();
+        final PipelinedOutput output = new PipelinedOutput(printer
+                .newAsyncTransport(OUTPUT_WINDOW));
+        output.setMetrics(metrics);
+        final PrintSession session = new PrintSession(new BatchingSender(output), monitor);
+        session.setMetrics(metrics);
+
+        final File dir = File.createTempFile("batch", ".bench");
+        dir.delete();
+        dir.mkdirs();
+        final File spoolDir = new File(dir, "spool");
+        boolean ok = true;
+        try {
+            final File csv = new File(dir, "items.csv");
+            final File json = new File(dir, "items.json");
+            writeData(records, csv, json);
+            final int nonAscii = (records + NON_ASCII_INTERVAL - 1) / NON_ASCII_INTERVAL;
+            final Run run = new Run(printer, listener, session, output, settings, tape,
+                    spoolDir, workers, realistic);
+
+            ok &= run.execute(LabelTemplate.parse("text:{name}\n{sku}  x{qty}"), csv, records,
+                    0);
+            ok &= run.execute(LabelTemplate.parse("code128:{sku}/{name}"), json, records
+                    - nonAscii, nonAscii);
+            ok &= run.execute(LabelTemplate.parse("qr:https://example.com/item/{sku}?q={qty}"),
+                    csv, records, 0);
+
+            System.out.print(metrics);
+            ok &= check("protocol errors", 0, printer.getProtocolErrorCount());
+            if (printer.getLastProtocolError() != null) {
+                System.out.println("last protocol error: " + printer.getLastProtocolError());
+            }
+            final String[] leftover = spoolDir.list();
+            ok &= check("leftover spool files", 0, (leftover == null) ? 0 : leftover.length);
+        } finally {
+            monitor.stop();
+            output.close();
+            printer.close();
+            deleteTree(dir);
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 同じレコードを CSV と JSON に書き出します。 {@value #NON_ASCII_INTERVAL} 件に1件は、名前に ASCII
+     * 以外の文字を含みます。
+     */
+    private static void writeData(int records, File csv, File json) throws IOException {
+        final Writer csvOut = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        final Writer jsonOut = new OutputStreamWriter(new FileOutputStream(json), "UTF-8");
+        try {
+            csvOut.write("sku,name,qty\r\n");
+            jsonOut.write("[\n");
+            for (int i = 0; i < records; i++) {
+                final String sku = String.format("A-%05d", i + 1);
+                final String name = (i % NON_ASCII_INTERVAL == 0) ? "Caf\u00e9 \"No. " + i
+                        + "\"" : "Cable, " + (i % 7 + 1) + "m";
+                final int qty = i % 12 + 1;
+                csvOut.write(sku + ",\"" + name.replace("\"", "\"\"") + "\"," + qty + "\r\n");
+                jsonOut.write("  {\"sku\": \"" + sku + "\", \"name\": \""
+                        + name.replace("\"", "\\\"") + "\", \"qty\": " + qty + "}"
+                        + ((i + 1 < records) ? ",\n" : "\n"));
+            }
+            jsonOut.write("]\n");
+        } finally {
+            csvOut.close();
+            jsonOut.close();
+        }
+    }
+
+    private static void deleteTree(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        final boolean ok = expected == actual;
+        if (!ok) {
+            System.out.println("MISMATCH " + name + ": expected " + expected + ", but was "
+                    + actual);
+        }
+        return ok;
+    }
+
+    /**
+     * 1つのテンプレートで連続印刷し、結果を確かめます。
+     */
+    private static final class Run {
+        private final SimulatedPrinter printer_;
+
+        private final CountingListener listener_;
+
+        private final PrintSession session_;
+
+        private final PipelinedOutput output_;
+
+        private final PrintSettings settings_;
+
+        private final TapeGeometry tape_;
+
+        private final File spoolDir_;
+
+        private final int workers_;
+
+        private final boolean realistic_;
+
+        private GlyphAtlas atlas_ = null;
+
+        Run(SimulatedPrinter printer, CountingListener listener, PrintSession session,
+                PipelinedOutput output, PrintSettings settings, TapeGeometry tape,
+                File spoolDir, int workers, boolean realistic) {
+            printer_ = printer;
+            listener_ = listener;
+            session_ = session;
+            output_ = output;
+            settings_ = settings;
+            tape_ = tape;
+            spoolDir_ = spoolDir;
+            workers_ = workers;
+            realistic_ = realistic;
+        }
+
+        boolean execute(LabelTemplate template, File data, int expectedLabels,
+                int expectedSkipped) throws Exception {
+            final GlyphAtlas atlas = (template.getSymbology() == null) ? getAtlas(template
+                    .getLineCount()) : null;
+            final BatchPrinter batch = new BatchPrinter(template, tape_, atlas, spoolDir_,
+                    workers_, RENDER_AHEAD);
+            final int pagesBefore = printer_.getPagesPrinted();
+            final AtomicInteger skipped = new AtomicInteger();
+            final RecordReader records = DataFormat.open(data);
+            final BatchSummary summary;
+            try {
+                summary = batch.print(records, session_, settings_, CHAIN_LENGTH,
+                        new BatchPrinter.Listener() {
+                            @Override
+                            public void onLabelSent(int labelCount, double labelsPerMinute) {
+                            }
+
+                            @Override
+                            public void onRecordSkipped(int recordNumber,
+                                    RuntimeException cause) {
+                                skipped.incrementAndGet();
+                            }
+                        });
+            } finally {
+                records.close();
+            }
+            output_.drain();
+            // 実機の速度では、長いバーコードでもラベル1枚の印刷は3秒以内に終わる
+            boolean ok = listener_.awaitPrintFinished(pagesBefore + summary.getLabelCount(),
+                    realistic_ ? summary.getLabelCount() * 3000L : 0);
+
+            System.out.println(template.toSpec().replace("\n", "\\n") + " (" + data.getName()
+                    + "): " + summary);
+            ok &= check("labels sent", expectedLabels, summary.getLabelCount());
+            ok &= check("records skipped", expectedSkipped, summary.getSkippedCount());
+            ok &= check("skip notifications", expectedSkipped, skipped.get());
+            ok &= check("records read", expectedLabels + expectedSkipped, summary
+                    .getRecordCount());
+            ok &= check("strips", (expectedLabels + CHAIN_LENGTH - 1) / CHAIN_LENGTH, summary
+                    .getStripCount());
+            ok &= check("pages printed", expectedLabels, printer_.getPagesPrinted()
+                    - pagesBefore);
+            ok &= check("clipped lines", 0, printer_.getClippedLineCount());
+            return ok;
+        }
+
+        /**
+         * {@code lineCount} 行がテープの印刷範囲に収まる最大の文字サイズの {@link GlyphAtlas} を返します。
+         */
+        private GlyphAtlas getAtlas(int lineCount) {
+            if (atlas_ == null) {
+                int textSize = tape_.getPins() / lineCount;
+                do {
+                    atlas_ = new GlyphAtlas(new AwtGlyphRenderer(textSize--));
+                } while (tape_.getPins() < atlas_.getLineHeight() * lineCount);
+            }
+            return atlas_;
+        }
+    }
+
+    /**
+     * 印刷終了のステータスを数える {@link StatusListener} です。
+     */
+    private static final class CountingListener implements StatusListener {
+        private final AtomicInteger printFinished_ = new AtomicInteger();
+
+        /**
+         * 印刷終了のステータスを、合計で {@code count} 個受け取るまで待ちます。
+         *
+         * @param printMillis 印刷にかかる見込みの時間 (ミリ秒)。 これに {@value #STATUS_WAIT_MILLIS}
+         *            ミリ秒を加えた時間まで待ちます。
+         */
+        boolean awaitPrintFinished(int count, long printMillis) throws InterruptedException {
+            final long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(printMillis + STATUS_WAIT_MILLIS);
+            while (printFinished_.get() < count) {
+                if (deadline <= System.nanoTime()) {
+                    return check("print finished statuses", count, printFinished_.get());
+                }
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            return true;
+        }
+
+        @Override
+        public void onStatusReply(RL700SStatus status) {
+        }
+
+        @Override
+        public void onPrintFinished(RL700SStatus status) {
+            printFinished_.incrementAndGet();
+        }
+
+        @Override
+        public void onError(RL700SStatus status, EnumSet<ErrorInfo> errors) {
+        }
+
+        @Override
+        public void onNotification(RL700SStatus status) {
+        }
+
+        @Override
+        public void onPhaseChange(RL700SStatus status) {
+        }
+    }
+}
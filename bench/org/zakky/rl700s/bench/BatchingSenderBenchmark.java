@@ -0,0 +1,104 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.BlockingOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * コマンドを1つずつ転送する場合と、 {@link BatchingSender} でまとめて転送する場合を比較するベンチマークです。
+ * <p>
+ * 320 ライン + 300 本のゼロラインからなる1枚分のコマンド列を {@link CountingTransport} に送り、 ジョブあたりの転送回数と、
+ * 転送ごとの固定コストを 1 ms 、転送速度を 1 MB/s と仮定した場合の見積もり時間を表示します。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.BatchingSenderBenchmark
+ * </pre>
+ */
+public final class BatchingSenderBenchmark {
+
+    private static final int RASTER_LINES = 320;
+
+    private static final int ZERO_LINES = 300;
+
+    private static final int BYTES_PER_LINE = 44;
+
+    /**
+     * 従来の send() が許していた最大のサイズ(フルスピードのバルクエンドポイントのパケットサイズ)。
+     */
+    private static final int MAX_PACKET_SIZE = 64;
+
+    private static final int BATCH_TRANSFER_SIZE = 16 * 1024;
+
+    private static final long PER_TRANSFER_NANOS = 1000000L;
+
+    private static final long BYTES_PER_SECOND = 1000000L;
+
+    private static final int JOBS = 200;
+
+    private BatchingSenderBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        run("per-command", MAX_PACKET_SIZE, true);
+        run("batched", BATCH_TRANSFER_SIZE, false);
+    }
+
+    private static void run(String name, int maxTransferSize, boolean flushEachCommand)
+            throws IOException {
+        final CountingTransport transport = new CountingTransport(maxTransferSize,
+                PER_TRANSFER_NANOS, BYTES_PER_SECOND);
+        final BatchingSender sender = new BatchingSender(new BlockingOutput(transport, 1000));
+        final ByteBuffer rasterLine = createRasterLineCommand();
+        final ByteBuffer zeroLine = ByteBuffer.wrap(new byte[] {
+            'Z'
+        });
+
+        final long start = System.nanoTime();
+        for (int job = 0; job < JOBS; job++) {
+            for (int i = 0; i < RASTER_LINES; i++) {
+                rasterLine.rewind();
+                sender.send(rasterLine);
+                if (flushEachCommand) {
+                    sender.flush();
+                }
+            }
+            for (int i = 0; i < ZERO_LINES; i++) {
+                zeroLine.rewind();
+                sender.send(zeroLine);
+                if (flushEachCommand) {
+                    sender.flush();
+                }
+            }
+            sender.flush();
+        }
+        final long cpuNanos = System.nanoTime() - start;
+
+        final double wireSecPerJob = transport.getEstimatedWireNanos() / 1e9 / JOBS;
+        System.out.println(String.format(
+                "%-12s %8d transfers/job %8d bytes/job %10.1f ms/job(est) %12.0f bytes/s(est)"
+                        + " %8.1f us/job(cpu)", name, transport.getTransfers() / JOBS,
+                transport.getBytes() / JOBS, wireSecPerJob * 1000, transport.getBytes()
+                        / (transport.getEstimatedWireNanos() / 1e9), cpuNanos / 1000.0 / JOBS));
+    }
+
+    /**
+     * 非圧縮のラスターライン転送コマンド ('G' n1 n2 data) を作成します。
+     */
+    private static ByteBuffer createRasterLineCommand() {
+        final ByteBuffer command = ByteBuffer.allocate(3 + BYTES_PER_LINE);
+        command.put((byte) 'G');
+        command.put((byte) (BYTES_PER_LINE & 0xff));
+        command.put((byte) (BYTES_PER_LINE >> 8));
+        for (int i = 0; i < BYTES_PER_LINE; i++) {
+            command.put((byte) i);
+        }
+        command.flip();
+        return command;
+    }
+}
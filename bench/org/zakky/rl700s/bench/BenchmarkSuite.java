@@ -0,0 +1,505 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.barcode.BarcodeLabel;
+import org.zakky.rl700s.barcode.Symbology;
+import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
+import org.zakky.rl700s.job.MemoryRasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.print.EncodedLabel;
+import org.zakky.rl700s.print.RasterEncoder;
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.Luma;
+import org.zakky.rl700s.raster.MonoBitmap;
+import org.zakky.rl700s.raster.RasterBuffer;
+import org.zakky.rl700s.raster.RasterSink;
+import org.zakky.rl700s.raster.RasterSource;
+import org.zakky.rl700s.raster.Rasterizer;
+import org.zakky.rl700s.raster.StreamingRasterizer;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.text.GlyphAtlas;
+import org.zakky.rl700s.text.TextLabel;
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.TransferOutput;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ラベル作成から送信コマンドの作成までの各段階を、画像の大きさと内容を変えながら計測するベンチマークです。
+ * <p>
+ * 計測する段階は次のとおりです。 いずれも Android に依存しないクラスなので、通常の JVM で実行できます。
+ * </p>
+ * <ul>
+ * <li>{@code luma}: ARGB から輝度への変換。</li>
+ * <li>{@code rasterize/<mode>}: {@link Rasterizer} による画像全体の二値化とビットへの詰め込み。</li>
+ * <li>{@code stream/<mode>}: {@link StreamingRasterizer} による同じ処理。 窓ごとの読み込みを含みます。</li>
+ * <li>{@code mono}: {@link Rasterizer} による {@code THRESHOLD} での二値化と、 {@link MonoBitmap}
+ * の語への詰め込み。</li>
+ * <li>{@code transpose}: {@link MonoBitmap#transpose()} による行と列の入れ替えと、ラスターラインへのコピー。
+ * {@code mono} との合計を {@code rasterize/threshold} と比べると、1ビットの画像を経由する費用がわかります。</li>
+ * <li>{@code encode}: {@link RasterEncoder} による TIFF 圧縮とコマンドの作成。 転送は行いません。</li>
+ * <li>{@code replay}: 同じラベルを {@link EncodedLabel} に保存しておき、ファイルから読み出して送る処理。
+ * {@code encode} と比べて、変換済みのラベルを印刷し直すときに省ける時間がわかります。</li>
+ * <li>{@code text/<tape>}: {@link TextLabel} による2行の文字ラベルのラスターラインの作成。 グリフは
+ * {@link GlyphAtlas} に登録済みの状態で計測します。 同じくらいの長さの {@code stream/<mode>} と比べると、
+ * 画像の描画と二値化を省いた効果がわかります。</li>
+ * <li>{@code barcode/<symbology>}: {@link Symbology} による連番のシリアル番号のエンコードと、
+ * {@link BarcodeLabel} のラスターラインの作成。 1ラベルあたりの時間がわかります。</li>
+ * </ul>
+ * <p>
+ * 処理1回あたりの時間、スループット (画素またはラインの数/秒)、確保したメモリ量を表示します。 {@code --out}
+ * で結果をファイルに保存し、次回以降 {@code --baseline} に渡すと、許容範囲 ({@code --tolerance} %、
+ * 既定値 {@value #DEFAULT_TOLERANCE_PERCENT}) を超えて遅くなった項目を表示して、終了コード 1 で終了します。
+ * 結果は同じマシンで取ったもの同士で比較してください。
+ * </p>
+ * <p>
+ * ベンチマークは、 Android に依存するクラス (USB の転送経路と、 {@code icon}、 {@code render} パッケージ)
+ * を除いたソースから、 {@code libs/} に置いた通信ライブラリの jar をクラスパスに加えてビルドします (bash で実行してください)。
+ * ほかのベンチマークも、同じようにビルドしたクラスから {@code java} の引数のクラス名を替えて実行します。
+ * </p>
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp 'libs/*' -d /tmp/bench $(find bench \
+ *     src/org/zakky/rl700s/{barcode,batch,job,metrics,print,raster,status,text,transport} \
+ *     -name '*.java' ! -name 'Usb*')
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.BenchmarkSuite [--quick] [--out FILE]
+ *         [--baseline FILE] [--tolerance PERCENT]
+ * </pre>
+ */
+public final class BenchmarkSuite {
+
+    private static final double DEFAULT_TOLERANCE_PERCENT = 10.0;
+
+    /**
+     * 計測する画像の大きさ ({幅 (ラスターラインの本数), 高さ (ピン数)})。 24mm テープのアイコン、 12mm
+     * テープの文字ラベル、 24mm テープの長いラベルを想定しています。
+     */
+    private static final int[][] SIZES = {
+            {
+                    320, 320
+            }, {
+                    1024, 150
+            }, {
+                    4096, 320
+            }
+    };
+
+    /**
+     * {@code stream/<mode>} を計測する {@link DitherMode}。 座標を転置しない方式と、転置する方式から1つずつ選んでいます。
+     */
+    private static final DitherMode[] STREAM_MODES = {
+            DitherMode.THRESHOLD, DitherMode.FLOYD_STEINBERG
+    };
+
+    /**
+     * {@code encode} の入力を作る {@link DitherMode}。
+     */
+    private static final DitherMode ENCODE_MODE = DitherMode.FLOYD_STEINBERG;
+
+    /**
+     * {@code text/<tape>} を計測するテープ。
+     */
+    private static final TapeGeometry[] TEXT_TAPES = {
+            TapeGeometry.TAPE_12MM, TapeGeometry.TAPE_24MM
+    };
+
+    /**
+     * {@code text/<tape>} で作成する文字ラベルの内容。 資産管理番号とシリアル番号を想定しています。
+     */
+    private static final String TEXT = "ASSET 2024-000123\nS/N 4F2A-99C1-7B30";
+
+    /**
+     * {@code barcode/<symbology>} で作成するラベルのテープ。
+     */
+    private static final TapeGeometry BARCODE_TAPE = TapeGeometry.TAPE_24MM;
+
+    private BenchmarkSuite() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean quick = false;
+        File out = null;
+        File baseline = null;
+        double tolerance = DEFAULT_TOLERANCE_PERCENT;
+        for (int i = 0; i < args.length; i++) {
+            if ("--quick".equals(args[i])) {
+                quick = true;
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+                out = new File(args[++i]);
+            } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baseline = new File(args[++i]);
+            } else if ("--tolerance".equals(args[i]) && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("usage: BenchmarkSuite [--quick] [--out FILE]"
+                        + " [--baseline FILE] [--tolerance PERCENT]");
+                System.exit(2);
+            }
+        }
+
+        final Map<String, Measurement> results = new LinkedHashMap<String, Measurement>();
+        System.out.println(String.format("%-40s %12s %16s %12s %12s", "benchmark", "us/op",
+                "throughput", "bytes/op", "alloc MB/s"));
+        for (int[] size : SIZES) {
+            for (ContentProfile profile : ContentProfile.values()) {
+                runAll(size[0], size[1], profile, quick, results);
+            }
+        }
+        for (TapeGeometry tape : TEXT_TAPES) {
+            runText(tape, quick, results);
+        }
+        for (Symbology symbology : Symbology.values()) {
+            runBarcode(symbology, quick, results);
+        }
+
+        if (out != null) {
+            save(results, out);
+        }
+        if (baseline != null && !compare(load(baseline), results, tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    private static void runAll(final int width, final int height, ContentProfile profile,
+            boolean quick, Map<String, Measurement> results) throws Exception {
+        final String suffix = "/" + width + "x" + height + "/" + profile.name().toLowerCase(
+                Locale.US);
+        final int[] argb = profile.create(width, height);
+        final long pixels = (long) width * height;
+
+        run("luma" + suffix, pixels, "Mpx/s", new Measurement.Operation() {
+            @Override
+            public long run() {
+                long sum = 0;
+                for (int i = 0; i < argb.length; i++) {
+                    sum += Luma.fromArgb(argb[i]);
+                }
+                return sum;
+            }
+        }, quick, results);
+
+        for (DitherMode mode : DitherMode.values()) {
+            final Rasterizer rasterizer = new Rasterizer();
+            rasterizer.setDitherMode(mode);
+            final RasterBuffer buffer = new RasterBuffer();
+            run("rasterize/" + mode.name().toLowerCase(Locale.US) + suffix, pixels, "Mpx/s",
+                    new Measurement.Operation() {
+                        @Override
+                        public long run() {
+                            rasterizer.rasterize(argb, width, height, buffer);
+                            return buffer.getData()[0];
+                        }
+                    }, quick, results);
+        }
+
+        final Rasterizer monoRasterizer = new Rasterizer();
+        monoRasterizer.setDitherMode(DitherMode.THRESHOLD);
+        final MonoBitmap bitmap = new MonoBitmap(width, height);
+        run("mono" + suffix, pixels, "Mpx/s", new Measurement.Operation() {
+            @Override
+            public long run() {
+                monoRasterizer.rasterize(argb, width, height, bitmap);
+                return bitmap.getWords()[0];
+            }
+        }, quick, results);
+
+        final byte[] monoLine = new byte[monoRasterizer.getBytesPerLine(height)];
+        run("transpose" + suffix, width, "Mline/s", new Measurement.Operation() {
+            @Override
+            public long run() {
+                final MonoBitmap lines = bitmap.transpose();
+                long sum = 0;
+                for (int x = 0; x < lines.getHeight(); x++) {
+                    lines.orRowInto(x, monoLine, 0, Rasterizer.DEFAULT_MARGIN_BYTES * 8);
+                    sum += monoLine[monoLine.length - 1];
+                }
+                return sum;
+            }
+        }, quick, results);
+
+        final ArraySource source = new ArraySource(argb, width, height);
+        final CountingSink sink = new CountingSink();
+        for (final DitherMode mode : STREAM_MODES) {
+            run("stream/" + mode.name().toLowerCase(Locale.US) + suffix, pixels, "Mpx/s",
+                    new Measurement.Operation() {
+                        @Override
+                        public long run() throws IOException {
+                            new StreamingRasterizer(source, mode.newDitherer()).writeTo(sink,
+                                    null);
+                            return sink.lines_;
+                        }
+                    }, quick, results);
+        }
+
+        final Rasterizer rasterizer = new Rasterizer();
+        rasterizer.setDitherMode(ENCODE_MODE);
+        final RasterBuffer raster = new RasterBuffer();
+        rasterizer.rasterize(argb, width, height, raster);
+        final MemoryRasterJob job = new MemoryRasterJob(raster);
+        final DiscardingOutput output = new DiscardingOutput();
+        final RasterEncoder encoder = new RasterEncoder(new BatchingSender(output),
+                CompressionMode.TIFF);
+        final byte[] line = new byte[raster.getBytesPerLine()];
+        run("encode" + suffix, width, "Mline/s", new Measurement.Operation() {
+            @Override
+            public long run() throws IOException {
+                encoder.reset();
+                encoder.resetCounters();
+                final RasterLineReader reader = job.openReader();
+                try {
+                    while (reader.readLine(line)) {
+                        encoder.encodeLine(line);
+                    }
+                } finally {
+                    reader.close();
+                }
+                encoder.flush();
+                return encoder.getBytesEncoded();
+            }
+        }, quick, results);
+
+        final File file = File.createTempFile("bench", ".label");
+        file.deleteOnExit();
+        final EncodedLabel.Writer writer = new EncodedLabel.Writer(file, raster
+                .getBytesPerLine(), CompressionMode.TIFF);
+        final byte[] data = raster.getData();
+        for (int i = 0; i < raster.getLineCount(); i++) {
+            writer.writeLine(data, raster.getLineOffset(i));
+        }
+        final EncodedLabel label = writer.close();
+        final BatchingSender sender = new BatchingSender(output);
+        run("replay" + suffix, width, "Mline/s", new Measurement.Operation() {
+            @Override
+            public long run() throws IOException {
+                label.writeTo(sender);
+                sender.flush();
+                return label.getEncodedBytes();
+            }
+        }, quick, results);
+    }
+
+    private static void runText(TapeGeometry tape, boolean quick,
+            Map<String, Measurement> results) throws Exception {
+        // 2行がテープの印刷範囲に収まる最大の文字サイズ
+        final int lineCount = TEXT.split("\n").length;
+        int textSize = tape.getPins() / lineCount;
+        GlyphAtlas atlas;
+        do {
+            atlas = new GlyphAtlas(new AwtGlyphRenderer(textSize--));
+        } while (tape.getPins() < atlas.getLineHeight() * lineCount);
+        final TextLabel label = new TextLabel(atlas, tape, TEXT, TextLabel.Alignment.CENTER,
+                atlas.getLineHeight() / 4);
+        final byte[] line = new byte[label.getBytesPerLine()];
+        run("text/" + tape.getMediaWidth() + "mm", label.getLineCount(), "Mline/s",
+                new Measurement.Operation() {
+                    @Override
+                    public long run() throws IOException {
+                        final RasterLineReader reader = label.openReader();
+                        long sum = 0;
+                        try {
+                            while (reader.readLine(line)) {
+                                sum += line[TapeGeometry.BYTES_PER_LINE / 2];
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                        return sum;
+                    }
+                }, quick, results);
+    }
+
+    /**
+     * 連番のシリアル番号でラベルを作成してラスターラインを読み出すまでを、1ラベルずつ計測します。
+     */
+    private static void runBarcode(final Symbology symbology, boolean quick,
+            Map<String, Measurement> results) throws Exception {
+        final MonoBitmap work = new MonoBitmap(1, 1);
+        final byte[] line = new byte[TapeGeometry.BYTES_PER_LINE];
+        final long lineCount = symbology.createLabel(serial(symbology, 0), BARCODE_TAPE, work)
+                .getLineCount();
+        run("barcode/" + symbology.getKeyPrefix(), lineCount, "Mline/s",
+                new Measurement.Operation() {
+                    private int serial_ = 0;
+
+                    @Override
+                    public long run() throws IOException {
+                        final BarcodeLabel label = symbology.createLabel(
+                                serial(symbology, serial_++ % 1000000), BARCODE_TAPE, work);
+                        final RasterLineReader reader = label.openReader();
+                        long sum = 0;
+                        try {
+                            while (reader.readLine(line)) {
+                                sum += line[TapeGeometry.BYTES_PER_LINE / 2];
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                        return sum;
+                    }
+                }, quick, results);
+    }
+
+    /**
+     * {@code n} 番目のシリアル番号を返します。 どの番号もエンコード後の長さは同じです。
+     */
+    private static String serial(Symbology symbology, int n) {
+        final String digits = String.format(Locale.US, "%06d", n);
+        switch (symbology) {
+            case EAN13:
+                return "490123" + digits;
+            case QR_CODE:
+                return "https://example.com/asset/SN-" + digits;
+            default:
+                return "SN-" + digits;
+        }
+    }
+
+    private static void run(String name, long itemsPerOp, String unit,
+            Measurement.Operation op, boolean quick, Map<String, Measurement> results)
+            throws Exception {
+        final Measurement m = Measurement.measure(op, quick);
+        results.put(name, m);
+        System.out.println(String.format(Locale.US, "%-40s %12.1f %8.2f %-7s %12.0f %12.1f",
+                name, m.getNanosPerOp() / 1000.0, itemsPerOp * 1000.0 / m.getNanosPerOp(),
+                unit, m.getBytesPerOp(), m.getAllocationMegabytesPerSecond()));
+    }
+
+    /**
+     * 結果を「名前 TAB ナノ秒/回 TAB バイト/回」の行で保存します。
+     */
+    private static void save(Map<String, Measurement> results, File file) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            for (Map.Entry<String, Measurement> e : results.entrySet()) {
+                writer.println(String.format(Locale.US, "%s\t%.1f\t%.1f", e.getKey(), e
+                        .getValue().getNanosPerOp(), e.getValue().getBytesPerOp()));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * {@link #save(Map, File)} で保存した結果から、名前ごとのナノ秒/回を読み込みます。
+     */
+    private static Map<String, Double> load(File file) throws IOException {
+        final Map<String, Double> nanos = new LinkedHashMap<String, Double>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                if (fields.length < 2) {
+                    continue;
+                }
+                nanos.put(fields[0], Double.valueOf(fields[1]));
+            }
+        } finally {
+            reader.close();
+        }
+        return nanos;
+    }
+
+    /**
+     * 基準より {@code tolerance} % を超えて遅くなった項目を表示します。
+     *
+     * @return 遅くなった項目がなければ {@code true}。
+     */
+    private static boolean compare(Map<String, Double> baseline,
+            Map<String, Measurement> results, double tolerance) {
+        boolean ok = true;
+        for (Map.Entry<String, Measurement> e : results.entrySet()) {
+            final Double base = baseline.get(e.getKey());
+            if (base == null) {
+                continue;
+            }
+            final double change = (e.getValue().getNanosPerOp() / base - 1.0) * 100.0;
+            if (tolerance < change) {
+                System.out.println(String.format(Locale.US, "REGRESSION %-40s %+.1f%%", e
+                        .getKey(), change));
+                ok = false;
+            }
+        }
+        System.out.println(ok ? "no regression against baseline." : "regression detected.");
+        return ok;
+    }
+
+    /**
+     * 配列に用意した画素を返す {@link RasterSource} です。
+     */
+    private static final class ArraySource implements RasterSource {
+        private final int[] argb_;
+
+        private final int width_;
+
+        private final int height_;
+
+        ArraySource(int[] argb, int width, int height) {
+            argb_ = argb;
+            width_ = width;
+            height_ = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width_;
+        }
+
+        @Override
+        public int getHeight() {
+            return height_;
+        }
+
+        @Override
+        public void readWindow(int x, int count, int[] argb) {
+            for (int y = 0; y < height_; y++) {
+                System.arraycopy(argb_, y * width_ + x, argb, y * count, count);
+            }
+        }
+    }
+
+    /**
+     * ラインの本数だけを数える {@link RasterSink} です。
+     */
+    private static final class CountingSink implements RasterSink {
+        long lines_ = 0;
+
+        @Override
+        public void writeLine(byte[] data, int offset) {
+            lines_++;
+        }
+    }
+
+    /**
+     * 書き込まれたデータを捨てる {@link TransferOutput} です。
+     */
+    private static final class DiscardingOutput implements TransferOutput {
+        private final ByteBuffer buffer_ = ByteBuffer.allocate(16 * 1024);
+
+        @Override
+        public ByteBuffer lease() {
+            buffer_.clear();
+            return buffer_;
+        }
+
+        @Override
+        public void commit(ByteBuffer buffer) {
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+        }
+
+        @Override
+        public void drain() {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.zakky.rl700s.bench;
+
+import java.util.Random;
+
+/**
+ * ベンチマークに使う画像の内容です。
+ * <p>
+ * 画像はラスターライン方向 (x) がラベルの長さ、 y がテープの幅方向で、 ARGB の行優先で並べます。
+ * 同じ引数からは常に同じ画像を作ります。
+ * </p>
+ */
+enum ContentProfile {
+    /**
+     * 真っ白な画像。 すべてのラインが空ラインになります。
+     */
+    BLANK {
+        @Override
+        void fill(int[] argb, int width, int height) {
+            for (int i = 0; i < argb.length; i++) {
+                argb[i] = WHITE;
+            }
+        }
+    },
+
+    /**
+     * 白地に黒い線で文字のような図形を並べた画像。 空ラインと同じ内容のラインが多く含まれます。
+     */
+    TEXT {
+        @Override
+        void fill(int[] argb, int width, int height) {
+            BLANK.fill(argb, width, height);
+            final Random random = new Random(SEED);
+            final int rowHeight = Math.max(GLYPH_SIZE, height / 3);
+            for (int top = GLYPH_SIZE / 4; top + GLYPH_SIZE <= height; top += rowHeight) {
+                for (int left = GLYPH_SIZE / 2; left + GLYPH_SIZE <= width; left += GLYPH_SIZE) {
+                    if (random.nextInt(6) == 0) {
+                        // 単語の区切り
+                        continue;
+                    }
+                    drawGlyph(argb, width, left, top, random.nextInt(1 << 5));
+                }
+            }
+        }
+    },
+
+    /**
+     * なめらかに変化する濃淡にノイズを加えた、写真のような画像。 空ラインや同じ内容のラインはほとんどありません。
+     */
+    PHOTO {
+        @Override
+        void fill(int[] argb, int width, int height) {
+            final Random random = new Random(SEED);
+            int index = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final double wave = Math.sin(x / 37.0) * Math.cos(y / 23.0);
+                    final int v = 128 + (int) (70 * wave) + (x * 40 / width) - 20
+                            + random.nextInt(33) - 16;
+                    final int r = clamp(v + 12);
+                    final int g = clamp(v);
+                    final int b = clamp(v - 12);
+                    argb[index++] = 0xff000000 | (r << 16) | (g << 8) | b;
+                }
+            }
+        }
+    };
+
+    private static final int WHITE = 0xffffffff;
+
+    private static final int BLACK = 0xff000000;
+
+    private static final long SEED = 0x5eedL;
+
+    /**
+     * 文字1つ分の正方形の一辺 (ピクセル)。
+     */
+    private static final int GLYPH_SIZE = 24;
+
+    private static final int STROKE = 3;
+
+    /**
+     * 画像を作成します。
+     *
+     * @param width 幅 (ラスターラインの本数)。
+     * @param height 高さ (テープの幅方向のピクセル数)。
+     * @return 行優先の ARGB 画素。
+     */
+    int[] create(int width, int height) {
+        final int[] argb = new int[width * height];
+        fill(argb, width, height);
+        return argb;
+    }
+
+    abstract void fill(int[] argb, int width, int height);
+
+    /**
+     * {@code strokes} の各ビットに対応する線 (左右の縦線、上中下の横線) で図形を描きます。
+     */
+    private static void drawGlyph(int[] argb, int width, int left, int top, int strokes) {
+        final int inner = GLYPH_SIZE - STROKE * 2;
+        if ((strokes & 1) != 0) {
+            fillRect(argb, width, left, top, STROKE, inner);
+        }
+        if ((strokes & 2) != 0) {
+            fillRect(argb, width, left + inner - STROKE, top, STROKE, inner);
+        }
+        if ((strokes & 4) != 0) {
+            fillRect(argb, width, left, top, inner, STROKE);
+        }
+        if ((strokes & 8) != 0) {
+            fillRect(argb, width, left, top + (inner - STROKE) / 2, inner, STROKE);
+        }
+        if ((strokes & 16) != 0) {
+            fillRect(argb, width, left, top + inner - STROKE, inner, STROKE);
+        }
+    }
+
+    private static void fillRect(int[] argb, int width, int left, int top, int w, int h) {
+        for (int y = top; y < top + h; y++) {
+            for (int x = left; x < left + w; x++) {
+                argb[y * width + x] = BLACK;
+            }
+        }
+    }
+
+    private static int clamp(int v) {
+        return (v < 0) ? 0 : (255 < v) ? 255 : v;
+    }
+}
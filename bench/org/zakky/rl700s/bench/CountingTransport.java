@@ -0,0 +1,73 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.transport.PrinterTransport;
+
+/**
+ * 実際には何も送信せず、転送回数とバイト数だけを数える {@link PrinterTransport} です。
+ * <p>
+ * 1回の転送ごとの固定コストと転送速度から、実機で要するであろう時間も見積もります。
+ * </p>
+ */
+final class CountingTransport implements PrinterTransport {
+
+    private final int maxTransferSize_;
+
+    private final long perTransferNanos_;
+
+    private final long bytesPerSecond_;
+
+    private long bytes_ = 0;
+
+    private int transfers_ = 0;
+
+    /**
+     * @param maxTransferSize 1回の転送の最大バイト数。
+     * @param perTransferNanos 1回の転送ごとにかかる固定の時間(ナノ秒)。
+     * @param bytesPerSecond 転送速度(バイト/秒)。
+     */
+    CountingTransport(int maxTransferSize, long perTransferNanos, long bytesPerSecond) {
+        maxTransferSize_ = maxTransferSize;
+        perTransferNanos_ = perTransferNanos;
+        bytesPerSecond_ = bytesPerSecond;
+    }
+
+    @Override
+    public int getMaxTransferSize() {
+        return maxTransferSize_;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length, int timeoutMillis) {
+        if (maxTransferSize_ < length) {
+            return -1;
+        }
+        bytes_ += length;
+        transfers_++;
+        return length;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length, int timeoutMillis) {
+        return -1;
+    }
+
+    long getBytes() {
+        return bytes_;
+    }
+
+    int getTransfers() {
+        return transfers_;
+    }
+
+    /**
+     * これまでの転送に実機で要するであろう時間(ナノ秒)を返します。
+     */
+    long getEstimatedWireNanos() {
+        return transfers_ * perTransferNanos_ + bytes_ * 1000000000L / bytesPerSecond_;
+    }
+
+    void reset() {
+        bytes_ = 0;
+        transfers_ = 0;
+    }
+}
@@ -0,0 +1,88 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.transport.AsyncPrinterTransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * メモリ上の偽デバイスに転送する {@link AsyncPrinterTransport} です。
+ * <p>
+ * デバイス側のスレッドが、開始された転送を1つずつ、転送ごとの固定時間とバイト数に比例した時間をかけて完了させます。
+ * </p>
+ */
+final class FakeAsyncTransport implements AsyncPrinterTransport {
+
+    private final int maxTransferSize_;
+
+    private final int maxInFlight_;
+
+    private final BlockingQueue<ByteBuffer> queued_ = new LinkedBlockingQueue<ByteBuffer>();
+
+    private final BlockingQueue<ByteBuffer> completed_ = new LinkedBlockingQueue<ByteBuffer>();
+
+    private final Thread device_;
+
+    private volatile long bytes_ = 0;
+
+    FakeAsyncTransport(int maxTransferSize, int maxInFlight, final long perTransferNanos,
+            final long bytesPerSecond) {
+        maxTransferSize_ = maxTransferSize;
+        maxInFlight_ = maxInFlight;
+        device_ = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final ByteBuffer buffer = queued_.take();
+                        final long nanos = perTransferNanos + buffer.remaining() * 1000000000L
+                                / bytesPerSecond;
+                        TimeUnit.NANOSECONDS.sleep(nanos);
+                        bytes_ += buffer.remaining();
+                        completed_.add(buffer);
+                    }
+                } catch (InterruptedException e) {
+                    // 終了
+                }
+            }
+        }, "FakeDevice");
+        device_.setDaemon(true);
+        device_.start();
+    }
+
+    @Override
+    public int getMaxTransferSize() {
+        return maxTransferSize_;
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return maxInFlight_;
+    }
+
+    @Override
+    public boolean queue(ByteBuffer buffer) {
+        return queued_.offer(buffer);
+    }
+
+    @Override
+    public ByteBuffer awaitCompletion() throws IOException {
+        try {
+            return completed_.take();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted.");
+        }
+    }
+
+    @Override
+    public void close() {
+        device_.interrupt();
+    }
+
+    long getBytes() {
+        return bytes_;
+    }
+}
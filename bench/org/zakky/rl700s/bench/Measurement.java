@@ -0,0 +1,129 @@
+package org.zakky.rl700s.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * 1つの処理を繰り返し実行して、1回あたりの時間と、現在のスレッドが確保したバイト数を測ります。
+ * <p>
+ * ウォームアップの後、一定時間以上かかる回数を1ラウンドとして数ラウンド実行し、もっとも速かったラウンドの時間を採用します。
+ * 確保したバイト数は HotSpot 系の JVM でのみ測定でき、それ以外の JVM では {@code -1} になります。
+ * </p>
+ */
+final class Measurement {
+
+    /**
+     * 計測する処理です。
+     */
+    interface Operation {
+        /**
+         * 処理を1回実行します。
+         *
+         * @return 最適化で処理が取り除かれないように、結果から計算した任意の値。
+         * @throws Exception 処理に失敗した場合。
+         */
+        long run() throws Exception;
+    }
+
+    private static final long WARMUP_NANOS = 300 * 1000000L;
+
+    private static final long ROUND_NANOS = 200 * 1000000L;
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * 結果を捨てずに残しておくための変数。
+     */
+    private static volatile long sink_;
+
+    private final double nanosPerOp_;
+
+    private final double bytesPerOp_;
+
+    private Measurement(double nanosPerOp, double bytesPerOp) {
+        nanosPerOp_ = nanosPerOp;
+        bytesPerOp_ = bytesPerOp;
+    }
+
+    /**
+     * {@code op} を計測します。
+     *
+     * @param op 計測する処理。
+     * @param quick 時間を短くして、大まかな値だけを求める場合は {@code true}。
+     * @return 計測結果。
+     * @throws Exception {@code op} が失敗した場合。
+     */
+    static Measurement measure(Operation op, boolean quick) throws Exception {
+        final int divisor = quick ? 10 : 1;
+        long sink = 0;
+
+        // ウォームアップしながら、1ラウンドの回数を決める
+        int ops = 1;
+        final long warmupEnd = System.nanoTime() + WARMUP_NANOS / divisor;
+        long elapsed;
+        do {
+            final long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += op.run();
+            }
+            elapsed = System.nanoTime() - start;
+            if (elapsed < ROUND_NANOS / divisor) {
+                ops *= 2;
+            }
+        } while (System.nanoTime() < warmupEnd || elapsed < ROUND_NANOS / divisor / 2);
+
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        final long before = allocatedBytes(mx);
+        long best = Long.MAX_VALUE;
+        final int rounds = quick ? 2 : ROUNDS;
+        for (int r = 0; r < rounds; r++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += op.run();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        final long after = allocatedBytes(mx);
+        sink_ = sink;
+
+        final double bytesPerOp = (before < 0 || after < 0) ? -1 : (double) (after - before)
+                / ((long) ops * rounds);
+        return new Measurement((double) best / ops, bytesPerOp);
+    }
+
+    double getNanosPerOp() {
+        return nanosPerOp_;
+    }
+
+    /**
+     * 1回あたりに確保したバイト数を返します。
+     *
+     * @return バイト数。 測定できなかった場合は負の値。
+     */
+    double getBytesPerOp() {
+        return bytesPerOp_;
+    }
+
+    /**
+     * 1秒あたりに確保したメガバイト数を返します。
+     *
+     * @return メガバイト数。 測定できなかった場合は負の値。
+     */
+    double getAllocationMegabytesPerSecond() {
+        if (bytesPerOp_ < 0) {
+            return -1;
+        }
+        return bytesPerOp_ / nanosPerOp_ * 1e9 / (1024 * 1024);
+    }
+
+    private static long allocatedBytes(ThreadMXBean mx) {
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) mx;
+        if (!hotspot.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
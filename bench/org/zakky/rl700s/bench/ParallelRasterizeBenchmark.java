@@ -0,0 +1,102 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.RasterBuffer;
+import org.zakky.rl700s.raster.Rasterizer;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 長いラベルのラスタライズを、逐次処理と並列処理で比較するベンチマークです。
+ * <p>
+ * 高さ {@value #HEIGHT} 、長さ {@value #WIDTH} ラインの画像を、スレッド数を変えてラスタライズし、
+ * 1枚あたりの時間と、逐次処理と同じ結果になったかどうかを表示します。 速度の向上は実行環境のコア数に依存します。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.ParallelRasterizeBenchmark
+ * </pre>
+ */
+public final class ParallelRasterizeBenchmark {
+
+    private static final int WIDTH = 8192;
+
+    private static final int HEIGHT = 128;
+
+    private static final int[] THREAD_COUNTS = {
+            1, 2, 4, 8
+    };
+
+    private static final int WARMUP_ITERATIONS = 20;
+
+    private static final int MEASURE_ITERATIONS = 50;
+
+    private ParallelRasterizeBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        final int[] pixels = createImage(WIDTH, HEIGHT);
+
+        System.out.println("image: " + WIDTH + "x" + HEIGHT + ", cpus: "
+                + Runtime.getRuntime().availableProcessors() + ", iterations: "
+                + MEASURE_ITERATIONS);
+        for (DitherMode mode : DitherMode.values()) {
+            final Rasterizer rasterizer = new Rasterizer();
+            rasterizer.setDitherMode(mode);
+            final RasterBuffer expected = new RasterBuffer();
+            final double sequential = measure(rasterizer, pixels, expected);
+            System.out.println(String.format("%-16s sequential %10.1f us/image", mode,
+                    sequential));
+
+            for (int threads : THREAD_COUNTS) {
+                final ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    rasterizer.setExecutor(executor, threads);
+                    final RasterBuffer actual = new RasterBuffer();
+                    final double parallel = measure(rasterizer, pixels, actual);
+                    final boolean same = expected.getLineCount() == actual.getLineCount()
+                            && Arrays.equals(expected.getData(), actual.getData());
+                    System.out.println(String.format(
+                            "%-16s %2d threads %10.1f us/image  x%.2f  %s", mode, threads,
+                            parallel, sequential / parallel, same ? "same" : "DIFFERENT"));
+                } finally {
+                    rasterizer.setExecutor(null, 1);
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    private static double measure(Rasterizer rasterizer, int[] pixels, RasterBuffer out) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            rasterizer.rasterize(pixels, WIDTH, HEIGHT, out);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            rasterizer.rasterize(pixels, WIDTH, HEIGHT, out);
+        }
+        return (System.nanoTime() - start) / 1000.0 / MEASURE_ITERATIONS;
+    }
+
+    /**
+     * グラデーションにノイズを重ねた画像を作成します。 誤差が帯の境界を越えて伝わるように、中間調を多く含めます。
+     */
+    private static int[] createImage(int width, int height) {
+        final int[] pixels = new int[width * height];
+        int seed = 0x12345678;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                seed = seed * 1103515245 + 12345;
+                final int noise = (seed >>> 24) - 128;
+                final int v = Math.max(0, Math.min(255, (x % 512) * 255 / 511 + noise / 4));
+                pixels[y * width + x] = 0xff000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+        return pixels;
+    }
+}
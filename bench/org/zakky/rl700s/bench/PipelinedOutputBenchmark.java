@@ -0,0 +1,106 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.transport.BlockingOutput;
+import org.zakky.rl700s.transport.PipelinedOutput;
+import org.zakky.rl700s.transport.PrinterTransport;
+import org.zakky.rl700s.transport.TransferOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 転送の完了を待ってから次のデータを作る場合と、 {@link PipelinedOutput}
+ * で転送とデータ作成を重ねる場合を比較するベンチマークです。
+ * <p>
+ * 16 KiB の転送1回ごとに、データ作成に約 2 ms、 USB 転送に約 2 ms かかるものとして計測します。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.PipelinedOutputBenchmark
+ * </pre>
+ */
+public final class PipelinedOutputBenchmark {
+
+    private static final int TRANSFER_SIZE = 16 * 1024;
+
+    private static final int TRANSFERS = 100;
+
+    private static final long ENCODE_NANOS = 2000000L;
+
+    private static final long PER_TRANSFER_NANOS = 1000000L;
+
+    private static final long BYTES_PER_SECOND = 16L * 1024 * 1000;
+
+    private PipelinedOutputBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final long syncElapsed = run(new BlockingOutput(new PrinterTransport() {
+            @Override
+            public int getMaxTransferSize() {
+                return TRANSFER_SIZE;
+            }
+
+            @Override
+            public int write(byte[] data, int offset, int length, int timeoutMillis) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(PER_TRANSFER_NANOS + length * 1000000000L
+                            / BYTES_PER_SECOND);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+                return length;
+            }
+
+            @Override
+            public int read(byte[] data, int offset, int length, int timeoutMillis) {
+                return -1;
+            }
+        }, 1000));
+        print("blocking", syncElapsed);
+
+        for (int window : new int[] {
+                1, 2, 4, 8
+        }) {
+            final FakeAsyncTransport device = new FakeAsyncTransport(TRANSFER_SIZE, window,
+                    PER_TRANSFER_NANOS, BYTES_PER_SECOND);
+            final PipelinedOutput output = new PipelinedOutput(device);
+            final long elapsed = run(output);
+            output.close();
+            print("window " + window, elapsed);
+        }
+    }
+
+    private static void print(String name, long elapsed) {
+        System.out.println(String.format("%-10s %8.1f ms %8.0f KiB/s", name, elapsed / 1e6,
+                (double) TRANSFERS * TRANSFER_SIZE / 1024 / (elapsed / 1e9)));
+    }
+
+    private static long run(TransferOutput output) throws IOException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < TRANSFERS; i++) {
+            // 借りたバッファに直接データを作る
+            final ByteBuffer buffer = output.lease();
+            encode(buffer.array());
+            buffer.position(TRANSFER_SIZE);
+            output.commit(buffer);
+        }
+        output.drain();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * データ作成にかかる CPU 時間を模擬します。
+     */
+    private static void encode(byte[] data) {
+        final long until = System.nanoTime() + ENCODE_NANOS;
+        int i = 0;
+        while (System.nanoTime() < until) {
+            data[i++ % data.length]++;
+        }
+    }
+}
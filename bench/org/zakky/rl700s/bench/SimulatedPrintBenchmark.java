@@ -0,0 +1,265 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+import org.zakky.rl700s.job.MemoryRasterJob;
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.print.PreflightException;
+import org.zakky.rl700s.print.PrintSession;
+import org.zakky.rl700s.print.PrintSettings;
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.RasterBuffer;
+import org.zakky.rl700s.raster.Rasterizer;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.status.StatusListener;
+import org.zakky.rl700s.status.StatusMonitor;
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.PipelinedOutput;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link SimulatedPrinter} を相手に、 {@link PrintSession} から USB 転送までをそのまま動かすベンチマーク兼耐久試験です。
+ * <p>
+ * 24mm テープ用の文字ラベルを、 {@value #CHAIN_LENGTH} 枚ずつチェーン印刷しながら指定の枚数だけ印刷し、1分あたりの枚数と
+ * {@link PipelineMetrics} の集計結果を表示します。 続けて、カバーオープンのエラーとテープ幅の違いを起こし、
+ * 印刷前のステータス確認でジョブが止まることを確かめます。 最後に、チェーン印刷の途中で設定を変えた場合、
+ * ステータス確認で止まった場合、 {@link PrintSession#finishChain()} を呼んだ場合に、排出していないラベルが
+ * 残らないことを確かめます。 プリンターが受け取ったラベルの枚数やライン数が合わない場合、排出されないラベルがある場合、
+ * 不正なコマンドを受け取った場合は、終了コード 1 で終了します。
+ * </p>
+ * <p>
+ * {@code --realistic} を指定すると、フルスピード USB (1 ms の固定時間とパケットあたり 52 us) と、毎秒
+ * {@value #REALISTIC_LINES_PER_SECOND} ラインの印刷速度を模倣します。 指定しなければ待ち時間なしで実行します。 ラベル1枚の印刷に
+ * 1.5秒ほどかかるので、 {@code --jobs} で枚数を減らしてください。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.SimulatedPrintBenchmark [--jobs N]
+ *         [--realistic]
+ * </pre>
+ */
+public final class SimulatedPrintBenchmark {
+
+    private static final int DEFAULT_JOBS = 500;
+
+    private static final int CHAIN_LENGTH = 10;
+
+    private static final int LABEL_LENGTH = 600;
+
+    private static final int OUTPUT_WINDOW = 4;
+
+    /**
+     * 実機の印刷速度 (30 mm/s、 360 dpi)。
+     */
+    private static final int REALISTIC_LINES_PER_SECOND = 425;
+
+    private static final long STATUS_WAIT_MILLIS = 10 * 1000L;
+
+    private SimulatedPrintBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int jobs = DEFAULT_JOBS;
+        boolean realistic = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--jobs".equals(args[i]) && i + 1 < args.length) {
+                jobs = Integer.parseInt(args[++i]);
+            } else if ("--realistic".equals(args[i])) {
+                realistic = true;
+            } else {
+                System.err.println("usage: SimulatedPrintBenchmark [--jobs N] [--realistic]");
+                System.exit(2);
+            }
+        }
+
+        final long printMillisPerLabel = realistic ? LABEL_LENGTH * 1000L
+                / REALISTIC_LINES_PER_SECOND : 0;
+        final TapeGeometry tape = TapeGeometry.TAPE_24MM;
+        final PrintSettings settings = new PrintSettings(PrintSettings.DEFAULT.getPaper(), tape,
+                PrintSettings.DEFAULT.getMargin(), false);
+        final SimulatedPrinter printer = new SimulatedPrinter(settings.getPaper(), tape);
+        if (realistic) {
+            printer.setTransferLatency(1000000L, 52000L);
+            printer.setPrintSpeed(REALISTIC_LINES_PER_SECOND);
+        }
+
+        final CountingListener listener = new CountingListener();
+        final StatusMonitor monitor = new StatusMonitor(printer.getTransport(), listener,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        monitor.start();
+        final PipelineMetrics metrics = new PipelineMetrics();
+        final PipelinedOutput output = new PipelinedOutput(printer
+                .newAsyncTransport(OUTPUT_WINDOW));
+        output.setMetrics(metrics);
+        final PrintSession session = new PrintSession(new BatchingSender(output), monitor);
+        session.setMetrics(metrics);
+
+        final MemoryRasterJob job = createJob(tape);
+        boolean ok = true;
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < jobs; i++) {
+                final boolean last = (i + 1) % CHAIN_LENGTH == 0 || i + 1 == jobs;
+                session.print(job, settings, last);
+                if (last) {
+                    output.drain();
+                }
+            }
+            ok &= listener.awaitPrintFinished(jobs, jobs * printMillisPerLabel);
+            final long elapsed = System.nanoTime() - start;
+
+            System.out.println(String.format("%d labels in %.1f ms: %.1f labels/min", jobs,
+                    elapsed / 1e6, jobs * 60e9 / elapsed));
+            System.out.print(metrics);
+            System.out.println("printer: " + printer.getPagesPrinted() + " pages, "
+                    + printer.getLinesPrinted() + " lines, " + printer.getBytesReceived()
+                    + " bytes in " + printer.getTransferCount() + " transfers, "
+                    + printer.getClippedLineCount() + " clipped lines");
+
+            ok &= check("pages printed", jobs, printer.getPagesPrinted());
+            ok &= check("lines printed", (long) jobs * session.getLastJobSummary()
+                    .getLineCount(), printer.getLinesPrinted());
+            ok &= check("clipped lines", 0, printer.getClippedLineCount());
+
+            printer.injectError(SimulatedPrinter.ERROR_COVER_OPEN);
+            ok &= expectRejected(session, job, settings, PreflightException.Reason.PRINTER_ERROR);
+            printer.clearErrors();
+
+            printer.setMedia(settings.getPaper(), TapeGeometry.TAPE_12MM);
+            ok &= expectRejected(session, job, settings,
+                    PreflightException.Reason.MEDIA_WIDTH_MISMATCH);
+            printer.setMedia(settings.getPaper(), tape);
+
+            session.print(job, settings, true);
+            output.drain();
+            ok &= listener.awaitPrintFinished(jobs + 1, printMillisPerLabel);
+            ok &= check("pages printed after recovery", jobs + 1, printer.getPagesPrinted());
+
+            // チェーンの途中で設定を変える
+            session.print(job, settings, false);
+            session.print(job, new PrintSettings(settings.getPaper(), tape, settings
+                    .getMargin(), true), true);
+            // チェーンの途中でステータス確認に失敗する
+            session.print(job, settings, false);
+            printer.setMedia(settings.getPaper(), TapeGeometry.TAPE_12MM);
+            ok &= expectRejected(session, job, settings,
+                    PreflightException.Reason.MEDIA_WIDTH_MISMATCH);
+            printer.setMedia(settings.getPaper(), tape);
+            // 続けるラベルがなくなる
+            session.print(job, settings, false);
+            session.finishChain();
+            output.drain();
+            ok &= listener.awaitPrintFinished(jobs + 5, 4 * printMillisPerLabel);
+            ok &= check("pages printed after chain breaks", jobs + 5, printer.getPagesPrinted());
+            ok &= check("labels ejected", printer.getPagesPrinted(), printer
+                    .getEjectedLabelCount());
+            ok &= check("labels lost", 0, printer.getLostLabelCount());
+            ok &= check("protocol errors", 0, printer.getProtocolErrorCount());
+            if (printer.getLastProtocolError() != null) {
+                System.out.println("last protocol error: " + printer.getLastProtocolError());
+            }
+        } finally {
+            monitor.stop();
+            output.close();
+            printer.close();
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * テープの印刷範囲いっぱいの文字ラベルを作成します。
+     */
+    private static MemoryRasterJob createJob(TapeGeometry tape) {
+        final int[] argb = ContentProfile.TEXT.create(LABEL_LENGTH, tape.getPins());
+        final Rasterizer rasterizer = new Rasterizer();
+        rasterizer.setDitherMode(DitherMode.THRESHOLD);
+        final RasterBuffer buffer = new RasterBuffer();
+        rasterizer.rasterize(argb, LABEL_LENGTH, tape.getPins(), buffer);
+        return new MemoryRasterJob(buffer);
+    }
+
+    private static boolean expectRejected(PrintSession session, MemoryRasterJob job,
+            PrintSettings settings, PreflightException.Reason expected) throws IOException {
+        try {
+            session.print(job, settings, true);
+        } catch (PreflightException e) {
+            return check("preflight rejection", expected, e.getReason());
+        }
+        return check("preflight rejection", expected, null);
+    }
+
+    private static boolean check(String name, long expected, long actual) {
+        return check(name, Long.valueOf(expected), Long.valueOf(actual));
+    }
+
+    private static boolean check(String name, Object expected, Object actual) {
+        final boolean ok = expected.equals(actual);
+        if (!ok) {
+            System.out.println("MISMATCH " + name + ": expected " + expected + ", but was "
+                    + actual);
+        }
+        return ok;
+    }
+
+    /**
+     * 印刷終了のステータスを数える {@link StatusListener} です。
+     */
+    private static final class CountingListener implements StatusListener {
+        private final AtomicInteger printFinished_ = new AtomicInteger();
+
+        /**
+         * 印刷終了のステータスを {@code count} 個受け取るまで待ちます。
+         *
+         * @param printMillis 印刷にかかる見込みの時間 (ミリ秒)。 これに {@value #STATUS_WAIT_MILLIS}
+         *            ミリ秒を加えた時間まで待ちます。
+         */
+        boolean awaitPrintFinished(int count, long printMillis) throws InterruptedException {
+            final long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(printMillis + STATUS_WAIT_MILLIS);
+            while (printFinished_.get() < count) {
+                if (deadline <= System.nanoTime()) {
+                    return check("print finished statuses", count, printFinished_.get());
+                }
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            return true;
+        }
+
+        @Override
+        public void onStatusReply(RL700SStatus status) {
+        }
+
+        @Override
+        public void onPrintFinished(RL700SStatus status) {
+            printFinished_.incrementAndGet();
+        }
+
+        @Override
+        public void onError(RL700SStatus status, EnumSet<ErrorInfo> errors) {
+        }
+
+        @Override
+        public void onNotification(RL700SStatus status) {
+        }
+
+        @Override
+        public void onPhaseChange(RL700SStatus status) {
+        }
+    }
+}
@@ -0,0 +1,1032 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.comm.RL700SCommands.Paper;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.transport.AsyncPrinterTransport;
+import org.zakky.rl700s.transport.BlockingOutput;
+import org.zakky.rl700s.transport.PipelinedOutput;
+import org.zakky.rl700s.transport.PrinterTransport;
+import org.zakky.rl700s.transport.TransferTimeoutException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RL-700S の動作を真似る、プロセス内のプリンターです。
+ * <p>
+ * {@link #getTransport()} と {@link #newAsyncTransport(int)} が返す転送経路は、実機の USB の代わりに
+ * {@link org.zakky.rl700s.status.StatusMonitor}、 {@link BlockingOutput}、 {@link PipelinedOutput}
+ * に渡すことができます。
+ * 受信したコマンド列は転送の区切りに関係なく解釈し、次のことを確認します。
+ * </p>
+ * <ul>
+ * <li>コマンドが既知のもので、引数が揃っていること。</li>
+ * <li>ラスターラインがラスターモードで送られ、展開後の長さが {@link TapeGeometry#BYTES_PER_LINE} 以下であること。
+ * TIFF (PackBits) のデータが正しいこと。</li>
+ * <li>装着されているテープの印刷範囲の外にドットがないこと (範囲外のドットはエラーにせず、 {@link #getClippedLineCount()}
+ * で数えます)。</li>
+ * </ul>
+ * <p>
+ * 不正なコマンドを受信すると {@link #getProtocolErrorCount()} を増やし、通信エラーのステータスを送って、次の初期化コマンドまで受信データを捨てます。
+ * ステータスリクエストには応答を返し、印刷コマンドを受信するとフェーズ変更 (印刷中)、印刷終了、フェーズ変更 (受信待ち)
+ * の順にステータスを送ります。 印刷中に受信したラベルは、前のラベルの後に続けて印刷します。
+ * </p>
+ * <p>
+ * 転送にかかる時間は、転送ごとの固定時間と、 {@value #MAX_PACKET_SIZE} バイトのパケットごとの時間の和で模倣します。
+ * 印刷にかかる時間はラインの本数に比例します。 既定ではどちらも 0 で、すぐに完了します。
+ * 1回に {@value #MAX_TRANSFER_SIZE} バイトを超える転送は、古い Android の USB ホスト実装と同じく失敗します。
+ * </p>
+ * <p>
+ * ベンチマーク専用で、アプリには含めません。 {@link org.zakky.rl700s.PrintService} は実機の USB デバイスにしか接続しないので、
+ * サービスを通した印刷はこのクラスでは試せません。 試せるのは {@link org.zakky.rl700s.print.PrintSession} から下の層です。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフです。
+ * </p>
+ */
+public final class SimulatedPrinter {
+
+    /**
+     * ステータス1個のバイト数。
+     */
+    public static final int STATUS_SIZE = 32;
+
+    /**
+     * 1回の転送で送信できる最大のバイト数。
+     */
+    public static final int MAX_TRANSFER_SIZE = 16 * 1024;
+
+    /**
+     * バルクエンドポイントの最大パケットサイズ。
+     */
+    public static final int MAX_PACKET_SIZE = 64;
+
+    /**
+     * {@link #newAsyncTransport(int)} の転送のタイムアウト(ミリ秒)。
+     */
+    public static final int DEFAULT_ASYNC_TIMEOUT_MILLIS = 5 * 1000;
+
+    /*
+     * エラー情報のビット。 下位8ビットがステータスのエラー情報1、上位8ビットがエラー情報2です。
+     */
+
+    /** エラー: テープがない */
+    public static final int ERROR_NO_MEDIA = 0x0001;
+
+    /** エラー: テープエンド */
+    public static final int ERROR_END_OF_MEDIA = 0x0002;
+
+    /** エラー: カッタージャム */
+    public static final int ERROR_CUTTER_JAM = 0x0004;
+
+    /** エラー: 通信エラー */
+    public static final int ERROR_COMMUNICATION = 0x0400;
+
+    /** エラー: カバーオープン */
+    public static final int ERROR_COVER_OPEN = 0x1000;
+
+    private static final int STATUS_TYPE_REPLY = 0x00;
+
+    private static final int STATUS_TYPE_PRINT_FINISHED = 0x01;
+
+    private static final int STATUS_TYPE_ERROR = 0x02;
+
+    private static final int STATUS_TYPE_PHASE_CHANGE = 0x06;
+
+    private static final int PHASE_EDITING = 0x00;
+
+    private static final int PHASE_PRINTING = 0x01;
+
+    private static final int ESC = 0x1b;
+
+    private static final int COMMAND_MODE_RASTER = 0x01;
+
+    private static final int COMPRESSION_NONE = 0x00;
+
+    private static final int COMPRESSION_TIFF = 0x02;
+
+    private final Object lock_ = new Object();
+
+    private Paper paper_;
+
+    private TapeGeometry tape_;
+
+    /**
+     * 利用者が設定したエラー。
+     */
+    private int errors_ = 0;
+
+    private long perTransferNanos_ = 0;
+
+    private long perPacketNanos_ = 0;
+
+    private int linesPerSecond_ = 0;
+
+    /**
+     * 誤動作を模倣して、転送を完了させないかどうか。
+     */
+    private boolean stalled_ = false;
+
+    private boolean closed_ = false;
+
+    /**
+     * 受信したが、まだ解釈していないデータ。
+     */
+    private byte[] pending_ = new byte[MAX_TRANSFER_SIZE];
+
+    private int pendingCount_ = 0;
+
+    /**
+     * 不正なコマンドの後、初期化コマンドを探しているかどうか。
+     */
+    private boolean resyncing_ = false;
+
+    private int commandMode_ = -1;
+
+    private int compression_ = COMPRESSION_NONE;
+
+    /**
+     * 展開したラスターライン。
+     */
+    private final byte[] line_ = new byte[TapeGeometry.BYTES_PER_LINE];
+
+    /**
+     * 印刷コマンドを待っているラベルのライン数。
+     */
+    private int pageLines_ = 0;
+
+    /**
+     * 排出せずに印刷して、まだ排出していないラベルの枚数。
+     */
+    private int unejectedLabels_ = 0;
+
+    /**
+     * 印刷中のラベルをすべて印刷し終える時刻 ({@link System#nanoTime()})。
+     */
+    private long printBusyUntil_ = 0;
+
+    /**
+     * 解釈中のデータがプリンターに届いた時刻 ({@link System#nanoTime()})。 ステータスを送る時刻の基準にします。
+     */
+    private long arrivalNanos_ = 0;
+
+    /**
+     * 送信待ちのステータス。
+     */
+    private final ArrayDeque<PendingStatus> statuses_ = new ArrayDeque<PendingStatus>();
+
+    /**
+     * 読み出し途中のステータスの、次に読み出す位置。
+     */
+    private int statusOffset_ = 0;
+
+    private long bytesReceived_ = 0;
+
+    private int transferCount_ = 0;
+
+    private int pagesPrinted_ = 0;
+
+    private long linesPrinted_ = 0;
+
+    private long clippedLineCount_ = 0;
+
+    private int rejectedPageCount_ = 0;
+
+    private int ejectedLabelCount_ = 0;
+
+    private int lostLabelCount_ = 0;
+
+    private int protocolErrorCount_ = 0;
+
+    private String lastProtocolError_ = null;
+
+    private final PrinterTransport transport_ = new PrinterTransport() {
+        @Override
+        public int getMaxTransferSize() {
+            return MAX_TRANSFER_SIZE;
+        }
+
+        @Override
+        public int write(byte[] data, int offset, int length, int timeoutMillis) {
+            return writeBlocking(data, offset, length, timeoutMillis);
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length, int timeoutMillis) {
+            return readStatus(data, offset, length, timeoutMillis);
+        }
+    };
+
+    /**
+     * {@link SimulatedPrinter} を構築します。
+     *
+     * @param paper 装着されているテープの種類。
+     * @param tape 装着されているテープの幅。
+     */
+    public SimulatedPrinter(Paper paper, TapeGeometry tape) {
+        setMedia(paper, tape);
+    }
+
+    /**
+     * 転送にかかる時間を設定します。
+     *
+     * @param perTransferNanos 転送1回ごとの固定の時間 (ナノ秒)。
+     * @param perPacketNanos {@value #MAX_PACKET_SIZE} バイトのパケット1個ごとの時間 (ナノ秒)。
+     */
+    public void setTransferLatency(long perTransferNanos, long perPacketNanos) {
+        if (perTransferNanos < 0 || perPacketNanos < 0) {
+            throw new IllegalArgumentException("latency must not be negative");
+        }
+        synchronized (lock_) {
+            perTransferNanos_ = perTransferNanos;
+            perPacketNanos_ = perPacketNanos;
+        }
+    }
+
+    /**
+     * 印刷の速さを設定します。
+     *
+     * @param linesPerSecond 1秒間に印刷するライン数。 {@code 0} の場合は、すぐに印刷を終えます。
+     */
+    public void setPrintSpeed(int linesPerSecond) {
+        if (linesPerSecond < 0) {
+            throw new IllegalArgumentException("'linesPerSecond' must not be negative: "
+                    + linesPerSecond);
+        }
+        synchronized (lock_) {
+            linesPerSecond_ = linesPerSecond;
+        }
+    }
+
+    /**
+     * 装着されているテープを変更します。
+     *
+     * @param paper テープの種類。 {@code null} の場合はテープがないものとします。
+     * @param tape テープの幅。 {@code null} の場合はテープがないものとします。
+     */
+    public void setMedia(Paper paper, TapeGeometry tape) {
+        synchronized (lock_) {
+            paper_ = paper;
+            tape_ = tape;
+        }
+    }
+
+    /**
+     * エラーを発生させ、エラー発生のステータスを送ります。 エラーは {@link #clearErrors()} まで続き、その間に受信したラベルは印刷しません。
+     *
+     * @param errors {@code ERROR_} で始まる定数の論理和。
+     */
+    public void injectError(int errors) {
+        synchronized (lock_) {
+            errors_ |= errors;
+            postStatus(STATUS_TYPE_ERROR, PHASE_EDITING, System.nanoTime());
+        }
+    }
+
+    /**
+     * {@link #injectError(int)} で発生させたエラーを解除します。
+     */
+    public void clearErrors() {
+        synchronized (lock_) {
+            errors_ = 0;
+        }
+    }
+
+    /**
+     * 転送を完了させないようにします。 同期転送も非同期転送も、解除されるまでに待ち時間を過ぎればタイムアウトします。
+     *
+     * @param stalled 転送を止める場合は {@code true}。
+     */
+    public void setStalled(boolean stalled) {
+        synchronized (lock_) {
+            stalled_ = stalled;
+            lock_.notifyAll();
+        }
+    }
+
+    /**
+     * 同期転送とステータスの受信に使う {@link PrinterTransport} を返します。
+     *
+     * @return 転送経路。
+     */
+    public PrinterTransport getTransport() {
+        return transport_;
+    }
+
+    /**
+     * 非同期転送に使う {@link AsyncPrinterTransport} を、 {@value #DEFAULT_ASYNC_TIMEOUT_MILLIS}
+     * ミリ秒のタイムアウトで作成します。
+     *
+     * @param maxInFlight 同時に開始しておける転送の最大数。
+     * @return 転送経路。
+     */
+    public AsyncPrinterTransport newAsyncTransport(int maxInFlight) {
+        return newAsyncTransport(maxInFlight, DEFAULT_ASYNC_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 非同期転送に使う {@link AsyncPrinterTransport} を作成します。
+     *
+     * @param maxInFlight 同時に開始しておける転送の最大数。
+     * @param timeoutMillis 転送の完了を待つ時間の上限(ミリ秒)。 これを過ぎると
+     *            {@link TransferTimeoutException} で失敗します。
+     * @return 転送経路。
+     */
+    public AsyncPrinterTransport newAsyncTransport(int maxInFlight, int timeoutMillis) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("'maxInFlight' must be positive: " + maxInFlight);
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("'timeoutMillis' must be positive: "
+                    + timeoutMillis);
+        }
+        return new AsyncTransport(maxInFlight, timeoutMillis);
+    }
+
+    /**
+     * プリンターを止めます。 待っている転送と受信は失敗します。
+     */
+    public void close() {
+        synchronized (lock_) {
+            closed_ = true;
+            lock_.notifyAll();
+        }
+    }
+
+    public long getBytesReceived() {
+        synchronized (lock_) {
+            return bytesReceived_;
+        }
+    }
+
+    public int getTransferCount() {
+        synchronized (lock_) {
+            return transferCount_;
+        }
+    }
+
+    /**
+     * 印刷したラベルの枚数を返します。
+     *
+     * @return ラベルの枚数。
+     */
+    public int getPagesPrinted() {
+        synchronized (lock_) {
+            return pagesPrinted_;
+        }
+    }
+
+    /**
+     * 印刷したラベルのライン数の合計を返します。
+     *
+     * @return ライン数。
+     */
+    public long getLinesPrinted() {
+        synchronized (lock_) {
+            return linesPrinted_;
+        }
+    }
+
+    /**
+     * テープの印刷範囲の外にドットがあったラインの本数を返します。
+     *
+     * @return ライン数。
+     */
+    public long getClippedLineCount() {
+        synchronized (lock_) {
+            return clippedLineCount_;
+        }
+    }
+
+    /**
+     * エラーが発生していたために印刷しなかったラベルの枚数を返します。
+     *
+     * @return ラベルの枚数。
+     */
+    public int getRejectedPageCount() {
+        synchronized (lock_) {
+            return rejectedPageCount_;
+        }
+    }
+
+    /**
+     * 排出したラベルの枚数を返します。 チェーン印刷したラベルは、排出付きの印刷コマンドを受信したときに数えます。
+     *
+     * @return ラベルの枚数。
+     */
+    public int getEjectedLabelCount() {
+        synchronized (lock_) {
+            return ejectedLabelCount_;
+        }
+    }
+
+    /**
+     * 排出しないまま初期化コマンドを受信したために、失われたラベルの枚数を返します。
+     *
+     * @return ラベルの枚数。
+     */
+    public int getLostLabelCount() {
+        synchronized (lock_) {
+            return lostLabelCount_;
+        }
+    }
+
+    /**
+     * 排出せずに印刷して、まだ排出していないラベルの枚数を返します。
+     *
+     * @return ラベルの枚数。
+     */
+    public int getUnejectedLabelCount() {
+        synchronized (lock_) {
+            return unejectedLabels_;
+        }
+    }
+
+    /**
+     * 不正なコマンドを受信した回数を返します。
+     *
+     * @return 回数。
+     */
+    public int getProtocolErrorCount() {
+        synchronized (lock_) {
+            return protocolErrorCount_;
+        }
+    }
+
+    /**
+     * 最後に受信した不正なコマンドの説明を返します。
+     *
+     * @return 説明。 不正なコマンドを受信していなければ {@code null}。
+     */
+    public String getLastProtocolError() {
+        synchronized (lock_) {
+            return lastProtocolError_;
+        }
+    }
+
+    private int writeBlocking(byte[] data, int offset, int length, int timeoutMillis) {
+        if (MAX_TRANSFER_SIZE < length) {
+            return -1;
+        }
+        final long nanos;
+        synchronized (lock_) {
+            if (closed_) {
+                return -1;
+            }
+            if (stalled_) {
+                nanos = -1;
+            } else {
+                nanos = getTransferNanos(length);
+            }
+        }
+        try {
+            if (nanos < 0) {
+                TimeUnit.MILLISECONDS.sleep(timeoutMillis);
+                return -1;
+            }
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        synchronized (lock_) {
+            receive(data, offset, length, System.nanoTime());
+        }
+        return length;
+    }
+
+    private int readStatus(byte[] data, int offset, int length, int timeoutMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (lock_) {
+            while (!closed_) {
+                final long now = System.nanoTime();
+                final PendingStatus head = statuses_.peek();
+                if (head != null && head.dueNanos_ <= now) {
+                    final int n = Math.min(length, STATUS_SIZE - statusOffset_);
+                    System.arraycopy(head.data_, statusOffset_, data, offset, n);
+                    statusOffset_ += n;
+                    if (statusOffset_ == STATUS_SIZE) {
+                        statuses_.poll();
+                        statusOffset_ = 0;
+                    }
+                    return n;
+                }
+                long wait = deadline - now;
+                if (wait <= 0) {
+                    return -1;
+                }
+                if (head != null) {
+                    wait = Math.min(wait, head.dueNanos_ - now);
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock_, wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * {@code length} バイトの転送にかかる時間を返します。 {@link #lock_} を取得して呼び出してください。
+     */
+    private long getTransferNanos(int length) {
+        final int packets = Math.max(1, (length + MAX_PACKET_SIZE - 1) / MAX_PACKET_SIZE);
+        return perTransferNanos_ + packets * perPacketNanos_;
+    }
+
+    /**
+     * 受信したデータを解釈します。 {@link #lock_} を取得して呼び出してください。
+     *
+     * @param arrivalNanos データがプリンターに届く時刻 ({@link System#nanoTime()})。
+     */
+    private void receive(byte[] data, int offset, int length, long arrivalNanos) {
+        arrivalNanos_ = arrivalNanos;
+        bytesReceived_ += length;
+        transferCount_++;
+        if (pending_.length < pendingCount_ + length) {
+            final byte[] grown = new byte[Math.max(pending_.length * 2, pendingCount_ + length)];
+            System.arraycopy(pending_, 0, grown, 0, pendingCount_);
+            pending_ = grown;
+        }
+        System.arraycopy(data, offset, pending_, pendingCount_, length);
+        pendingCount_ += length;
+
+        int pos = 0;
+        while (pos < pendingCount_) {
+            if (resyncing_) {
+                final int found = findInit(pos);
+                if (found < 0) {
+                    // 初期化コマンドの1バイト目だけが届いている場合に備えて、最後の ESC は残す
+                    pos = (pending_[pendingCount_ - 1] == ESC) ? pendingCount_ - 1 : pendingCount_;
+                    break;
+                }
+                pos = found;
+                resyncing_ = false;
+            }
+            final int consumed = parseCommand(pos, pendingCount_ - pos);
+            if (consumed == 0) {
+                break;
+            }
+            if (consumed < 0) {
+                protocolErrorCount_++;
+                resyncing_ = true;
+                pageLines_ = 0;
+                postStatus(STATUS_TYPE_ERROR, PHASE_EDITING, arrivalNanos_,
+                        ERROR_COMMUNICATION);
+                pos++;
+                continue;
+            }
+            pos += consumed;
+        }
+        System.arraycopy(pending_, pos, pending_, 0, pendingCount_ - pos);
+        pendingCount_ -= pos;
+    }
+
+    private int findInit(int from) {
+        for (int i = from; i + 1 < pendingCount_; i++) {
+            if (pending_[i] == ESC && pending_[i + 1] == '@') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@code pos} から始まるコマンドを1つ解釈します。
+     *
+     * @return 解釈したバイト数。 コマンドの途中までしか届いていなければ {@code 0}、不正なコマンドなら負の値。
+     */
+    private int parseCommand(int pos, int available) {
+        final byte[] b = pending_;
+        final int c = b[pos] & 0xff;
+        switch (c) {
+            case 0x00:
+                // 無効コマンド
+                return 1;
+            case ESC:
+                return parseEscape(pos, available);
+            case 'M':
+                if (available < 2) {
+                    return 0;
+                }
+                final int compression = b[pos + 1] & 0xff;
+                if (compression != COMPRESSION_NONE && compression != COMPRESSION_TIFF) {
+                    return protocolError("unknown compression mode: " + compression);
+                }
+                compression_ = compression;
+                return 2;
+            case 'G': {
+                if (available < 3) {
+                    return 0;
+                }
+                final int n = (b[pos + 1] & 0xff) | ((b[pos + 2] & 0xff) << 8);
+                if (available < 3 + n) {
+                    return 0;
+                }
+                if (!rasterLine(pos + 3, n)) {
+                    return -1;
+                }
+                return 3 + n;
+            }
+            case 'Z':
+                if (commandMode_ != COMMAND_MODE_RASTER) {
+                    return protocolError("zero raster line outside raster mode");
+                }
+                pageLines_++;
+                return 1;
+            case 0x0c:
+                // 排出せずに印刷
+                print(false);
+                return 1;
+            case 0x1a:
+                // 排出して印刷
+                print(true);
+                return 1;
+            default:
+                return protocolError("unknown command: 0x" + Integer.toHexString(c));
+        }
+    }
+
+    private int parseEscape(int pos, int available) {
+        final byte[] b = pending_;
+        if (available < 2) {
+            return 0;
+        }
+        if (b[pos + 1] == '@') {
+            // 初期化。 排出していないラベルは失われる
+            lostLabelCount_ += unejectedLabels_;
+            unejectedLabels_ = 0;
+            commandMode_ = -1;
+            compression_ = COMPRESSION_NONE;
+            pageLines_ = 0;
+            return 2;
+        }
+        if (b[pos + 1] != 'i') {
+            return protocolError("unknown escape command: ESC 0x"
+                    + Integer.toHexString(b[pos + 1] & 0xff));
+        }
+        if (available < 3) {
+            return 0;
+        }
+        final int length;
+        switch (b[pos + 2]) {
+            case 'S':
+                // ステータスリクエスト
+                postStatus(STATUS_TYPE_REPLY, PHASE_EDITING, arrivalNanos_ + perTransferNanos_);
+                return 3;
+            case 'a':
+                if (available < 4) {
+                    return 0;
+                }
+                commandMode_ = b[pos + 3] & 0xff;
+                return 4;
+            case 'z':
+                // 印刷情報
+                length = 13;
+                break;
+            case 'M':
+            case 'K':
+            case 'A':
+                // 各種モード、カット単位
+                length = 4;
+                break;
+            case 'd':
+                // 余白
+                length = 5;
+                break;
+            default:
+                return protocolError("unknown escape command: ESC i 0x"
+                        + Integer.toHexString(b[pos + 2] & 0xff));
+        }
+        return (available < length) ? 0 : length;
+    }
+
+    /**
+     * ラスターラインを展開して検査します。
+     *
+     * @return 正しいラインなら {@code true}。
+     */
+    private boolean rasterLine(int pos, int n) {
+        if (commandMode_ != COMMAND_MODE_RASTER) {
+            protocolError("raster line outside raster mode");
+            return false;
+        }
+        final byte[] line = line_;
+        final int length;
+        if (compression_ == COMPRESSION_TIFF) {
+            length = unpackBits(pos, n);
+            if (length < 0) {
+                return false;
+            }
+        } else {
+            if (line.length < n) {
+                protocolError("raster line too long: " + n + " bytes");
+                return false;
+            }
+            System.arraycopy(pending_, pos, line, 0, n);
+            length = n;
+        }
+        for (int i = length; i < line.length; i++) {
+            line[i] = 0;
+        }
+        final TapeGeometry tape = tape_;
+        if (tape != null && hasDotsOutside(line, tape.getPinOffset(), tape.getPinOffset()
+                + tape.getPins())) {
+            clippedLineCount_++;
+        }
+        pageLines_++;
+        return true;
+    }
+
+    /**
+     * TIFF (PackBits) のデータを {@link #line_} に展開します。
+     *
+     * @return 展開後のバイト数。 データが不正なら負の値。
+     */
+    private int unpackBits(int pos, int n) {
+        final byte[] src = pending_;
+        final byte[] line = line_;
+        final int end = pos + n;
+        int out = 0;
+        int p = pos;
+        while (p < end) {
+            final int control = src[p++];
+            if (control == -128) {
+                continue;
+            }
+            if (0 <= control) {
+                final int count = control + 1;
+                if (end < p + count || line.length < out + count) {
+                    return protocolError("broken TIFF literal run");
+                }
+                System.arraycopy(src, p, line, out, count);
+                p += count;
+                out += count;
+            } else {
+                final int count = 1 - control;
+                if (end <= p || line.length < out + count) {
+                    return protocolError("broken TIFF repeat run");
+                }
+                final byte value = src[p++];
+                for (int i = 0; i < count; i++) {
+                    line[out++] = value;
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * ピン位置 {@code from} 以上 {@code to} 未満の外に、黒いドットがあるかどうかを返します。 ピン位置は各バイトの最上位ビットから数えます。
+     */
+    private static boolean hasDotsOutside(byte[] line, int from, int to) {
+        for (int i = 0; i < line.length; i++) {
+            final int v = line[i] & 0xff;
+            if (v == 0) {
+                continue;
+            }
+            for (int bit = 0; bit < 8; bit++) {
+                final int pin = i * 8 + bit;
+                if ((v & (0x80 >> bit)) != 0 && (pin < from || to <= pin)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 印刷コマンドを処理します。
+     */
+    /**
+     * 受信したラインを1枚のラベルとして印刷します。 ラインがなく、排出していないラベルがあれば、排出だけを行います。
+     */
+    private void print(boolean eject) {
+        final int lines = pageLines_;
+        pageLines_ = 0;
+        final long now = arrivalNanos_;
+        if (getErrorBits() != 0) {
+            rejectedPageCount_++;
+            postStatus(STATUS_TYPE_ERROR, PHASE_EDITING, now);
+            return;
+        }
+        if (lines == 0 && eject && 0 < unejectedLabels_) {
+            ejectedLabelCount_ += unejectedLabels_;
+            unejectedLabels_ = 0;
+            return;
+        }
+        unejectedLabels_++;
+        if (eject) {
+            ejectedLabelCount_ += unejectedLabels_;
+            unejectedLabels_ = 0;
+        }
+        final long start = Math.max(now, printBusyUntil_);
+        final long printNanos = (linesPerSecond_ == 0) ? 0 : lines * 1000000000L
+                / linesPerSecond_;
+        printBusyUntil_ = start + printNanos;
+        pagesPrinted_++;
+        linesPrinted_ += lines;
+        postStatus(STATUS_TYPE_PHASE_CHANGE, PHASE_PRINTING, start);
+        postStatus(STATUS_TYPE_PRINT_FINISHED, PHASE_PRINTING, printBusyUntil_);
+        postStatus(STATUS_TYPE_PHASE_CHANGE, PHASE_EDITING, printBusyUntil_);
+    }
+
+    private int protocolError(String message) {
+        lastProtocolError_ = message;
+        return -1;
+    }
+
+    private int getErrorBits() {
+        return (tape_ == null || paper_ == null) ? (errors_ | ERROR_NO_MEDIA) : errors_;
+    }
+
+    private void postStatus(int statusType, int phase, long dueNanos) {
+        postStatus(statusType, phase, dueNanos, 0);
+    }
+
+    /**
+     * ステータスを作成して、 {@code dueNanos} 以降に読み出せるようにします。
+     */
+    private void postStatus(int statusType, int phase, long dueNanos, int extraErrors) {
+        final byte[] s = new byte[STATUS_SIZE];
+        final int errors = getErrorBits() | extraErrors;
+        // ヘッダー (プリントヘッドマーク、サイズ、ブラザーコード、シリーズコード、モデルコード、国コード)
+        s[0] = (byte) 0x80;
+        s[1] = (byte) STATUS_SIZE;
+        s[2] = 'B';
+        s[3] = '0';
+        s[5] = '0';
+        s[8] = (byte) errors;
+        s[9] = (byte) (errors >> 8);
+        s[10] = (byte) ((tape_ == null) ? 0 : tape_.getMediaWidth());
+        s[11] = (paper_ == null) ? 0 : paper_.rawValue();
+        s[18] = (byte) statusType;
+        s[19] = (byte) phase;
+        final PendingStatus status = new PendingStatus(s, dueNanos);
+        // 時刻の順に並べる
+        if (statuses_.isEmpty() || statuses_.peekLast().dueNanos_ <= dueNanos) {
+            statuses_.add(status);
+        } else {
+            final ArrayDeque<PendingStatus> later = new ArrayDeque<PendingStatus>();
+            while (!statuses_.isEmpty() && dueNanos < statuses_.peekLast().dueNanos_
+                    && !(statuses_.size() == 1 && statusOffset_ != 0)) {
+                later.addFirst(statuses_.pollLast());
+            }
+            statuses_.add(status);
+            statuses_.addAll(later);
+        }
+        lock_.notifyAll();
+    }
+
+    private static final class PendingStatus {
+        final byte[] data_;
+
+        final long dueNanos_;
+
+        PendingStatus(byte[] data, long dueNanos) {
+            data_ = data;
+            dueNanos_ = dueNanos;
+        }
+    }
+
+    /**
+     * 非同期転送1回分の状態です。
+     */
+    private static final class PendingTransfer {
+        final ByteBuffer buffer_;
+
+        final long dueNanos_;
+
+        /**
+         * データをプリンターに渡し終えたかどうか。
+         */
+        boolean received_;
+
+        PendingTransfer(ByteBuffer buffer, long dueNanos) {
+            buffer_ = buffer;
+            dueNanos_ = dueNanos;
+        }
+    }
+
+    /**
+     * 転送を開始した順に、転送時間が経過したものから完了させる {@link AsyncPrinterTransport} です。
+     * <p>
+     * 実機の USB と同じく、完了を待たなくてもデータはプリンターに届きます。 データは開始時に解釈し、
+     * ステータスは転送が完了する時刻を基準に送ります。 {@link SimulatedPrinter#setStalled(boolean) 停止中}
+     * に開始した転送と、その後に開始した転送は、完了を待つときに解釈します。
+     * </p>
+     */
+    private final class AsyncTransport implements AsyncPrinterTransport {
+        private final int maxInFlight_;
+
+        private final long timeoutNanos_;
+
+        private final ArrayDeque<PendingTransfer> queued_;
+
+        /**
+         * 最後に開始した転送が完了する時刻。
+         */
+        private long lastDueNanos_ = 0;
+
+        /**
+         * まだプリンターに渡していない転送の数。
+         */
+        private int deferred_ = 0;
+
+        AsyncTransport(int maxInFlight, int timeoutMillis) {
+            maxInFlight_ = maxInFlight;
+            timeoutNanos_ = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            queued_ = new ArrayDeque<PendingTransfer>(maxInFlight);
+        }
+
+        @Override
+        public int getMaxTransferSize() {
+            return MAX_TRANSFER_SIZE;
+        }
+
+        @Override
+        public int getMaxInFlight() {
+            return maxInFlight_;
+        }
+
+        @Override
+        public boolean queue(ByteBuffer buffer) {
+            if (maxInFlight_ <= queued_.size() || MAX_TRANSFER_SIZE < buffer.limit()) {
+                return false;
+            }
+            final PendingTransfer transfer;
+            synchronized (lock_) {
+                if (closed_) {
+                    return false;
+                }
+                // 転送は1本のエンドポイント上で順に行われる
+                lastDueNanos_ = Math.max(System.nanoTime(), lastDueNanos_)
+                        + getTransferNanos(buffer.limit());
+                transfer = new PendingTransfer(buffer, lastDueNanos_);
+                if (stalled_ || 0 < deferred_) {
+                    deferred_++;
+                } else {
+                    receive(transfer);
+                }
+            }
+            queued_.add(transfer);
+            return true;
+        }
+
+        @Override
+        public ByteBuffer awaitCompletion() throws IOException {
+            final PendingTransfer transfer = queued_.peek();
+            if (transfer == null) {
+                throw new IllegalStateException("no request in flight.");
+            }
+            final long deadline = System.nanoTime() + timeoutNanos_;
+            synchronized (lock_) {
+                try {
+                    while (true) {
+                        if (closed_) {
+                            throw new IOException("simulated printer is closed.");
+                        }
+                        final long now = System.nanoTime();
+                        final long wait = transfer.dueNanos_ - now;
+                        if (!stalled_ && wait <= 0) {
+                            break;
+                        }
+                        if (deadline <= now) {
+                            throw new TransferTimeoutException("no transfer completed in "
+                                    + TimeUnit.NANOSECONDS.toMillis(timeoutNanos_) + " ms.");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock_, stalled_ ? deadline - now : Math
+                                .min(wait, deadline - now));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for transfer.");
+                }
+                if (!transfer.received_) {
+                    deferred_--;
+                    receive(transfer);
+                }
+            }
+            queued_.poll();
+            return transfer.buffer_;
+        }
+
+        @Override
+        public void close() {
+            queued_.clear();
+            deferred_ = 0;
+        }
+
+        private void receive(PendingTransfer transfer) {
+            final ByteBuffer buffer = transfer.buffer_;
+            SimulatedPrinter.this.receive(buffer.array(), buffer.arrayOffset(), buffer.limit(),
+                    transfer.dueNanos_);
+            transfer.received_ = true;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.RasterSource;
+import org.zakky.rl700s.raster.StreamingRasterizer;
+
+import java.io.IOException;
+
+/**
+ * {@link RasterSource} の画像を、読み出しに合わせて少しずつラスターデータに変換する {@link RasterJob} です。
+ * <p>
+ * ラスターラインは {@link RasterLineReader#readLine(byte[])} のたびに {@link StreamingRasterizer}
+ * で作成するので、ラベル全体の画像もラスターデータもメモリ上に持たず、最初のラインは描画が終わる前に送信されます。
+ * {@link RasterSource} は、ジョブを使い終わるまで変更しないでください。
+ * </p>
+ * <p>
+ * アプリのラベルは {@link org.zakky.rl700s.print.EncodedLabel} を通して印刷サービスに渡すので、
+ * このクラスはベンチマークで {@link org.zakky.rl700s.print.PrintSession} と同じ読み出し方を測るためだけに使います。
+ * </p>
+ */
+public final class StreamingRasterJob implements RasterJob {
+
+    private final RasterSource source_;
+
+    private final DitherMode ditherMode_;
+
+    private final int bytesPerLine_;
+
+    /**
+     * {@link StreamingRasterJob} を構築します。
+     *
+     * @param source 画像のソース。
+     * @param ditherMode 二値化に使用するアルゴリズム。
+     */
+    public StreamingRasterJob(RasterSource source, DitherMode ditherMode) {
+        if (source == null) {
+            throw new IllegalArgumentException("'source' must not be null");
+        }
+        if (ditherMode == null) {
+            throw new IllegalArgumentException("'ditherMode' must not be null");
+        }
+        source_ = source;
+        ditherMode_ = ditherMode;
+        bytesPerLine_ = new StreamingRasterizer(source, ditherMode.newDitherer())
+                .getBytesPerLine();
+    }
+
+    @Override
+    public int getLineCount() {
+        return source_.getWidth();
+    }
+
+    @Override
+    public int getBytesPerLine() {
+        return bytesPerLine_;
+    }
+
+    @Override
+    public RasterLineReader openReader() {
+        final StreamingRasterizer rasterizer = new StreamingRasterizer(source_,
+                ditherMode_.newDitherer());
+        return new RasterLineReader() {
+            @Override
+            public boolean readLine(byte[] dest) throws IOException {
+                return rasterizer.readLine(dest);
+            }
+
+            @Override
+            public void close() {
+                // 何もしない
+            }
+        };
+    }
+}
@@ -0,0 +1,170 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.RasterBuffer;
+import org.zakky.rl700s.raster.RasterSink;
+import org.zakky.rl700s.raster.RasterSource;
+import org.zakky.rl700s.raster.Rasterizer;
+import org.zakky.rl700s.raster.StreamingRasterizer;
+
+import java.io.IOException;
+
+/**
+ * 画像全体を変換する {@link Rasterizer} と、窓ごとに変換する {@link StreamingRasterizer} を比較するベンチマークです。
+ * <p>
+ * {@link StreamingRasterizer} は、 {@link RasterSink} に書き出す場合と、 {@link StreamingRasterJob} から
+ * 1本ずつ読み出す場合の両方を測ります。
+ * </p>
+ * <p>
+ * ラベルの長さを変えながら、最初のラスターラインができるまでの時間、全体の時間、画素とラスターデータに必要なメモリ量を表示します。
+ * 画素は {@link RasterSource} がその場で計算するので、描画にかかる時間は含みません。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.StreamingRasterizeBenchmark
+ * </pre>
+ */
+public final class StreamingRasterizeBenchmark {
+
+    private static final int HEIGHT = 128;
+
+    private static final int[] LENGTHS = {
+            1024, 8192, 65536
+    };
+
+    private static final int ITERATIONS = 5;
+
+    private static final DitherMode MODE = DitherMode.FLOYD_STEINBERG;
+
+    private StreamingRasterizeBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("height: " + HEIGHT + ", mode: " + MODE + ", iterations: "
+                + ITERATIONS);
+        for (int length : LENGTHS) {
+            final GradientSource source = new GradientSource(length, HEIGHT);
+            runFull(source);
+            runStreaming(source);
+            runJob(source);
+        }
+    }
+
+    private static void runFull(GradientSource source) throws IOException {
+        final int width = source.getWidth();
+        final Rasterizer rasterizer = new Rasterizer();
+        rasterizer.setDitherMode(MODE);
+        final RasterBuffer out = new RasterBuffer();
+        long firstLine = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long begin = System.nanoTime();
+            final int[] pixels = new int[width * HEIGHT];
+            source.readWindow(0, width, pixels);
+            rasterizer.rasterize(pixels, width, HEIGHT, out);
+            // 最初のラインは全体の変換が終わるまで送れない
+            firstLine += System.nanoTime() - begin;
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long memory = (long) width * HEIGHT * 4 + (long) width * out.getBytesPerLine();
+        print("full", width, firstLine, elapsed, memory);
+    }
+
+    private static void runStreaming(GradientSource source) throws IOException {
+        final int width = source.getWidth();
+        final long[] firstLine = new long[1];
+        final long start = System.nanoTime();
+        int bytesPerLine = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long begin = System.nanoTime();
+            final StreamingRasterizer rasterizer = new StreamingRasterizer(source, MODE
+                    .newDitherer());
+            bytesPerLine = rasterizer.getBytesPerLine();
+            rasterizer.writeTo(new RasterSink() {
+                private boolean first_ = true;
+
+                @Override
+                public void writeLine(byte[] data, int offset) {
+                    if (first_) {
+                        firstLine[0] += System.nanoTime() - begin;
+                        first_ = false;
+                    }
+                }
+            }, null);
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long memory = (long) Math.min(StreamingRasterizer.WINDOW_LINES, width) * HEIGHT
+                * 4 + bytesPerLine;
+        print("streaming", width, firstLine[0], elapsed, memory);
+    }
+
+    private static void runJob(GradientSource source) throws IOException {
+        final StreamingRasterJob job = new StreamingRasterJob(source, MODE);
+        final byte[] line = new byte[job.getBytesPerLine()];
+        long firstLine = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long begin = System.nanoTime();
+            final RasterLineReader reader = job.openReader();
+            try {
+                if (reader.readLine(line)) {
+                    firstLine += System.nanoTime() - begin;
+                }
+                while (reader.readLine(line)) {
+                    // 読み捨てる
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long memory = (long) Math.min(StreamingRasterizer.WINDOW_LINES, source.getWidth())
+                * HEIGHT * 4 + line.length;
+        print("job", source.getWidth(), firstLine, elapsed, memory);
+    }
+
+    private static void print(String name, int width, long firstLine, long elapsed, long memory) {
+        System.out.println(String.format("%-10s %6d lines  first line %9.1f us  total %9.1f us"
+                + "  pixels+raster %9d bytes", name, width, firstLine / 1000.0 / ITERATIONS,
+                elapsed / 1000.0 / ITERATIONS, memory));
+    }
+
+    /**
+     * 画素をその場で計算する、縞模様のグラデーション画像です。
+     */
+    private static final class GradientSource implements RasterSource {
+        private final int width_;
+
+        private final int height_;
+
+        GradientSource(int width, int height) {
+            width_ = width;
+            height_ = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width_;
+        }
+
+        @Override
+        public int getHeight() {
+            return height_;
+        }
+
+        @Override
+        public void readWindow(int x, int count, int[] argb) {
+            int index = 0;
+            for (int y = 0; y < height_; y++) {
+                for (int i = 0; i < count; i++) {
+                    final int v = ((x + i) % 512) * 255 / 511 ^ (y * 2);
+                    argb[index++] = 0xff000000 | ((v & 0xff) * 0x010101);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.zakky.rl700s.bench;
+
+import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+import org.zakky.rl700s.job.MemoryRasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.print.RasterEncoder;
+import org.zakky.rl700s.raster.RasterBuffer;
+import org.zakky.rl700s.status.StatusListener;
+import org.zakky.rl700s.status.StatusMonitor;
+import org.zakky.rl700s.transport.AsyncPrinterTransport;
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.PipelinedOutput;
+import org.zakky.rl700s.transport.PrinterTransport;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+
+/**
+ * ラスターラインの送信ループとステータスの受信ループが、定常状態でメモリを確保しないことを確認します。
+ * <p>
+ * 送信ループは、 {@link MemoryRasterJob} から読み出したラインを {@link RasterEncoder} で TIFF
+ * 圧縮のコマンドに変換し、 {@link BatchingSender} と {@link PipelinedOutput} を通して送信するまでの間に、
+ * 現在のスレッドが確保したバイト数を数えます。 ラインには空ライン、直前と同じライン、内容の異なるラインを混ぜ、
+ * 変換のすべての経路を通します。 確保したバイト数の合計が 0 でなければ失敗です。
+ * </p>
+ * <p>
+ * 受信ループは、 {@link StatusMonitor} の受信スレッドが確保したバイト数を数えます。 何も受信しない間の確保は
+ * 0 でなければ失敗です。 ステータスを数バイトずつに分けて受信させる間は、解析結果と通知のためのオブジェクトを
+ * ステータス1件ごとに確保するので、合計がステータスの件数 × {@link #MAX_BYTES_PER_STATUS}
+ * を超えれば失敗です。 読み出し1回ごとの確保があれば、この上限を超えます。
+ * </p>
+ * <p>
+ * 失敗すると終了コード 1 で終了します。 HotSpot 系の JVM が必要です。
+ * </p>
+ * <p>
+ * ビルドの方法は {@link BenchmarkSuite} を参照してください。
+ * </p>
+ *
+ * <pre>
+ * java -cp '/tmp/bench:libs/*' org.zakky.rl700s.bench.ZeroAllocationCheck
+ * </pre>
+ */
+public final class ZeroAllocationCheck {
+
+    private static final int LINES_PER_JOB = 320;
+
+    private static final int BYTES_PER_LINE = 90;
+
+    private static final int WARMUP_JOBS = 20000;
+
+    private static final int MEASURE_JOBS = 1000;
+
+    private static final int STATUS_SIZE = 32;
+
+    /**
+     * 受信1回あたりのバイト数。 ステータス1件を複数回の受信に分けます。
+     */
+    private static final int STATUS_FRAGMENT_SIZE = 5;
+
+    private static final int WARMUP_STATUSES = 50000;
+
+    private static final int MEASURE_STATUSES = 10000;
+
+    /**
+     * ステータス1件あたりに許す確保量の上限 (バイト)。 解析結果の {@link RL700SStatus} とその中身、
+     * 通知用の {@link Runnable} の分です。
+     */
+    private static final long MAX_BYTES_PER_STATUS = 256L;
+
+    private static final long IDLE_MEASURE_MILLIS = 1000L;
+
+    private static final String STATUS_THREAD_NAME = "StatusMonitor";
+
+    private ZeroAllocationCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean ok = checkPrintLoop(mx);
+        ok &= checkStatusLoop(mx);
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkPrintLoop(com.sun.management.ThreadMXBean mx) throws IOException {
+        final RasterBuffer raster = new RasterBuffer();
+        raster.reset(LINES_PER_JOB, BYTES_PER_LINE);
+        fillLines(raster);
+        final MemoryRasterJob job = new MemoryRasterJob(raster);
+        final byte[] line = new byte[BYTES_PER_LINE];
+        final PipelinedOutput output = new PipelinedOutput(new ImmediateAsyncTransport(
+                16 * 1024, 4));
+        final BatchingSender sender = new BatchingSender(output);
+        final RasterEncoder encoder = new RasterEncoder(sender, CompressionMode.TIFF);
+
+        for (int i = 0; i < WARMUP_JOBS; i++) {
+            final RasterLineReader reader = job.openReader();
+            try {
+                sendJob(reader, line, encoder, sender, output);
+            } finally {
+                reader.close();
+            }
+        }
+
+        // リーダーの生成はジョブごとに1回で、ライン単位ではないので、計測の前に済ませておく
+        final RasterLineReader[] readers = new RasterLineReader[MEASURE_JOBS];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = job.openReader();
+        }
+        encoder.resetCounters();
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = mx.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < readers.length; i++) {
+            sendJob(readers[i], line, encoder, sender, output);
+        }
+        final long allocated = mx.getThreadAllocatedBytes(threadId) - before;
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].close();
+        }
+
+        System.out.println("print loop: allocated " + allocated + " bytes for " + MEASURE_JOBS
+                + " jobs x " + LINES_PER_JOB + " lines (" + encoder.getBlankLineCount()
+                + " blank, " + encoder.getRepeatedLineCount() + " repeated of "
+                + encoder.getLineCount() + " lines)");
+        return allocated == 0L;
+    }
+
+    /**
+     * 8本周期で、空ライン2本、同じライン3本、内容の異なるライン3本を並べます。
+     */
+    private static void fillLines(RasterBuffer raster) {
+        final byte[] data = raster.getData();
+        for (int i = 0; i < raster.getLineCount(); i++) {
+            final int offset = raster.getLineOffset(i);
+            final int phase = i % 8;
+            if (phase < 2) {
+                continue;
+            }
+            for (int x = 0; x < BYTES_PER_LINE; x++) {
+                final int seed = (phase < 5) ? i / 8 : i;
+                // 同じ値の続く部分と、ばらばらな部分を混ぜる
+                data[offset + x] = (byte) ((x < BYTES_PER_LINE / 3) ? 0xff : seed * 31 + x * 7);
+            }
+        }
+    }
+
+    private static void sendJob(RasterLineReader reader, byte[] line, RasterEncoder encoder,
+            BatchingSender sender, PipelinedOutput output) throws IOException {
+        encoder.reset();
+        for (int i = 0; i < LINES_PER_JOB; i++) {
+            if (!reader.readLine(line)) {
+                throw new IllegalStateException("raster exhausted");
+            }
+            encoder.encodeLine(line);
+        }
+        encoder.flush();
+        sender.flush();
+        output.drain();
+    }
+
+    private static boolean checkStatusLoop(com.sun.management.ThreadMXBean mx)
+            throws InterruptedException {
+        final FragmentedStatusTransport transport = new FragmentedStatusTransport();
+        final CountingListener listener = new CountingListener();
+        final StatusMonitor monitor = new StatusMonitor(transport, listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        monitor.start();
+        try {
+            final long threadId = findThreadId(STATUS_THREAD_NAME);
+
+            transport.deliver(WARMUP_STATUSES);
+            listener.await(WARMUP_STATUSES);
+
+            final long beforeStatuses = mx.getThreadAllocatedBytes(threadId);
+            transport.deliver(MEASURE_STATUSES);
+            listener.await(WARMUP_STATUSES + MEASURE_STATUSES);
+            final long statusAllocated = mx.getThreadAllocatedBytes(threadId) - beforeStatuses;
+            final long statusLimit = MEASURE_STATUSES * MAX_BYTES_PER_STATUS;
+
+            // 受信スレッドが受信待ちの間隔を延ばしきるのを待ってから計測する
+            Thread.sleep(200L);
+            final int readsBefore = transport.getReadCount();
+            final long beforeIdle = mx.getThreadAllocatedBytes(threadId);
+            Thread.sleep(IDLE_MEASURE_MILLIS);
+            final long idleAllocated = mx.getThreadAllocatedBytes(threadId) - beforeIdle;
+            final int idleReads = transport.getReadCount() - readsBefore;
+
+            System.out.println("status loop: allocated " + statusAllocated + " bytes for "
+                    + MEASURE_STATUSES + " statuses in " + STATUS_FRAGMENT_SIZE
+                    + "-byte reads (limit " + statusLimit + ")");
+            System.out.println("status loop: allocated " + idleAllocated + " bytes for "
+                    + idleReads + " idle reads");
+            return statusAllocated <= statusLimit && idleAllocated == 0L && 0 < idleReads;
+        } finally {
+            monitor.stop();
+        }
+    }
+
+    private static long findThreadId(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName())) {
+                return thread.getId();
+            }
+        }
+        throw new IllegalStateException("thread not found: " + name);
+    }
+
+    /**
+     * 指示された件数のステータスを、 {@link #STATUS_FRAGMENT_SIZE} バイトずつに分けて返す
+     * {@link PrinterTransport} です。 返すステータスがなければ、受信のタイムアウトとして扱います。
+     */
+    private static final class FragmentedStatusTransport implements PrinterTransport {
+        private final byte[] status_;
+
+        private final Object lock_ = new Object();
+
+        /**
+         * まだ返していないバイト数。 {@link #lock_} で保護します。
+         */
+        private long remainingBytes_ = 0L;
+
+        private volatile int readCount_ = 0;
+
+        FragmentedStatusTransport() {
+            status_ = new byte[STATUS_SIZE];
+            status_[0] = (byte) 0x80;
+            status_[1] = (byte) STATUS_SIZE;
+            status_[2] = (byte) 'B';
+            status_[3] = (byte) '0';
+            status_[18] = (byte) StatusMonitor.STATUS_TYPE_PHASE_CHANGE;
+        }
+
+        void deliver(int statuses) {
+            synchronized (lock_) {
+                remainingBytes_ += (long) statuses * STATUS_SIZE;
+            }
+        }
+
+        int getReadCount() {
+            return readCount_;
+        }
+
+        @Override
+        public int getMaxTransferSize() {
+            return STATUS_SIZE;
+        }
+
+        @Override
+        public int write(byte[] data, int offset, int length, int timeoutMillis) {
+            return length;
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length, int timeoutMillis) {
+            readCount_++;
+            synchronized (lock_) {
+                if (remainingBytes_ == 0L) {
+                    return -1;
+                }
+                final int position = (int) ((STATUS_SIZE - remainingBytes_ % STATUS_SIZE)
+                        % STATUS_SIZE);
+                final int count = Math.min(Math.min(length, STATUS_FRAGMENT_SIZE),
+                        STATUS_SIZE - position);
+                System.arraycopy(status_, position, data, offset, count);
+                remainingBytes_ -= count;
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 受け取ったステータスの件数を数える {@link StatusListener} です。
+     */
+    private static final class CountingListener implements StatusListener {
+        private final Object lock_ = new Object();
+
+        private int count_ = 0;
+
+        void await(int count) throws InterruptedException {
+            synchronized (lock_) {
+                while (count_ < count) {
+                    lock_.wait();
+                }
+            }
+        }
+
+        private void count() {
+            synchronized (lock_) {
+                count_++;
+                lock_.notifyAll();
+            }
+        }
+
+        @Override
+        public void onStatusReply(RL700SStatus status) {
+            count();
+        }
+
+        @Override
+        public void onPrintFinished(RL700SStatus status) {
+            count();
+        }
+
+        @Override
+        public void onError(RL700SStatus status, EnumSet<ErrorInfo> errors) {
+            count();
+        }
+
+        @Override
+        public void onNotification(RL700SStatus status) {
+            count();
+        }
+
+        @Override
+        public void onPhaseChange(RL700SStatus status) {
+            count();
+        }
+    }
+
+    /**
+     * 開始された転送を、開始と同時に完了させる {@link AsyncPrinterTransport} です。
+     * 転送が止まることはないので、 {@link #awaitCompletion()} がタイムアウトすることもありません。
+     */
+    private static final class ImmediateAsyncTransport implements AsyncPrinterTransport {
+        private final int maxTransferSize_;
+
+        private final int maxInFlight_;
+
+        private final ArrayDeque<ByteBuffer> completed_;
+
+        ImmediateAsyncTransport(int maxTransferSize, int maxInFlight) {
+            maxTransferSize_ = maxTransferSize;
+            maxInFlight_ = maxInFlight;
+            completed_ = new ArrayDeque<ByteBuffer>(maxInFlight);
+        }
+
+        @Override
+        public int getMaxTransferSize() {
+            return maxTransferSize_;
+        }
+
+        @Override
+        public int getMaxInFlight() {
+            return maxInFlight_;
+        }
+
+        @Override
+        public boolean queue(ByteBuffer buffer) {
+            return completed_.offer(buffer);
+        }
+
+        @Override
+        public ByteBuffer awaitCompletion() {
+            return completed_.poll();
+        }
+
+        @Override
+        public void close() {
+            completed_.clear();
+        }
+    }
+}
@@ -1,38 +1,69 @@
 
 package org.zakky.rl700s;
 
+import org.zakky.rl700s.barcode.Symbology;
+import org.zakky.rl700s.batch.LabelTemplate;
+import org.zakky.rl700s.icon.AppEntry;
+import org.zakky.rl700s.icon.AppListCache;
+import org.zakky.rl700s.icon.IconLoader;
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.print.EncodedLabel;
+import org.zakky.rl700s.print.EncodedLabelCache;
+import org.zakky.rl700s.print.PrintSession;
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.MonoBitmap;
+import org.zakky.rl700s.raster.ProgressListener;
+import org.zakky.rl700s.raster.StreamingRasterizer;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.render.DrawableRasterSource;
+import org.zakky.rl700s.render.PaintGlyphRenderer;
+import org.zakky.rl700s.render.RenderCallback;
+import org.zakky.rl700s.render.RenderPipeline;
+import org.zakky.rl700s.render.RenderTask;
+import org.zakky.rl700s.text.GlyphAtlas;
+import org.zakky.rl700s.text.TextLabel;
+
 import android.app.Activity;
-import android.app.ProgressDialog;
+import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.Window;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.BaseAdapter;
+import android.widget.EditText;
 import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * アプリを選択するアクティビティです。
@@ -67,12 +98,75 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
     private GridView appGrid_;
 
     /**
-     * アプリ一覧グリッド構築時のプログレス
-     * <p>
-     * UI スレッドからのみアクセスすること。
-     * </p>
+     * 一覧を読み込む際に、まとめてグリッドに追加するアプリの数。
+     */
+    private static final int LOAD_CHUNK_SIZE = 24;
+
+    /**
+     * アプリ一覧を表示しているアダプタ。
+     */
+    private AppsAdapter appsAdapter_ = null;
+
+    /**
+     * アプリ一覧を読み込んでいるタスク。 読み込んでいなければ {@code null}。
+     */
+    private LoadAppListTask loadTask_ = null;
+
+    /**
+     * グリッドに表示するアイコンを読み込むローダー。
+     */
+    private IconLoader iconLoader_;
+
+    /**
+     * アイコン画像を二値化する際のアルゴリズム。
+     */
+    private static final DitherMode DITHER_MODE = DitherMode.FLOYD_STEINBERG;
+
+    /**
+     * 文字ラベルを作成するメニューの ID。
+     */
+    private static final int MENU_TEXT_LABEL = 1;
+
+    /**
+     * Code 128 のラベルを作成するメニューの ID。
      */
-    private ProgressDialog progressDialog_ = null;
+    private static final int MENU_CODE128 = 2;
+
+    /**
+     * EAN-13 のラベルを作成するメニューの ID。
+     */
+    private static final int MENU_EAN13 = 3;
+
+    /**
+     * QR コードのラベルを作成するメニューの ID。
+     */
+    private static final int MENU_QR_CODE = 4;
+
+    /**
+     * データファイルから連続印刷するメニューの ID。
+     */
+    private static final int MENU_BATCH_PRINT = 5;
+
+    /**
+     * 連続印刷で、排出するまでにつなげるラベルの数。
+     */
+    private static final int BATCH_CHAIN_LENGTH = 20;
+
+    /**
+     * タイトルバーのプログレスの最大値。
+     */
+    private static final int MAX_WINDOW_PROGRESS = 10000;
+
+    /**
+     * ラベルをバックグラウンドで作成するためのパイプライン。
+     */
+    private RenderPipeline renderPipeline_;
+
+    /**
+     * 最後に作成を依頼したラベルのテープ。 {@link #renderPipeline_} は最新の依頼の結果だけを通知するので、
+     * 完了したラベルのテープはこの値になります。
+     */
+    private TapeGeometry labelTape_ = TapeGeometry.DEFAULT;
 
     /**
      * アプリ一覧のグリッドを用意します。
@@ -81,6 +175,10 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // ラベル作成の経過と、アプリ一覧の読み込み中であることをタイトルバーに表示する
+        requestWindowFeature(Window.FEATURE_PROGRESS);
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
+
         /*
          * アプリ一覧をユーザに提示するためのグリッドを用意します。
          */
@@ -88,225 +186,515 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
 
         appGrid_ = (GridView) findViewById(R.id.grid);
         appGrid_.setOnItemClickListener(this);
+
+        iconLoader_ = new IconLoader(this, AppsAdapter.getIconSize(
+                getWallpaperDesiredMinimumWidth(), getWallpaperDesiredMinimumHeight()));
+
+        final Handler handler = new Handler();
+        renderPipeline_ = new RenderPipeline(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
     }
 
     /**
-     * アクティビティ開始処理として、アプリ一覧を取得してグリッドにセットするためのタスクを 実行します。
+     * アクティビティ開始処理として、アプリ一覧を取得してグリッドに追加していくためのタスクを 実行します。
      */
     @Override
     protected void onStart() {
         super.onStart();
 
-        final LoadAppListTask task = new LoadAppListTask();
-        task.execute();
-        startProgress();
+        appsAdapter_ = new AppsAdapter(getApplicationContext(), iconLoader_);
+        appGrid_.setAdapter(appsAdapter_);
+
+        loadTask_ = new LoadAppListTask();
+        loadTask_.execute();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
 
-        dismissProgress();
+        if (loadTask_ != null) {
+            loadTask_.cancel(false);
+            loadTask_ = null;
+        }
+        renderPipeline_.cancel();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        iconLoader_.shutdown();
+        renderPipeline_.shutdown();
+    }
+
+    /**
+     * アプリ一覧で、あるアプリがクリックされたときのアクションです。
+     * <p>
+     * アイコンからラベルを作成する処理をバックグラウンドで開始します。 作成中に別のアプリがクリックされた場合は、
+     * 作成中のラベルは破棄して新しいラベルの作成を開始します。 同じアプリのラベルを同じテープに印刷したことがあれば、
+     * {@link EncodedLabelCache} に残っている変換済みのラベルをそのまま使います。
+     * </p>
+     */
+    @Override
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        final AppEntry entry = (AppEntry) parent.getItemAtPosition(position);
+        final ComponentName component = new ComponentName(entry.getPackageName(),
+                entry.getActivityName());
+
+        final TapeGeometry tape = PrintService.getLoadedTape(this);
+        labelTape_ = tape;
+        final String key = EncodedLabelCache.makeKey(entry.getComponentId(), tape, DITHER_MODE,
+                PrintSession.COMPRESSION_MODE);
+        renderPipeline_.submit(new IconLabelRenderTask(component, tape, key),
+                labelRenderCallback_);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_TEXT_LABEL, Menu.NONE, R.string.menu_text_label);
+        menu.add(Menu.NONE, MENU_CODE128, Menu.NONE, R.string.menu_code128);
+        menu.add(Menu.NONE, MENU_EAN13, Menu.NONE, R.string.menu_ean13);
+        menu.add(Menu.NONE, MENU_QR_CODE, Menu.NONE, R.string.menu_qr_code);
+        menu.add(Menu.NONE, MENU_BATCH_PRINT, Menu.NONE, R.string.menu_batch_print);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case MENU_TEXT_LABEL:
+                showInputDialog(R.string.menu_text_label, R.string.text_label_hint, null);
+                return true;
+            case MENU_CODE128:
+                showInputDialog(R.string.menu_code128, R.string.code128_hint, Symbology.CODE128);
+                return true;
+            case MENU_EAN13:
+                showInputDialog(R.string.menu_ean13, R.string.ean13_hint, Symbology.EAN13);
+                return true;
+            case MENU_QR_CODE:
+                showInputDialog(R.string.menu_qr_code, R.string.qr_code_hint, Symbology.QR_CODE);
+                return true;
+            case MENU_BATCH_PRINT:
+                showBatchDialog();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
     }
 
     /**
-     * プログレスダイアログを作成して表示します。
+     * 印刷する文字列を入力するダイアログを表示します。 入力されたら、ラベルの作成をバックグラウンドで開始します。
+     *
+     * @param title ダイアログのタイトルの文字列リソース ID。
+     * @param hint 入力欄のヒントの文字列リソース ID。
+     * @param symbology 作成するバーコードの種類。 文字ラベルなら {@code null}。
      */
-    private void startProgress() {
-        dismissProgress();
+    private void showInputDialog(int title, int hint, final Symbology symbology) {
+        final EditText input = new EditText(this);
+        input.setHint(hint);
+        if (symbology == null) {
+            input.setMinLines(2);
+        } else {
+            input.setSingleLine(true);
+        }
+        new AlertDialog.Builder(this).setTitle(title).setView(input)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final String text = input.getText().toString();
+                        if (text.trim().length() == 0) {
+                            return;
+                        }
+                        if (symbology == null) {
+                            printText(text);
+                        } else {
+                            printBarcode(symbology, text.trim());
+                        }
+                    }
+                }).setNegativeButton(android.R.string.cancel, null).show();
+    }
 
-        final ProgressDialog progress = new ProgressDialog(this);
-        final String message = getString(R.string.shortcut_progressdialog_title);
-        progress.setMessage(message);
-        progress.setCancelable(false);
-        progress.show();
+    /**
+     * 連続印刷のテンプレートとデータファイルを入力するダイアログを表示します。 入力されたら、印刷を開始します。
+     */
+    private void showBatchDialog() {
+        final EditText template = new EditText(this);
+        template.setHint(R.string.batch_template_hint);
+        template.setSingleLine(true);
+        final EditText data = new EditText(this);
+        data.setHint(R.string.batch_data_hint);
+        data.setSingleLine(true);
+        final LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(template);
+        layout.addView(data);
+        new AlertDialog.Builder(this).setTitle(R.string.menu_batch_print).setView(layout)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        printBatch(template.getText().toString(), data.getText().toString()
+                                .trim());
+                    }
+                }).setNegativeButton(android.R.string.cancel, null).show();
+    }
 
-        progressDialog_ = progress;
+    /**
+     * データファイルのレコードごとのラベルの連続印刷を開始します。 ラベルは {@link PrintService} で作成します。
+     *
+     * @param spec テンプレート。 {@link LabelTemplate#parse(String)} の形式です。
+     * @param path CSV か JSON のデータファイルのパス。
+     */
+    private void printBatch(String spec, String path) {
+        final LabelTemplate template;
+        try {
+            template = LabelTemplate.parse(spec);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "invalid batch template: " + spec, e);
+            Toast.makeText(this, R.string.msg_failed_to_render_label, Toast.LENGTH_LONG).show();
+            return;
+        }
+        final File dataFile = new File(path);
+        if (!dataFile.isFile()) {
+            Toast.makeText(this, R.string.msg_failed_to_read_batch_data, Toast.LENGTH_LONG)
+                    .show();
+            return;
+        }
+        final Intent intent = new Intent(this, PrintActivity.class);
+        intent.putExtra(PrintActivity.EXTRA_BATCH_TEMPLATE, template.toSpec());
+        intent.putExtra(PrintActivity.EXTRA_BATCH_DATA, dataFile.getAbsolutePath());
+        intent.putExtra(PrintActivity.EXTRA_CHAIN_LENGTH, BATCH_CHAIN_LENGTH);
+        intent.putExtra(PrintActivity.EXTRA_TAPE_WIDTH, PrintService.getLoadedTape(this)
+                .getMediaWidth());
+        startActivity(intent);
     }
 
     /**
-     * プログレスダイアログが表示されていれば中止します。
+     * 文字ラベルの作成をバックグラウンドで開始します。 同じ文字列を同じテープに印刷したことがあれば、
+     * {@link EncodedLabelCache} に残っている変換済みのラベルをそのまま使います。
+     *
+     * @param text 印刷する文字列。 {@code '\n'} で改行します。
+     */
+    private void printText(String text) {
+        final TapeGeometry tape = PrintService.getLoadedTape(this);
+        labelTape_ = tape;
+        // 文字ラベルは二値化しないので、キーに DitherMode は含めない
+        final String key = EncodedLabelCache.makeKey("text:" + text, tape,
+                PrintSession.COMPRESSION_MODE);
+        renderPipeline_.submit(new TextLabelRenderTask(text, tape, key), labelRenderCallback_);
+    }
+
+    /**
+     * バーコードのラベルの作成をバックグラウンドで開始します。 同じ内容を同じテープに印刷したことがあれば、
+     * {@link EncodedLabelCache} に残っている変換済みのラベルをそのまま使います。
+     *
+     * @param symbology バーコードの種類。
+     * @param text エンコードする文字列。
+     */
+    private void printBarcode(Symbology symbology, String text) {
+        final TapeGeometry tape = PrintService.getLoadedTape(this);
+        labelTape_ = tape;
+        final String key = EncodedLabelCache.makeKey(symbology.getKeyPrefix() + ":" + text, tape,
+                PrintSession.COMPRESSION_MODE);
+        renderPipeline_.submit(new BarcodeLabelRenderTask(symbology, text, tape, key),
+                labelRenderCallback_);
+    }
+
+    /**
+     * 文字列からラベルを作成し、印刷するコマンドに変換するタスクです。
      * <p>
-     * このメソッドが正常に完了した後は、 {@link #progressDialog_} が {@code null} に なります。
+     * 文字はテープの印刷範囲に収まる最大のサイズで、 {@link GlyphAtlas} の二値化済みのグリフから直接ラスターラインに描きます。
+     * {@link #renderPipeline_} のワーカースレッドで実行されます。
      * </p>
      */
-    private void dismissProgress() {
-        final ProgressDialog progress = progressDialog_;
-        if (progress != null) {
-            progress.dismiss();
+    private final class TextLabelRenderTask implements RenderTask<EncodedLabel> {
+        /**
+         * ラベルにする文字列。
+         */
+        private final String text_;
+
+        /**
+         * ラベルを印刷するテープ。
+         */
+        private final TapeGeometry tape_;
+
+        /**
+         * {@link EncodedLabelCache} のキー。
+         */
+        private final String cacheKey_;
+
+        public TextLabelRenderTask(String text, TapeGeometry tape, String cacheKey) {
+            text_ = text;
+            tape_ = tape;
+            cacheKey_ = cacheKey;
+        }
+
+        @Override
+        public EncodedLabel render(ProgressListener progress) throws IOException {
+            final EncodedLabelCache cache = EncodedLabelCache.getInstance(getCacheDir());
+            final EncodedLabel cached = cache.get(cacheKey_);
+            if (cached != null) {
+                return cached;
+            }
+
+            final int lineCount = text_.split("\n", -1).length;
+            final GlyphAtlas atlas = PaintGlyphRenderer.getAtlasToFit(tape_.getPins(),
+                    lineCount);
+            // 文字の前後には、行の高さの 1/4 の余白を置く
+            final TextLabel label = new TextLabel(atlas, tape_, text_,
+                    TextLabel.Alignment.CENTER, atlas.getLineHeight() / 4);
+            return cache.put(cacheKey_, label, PrintSession.COMPRESSION_MODE);
         }
-        progressDialog_ = null;
     }
 
     /**
-     * アプリ一覧で、あるアプリがクリックされたときのアクションです。
+     * バーコードのラベルを作成し、印刷するコマンドに変換するタスクです。
+     * <p>
+     * モジュールはピンピッチの整数倍で直接ラスターラインに描くので、拡大縮小やディザリングは行いません。
+     * {@link #renderPipeline_} のワーカースレッドで実行されます。
+     * </p>
      */
-    @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        final AppInfo appInfo = (AppInfo) parent.getItemAtPosition(position);
-        BitmapDrawable icon = (BitmapDrawable) appInfo.getIcon();
-
-        final Bitmap bmp = Bitmap.createBitmap(320, 320, Config.ARGB_8888);
-        final Canvas canvas = new Canvas(bmp);
-        Paint paint = new Paint();
-        paint.setDither(true);
-        canvas.drawBitmap(((BitmapDrawable) icon).getBitmap(), null, new Rect(0, 0,
-                bmp.getWidth() - 1, bmp.getHeight() - 1), paint);
-        final int[] pixels = new int[320 * 320];
-        bmp.getPixels(pixels, 0, 320, 0, 0, 320, 320);
-
-        // Random Dithering で二値化する
-        final Random rand = new Random();
-        for (int i = 0; i < pixels.length; i++) {
-            final int p = pixels[i];
-            // y=0.587*g+0.299*r+0.114b
-            final int y = Color.green(p) * 587 / 1000 //
-                    + Color.red(p) * 299 / 1000 //
-                    + Color.blue(p) * 114 / 1000;
-
-            final int blackOrWhite = (y < rand.nextInt(256)) ? 0 : 255;
-            pixels[i] = Color.argb(0xff, blackOrWhite, blackOrWhite, blackOrWhite);
+    private final class BarcodeLabelRenderTask implements RenderTask<EncodedLabel> {
+        /**
+         * バーコードの種類。
+         */
+        private final Symbology symbology_;
+
+        /**
+         * エンコードする文字列。
+         */
+        private final String text_;
+
+        /**
+         * ラベルを印刷するテープ。
+         */
+        private final TapeGeometry tape_;
+
+        /**
+         * {@link EncodedLabelCache} のキー。
+         */
+        private final String cacheKey_;
+
+        public BarcodeLabelRenderTask(Symbology symbology, String text, TapeGeometry tape,
+                String cacheKey) {
+            symbology_ = symbology;
+            text_ = text;
+            tape_ = tape;
+            cacheKey_ = cacheKey;
         }
 
-        // 二値化されたデータを印刷用ラスターデータに変換する
-        // TODO 二値化の際に変換も一緒に行ったほうが効率的
-        final int bmpWidth = bmp.getWidth();
-        final int bmpHeight = bmp.getHeight();
-        final int black = Color.argb(0xff, 0, 0, 0);
-        byte[][] rasterData = new byte[bmpWidth][];
-        for (int w = 0; w < rasterData.length; w++) {
-            final byte[] line = new byte[4/*印刷されない領域分*/+ bmp.getHeight() / 8];
-            int d = 0;
-            for (int h = 0; h < bmpHeight; h++) {
-                final int index = h * bmpWidth + w;
-                d <<= 1;
-                d += (pixels[index] == black ? 1 : 0);
-                if (h % 8 == 7) {
-                    line[4 + h / 8] = (byte) d;
-                }
+        @Override
+        public EncodedLabel render(ProgressListener progress) throws IOException {
+            final EncodedLabelCache cache = EncodedLabelCache.getInstance(getCacheDir());
+            final EncodedLabel cached = cache.get(cacheKey_);
+            if (cached != null) {
+                return cached;
             }
-            rasterData[w] = line;
+            final MonoBitmap symbol = new MonoBitmap(1, 1);
+            return cache.put(cacheKey_, symbology_.createLabel(text_, tape_, symbol),
+                    PrintSession.COMPRESSION_MODE);
         }
+    }
 
-        final Intent intent = new Intent(this, PrintActivity.class);
-        intent.putExtra("data", rasterData);
-        startActivity(intent);
+    /**
+     * アイコン画像からラベルを作成し、印刷するコマンドに変換するタスクです。
+     * <p>
+     * {@link #renderPipeline_} のワーカースレッドで実行されます。
+     * </p>
+     */
+    private final class IconLabelRenderTask implements RenderTask<EncodedLabel> {
+        /**
+         * ラベルにするアイコンを持つアクティビティ。
+         */
+        private final ComponentName component_;
+
+        /**
+         * ラベルを印刷するテープ。
+         */
+        private final TapeGeometry tape_;
+
+        /**
+         * {@link EncodedLabelCache} のキー。
+         */
+        private final String cacheKey_;
+
+        public IconLabelRenderTask(ComponentName component, TapeGeometry tape, String cacheKey) {
+            component_ = component;
+            tape_ = tape;
+            cacheKey_ = cacheKey;
+        }
+
+        @Override
+        public EncodedLabel render(ProgressListener progress) throws IOException,
+                NameNotFoundException {
+            final EncodedLabelCache cache = EncodedLabelCache.getInstance(getCacheDir());
+            final EncodedLabel cached = cache.get(cacheKey_);
+            if (cached != null) {
+                return cached;
+            }
+
+            // 一覧には縮小したアイコンしかないので、元のアイコンを読み込み直す
+            final Drawable icon = getPackageManager().getActivityIcon(component_);
+            // テープの印刷可能な範囲いっぱいの正方形に拡大・縮小する
+            final int size = tape_.getPins();
+            icon.setBounds(0, 0, size - 1, size - 1);
+            final DrawableRasterSource source = new DrawableRasterSource(icon, size, size,
+                    Color.TRANSPARENT);
+
+            // 数ラインずつ描画して二値化し、そのままコマンドに変換してキャッシュに書き出す
+            try {
+                final StreamingRasterizer rasterizer = new StreamingRasterizer(source,
+                        DITHER_MODE.newDitherer(), tape_);
+                rasterizer.setMetrics(PipelineMetrics.getShared());
+                return cache.put(cacheKey_, rasterizer, PrintSession.COMPRESSION_MODE, progress);
+            } finally {
+                source.recycle();
+            }
+        }
     }
 
     /**
-     * アプリ一覧を取得し、 {@value CreateShortcutActivity#appGrid_} にセットするタスクです。
+     * ラベル作成の経過をタイトルバーのプログレスに表示し、完了したら印刷を開始するコールバックです。
+     */
+    private final RenderCallback<EncodedLabel> labelRenderCallback_ = new RenderCallback<EncodedLabel>() {
+        @Override
+        public void onProgress(int done, int total) {
+            setProgressBarVisibility(true);
+            setProgress((int) ((long) done * MAX_WINDOW_PROGRESS / total));
+        }
+
+        @Override
+        public void onComplete(EncodedLabel label) {
+            setProgressBarVisibility(false);
+
+            final Intent intent = new Intent(AppSelectorActivity.this, PrintActivity.class);
+            intent.putExtra(PrintActivity.EXTRA_ENCODED_LABEL, label.getFile().getAbsolutePath());
+            intent.putExtra(PrintActivity.EXTRA_TAPE_WIDTH, labelTape_.getMediaWidth());
+            startActivity(intent);
+        }
+
+        @Override
+        public void onCancelled() {
+            setProgressBarVisibility(false);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            setProgressBarVisibility(false);
+            Log.e(TAG, "failed to render label.", cause);
+            Toast.makeText(AppSelectorActivity.this, R.string.msg_failed_to_render_label,
+                    Toast.LENGTH_LONG).show();
+        }
+    };
+
+    /**
+     * アプリ一覧を取得し、 {@value CreateShortcutActivity#appGrid_} のアダプタに少しずつ追加していくタスクです。
      * <p>
-     * 取得処理中はキャンセル不可なプログレスダイアログを表示します。
+     * 一覧が {@link AppListCache} にキャッシュされていればそれを一度に追加します。 キャッシュがなければ
+     * {@link PackageManager} からラベルを {@value #LOAD_CHUNK_SIZE} 件読み込むごとに追加するので、
+     * すべてのアプリを読み込み終わる前から一覧を操作できます。 アイコンはここでは読み込まず、
+     * セルが表示されるときに {@link IconLoader} で読み込みます。
+     * </p>
+     * <p>
+     * 読み込み中はタイトルバーにプログレスを表示します。
      * </p>
      *
      * @author zaki
      */
-    private final class LoadAppListTask extends AsyncTask<Void, Void, List<AppInfo>> {
+    private final class LoadAppListTask extends AsyncTask<Void, AppEntry[], Void> {
 
         @Override
-        protected List<AppInfo> doInBackground(Void... v) {
+        protected void onPreExecute() {
+            setProgressBarIndeterminateVisibility(true);
+        }
+
+        @Override
+        protected Void doInBackground(Void... v) {
+            final AppListCache listCache = AppListCache.getInstance(AppSelectorActivity.this);
+            final List<AppEntry> cached = listCache.load();
+            if (cached != null) {
+                publishProgress(cached.toArray(new AppEntry[cached.size()]));
+                return null;
+            }
+
             final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
             mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
 
             final PackageManager pm = getPackageManager();
             final List<ResolveInfo> apps = pm.queryIntentActivities(mainIntent, 0);
-            final List<AppInfo> appList = new ArrayList<AppInfo>(apps.size());
+            final List<AppEntry> entries = new ArrayList<AppEntry>(apps.size());
+            final Map<String, Integer> versionCodes = new HashMap<String, Integer>();
+            final List<AppEntry> chunk = new ArrayList<AppEntry>(LOAD_CHUNK_SIZE);
             for (ResolveInfo info : apps) {
+                if (isCancelled()) {
+                    return null;
+                }
                 final String packageName = info.activityInfo.packageName;
                 if (packageName == null) {
                     continue;
                 }
+                Integer versionCode = versionCodes.get(packageName);
+                if (versionCode == null) {
+                    try {
+                        versionCode = Integer.valueOf(pm.getPackageInfo(packageName, 0)
+                                .versionCode);
+                    } catch (NameNotFoundException e) {
+                        continue;
+                    }
+                    versionCodes.put(packageName, versionCode);
+                }
                 final String activityFqcn = info.activityInfo.name;
                 final CharSequence label = info.loadLabel(pm);
-                final Drawable icon = info.activityInfo.loadIcon(pm);
 
-                final AppInfo appInfo = new AppInfo(label.toString(), icon, activityFqcn,
-                        packageName);
-                appList.add(appInfo);
-            }
-            Collections.sort(appList, new Comparator<AppInfo>() {
-                @Override
-                public int compare(AppInfo app1, AppInfo app2) {
-                    return app1.getLabel().compareTo(app2.getLabel());
+                final AppEntry entry = new AppEntry(packageName, activityFqcn,
+                        versionCode.intValue(), label.toString());
+                entries.add(entry);
+                chunk.add(entry);
+                if (chunk.size() == LOAD_CHUNK_SIZE) {
+                    publishProgress(chunk.toArray(new AppEntry[chunk.size()]));
+                    chunk.clear();
                 }
-            });
+            }
+            if (!chunk.isEmpty()) {
+                publishProgress(chunk.toArray(new AppEntry[chunk.size()]));
+            }
 
-            return appList;
+            Collections.sort(entries, LABEL_ORDER);
+            listCache.save(entries);
+            return null;
         }
 
         @Override
-        protected final void onPostExecute(List<AppInfo> appList) {
-            final AppsAdapter adapter = new AppsAdapter(getApplicationContext(), appList);
-            appGrid_.setAdapter(adapter);
-            dismissProgress();
-        }
-    }
-
-    /**
-     * アプリ一覧に表示される１つのアプリの情報を保持するクラスです。
-     *
-     * @author zaki
-     */
-    private static final class AppInfo {
-        /** アプリケーションのラベル */
-        private final String label_;
-
-        /** アプリケーションのアイコン */
-        private final Drawable icon_;
-
-        /** アプリケーションの FQCN */
-        private final String activityFqcn_;
-
-        /** アプリケーションのパッケージ名 */
-        private final String packageName_;
-
-        public AppInfo(String label, Drawable icon, String activityFqcn, String packageName) {
-            super();
-            label_ = label;
-            icon_ = icon;
-            activityFqcn_ = activityFqcn;
-            packageName_ = packageName;
-        }
-
-        /**
-         * アプリケーションのラベルを返します。
-         *
-         * @return ラベル。
-         */
-        public String getLabel() {
-            return label_;
+        protected void onProgressUpdate(AppEntry[]... chunks) {
+            for (AppEntry[] chunk : chunks) {
+                appsAdapter_.addAll(Arrays.asList(chunk));
+            }
         }
 
-        /**
-         * アプリケーションのアイコンを返します。
-         *
-         * @return アイコン。
-         */
-        public Drawable getIcon() {
-            return icon_;
+        @Override
+        protected final void onPostExecute(Void result) {
+            setProgressBarIndeterminateVisibility(false);
         }
 
-        /**
-         * アプリケーションの FQCN を返します。
-         *
-         * @return FQCN
-         */
-        @SuppressWarnings("unused")
-        public String getActivityFqcn() {
-            return activityFqcn_;
+        @Override
+        protected void onCancelled() {
+            setProgressBarIndeterminateVisibility(false);
         }
+    }
 
-        /**
-         * アプリケーションのパッケージ名を返します。
-         *
-         * @return パッケージ名。
-         */
-        @SuppressWarnings("unused")
-        public String getPackageName() {
-            return packageName_;
+    /**
+     * アプリ一覧をラベル順に並べるための {@link Comparator}。
+     */
+    private static final Comparator<AppEntry> LABEL_ORDER = new Comparator<AppEntry>() {
+        @Override
+        public int compare(AppEntry app1, AppEntry app2) {
+            return app1.getLabel().compareTo(app2.getLabel());
         }
-
-    }
+    };
 
     /**
      * {@link GridView} に対してアプリ一覧を提供するアダプタです。
@@ -316,9 +704,14 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
     public static final class AppsAdapter extends BaseAdapter {
 
         /**
-         * アプリ一覧
+         * アプリ一覧。 ラベル順に並んでいます。
          */
-        private final List<AppInfo> apps_;
+        private final List<AppEntry> apps_ = new ArrayList<AppEntry>();
+
+        /**
+         * アイコンを読み込むためのローダー。
+         */
+        private final IconLoader iconLoader_;
 
         /**
          * グリッドの要素を生成するためのインフレータ。
@@ -331,14 +724,13 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
         private final LinearLayout.LayoutParams params_;
 
         /**
-         * 指定されたアプリ一覧を提供する {@link AppsAdapter} を構築します。
+         * 空のアプリ一覧を提供する {@link AppsAdapter} を構築します。 アプリは {@link #addAll(List)} で追加します。
          *
          * @param appContext アプリケーションコンテキスト。 コンストラクタ内でのみ使用し、参照は保持しません。
-         * @param apps 表示するアプリケーションのリスト。
-         *            渡されたリストは、アダプター内で保持します。以降呼び出し側で変更しないことを前提にしています。
+         * @param iconLoader アイコンを読み込むためのローダー。
          */
-        public AppsAdapter(Context appContext, List<AppInfo> apps) {
-            apps_ = apps;
+        public AppsAdapter(Context appContext, IconLoader iconLoader) {
+            iconLoader_ = iconLoader;
             inflater_ = (LayoutInflater) appContext
                     .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
@@ -348,6 +740,22 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
             params_ = new LinearLayout.LayoutParams(iconSize, iconSize);
         }
 
+        /**
+         * アプリを一覧に追加します。 一覧はラベル順に保たれます。
+         *
+         * @param apps 追加するアプリ。
+         */
+        public void addAll(List<AppEntry> apps) {
+            for (AppEntry app : apps) {
+                int index = Collections.binarySearch(apps_, app, LABEL_ORDER);
+                if (index < 0) {
+                    index = -(index + 1);
+                }
+                apps_.add(index, app);
+            }
+            notifyDataSetChanged();
+        }
+
         /**
          * 画面の大きさから、適切なアイコンのピクセル数を決定します。
          *
@@ -383,9 +791,9 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
             final GridRowData rowData = (v.getTag() == null) ? createRowData(v) : (GridRowData) v
                     .getTag();
 
-            final AppInfo info = getItem(position);
+            final AppEntry info = getItem(position);
             rowData.getTextView().setText(info.getLabel());
-            rowData.getImageView().setImageDrawable(info.getIcon());
+            iconLoader_.load(info, rowData.getImageView());
 
             v.setTag(rowData);
             return v;
@@ -414,13 +822,13 @@ public class AppSelectorActivity extends Activity implements OnItemClickListener
         }
 
         /**
-         * 指定されたインデックスの {@link AppInfo} を返します。
+         * 指定されたインデックスの {@link AppEntry} を返します。
          *
-         * @return 指定されたインデックスに対応する {@link AppInfo}。
+         * @return 指定されたインデックスに対応する {@link AppEntry}。
          * @throws IndexOutOfBoundsException 指定されたインデックスが、 {@code 0} 以上
          *             {@link #getCount()} 未満の範囲かた外れている場合。
          */
-        public final AppInfo getItem(int position) {
+        public final AppEntry getItem(int position) {
             if (position < 0 || getCount() <= position) {
                 throw new IndexOutOfBoundsException();
             }
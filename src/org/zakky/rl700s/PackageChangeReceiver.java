@@ -0,0 +1,29 @@
+package org.zakky.rl700s;
+
+import org.zakky.rl700s.icon.AppListCache;
+import org.zakky.rl700s.icon.IconCache;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+/**
+ * パッケージの追加・削除・更新を受け取り、アプリ一覧とアイコンのキャッシュを破棄するレシーバーです。
+ */
+public class PackageChangeReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        AppListCache.getInstance(context).invalidate();
+
+        final Uri data = intent.getData();
+        if (data == null) {
+            return;
+        }
+        final String packageName = data.getSchemeSpecificPart();
+        if (packageName != null) {
+            IconCache.getInstance(context).removePackage(packageName);
+        }
+    }
+}
@@ -1,37 +1,35 @@
 
 package org.zakky.rl700s;
 
-import org.zakky.rl700s.comm.RL700SCommands;
-import org.zakky.rl700s.comm.RL700SCommands.CommandMode;
-import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
-import org.zakky.rl700s.comm.RL700SCommands.EnhancedMode;
+import org.zakky.rl700s.batch.LabelTemplate;
 import org.zakky.rl700s.comm.RL700SCommands.Paper;
 import org.zakky.rl700s.comm.RL700SStatus;
 import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+import org.zakky.rl700s.print.EncodedLabel;
+import org.zakky.rl700s.print.PrintSettings;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.status.StatusListener;
 
 import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.hardware.usb.UsbConstants;
+import android.content.ServiceConnection;
 import android.hardware.usb.UsbDevice;
-import android.hardware.usb.UsbDeviceConnection;
-import android.hardware.usb.UsbEndpoint;
-import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.IBinder;
 import android.util.Log;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.nio.ByteBuffer;
-import java.text.ParseException;
+import java.io.File;
+import java.io.IOException;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 印刷を行うためのアクティビティです。
@@ -39,6 +37,35 @@ import java.util.concurrent.TimeUnit;
 public class PrintActivity extends Activity {
     public static final String TAG = "RL700S";
 
+    /**
+     * 印刷する {@link EncodedLabel} のファイルパスを渡すための extra のキー。 ファイルは削除しません。
+     */
+    public static final String EXTRA_ENCODED_LABEL = PrintActivity.class.getName()
+            + ".ENCODED_LABEL";
+
+    /**
+     * 連続印刷のデータファイルのパスを渡すための extra のキー。 {@link #EXTRA_ENCODED_LABEL} の代わりに指定し、
+     * {@link #EXTRA_BATCH_TEMPLATE} でテンプレートを渡します。 ファイルは削除しません。
+     */
+    public static final String EXTRA_BATCH_DATA = PrintActivity.class.getName() + ".BATCH_DATA";
+
+    /**
+     * 連続印刷のテンプレート ({@link LabelTemplate#parse(String)} の形式) を渡すための extra のキー。
+     */
+    public static final String EXTRA_BATCH_TEMPLATE = PrintActivity.class.getName()
+            + ".BATCH_TEMPLATE";
+
+    /**
+     * 連続印刷で、排出するまでにつなげるラベルの数を渡すための extra のキー。 省略した場合はすべてのラベルをつなげます。
+     */
+    public static final String EXTRA_CHAIN_LENGTH = PrintActivity.class.getName()
+            + ".CHAIN_LENGTH";
+
+    /**
+     * ラベルを作成したテープの幅 (mm) を渡すための extra のキー。 省略した場合、テープ幅は確認しません。
+     */
+    public static final String EXTRA_TAPE_WIDTH = PrintActivity.class.getName() + ".TAPE_WIDTH";
+
     private static final String ACTION_USB_PERMISSION = PrintActivity.class.getPackage().getName()
             + ".USB_PERMISSION";
 
@@ -46,12 +73,22 @@ public class PrintActivity extends Activity {
 
     private UsbDevice mTargetDevice = null;
 
-    private Handler mHandler = new Handler();
+    private static final String STATE_JOB_QUEUED = "jobQueued";
 
     private TextView mStatusView;
 
     private TextView mTapeTypeView;
 
+    /**
+     * ジョブを {@link PrintService} に渡したかどうか。
+     */
+    private boolean mJobQueued = false;
+
+    /**
+     * ステータスを受け取るために接続している {@link PrintService}。 接続していなければ {@code null}。
+     */
+    private PrintService.LocalBinder mPrintService = null;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -59,6 +96,9 @@ public class PrintActivity extends Activity {
 
         mStatusView = (TextView) findViewById(R.id.printer_status);
         mTapeTypeView = (TextView) findViewById(R.id.tape_type);
+        if (savedInstanceState != null) {
+            mJobQueued = savedInstanceState.getBoolean(STATE_JOB_QUEUED, false);
+        }
 
         mManager = (UsbManager) getSystemService(Context.USB_SERVICE);
         Object ci = getLastNonConfigurationInstance();
@@ -97,6 +137,12 @@ public class PrintActivity extends Activity {
         Toast.makeText(this, message, Toast.LENGTH_LONG).show();
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_JOB_QUEUED, mJobQueued);
+    }
+
     @Override
     public Object onRetainNonConfigurationInstance() {
         if (mTargetDevice != null) {
@@ -109,19 +155,25 @@ public class PrintActivity extends Activity {
     protected void onStart() {
         super.onResume();
 
+        bindService(new Intent(this, PrintService.class), mServiceConnection, 0);
+
         if (mTargetDevice != null) {
             if (requestPermission(mTargetDevice)) {
-                final PrinterDevice printer = openPrinter();
-                if (printer == null) {
-                    Toast.makeText(this, R.string.msg_failed_to_open_printer, //
-                            Toast.LENGTH_LONG).show();
-                    return;
-                }
-                print(printer);
+                enqueueJob();
             }
         }
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (mPrintService != null) {
+            mPrintService.setStatusListener(null);
+            mPrintService = null;
+        }
+        unbindService(mServiceConnection);
+    }
+
     private static UsbDevice findTargetDevice(Iterable<UsbDevice> devices) {
         for (UsbDevice device : devices) {
             if (!RL700S.isRl700s(device)) {
@@ -167,284 +219,81 @@ public class PrintActivity extends Activity {
                         return;
                     }
                     mTargetDevice = device;
-                    final PrinterDevice printer = openPrinter();
-                    if (printer == null) {
-                        Toast.makeText(PrintActivity.this, R.string.msg_failed_to_open_printer, //
-                                Toast.LENGTH_LONG).show();
-                        return;
-                    }
-                    print(printer);
+                    enqueueJob();
                 }
             }
         }
     };
 
-    private static final int ENDPOINT_NUMBER_FOR_INBULK = 1;
-
-    private static final int ENDPOINT_NUMBER_FOR_OUTBULK = 2;
-
-    private final class PrinterDevice {
-        private final UsbDeviceConnection mConnection;
-
-        private final UsbInterface mInterface;
-
-        private final UsbEndpoint mIn;
-
-        private final UsbEndpoint mOut;
-
-        public PrinterDevice(UsbDeviceConnection connection, UsbInterface interface1,
-                UsbEndpoint in, UsbEndpoint out) {
-            super();
-            mConnection = connection;
-            mInterface = interface1;
-            mIn = in;
-            mOut = out;
-        }
-
-        public UsbDeviceConnection getConnection() {
-            return mConnection;
-        }
-
-        public UsbInterface getInterface() {
-            return mInterface;
-        }
-
-        public UsbEndpoint in() {
-            return mIn;
-        }
-
-        public UsbEndpoint out() {
-            return mOut;
-        }
-    }
-
     /**
-     * 印刷処理を開始します。 {@link #mTargetDevice} が示すデバイスに対して印刷を行うので、{@code null} でない
-     * 値をセットしてから呼びだしてください。
+     * {@link #EXTRA_ENCODED_LABEL} で渡された変換済みのラベルか、 {@link #EXTRA_BATCH_DATA}
+     * で渡された連続印刷を、 {@link PrintService} の印刷キューに追加します。 同じジョブを2回追加することはありません。
      */
-    private PrinterDevice openPrinter() {
-        final UsbInterface iface = mTargetDevice.getInterface(0);
-        final UsbEndpoint in = iface.getEndpoint(0);
-        if (!checkEndpoint(in, ENDPOINT_NUMBER_FOR_INBULK, UsbConstants.USB_ENDPOINT_XFER_BULK,
-                UsbConstants.USB_DIR_IN)) {
-            return null;
-        }
-        final UsbEndpoint out = iface.getEndpoint(1);
-        if (!checkEndpoint(out, ENDPOINT_NUMBER_FOR_OUTBULK, UsbConstants.USB_ENDPOINT_XFER_BULK,
-                UsbConstants.USB_DIR_OUT)) {
-            return null;
-        }
-
-        final UsbDeviceConnection conn = mManager.openDevice(mTargetDevice);
-        if (!conn.claimInterface(iface, true)) {
-            return null;
-        }
-        final PrinterDevice printer = new PrinterDevice(conn, iface, in, out);
-        return printer;
-    }
-
-    private void print(PrinterDevice printer) {
-        final UsbDeviceConnection conn = printer.getConnection();
-
-        @SuppressWarnings("unused")
-        final UsbInterface iface = printer.getInterface();
-
-        final Paper paperType = Paper.SZ;
-        //final Paper paperType = Paper.LAMINATE;
-
-        final StatusReceiver receiver = new StatusReceiver(conn, printer.in());
-        new Thread(receiver).start();
-
-        final ByteBuffer outBuff = RL700SCommands.allocateOutBuffer();
-
-        RL700SCommands.getInit(outBuff);
-        send(conn, printer.out(), outBuff, 1000);
-
-        RL700SCommands.getStatus(outBuff);
-        send(conn, printer.out(), outBuff, 1000);
-
-        RL700SCommands.getSwitchCommandMode(outBuff, CommandMode.RASTER);
-        send(conn, printer.out(), outBuff, 1000);
-
-        RL700SCommands.getSetPrintInformation(outBuff, paperType, null, null, true, false);
-        send(conn, printer.out(), outBuff, 1000);
-
-        RL700SCommands.getSetMergin(outBuff, 20);
-        send(conn, printer.out(), outBuff, 1000);
-
-        //        RL700SCommands.getSetMode(outBuff, EnumSet.noneOf(Mode.class));
-        //        send(conn, printer.out(), outBuff, 1000);
-        //
-        RL700SCommands.getSetEnhancedMode(outBuff,
-                EnumSet.of(EnhancedMode.HALF_CUT, EnhancedMode.CUT_ON_CHAIN_PRINT));
-        send(conn, printer.out(), outBuff, 1000);
-
-        final CompressionMode cmode = CompressionMode.TIFF;
-        RL700SCommands.getSelectCompressionMode(outBuff, cmode);
-        send(conn, printer.out(), outBuff, 1000);
-
-        final Object[] rasterData = (Object[]) getIntent().getSerializableExtra("data");
-        for (int i = 0; i < rasterData.length; i++) {
-            final byte[] line = (byte[]) rasterData[i];
-            RL700SCommands.getSendRasterLine(outBuff, line, cmode);
-            send(conn, printer.out(), outBuff, 1000);
-        }
-        if (paperType != Paper.SZ) {
-            // SZ 以外では、余計にデータを送らないとなぜか短く切られてしまう。
-            for (int i = 0; i < 300; i++) {
-                RL700SCommands.getSendZeroRasterLine(outBuff);
-                send(conn, printer.out(), outBuff, 1000);
+    private void enqueueJob() {
+        if (mJobQueued) {
+            return;
+        }
+        final String labelPath = getIntent().getStringExtra(EXTRA_ENCODED_LABEL);
+        final String dataPath = getIntent().getStringExtra(EXTRA_BATCH_DATA);
+        if (labelPath == null && dataPath == null) {
+            Log.e(TAG, "no raster job specified.");
+            Toast.makeText(this, R.string.msg_failed_to_read_raster_job, Toast.LENGTH_LONG)
+                    .show();
+            return;
+        }
+        final PrintSettings defaults = PrintSettings.DEFAULT;
+        final TapeGeometry tape = TapeGeometry.fromMediaWidth(getIntent().getIntExtra(
+                EXTRA_TAPE_WIDTH, 0));
+        final PrintSettings settings = new PrintSettings(defaults.getPaper(), tape,
+                defaults.getMargin(), defaults.isHalfCut());
+        if (dataPath != null) {
+            final LabelTemplate template;
+            try {
+                template = LabelTemplate.parse(getIntent().getStringExtra(EXTRA_BATCH_TEMPLATE));
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "invalid batch template.", e);
+                Toast.makeText(this, R.string.msg_failed_to_render_label, Toast.LENGTH_LONG)
+                        .show();
+                return;
             }
-        }
-
-        RL700SCommands.getStartPrintWithEvacuation(outBuff);
-        send(conn, printer.out(), outBuff, 1000);
-    }
-
-    private static boolean checkEndpoint(UsbEndpoint endpoint, int number, int type, int direction) {
-        if (endpoint == null) {
-            return false;
-        }
-        if (endpoint.getEndpointNumber() != number) {
-            return false;
-        }
-        if (endpoint.getType() != type) {
-            return false;
-        }
-        if (endpoint.getDirection() != direction) {
-            return false;
-        }
-        return true;
-    }
-
-    private static boolean send(UsbDeviceConnection conn, UsbEndpoint endpoint, ByteBuffer buffer,
-            int timeoutMillis) {
-        if (endpoint.getDirection() != UsbConstants.USB_DIR_OUT) {
-            throw new RuntimeException("endpoint " + endpoint.getEndpointNumber()
-                    + " is not for send.");
-        }
-        if (endpoint.getMaxPacketSize() < buffer.remaining()) {
-            throw new RuntimeException("buffer is too big.");
-        }
-        final byte[] rawBuffer;
-        if (buffer.position() == 0 && buffer.arrayOffset() == 0) {
-            rawBuffer = buffer.array();
+            startService(PrintService.newBatchIntent(this, mTargetDevice, template, new File(
+                    dataPath), getIntent().getIntExtra(EXTRA_CHAIN_LENGTH, 0), settings));
         } else {
-            rawBuffer = new byte[buffer.remaining()];
-            System.arraycopy(buffer.array(), buffer.arrayOffset() + buffer.position(), rawBuffer,
-                    0, buffer.remaining());
-        }
-        final int sent = conn.bulkTransfer(endpoint, rawBuffer, buffer.remaining(), timeoutMillis);
-        if (sent != buffer.remaining()) {
-            return false;
-        }
-        buffer.position(buffer.position() + buffer.remaining());
-        return true;
-    }
-
-    private static boolean recv(UsbDeviceConnection conn, UsbEndpoint endpoint, ByteBuffer buffer,
-            int timeoutMillis) {
-        if (endpoint.getDirection() != UsbConstants.USB_DIR_IN) {
-            throw new RuntimeException("endpoint " + endpoint.getEndpointNumber()
-                    + " is not for send.");
-        }
-        if (buffer.remaining() < endpoint.getMaxPacketSize()) {
-            throw new RuntimeException("buffer is too small.");
-        }
-        final byte[] rawBuffer;
-        if (buffer.arrayOffset() == 0 && buffer.position() == 0) {
-            rawBuffer = buffer.array();
-        } else {
-            rawBuffer = new byte[buffer.remaining()];
-        }
-        final int recv = conn.bulkTransfer(endpoint, rawBuffer, endpoint.getMaxPacketSize(),
-                timeoutMillis);
-        if (recv < 0) {
-            return false;
-        }
-        if (buffer.array() != rawBuffer) {
-            System.arraycopy(rawBuffer, 0, buffer.array(),
-                    buffer.arrayOffset() + buffer.position(), recv);
+            final EncodedLabel label;
+            try {
+                label = EncodedLabel.open(new File(labelPath));
+            } catch (IOException e) {
+                Log.e(TAG, "failed to read encoded label.", e);
+                Toast.makeText(this, R.string.msg_failed_to_read_raster_job, Toast.LENGTH_LONG)
+                        .show();
+                return;
+            }
+            startService(PrintService.newPrintIntent(this, mTargetDevice, label, settings));
         }
-        buffer.position(buffer.position() + recv);
-
-        return true;
+        mJobQueued = true;
     }
 
-    private final class StatusReceiver implements Runnable {
-        private final UsbDeviceConnection mConnection;
-
-        private final UsbEndpoint mInEndpoint;
-
-        private final ByteBuffer mInBuf = RL700SStatus.allocateInBuffer();
-
-        private StatusReceiver(UsbDeviceConnection mConnection, UsbEndpoint mInEndpoint) {
-            super();
-            this.mConnection = mConnection;
-            this.mInEndpoint = mInEndpoint;
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mPrintService = (PrintService.LocalBinder) service;
+            mPrintService.setStatusListener(mStatusListener);
         }
 
         @Override
-        public void run() {
-            int statusCount = 0;
-            while (true) {
-                do {
-                    final int remaining = mInBuf.remaining();
-                    if (!recv(mConnection, mInEndpoint, mInBuf, 5000)) {
-                        return;
-                    }
-
-                    if (remaining == mInBuf.remaining()) {
-                        try {
-                            TimeUnit.MILLISECONDS.sleep(1000L);
-                        } catch (InterruptedException e) {
-                            return;
-                        }
-                    }
-                } while (mInBuf.hasRemaining());
-                mInBuf.flip();
-
-                try {
-                    final RL700SStatus status = RL700SStatus.parse(mInBuf);
-                    statusCount++;
-                    mInBuf.clear();
-
-                    final int a = statusCount;
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-
-                            switch (status.getStatusType()) {
-                                case 0: // ステータスリクエストへの応答
-                                    handleStatusUpdate(status.getMediaType(),
-                                            status.getMediaWidth(), status.getMediaLength());
-                                    break;
-                                case 1: // 印刷終了
-                                    handleFinish();
-                                    break;
-                                case 2: // エラー発生
-                                    handleError(status.getErrorInfoSet());
-                                    break;
-                                case 5: // 通知
-                                    handleNotification();
-                                    break;
-                                case 6: // フェーズ変更
-                                    handlePhaseChange();
-                                    break;
-                                default:
-                            }
-
-                            Toast.makeText(PrintActivity.this, "" + a, Toast.LENGTH_SHORT).show();
-                        }
-                    });
-                } catch (ParseException e) {
-                    Log.e(TAG, "failed to parse status.", e);
-                }
-            }
+        public void onServiceDisconnected(ComponentName name) {
+            mPrintService = null;
         }
+    };
 
-        private void handleStatusUpdate(int mediaType, int mediaWidth, int mediaLength) {
+    /**
+     * 印刷中のプリンターのステータスを画面に反映するリスナーです。
+     */
+    private final StatusListener mStatusListener = new StatusListener() {
+        @Override
+        public void onStatusReply(RL700SStatus status) {
             mStatusView.setText("ステータス取得完了");
+            final int mediaType = status.getMediaType();
             Paper p = null;
             for (Paper candidate : Paper.values()) {
                 if (candidate.rawValue() == mediaType) {
@@ -452,28 +301,28 @@ public class PrintActivity extends Activity {
                     break;
                 }
             }
-            mTapeTypeView.setText(p == null ? "不明なテープ(" + mediaType + ")" : p.name());
+            mTapeTypeView.setText((p == null ? "不明なテープ(" + mediaType + ")" : p.name()) + " "
+                    + status.getMediaWidth() + "mm");
         }
 
-        private void handleFinish() {
+        @Override
+        public void onPrintFinished(RL700SStatus status) {
             mStatusView.setText("印刷完了");
-
         }
 
-        private void handleError(EnumSet<ErrorInfo> errorInfo) {
-            mStatusView.setText("エラー" + errorInfo.toString());
-
+        @Override
+        public void onError(RL700SStatus status, EnumSet<ErrorInfo> errors) {
+            mStatusView.setText("エラー" + errors.toString());
         }
 
-        private void handleNotification() {
+        @Override
+        public void onNotification(RL700SStatus status) {
             mStatusView.setText("通知");
-
         }
 
-        private void handlePhaseChange() {
+        @Override
+        public void onPhaseChange(RL700SStatus status) {
             mStatusView.setText("フェーズ変更");
-
         }
-
-    }
+    };
 }
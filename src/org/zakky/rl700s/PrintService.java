@@ -0,0 +1,809 @@
+package org.zakky.rl700s;
+
+import org.zakky.rl700s.batch.BatchDataException;
+import org.zakky.rl700s.batch.BatchPrinter;
+import org.zakky.rl700s.batch.DataFormat;
+import org.zakky.rl700s.batch.LabelTemplate;
+import org.zakky.rl700s.batch.RecordReader;
+import org.zakky.rl700s.comm.RL700SCommands.Paper;
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+import org.zakky.rl700s.metrics.BatchSummary;
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.metrics.PipelineMetrics.Stage;
+import org.zakky.rl700s.print.EncodedLabel;
+import org.zakky.rl700s.print.PreflightException;
+import org.zakky.rl700s.print.PrintSession;
+import org.zakky.rl700s.print.PrintSettings;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.render.PaintGlyphRenderer;
+import org.zakky.rl700s.status.StatusListener;
+import org.zakky.rl700s.status.StatusMonitor;
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.PipelinedOutput;
+import org.zakky.rl700s.transport.UsbAsyncPrinterTransport;
+import org.zakky.rl700s.transport.UsbPrinterTransport;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 印刷ジョブのキューを順に印刷するサービスです。
+ * <p>
+ * プリンターのインターフェースは、キューが空になってから {@link #IDLE_TIMEOUT_MILLIS} ms
+ * の間は確保したままにしておきます。 その間に追加されたジョブは、接続やプリンターの設定をやり直さずに
+ * {@link PrintSession} でチェーン印刷します。
+ * </p>
+ * <p>
+ * ジョブは {@link #newPrintIntent(Context, UsbDevice, EncodedLabel, PrintSettings)} で作った
+ * {@link Intent} を {@link Context#startService(Intent)} に渡して追加します。 変換済みのラベルは
+ * 変換をやり直さずにそのまま送信します。 変換済みのラベルのファイルは削除しません。
+ * </p>
+ * <p>
+ * {@link #newBatchIntent(Context, UsbDevice, LabelTemplate, File, int, PrintSettings)} では、
+ * データファイルのレコードごとのラベルを {@link BatchPrinter} で連続印刷します。 データファイルは削除しません。
+ * </p>
+ */
+public class PrintService extends Service {
+
+    private static final String TAG = PrintService.class.getSimpleName();
+
+    public static final String ACTION_PRINT = PrintService.class.getName() + ".PRINT";
+
+    public static final String EXTRA_DEVICE = PrintService.class.getName() + ".DEVICE";
+
+    /**
+     * 印刷する {@link EncodedLabel} のファイルパス。
+     */
+    public static final String EXTRA_ENCODED_LABEL = PrintService.class.getName()
+            + ".ENCODED_LABEL";
+
+    /**
+     * 連続印刷のデータファイルのパス。 {@link #EXTRA_ENCODED_LABEL} の代わりに指定します。
+     */
+    public static final String EXTRA_BATCH_DATA = PrintService.class.getName() + ".BATCH_DATA";
+
+    /**
+     * 連続印刷のテンプレート ({@link LabelTemplate#toSpec()})。 {@link #EXTRA_BATCH_DATA} とともに指定します。
+     */
+    public static final String EXTRA_BATCH_TEMPLATE = PrintService.class.getName()
+            + ".BATCH_TEMPLATE";
+
+    /**
+     * 連続印刷で、排出するまでにつなげるラベルの数。 0 ならすべてのラベルをつなげます。
+     */
+    public static final String EXTRA_CHAIN_LENGTH = PrintService.class.getName()
+            + ".CHAIN_LENGTH";
+
+    public static final String EXTRA_PAPER = PrintService.class.getName() + ".PAPER";
+
+    public static final String EXTRA_MARGIN = PrintService.class.getName() + ".MARGIN";
+
+    public static final String EXTRA_HALF_CUT = PrintService.class.getName() + ".HALF_CUT";
+
+    /**
+     * ラベルを作成したテープの幅 (mm)。 0 の場合はテープ幅を確認しません。
+     */
+    public static final String EXTRA_TAPE_WIDTH = PrintService.class.getName() + ".TAPE_WIDTH";
+
+    /**
+     * キューが空になってから、プリンターを解放するまでの時間(ミリ秒)。
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000L;
+
+    private static final int ENDPOINT_NUMBER_FOR_INBULK = 1;
+
+    private static final int ENDPOINT_NUMBER_FOR_OUTBULK = 2;
+
+    /**
+     * 送信用エンドポイントに同時に開始しておく転送の数。
+     */
+    private static final int OUTPUT_WINDOW = 4;
+
+    /**
+     * 送信用エンドポイントの転送が1つも完了しないまま待つ時間の上限(ミリ秒)。
+     * <p>
+     * プリンターは印刷が追いつくまで受信を待たせるので、1回の転送 (最大 16KB) が印刷にかかる時間よりも長くしておきます。
+     * </p>
+     */
+    private static final int OUTPUT_TIMEOUT_MILLIS = 5 * 1000;
+
+    /**
+     * プリンターから通知されたテープ幅を保存する {@link SharedPreferences} の名前。
+     */
+    private static final String PREFS_NAME = "printer";
+
+    /**
+     * 最後に通知されたテープ幅 (mm) のキー。
+     */
+    private static final String PREF_MEDIA_WIDTH = "media_width";
+
+    /**
+     * プリンターを解放するたびに {@link PipelineMetrics} の集計結果を書き出す、アプリ専用ディレクトリ内のファイル名。
+     */
+    private static final String METRICS_FILE_NAME = "print-metrics.txt";
+
+    /**
+     * 連続印刷で、印刷より先に作成しておくラベルの最大数。
+     */
+    private static final int BATCH_RENDER_AHEAD = 8;
+
+    /**
+     * 連続印刷の変換済みのラベルを置く、キャッシュディレクトリ内のディレクトリ名。
+     */
+    private static final String BATCH_SPOOL_DIR_NAME = "batch";
+
+    /**
+     * 連続印刷の経過をログに出力する間隔 (枚)。
+     */
+    private static final int BATCH_PROGRESS_INTERVAL = 50;
+
+    private final LinkedBlockingQueue<PrintRequest> mQueue = new LinkedBlockingQueue<PrintRequest>();
+
+    private final Handler mHandler = new Handler();
+
+    private final Executor mUiExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    private final LocalBinder mBinder = new LocalBinder();
+
+    private UsbManager mManager;
+
+    private Thread mWorker;
+
+    /**
+     * 最後に受け付けた開始要求の ID。 UI スレッドからのみ使用します。
+     */
+    private int mLastStartId;
+
+    /**
+     * ステータスの通知先。 UI スレッドからのみ使用します。
+     */
+    private StatusListener mStatusListener = null;
+
+    /**
+     * プリンターがエラーを通知したため、次のジョブでプリアンブルから送り直す必要があるかどうか。
+     */
+    private volatile boolean mSessionInvalidated = false;
+
+    /**
+     * 最後に印刷したときにプリンターに装着されていたテープの {@link TapeGeometry} を返します。
+     * <p>
+     * ラベルはこのテープの印刷可能な範囲に合わせて作成します。 まだ一度も印刷していない場合や、
+     * 対応していないテープだった場合は {@link TapeGeometry#DEFAULT} を返します。
+     * </p>
+     *
+     * @param context コンテキスト。
+     * @return 装着されているはずのテープの {@link TapeGeometry}。
+     */
+    public static TapeGeometry getLoadedTape(Context context) {
+        final SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE);
+        final TapeGeometry tape = TapeGeometry.fromMediaWidth(prefs.getInt(PREF_MEDIA_WIDTH, 0));
+        return (tape == null) ? TapeGeometry.DEFAULT : tape;
+    }
+
+    /**
+     * 変換済みのラベルを印刷するジョブを追加するための {@link Intent} を作成します。
+     *
+     * @param context コンテキスト。
+     * @param device 印刷に使用するプリンター。 使用する権限を取得済みである必要があります。
+     * @param label 印刷するラベル。 ファイルは削除しません。
+     * @param settings 印刷に使用するパラメーター。
+     * @return {@link Context#startService(Intent)} に渡す {@link Intent}。
+     */
+    public static Intent newPrintIntent(Context context, UsbDevice device, EncodedLabel label,
+            PrintSettings settings) {
+        final Intent intent = newPrintIntent(context, device, settings);
+        intent.putExtra(EXTRA_ENCODED_LABEL, label.getFile().getPath());
+        return intent;
+    }
+
+    /**
+     * データファイルのレコードごとのラベルを連続印刷するジョブを追加するための {@link Intent} を作成します。
+     *
+     * @param context コンテキスト。
+     * @param device 印刷に使用するプリンター。 使用する権限を取得済みである必要があります。
+     * @param template ラベルのテンプレート。
+     * @param dataFile CSV か JSON のデータファイル。 形式は拡張子で判定します。 ファイルは削除しません。
+     * @param chainLength 排出するまでにつなげるラベルの数。 0 ならすべてのラベルをつなげます。
+     * @param settings 印刷に使用するパラメーター。
+     * @return {@link Context#startService(Intent)} に渡す {@link Intent}。
+     */
+    public static Intent newBatchIntent(Context context, UsbDevice device,
+            LabelTemplate template, File dataFile, int chainLength, PrintSettings settings) {
+        final Intent intent = newPrintIntent(context, device, settings);
+        intent.putExtra(EXTRA_BATCH_TEMPLATE, template.toSpec());
+        intent.putExtra(EXTRA_BATCH_DATA, dataFile.getPath());
+        intent.putExtra(EXTRA_CHAIN_LENGTH, chainLength);
+        return intent;
+    }
+
+    private static Intent newPrintIntent(Context context, UsbDevice device,
+            PrintSettings settings) {
+        final Intent intent = new Intent(context, PrintService.class);
+        intent.setAction(ACTION_PRINT);
+        intent.putExtra(EXTRA_DEVICE, device);
+        intent.putExtra(EXTRA_PAPER, settings.getPaper().name());
+        intent.putExtra(EXTRA_MARGIN, settings.getMargin());
+        intent.putExtra(EXTRA_HALF_CUT, settings.isHalfCut());
+        if (settings.getTape() != null) {
+            intent.putExtra(EXTRA_TAPE_WIDTH, settings.getTape().getMediaWidth());
+        }
+        return intent;
+    }
+
+    /**
+     * 同一プロセスのアクティビティから、ステータスの通知を受け取るための {@link Binder} です。
+     */
+    public final class LocalBinder extends Binder {
+        /**
+         * ステータスの通知先を設定します。 UI スレッドから呼び出してください。
+         *
+         * @param listener 通知先。 通知が不要になった場合は {@code null}。
+         */
+        public void setStatusListener(StatusListener listener) {
+            mStatusListener = listener;
+        }
+
+        /**
+         * 印刷待ちのジョブの数を返します。
+         *
+         * @return 印刷待ちのジョブの数。 印刷中のジョブは含みません。
+         */
+        public int getPendingJobCount() {
+            return mQueue.size();
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mManager = (UsbManager) getSystemService(Context.USB_SERVICE);
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processQueue();
+            }
+        }, "PrintWorker");
+        mWorker.start();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+        if (intent == null || !ACTION_PRINT.equals(intent.getAction())) {
+            return START_NOT_STICKY;
+        }
+        final UsbDevice device = (UsbDevice) intent.getParcelableExtra(EXTRA_DEVICE);
+        final String labelPath = intent.getStringExtra(EXTRA_ENCODED_LABEL);
+        final String dataPath = intent.getStringExtra(EXTRA_BATCH_DATA);
+        final String paper = intent.getStringExtra(EXTRA_PAPER);
+        if (device == null || (labelPath == null) == (dataPath == null) || paper == null) {
+            Log.w(TAG, "ignored invalid print request: " + intent);
+            return START_NOT_STICKY;
+        }
+        LabelTemplate template = null;
+        if (dataPath != null) {
+            final String spec = intent.getStringExtra(EXTRA_BATCH_TEMPLATE);
+            try {
+                template = LabelTemplate.parse(spec);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "ignored batch request with invalid template: " + spec, e);
+                return START_NOT_STICKY;
+            }
+        }
+        final PrintSettings settings = new PrintSettings(Paper.valueOf(paper), //
+                TapeGeometry.fromMediaWidth(intent.getIntExtra(EXTRA_TAPE_WIDTH, 0)), //
+                intent.getIntExtra(EXTRA_MARGIN, PrintSettings.DEFAULT.getMargin()), //
+                intent.getBooleanExtra(EXTRA_HALF_CUT, PrintSettings.DEFAULT.isHalfCut()));
+        if (dataPath != null) {
+            mQueue.add(new PrintRequest(device, new File(dataPath), template, //
+                    intent.getIntExtra(EXTRA_CHAIN_LENGTH, 0), settings));
+        } else {
+            mQueue.add(new PrintRequest(device, new File(labelPath), settings));
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mWorker.interrupt();
+        mStatusListener = null;
+    }
+
+    private static final class PrintRequest {
+        final UsbDevice mDevice;
+
+        /**
+         * 変換済みのラベルのファイルか、連続印刷のデータファイル。
+         */
+        final File mFile;
+
+        /**
+         * 連続印刷のテンプレート。 連続印刷でなければ {@code null}。
+         */
+        final LabelTemplate mTemplate;
+
+        /**
+         * 連続印刷で、排出するまでにつなげるラベルの数。
+         */
+        final int mChainLength;
+
+        final PrintSettings mSettings;
+
+        PrintRequest(UsbDevice device, File labelFile, PrintSettings settings) {
+            mDevice = device;
+            mFile = labelFile;
+            mTemplate = null;
+            mChainLength = 0;
+            mSettings = settings;
+        }
+
+        PrintRequest(UsbDevice device, File dataFile, LabelTemplate template, int chainLength,
+                PrintSettings settings) {
+            mDevice = device;
+            mFile = dataFile;
+            mTemplate = template;
+            mChainLength = chainLength;
+            mSettings = settings;
+        }
+    }
+
+    /**
+     * キューからジョブを取り出して印刷します。 {@link #mWorker} で実行されます。
+     */
+    private void processQueue() {
+        PrinterConnection printer = null;
+        try {
+            while (true) {
+                final PrintRequest request = mQueue.poll(IDLE_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    if (printer != null) {
+                        printer.close();
+                        printer = null;
+                        dumpMetrics();
+                    }
+                    stopIfIdle();
+                    continue;
+                }
+                if (printer != null && !printer.isFor(request.mDevice)) {
+                    printer.close();
+                    printer = null;
+                }
+                if (printer == null) {
+                    printer = openPrinter(request.mDevice);
+                    if (printer == null) {
+                        postToast(R.string.msg_failed_to_open_printer);
+                        continue;
+                    }
+                }
+                final boolean reusable = (request.mTemplate != null) ? printBatch(printer,
+                        request) : printJob(printer, request);
+                if (!reusable) {
+                    // 接続をやり直す
+                    printer.close();
+                    printer = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // サービスの終了
+        } finally {
+            if (printer != null) {
+                printer.close();
+            }
+        }
+    }
+
+    /**
+     * 変換済みのラベルを1つ印刷します。 ラベルのファイルはキャッシュのものなので削除しません。
+     *
+     * @return 接続を使い続けられる場合は {@code true}、送信に失敗した場合は {@code false}。
+     */
+    private boolean printJob(PrinterConnection printer, PrintRequest request) {
+        final EncodedLabel label;
+        try {
+            label = EncodedLabel.open(request.mFile);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to read raster job.", e);
+            postToast(R.string.msg_failed_to_read_raster_job);
+            // 直前のジョブがこのジョブに続けるつもりでチェーンしていれば、ここで排出する
+            return finishChain(printer);
+        }
+
+        if (mSessionInvalidated && !printer.mSession.isChaining()) {
+            mSessionInvalidated = false;
+            printer.mSession.invalidate();
+        }
+        // 同じプリンターに同じ設定のジョブが続いていれば、排出せずにチェーン印刷する
+        final PrintRequest next = mQueue.peek();
+        final boolean last = next == null || !printer.isFor(next.mDevice)
+                || !next.mSettings.equals(request.mSettings) || next.mTemplate != null;
+        try {
+            printer.mSession.print(label, request.mSettings, last);
+            if (last) {
+                final long start = System.nanoTime();
+                printer.mOutput.drain();
+                PipelineMetrics.getShared().record(Stage.DRAIN, start);
+            }
+        } catch (PreflightException e) {
+            // ラスターデータは送っていないので、接続はそのまま使える。 チェーン中のラベルは排出済み
+            Log.w(TAG, "print job rejected by preflight check: " + e.getMessage());
+            postPreflightError(e, request.mSettings);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "failed to send print data.", e);
+            postToast(R.string.msg_failed_to_print);
+            return false;
+        } catch (RuntimeException e) {
+            // ワーカーを止めないように、接続をやり直して次のジョブに進む
+            Log.e(TAG, "unexpected failure while printing.", e);
+            postToast(R.string.msg_failed_to_print);
+            return false;
+        }
+        Log.i(TAG, "sent job: " + printer.mSession.getLastJobSummary());
+        return true;
+    }
+
+    /**
+     * 排出していないラベルがあれば排出し、送信が終わるまで待ちます。
+     *
+     * @return 接続を使い続けられる場合は {@code true}、送信に失敗した場合は {@code false}。
+     */
+    private static boolean finishChain(PrinterConnection printer) {
+        if (!printer.mSession.isChaining()) {
+            return true;
+        }
+        try {
+            printer.mSession.finishChain();
+            printer.mOutput.drain();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "failed to eject chained label.", e);
+            return false;
+        }
+    }
+
+    /**
+     * データファイルのレコードごとのラベルを連続印刷します。
+     *
+     * @return 接続を使い続けられる場合は {@code true}、送信に失敗した場合は {@code false}。
+     */
+    private boolean printBatch(PrinterConnection printer, PrintRequest request) {
+        final LabelTemplate template = request.mTemplate;
+        final TapeGeometry tape = (request.mSettings.getTape() != null) ? request.mSettings
+                .getTape() : getLoadedTape(this);
+        final BatchPrinter batch = new BatchPrinter(template, tape,
+                (template.getSymbology() == null) ? PaintGlyphRenderer.getAtlasToFit(tape
+                        .getPins(), template.getLineCount()) : null, //
+                new File(getCacheDir(), BATCH_SPOOL_DIR_NAME), //
+                Runtime.getRuntime().availableProcessors(), BATCH_RENDER_AHEAD);
+        final BatchPrinter.Listener listener = new BatchPrinter.Listener() {
+            @Override
+            public void onLabelSent(int labelCount, double labelsPerMinute) {
+                if (labelCount % BATCH_PROGRESS_INTERVAL == 0) {
+                    Log.i(TAG, String.format(Locale.US, "batch: %d labels sent, %.1f labels/min",
+                            labelCount, labelsPerMinute));
+                }
+            }
+
+            @Override
+            public void onRecordSkipped(int recordNumber, RuntimeException cause) {
+                Log.w(TAG, "batch: skipped record " + recordNumber + ": " + cause.getMessage());
+            }
+        };
+
+        final RecordReader records;
+        try {
+            records = DataFormat.open(request.mFile);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to open batch data: " + request.mFile, e);
+            postToast(R.string.msg_failed_to_read_batch_data);
+            return true;
+        }
+        if (mSessionInvalidated && !printer.mSession.isChaining()) {
+            mSessionInvalidated = false;
+            printer.mSession.invalidate();
+        }
+        final BatchSummary summary;
+        try {
+            summary = batch.print(records, printer.mSession, request.mSettings,
+                    request.mChainLength, listener);
+            final long start = System.nanoTime();
+            printer.mOutput.drain();
+            PipelineMetrics.getShared().record(Stage.DRAIN, start);
+        } catch (PreflightException e) {
+            Log.w(TAG, "batch rejected by preflight check: " + e.getMessage());
+            postPreflightError(e, request.mSettings);
+            return true;
+        } catch (BatchDataException e) {
+            // それまでのラベルは排出済みなので、接続はそのまま使える
+            Log.e(TAG, "batch stopped.", e);
+            postToast(R.string.msg_failed_to_read_batch_data);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "failed to send batch print data.", e);
+            postToast(R.string.msg_failed_to_print);
+            return false;
+        } catch (RuntimeException e) {
+            // ワーカーを止めないように、接続をやり直して次のジョブに進む
+            Log.e(TAG, "unexpected failure while batch printing.", e);
+            postToast(R.string.msg_failed_to_print);
+            return false;
+        } finally {
+            try {
+                records.close();
+            } catch (IOException e) {
+                Log.w(TAG, "failed to close batch data: " + request.mFile, e);
+            }
+        }
+        Log.i(TAG, "batch finished: " + summary);
+        final String message = getString(R.string.msg_batch_finished, summary.getLabelCount(),
+                summary.getSkippedCount(), String.format(Locale.US, "%.1f", summary
+                        .getLabelsPerMinute()));
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(PrintService.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * {@link PipelineMetrics} の集計結果を logcat と {@link #METRICS_FILE_NAME} に書き出します。
+     */
+    private void dumpMetrics() {
+        final String dump = PipelineMetrics.getShared().toString();
+        for (String line : dump.split("\n")) {
+            Log.i(TAG, line);
+        }
+        final File file = new File(getFilesDir(), METRICS_FILE_NAME);
+        try {
+            final Writer out = new FileWriter(file);
+            try {
+                out.write(dump);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write metrics: " + file, e);
+        }
+    }
+
+    /**
+     * 新しいジョブが来ていなければサービスを終了します。
+     */
+    private void stopIfIdle() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mQueue.isEmpty()) {
+                    stopSelf(mLastStartId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 印刷前のステータス確認で印刷しなかった理由を、トーストで表示します。
+     */
+    private void postPreflightError(PreflightException e, PrintSettings settings) {
+        final String message;
+        switch (e.getReason()) {
+            case TIMEOUT:
+                message = getString(R.string.msg_preflight_no_reply);
+                break;
+            case MEDIA_TYPE_MISMATCH:
+                message = getString(R.string.msg_preflight_media_type);
+                break;
+            case MEDIA_WIDTH_MISMATCH:
+                message = getString(R.string.msg_preflight_media_width, settings.getTape()
+                        .getMediaWidth(), e.getStatus().getMediaWidth());
+                break;
+            case PRINTER_ERROR:
+            default:
+                message = getString(R.string.msg_preflight_printer_error);
+                break;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(PrintService.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * UI スレッドでトーストを表示します。
+     */
+    private void postToast(final int resId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(PrintService.this, resId, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * 確保したプリンターと、そのプリンターに対する印刷セッションです。
+     */
+    private static final class PrinterConnection {
+        final UsbDevice mDevice;
+
+        final UsbDeviceConnection mConnection;
+
+        final UsbInterface mInterface;
+
+        final PipelinedOutput mOutput;
+
+        final BatchingSender mSender;
+
+        final PrintSession mSession;
+
+        final StatusMonitor mMonitor;
+
+        PrinterConnection(UsbDevice device, UsbDeviceConnection connection, UsbInterface iface,
+                UsbEndpoint in, UsbEndpoint out, StatusListener statusListener,
+                Executor callbackExecutor) {
+            mDevice = device;
+            mConnection = connection;
+            mInterface = iface;
+            // コマンドを作っている間にも前の転送が進むように、複数の転送を同時に開始しておく
+            mOutput = new PipelinedOutput(new UsbAsyncPrinterTransport(connection, out,
+                    OUTPUT_WINDOW, OUTPUT_TIMEOUT_MILLIS));
+            mOutput.setMetrics(PipelineMetrics.getShared());
+            mSender = new BatchingSender(mOutput);
+            mMonitor = new StatusMonitor(new UsbPrinterTransport(connection, in, out),
+                    statusListener, callbackExecutor);
+            mMonitor.start();
+            // ラスターデータを送る前に、ステータスの応答を待ってテープとエラーを確認する
+            mSession = new PrintSession(mSender, mMonitor);
+            mSession.setMetrics(PipelineMetrics.getShared());
+        }
+
+        boolean isFor(UsbDevice other) {
+            return mDevice.getDeviceId() == other.getDeviceId();
+        }
+
+        /**
+         * 排出していないラベルを排出してから、接続を閉じます。
+         */
+        void close() {
+            finishChain(this);
+            mMonitor.stop();
+            mOutput.close();
+            mConnection.releaseInterface(mInterface);
+            mConnection.close();
+        }
+    }
+
+    /**
+     * プリンターを開き、インターフェースを確保します。
+     *
+     * @return 開いたプリンター。 開けなかった場合は {@code null}。
+     */
+    private PrinterConnection openPrinter(UsbDevice device) {
+        final UsbInterface iface = device.getInterface(0);
+        final UsbEndpoint in = iface.getEndpoint(0);
+        if (!checkEndpoint(in, ENDPOINT_NUMBER_FOR_INBULK, UsbConstants.USB_ENDPOINT_XFER_BULK,
+                UsbConstants.USB_DIR_IN)) {
+            return null;
+        }
+        final UsbEndpoint out = iface.getEndpoint(1);
+        if (!checkEndpoint(out, ENDPOINT_NUMBER_FOR_OUTBULK, UsbConstants.USB_ENDPOINT_XFER_BULK,
+                UsbConstants.USB_DIR_OUT)) {
+            return null;
+        }
+
+        final UsbDeviceConnection conn = mManager.openDevice(device);
+        if (conn == null) {
+            return null;
+        }
+        if (!conn.claimInterface(iface, true)) {
+            conn.close();
+            return null;
+        }
+        return new PrinterConnection(device, conn, iface, in, out, mSessionStatusListener,
+                mUiExecutor);
+    }
+
+    private static boolean checkEndpoint(UsbEndpoint endpoint, int number, int type, int direction) {
+        if (endpoint == null) {
+            return false;
+        }
+        if (endpoint.getEndpointNumber() != number) {
+            return false;
+        }
+        if (endpoint.getType() != type) {
+            return false;
+        }
+        if (endpoint.getDirection() != direction) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * セッションのステータスを {@link #mStatusListener} へ中継するリスナーです。 UI スレッドで呼び出されます。
+     */
+    private final StatusListener mSessionStatusListener = new StatusListener() {
+        @Override
+        public void onStatusReply(RL700SStatus status) {
+            // 次に作成するラベルを、装着されているテープに合わせるために覚えておく
+            final TapeGeometry tape = TapeGeometry.fromMediaWidth(status.getMediaWidth());
+            if (tape != null) {
+                getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                        .putInt(PREF_MEDIA_WIDTH, tape.getMediaWidth()).apply();
+            }
+            if (mStatusListener != null) {
+                mStatusListener.onStatusReply(status);
+            }
+        }
+
+        @Override
+        public void onPrintFinished(RL700SStatus status) {
+            if (mStatusListener != null) {
+                mStatusListener.onPrintFinished(status);
+            }
+        }
+
+        @Override
+        public void onError(RL700SStatus status, EnumSet<ErrorInfo> errors) {
+            // エラーから復帰したプリンターは設定を失っているかもしれない
+            mSessionInvalidated = true;
+            if (mStatusListener != null) {
+                mStatusListener.onError(status, errors);
+            }
+        }
+
+        @Override
+        public void onNotification(RL700SStatus status) {
+            if (mStatusListener != null) {
+                mStatusListener.onNotification(status);
+            }
+        }
+
+        @Override
+        public void onPhaseChange(RL700SStatus status) {
+            if (mStatusListener != null) {
+                mStatusListener.onPhaseChange(status);
+            }
+        }
+    };
+}
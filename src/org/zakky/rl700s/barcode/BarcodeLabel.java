@@ -0,0 +1,214 @@
+package org.zakky.rl700s.barcode;
+
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.raster.MonoBitmap;
+import org.zakky.rl700s.raster.TapeGeometry;
+
+import java.util.Arrays;
+
+/**
+ * バーコードや QR コードのシンボルを、テープのピンピッチに合わせて整数倍に拡大して提供する {@link RasterJob} です。
+ * <p>
+ * シンボルは {@link Code128} などで作成した、1画素が1モジュールの {@link MonoBitmap} です。 1モジュールは
+ * テープの送り方向に {@code moduleWidth} ライン、幅方向に {@code moduleHeight} ピンの長方形になり、
+ * 補間やディザリングは行いません。 前後にはクワイエットゾーンとして空白のラインを置き、シンボルはテープの幅方向の中央に配置します。
+ * </p>
+ * <p>
+ * 同じモジュール列のラインは直前に作成したラインをコピーするだけなので、読み出しでメモリを確保しません。
+ * 構築後に元のシンボルを変更しても、ジョブには影響しません。
+ * </p>
+ */
+public final class BarcodeLabel implements RasterJob {
+
+    private final MonoBitmap symbol_;
+
+    private final int moduleWidth_;
+
+    private final int moduleHeight_;
+
+    private final int quietZone_;
+
+    /**
+     * シンボルの上端のピン位置 (ラスターラインの先頭からのビット位置)。
+     */
+    private final int top_;
+
+    private final int lineCount_;
+
+    /**
+     * 1次元のバーコードを、バーの高さがテープの印刷可能な幅いっぱいになるように配置した {@link BarcodeLabel}
+     * を返します。
+     *
+     * @param symbol 高さ1のシンボル。
+     * @param tape 装着されているテープの {@link TapeGeometry}。
+     * @param moduleWidth 1モジュールあたりのライン数。
+     * @param quietZone 前後のクワイエットゾーンのモジュール数。
+     * @return ラベル。
+     */
+    public static BarcodeLabel linear(MonoBitmap symbol, TapeGeometry tape, int moduleWidth,
+            int quietZone) {
+        if (tape == null) {
+            throw new IllegalArgumentException("'tape' must not be null");
+        }
+        return new BarcodeLabel(symbol, tape, moduleWidth, tape.getPins(), quietZone);
+    }
+
+    /**
+     * 2次元のシンボルを、正方形のモジュールでテープの幅に収まる最大の大きさで配置した {@link BarcodeLabel} を返します。
+     * <p>
+     * 上下のクワイエットゾーンもテープに収まる大きさを優先し、収まらない場合はテープの余白をクワイエットゾーンとみなして、
+     * シンボルだけが収まる大きさにします。
+     * </p>
+     *
+     * @param symbol シンボル。
+     * @param tape 装着されているテープの {@link TapeGeometry}。
+     * @param quietZone 周囲のクワイエットゾーンのモジュール数。
+     * @return ラベル。
+     * @throws IllegalArgumentException 1モジュールを1ピンにしてもシンボルがテープに収まらない場合。
+     */
+    public static BarcodeLabel matrix(MonoBitmap symbol, TapeGeometry tape, int quietZone) {
+        if (symbol == null) {
+            throw new IllegalArgumentException("'symbol' must not be null");
+        }
+        if (tape == null) {
+            throw new IllegalArgumentException("'tape' must not be null");
+        }
+        int module = tape.getPins() / (symbol.getHeight() + quietZone * 2);
+        if (module == 0) {
+            module = tape.getPins() / symbol.getHeight();
+        }
+        if (module == 0) {
+            throw new IllegalArgumentException("symbol of " + symbol.getHeight()
+                    + " modules does not fit " + tape);
+        }
+        return new BarcodeLabel(symbol, tape, module, module, quietZone);
+    }
+
+    /**
+     * {@link BarcodeLabel} を構築します。
+     *
+     * @param symbol シンボル。
+     * @param tape 装着されているテープの {@link TapeGeometry}。
+     * @param moduleWidth 1モジュールあたりのライン数。
+     * @param moduleHeight 1モジュールあたりのピン数。
+     * @param quietZone 前後のクワイエットゾーンのモジュール数。
+     * @throws IllegalArgumentException シンボルがテープの印刷可能な幅に収まらない場合。
+     */
+    public BarcodeLabel(MonoBitmap symbol, TapeGeometry tape, int moduleWidth, int moduleHeight,
+            int quietZone) {
+        if (symbol == null) {
+            throw new IllegalArgumentException("'symbol' must not be null");
+        }
+        if (tape == null) {
+            throw new IllegalArgumentException("'tape' must not be null");
+        }
+        if (moduleWidth <= 0) {
+            throw new IllegalArgumentException("'moduleWidth' must be positive: " + moduleWidth);
+        }
+        if (moduleHeight <= 0) {
+            throw new IllegalArgumentException("'moduleHeight' must be positive: "
+                    + moduleHeight);
+        }
+        if (quietZone < 0) {
+            throw new IllegalArgumentException("'quietZone' must not be negative: " + quietZone);
+        }
+        final int height = symbol.getHeight() * moduleHeight;
+        if (tape.getPins() < height) {
+            throw new IllegalArgumentException("symbol height " + height + " exceeds "
+                    + tape.getPins() + " pins of " + tape);
+        }
+        symbol_ = symbol.copy();
+        moduleWidth_ = moduleWidth;
+        moduleHeight_ = moduleHeight;
+        quietZone_ = quietZone;
+        top_ = tape.getPinOffset() + (tape.getPins() - height) / 2;
+        lineCount_ = (symbol.getWidth() + quietZone * 2) * moduleWidth;
+    }
+
+    @Override
+    public int getLineCount() {
+        return lineCount_;
+    }
+
+    @Override
+    public int getBytesPerLine() {
+        return TapeGeometry.BYTES_PER_LINE;
+    }
+
+    @Override
+    public RasterLineReader openReader() {
+        return new RasterLineReader() {
+            private int next_ = 0;
+
+            /**
+             * 直前に作成したラインのモジュール列。 まだなければ -1。
+             */
+            private int column_ = -1;
+
+            private final byte[] line_ = new byte[TapeGeometry.BYTES_PER_LINE];
+
+            @Override
+            public boolean readLine(byte[] dest) {
+                if (lineCount_ <= next_) {
+                    return false;
+                }
+                final int column = next_++ / moduleWidth_ - quietZone_;
+                if (column < 0 || symbol_.getWidth() <= column) {
+                    Arrays.fill(dest, 0, TapeGeometry.BYTES_PER_LINE, (byte) 0);
+                    return true;
+                }
+                if (column != column_) {
+                    buildLine(column, line_);
+                    column_ = column;
+                }
+                System.arraycopy(line_, 0, dest, 0, TapeGeometry.BYTES_PER_LINE);
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // 何もしない
+            }
+        };
+    }
+
+    /**
+     * シンボルの {@code column} 列目を、拡大してラスターラインにします。
+     */
+    private void buildLine(int column, byte[] line) {
+        Arrays.fill(line, 0, TapeGeometry.BYTES_PER_LINE, (byte) 0);
+        final int rows = symbol_.getHeight();
+        int row = 0;
+        while (row < rows) {
+            if (!symbol_.get(column, row)) {
+                row++;
+                continue;
+            }
+            // 縦に続く暗モジュールはまとめて塗る
+            final int start = row;
+            while (row < rows && symbol_.get(column, row)) {
+                row++;
+            }
+            fillBits(line, top_ + start * moduleHeight_, top_ + row * moduleHeight_);
+        }
+    }
+
+    /**
+     * {@code from} から {@code to} の手前までのビットを 1 にします。 ビットは各バイトの上位から並びます。
+     */
+    private static void fillBits(byte[] line, int from, int to) {
+        while (from < to && (from & 7) != 0) {
+            line[from >>> 3] |= (byte) (0x80 >>> (from & 7));
+            from++;
+        }
+        while (from + 8 <= to) {
+            line[from >>> 3] = (byte) 0xff;
+            from += 8;
+        }
+        while (from < to) {
+            line[from >>> 3] |= (byte) (0x80 >>> (from & 7));
+            from++;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.zakky.rl700s.barcode;
+
+import org.zakky.rl700s.raster.MonoBitmap;
+
+/**
+ * Code 128 のバーコードを作成するエンコーダーです。
+ * <p>
+ * ASCII (0 から 127) の文字列を、コードセット A、 B、 C を切り替えながらエンコードします。 4桁以上続く数字はコードセット C で
+ * 2桁ずつまとめるので、シリアル番号のような数字の多い文字列は短くなります。 作成したバーコードは高さ1の {@link MonoBitmap}
+ * で、1画素が1モジュール、黒の画素がバーです。 クワイエットゾーンは含みません。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフです。
+ * </p>
+ */
+public final class Code128 {
+
+    /**
+     * クワイエットゾーンとして前後に必要なモジュール数。
+     */
+    public static final int QUIET_ZONE = 10;
+
+    /**
+     * シンボルの値ごとのバーとスペースの幅 (モジュール数)。 バーから始まり、6本 (ストップは7本) が交互に並びます。
+     */
+    private static final String[] PATTERNS = {
+            "212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312",
+            "132212", "221213", "221312", "231212", "112232", "122132", "122231", "113222",
+            "123122", "123221", "223211", "221132", "221231", "213212", "223112", "312131",
+            "311222", "321122", "321221", "312212", "322112", "322211", "212123", "212321",
+            "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+            "231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121",
+            "313121", "211331", "231131", "213113", "213311", "213131", "311123", "311321",
+            "331121", "312113", "312311", "332111", "314111", "221411", "431111", "111224",
+            "111422", "121124", "121421", "141122", "141221", "112214", "112412", "122114",
+            "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+            "111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112",
+            "421211", "212141", "214121", "412121", "111143", "111341", "131141", "114113",
+            "114311", "411113", "411311", "113141", "114131", "311141", "411131", "211412",
+            "211214", "211232", "2331112",
+    };
+
+    private static final int CODE_C = 99;
+
+    private static final int CODE_B = 100;
+
+    private static final int CODE_A = 101;
+
+    private static final int START_A = 103;
+
+    private static final int START_B = 104;
+
+    private static final int START_C = 105;
+
+    private static final int STOP = 106;
+
+    /**
+     * ストップ以外のシンボル1つあたりのモジュール数。
+     */
+    private static final int SYMBOL_MODULES = 11;
+
+    private static final int STOP_MODULES = 13;
+
+    private static final int SET_A = 0;
+
+    private static final int SET_B = 1;
+
+    private static final int SET_C = 2;
+
+    private Code128() {
+    }
+
+    /**
+     * 文字列をエンコードして {@code out} に書き込みます。
+     *
+     * @param text エンコードする文字列。 空でない ASCII 文字列。
+     * @param out 出力先。 バーコードの幅と高さ1に設定し直し、内容はすべて上書きされます。
+     * @throws IllegalArgumentException {@code text} が空の場合や、 ASCII 以外の文字を含む場合。
+     */
+    public static void encode(CharSequence text, MonoBitmap out) {
+        if (text == null) {
+            throw new IllegalArgumentException("'text' must not be null");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("'out' must not be null");
+        }
+        final int length = text.length();
+        if (length == 0) {
+            throw new IllegalArgumentException("'text' must not be empty");
+        }
+        for (int i = 0; i < length; i++) {
+            if (127 < text.charAt(i)) {
+                throw new IllegalArgumentException("Code 128 supports ASCII only: " + text);
+            }
+        }
+
+        // スタート、文字ごとに最大2つ (切り替えと値)、チェック
+        final int[] values = new int[length * 2 + 2];
+        int count = 0;
+        int set;
+        if (4 <= digitRun(text, 0) || digitRun(text, 0) == length && length % 2 == 0) {
+            set = SET_C;
+            values[count++] = START_C;
+        } else if (text.charAt(0) < 32) {
+            set = SET_A;
+            values[count++] = START_A;
+        } else {
+            set = SET_B;
+            values[count++] = START_B;
+        }
+
+        int i = 0;
+        while (i < length) {
+            final int run = digitRun(text, i);
+            if (set == SET_C) {
+                if (2 <= run) {
+                    values[count++] = (text.charAt(i) - '0') * 10 + (text.charAt(i + 1) - '0');
+                    i += 2;
+                    continue;
+                }
+                set = (text.charAt(i) < 32) ? SET_A : SET_B;
+                values[count++] = (set == SET_A) ? CODE_A : CODE_B;
+                continue;
+            }
+            // 数字が6桁以上 (末尾なら4桁以上) 続くなら、偶数桁になるところからコードセット C に切り替える
+            if (6 <= run || (4 <= run && i + run == length)) {
+                if (run % 2 == 0) {
+                    set = SET_C;
+                    values[count++] = CODE_C;
+                    continue;
+                }
+            }
+            final char c = text.charAt(i);
+            if (set == SET_B && c < 32) {
+                set = SET_A;
+                values[count++] = CODE_A;
+            } else if (set == SET_A && 96 <= c) {
+                set = SET_B;
+                values[count++] = CODE_B;
+            }
+            values[count++] = (c < 32) ? c + 64 : c - 32;
+            i++;
+        }
+
+        int checksum = values[0];
+        for (int n = 1; n < count; n++) {
+            checksum += values[n] * n;
+        }
+        values[count++] = checksum % 103;
+
+        out.reset(count * SYMBOL_MODULES + STOP_MODULES, 1);
+        int x = 0;
+        for (int n = 0; n < count; n++) {
+            x = drawSymbol(values[n], x, out);
+        }
+        drawSymbol(STOP, x, out);
+    }
+
+    /**
+     * {@code start} から続く数字の桁数を返します。
+     */
+    private static int digitRun(CharSequence text, int start) {
+        int end = start;
+        while (end < text.length() && '0' <= text.charAt(end) && text.charAt(end) <= '9') {
+            end++;
+        }
+        return end - start;
+    }
+
+    private static int drawSymbol(int value, int x, MonoBitmap out) {
+        final String pattern = PATTERNS[value];
+        for (int i = 0; i < pattern.length(); i++) {
+            final int width = pattern.charAt(i) - '0';
+            if (i % 2 == 0) {
+                out.fill(x, 0, width, 1, true);
+            }
+            x += width;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,123 @@
+package org.zakky.rl700s.barcode;
+
+import org.zakky.rl700s.raster.MonoBitmap;
+
+/**
+ * EAN-13 (JAN) のバーコードを作成するエンコーダーです。
+ * <p>
+ * 作成したバーコードは幅 {@value #MODULES}、高さ1の {@link MonoBitmap} で、1画素が1モジュール、黒の画素がバーです。
+ * ガードバーは他のバーと同じ高さで、クワイエットゾーンと読み取り用の数字は含みません。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフです。
+ * </p>
+ */
+public final class Ean13 {
+
+    /**
+     * バーコードのモジュール数。
+     */
+    public static final int MODULES = 95;
+
+    /**
+     * クワイエットゾーンとして前後に必要なモジュール数 (左側の規定値。 右側は7モジュールで足ります)。
+     */
+    public static final int QUIET_ZONE = 11;
+
+    /**
+     * 数字ごとの L パターン (奇数パリティ)。 上位ビットから7モジュールで、 1 がバーです。
+     */
+    private static final int[] L_PATTERNS = {
+            0x0d, 0x19, 0x13, 0x3d, 0x23, 0x31, 0x2f, 0x3b, 0x37, 0x0b,
+    };
+
+    /**
+     * 先頭の数字ごとの、左側6桁のパリティ。 上位ビットから、 1 が G パターン (偶数パリティ) です。
+     */
+    private static final int[] PARITIES = {
+            0x00, 0x0b, 0x0d, 0x0e, 0x13, 0x19, 0x1c, 0x15, 0x16, 0x1a,
+    };
+
+    private Ean13() {
+    }
+
+    /**
+     * 数字をエンコードして {@code out} に書き込みます。
+     *
+     * @param digits 12桁 (チェックディジットを計算して付けます) または13桁 (チェックディジットを検証します) の数字。
+     * @param out 出力先。 幅 {@value #MODULES}、高さ1に設定し直し、内容はすべて上書きされます。
+     * @throws IllegalArgumentException {@code digits} が12桁か13桁の数字でない場合や、チェックディジットが正しくない場合。
+     */
+    public static void encode(CharSequence digits, MonoBitmap out) {
+        if (digits == null) {
+            throw new IllegalArgumentException("'digits' must not be null");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("'out' must not be null");
+        }
+        final int length = digits.length();
+        if (length != 12 && length != 13) {
+            throw new IllegalArgumentException("EAN-13 needs 12 or 13 digits: " + digits);
+        }
+        final int[] d = new int[13];
+        for (int i = 0; i < length; i++) {
+            final char c = digits.charAt(i);
+            if (c < '0' || '9' < c) {
+                throw new IllegalArgumentException("EAN-13 accepts digits only: " + digits);
+            }
+            d[i] = c - '0';
+        }
+        final int check = checkDigit(d);
+        if (length == 13 && d[12] != check) {
+            throw new IllegalArgumentException("wrong check digit: " + digits + ", expected "
+                    + check);
+        }
+        d[12] = check;
+
+        out.reset(MODULES, 1);
+        int x = drawBits(0x5, 3, 0, out);
+        final int parity = PARITIES[d[0]];
+        for (int i = 1; i <= 6; i++) {
+            final boolean even = (parity & (0x20 >>> (i - 1))) != 0;
+            x = drawBits(even ? gPattern(d[i]) : L_PATTERNS[d[i]], 7, x, out);
+        }
+        x = drawBits(0x0a, 5, x, out);
+        for (int i = 7; i <= 12; i++) {
+            // R パターンは L パターンの反転
+            x = drawBits(~L_PATTERNS[d[i]] & 0x7f, 7, x, out);
+        }
+        drawBits(0x5, 3, x, out);
+    }
+
+    /**
+     * 先頭12桁から、チェックディジットを計算します。
+     *
+     * @param d 数字。 先頭12要素を使用します。
+     * @return チェックディジット。
+     */
+    private static int checkDigit(int[] d) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (i % 2 == 0) ? d[i] : d[i] * 3;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * G パターンは、 R パターン (L パターンの反転) を左右逆にしたもの。
+     */
+    private static int gPattern(int digit) {
+        final int r = ~L_PATTERNS[digit] & 0x7f;
+        return Integer.reverse(r) >>> (32 - 7);
+    }
+
+    private static int drawBits(int bits, int count, int x, MonoBitmap out) {
+        for (int i = count - 1; 0 <= i; i--) {
+            if ((bits & (1 << i)) != 0) {
+                out.set(x, 0, true);
+            }
+            x++;
+        }
+        return x;
+    }
+}
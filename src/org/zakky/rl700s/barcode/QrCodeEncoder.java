@@ -0,0 +1,749 @@
+package org.zakky.rl700s.barcode;
+
+import org.zakky.rl700s.raster.MonoBitmap;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * QR コード (モデル2) を作成するエンコーダーです。
+ * <p>
+ * 文字列は、すべて数字なら数字モード、すべて英数字モードの文字 (数字、英大文字、空白と {@code $%*+-./:}) なら英数字モード、
+ * それ以外は UTF-8 の8ビットバイトモードの1セグメントでエンコードし、収まる最小の型番 (1 から 40) を選びます。
+ * マスクパターンは8種類すべてを試して、失点のもっとも少ないものを使います。 作成した QR コードは1辺が
+ * {@code 17 + 4 * 型番} の {@link MonoBitmap} で、1画素が1モジュール、黒の画素が暗モジュールです。 クワイエットゾーンは含みません。
+ * </p>
+ * <p>
+ * 作業領域は最大の型番の分をインスタンスごとに1度だけ確保して使い回すので、同じインスタンスで続けて作成する場合、
+ * 1つあたりのメモリ確保はわずかです。 このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class QrCodeEncoder {
+
+    /**
+     * 誤り訂正レベルです。
+     */
+    public enum ErrorCorrection {
+        /**
+         * 約7%の誤りを訂正できます。
+         */
+        L(1),
+        /**
+         * 約15%の誤りを訂正できます。
+         */
+        M(0),
+        /**
+         * 約25%の誤りを訂正できます。
+         */
+        Q(3),
+        /**
+         * 約30%の誤りを訂正できます。
+         */
+        H(2);
+
+        /**
+         * 形式情報に書き込む2ビットの値。
+         */
+        final int formatBits_;
+
+        private ErrorCorrection(int formatBits) {
+            formatBits_ = formatBits;
+        }
+    }
+
+    /**
+     * クワイエットゾーンとして周囲に必要なモジュール数。
+     */
+    public static final int QUIET_ZONE = 4;
+
+    public static final int MIN_VERSION = 1;
+
+    public static final int MAX_VERSION = 40;
+
+    private static final int MAX_SIZE = 17 + 4 * MAX_VERSION;
+
+    /**
+     * 型番40の総コード語数。
+     */
+    private static final int MAX_CODEWORDS = 3706;
+
+    private static final int MODE_NUMERIC = 0x1;
+
+    private static final int MODE_ALPHANUMERIC = 0x2;
+
+    private static final int MODE_BYTE = 0x4;
+
+    private static final String ALPHANUMERIC_CHARSET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + " $%*+-./:";
+
+    /**
+     * 誤り訂正レベル ({@link ErrorCorrection#ordinal()}) と型番ごとの、1ブロックあたりの誤り訂正コード語数。
+     */
+    private static final int[][] ECC_CODEWORDS_PER_BLOCK = {
+            {
+                    -1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28,
+                    28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30,
+                    30
+            }, {
+                    -1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26,
+                    26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+                    28
+            }, {
+                    -1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26,
+                    30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30,
+                    30
+            }, {
+                    -1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26,
+                    28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30,
+                    30
+            },
+    };
+
+    /**
+     * 誤り訂正レベルと型番ごとの、ブロック数。
+     */
+    private static final int[][] ERROR_CORRECTION_BLOCKS = {
+            {
+                    -1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10,
+                    12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25
+            }, {
+                    -1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17,
+                    18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49
+            }, {
+                    -1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23,
+                    23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68
+            }, {
+                    -1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25,
+                    34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81
+            },
+    };
+
+    /**
+     * GF(2^8) (原始多項式 x^8 + x^4 + x^3 + x^2 + 1) の指数表と対数表。
+     */
+    private static final int[] EXP = new int[512];
+
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (0x100 <= x) {
+                x ^= 0x11d;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+    }
+
+    /**
+     * モジュール。 {@code y * size_ + x} 番目が {@code (x, y)} で、 1 が暗モジュールです。
+     */
+    private final byte[] modules_ = new byte[MAX_SIZE * MAX_SIZE];
+
+    /**
+     * 機能パターン (マスクしない領域) かどうか。
+     */
+    private final boolean[] function_ = new boolean[MAX_SIZE * MAX_SIZE];
+
+    /**
+     * データコード語。
+     */
+    private final byte[] data_ = new byte[MAX_CODEWORDS];
+
+    /**
+     * 誤り訂正コード語を付けて並べ替えたコード語。
+     */
+    private final byte[] codewords_ = new byte[MAX_CODEWORDS];
+
+    /**
+     * 1ブロック分の誤り訂正コード語の計算に使用する作業領域。
+     */
+    private final int[] remainder_ = new int[30];
+
+    /**
+     * 最後に作成した誤り訂正コード語数の生成多項式。 {@link #generatorDegree_} 次まで有効です。
+     */
+    private final int[] generator_ = new int[30];
+
+    private int generatorDegree_ = 0;
+
+    /**
+     * 失点の計算に使用する、行または列のモジュールの作業領域。
+     */
+    private final byte[] line_ = new byte[MAX_SIZE];
+
+    private int size_;
+
+    private int version_ = 0;
+
+    private int mask_ = -1;
+
+    /**
+     * 最後に作成した QR コードの型番を返します。
+     *
+     * @return 型番。 まだ作成していなければ 0。
+     */
+    public int getVersion() {
+        return version_;
+    }
+
+    /**
+     * 最後に作成した QR コードのマスクパターンを返します。
+     *
+     * @return マスクパターン (0 から 7)。 まだ作成していなければ -1。
+     */
+    public int getMask() {
+        return mask_;
+    }
+
+    /**
+     * 文字列をエンコードして {@code out} に書き込みます。
+     *
+     * @param text エンコードする文字列。
+     * @param ecc 誤り訂正レベル。
+     * @param out 出力先。 QR コードの大きさに設定し直し、内容はすべて上書きされます。
+     * @throws IllegalArgumentException 型番40でも収まらない場合。
+     */
+    public void encode(String text, ErrorCorrection ecc, MonoBitmap out) {
+        if (text == null) {
+            throw new IllegalArgumentException("'text' must not be null");
+        }
+        if (ecc == null) {
+            throw new IllegalArgumentException("'ecc' must not be null");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("'out' must not be null");
+        }
+
+        final int mode = selectMode(text);
+        final byte[] bytes = (mode == MODE_BYTE) ? toUtf8(text) : null;
+        final int count = (mode == MODE_BYTE) ? bytes.length : text.length();
+        final int dataBits = getDataBits(mode, count);
+
+        int version = MIN_VERSION;
+        while (getDataCodewords(version, ecc) * 8 < 4 + getCountBits(mode, version) + dataBits) {
+            if (++version > MAX_VERSION) {
+                throw new IllegalArgumentException("text is too long for a QR code: " + count
+                        + " characters");
+            }
+        }
+        version_ = version;
+        size_ = 17 + 4 * version;
+
+        final int dataCodewords = getDataCodewords(version, ecc);
+        writeData(text, bytes, mode, count, version, dataCodewords);
+        addErrorCorrection(version, ecc, dataCodewords);
+
+        Arrays.fill(modules_, 0, size_ * size_, (byte) 0);
+        Arrays.fill(function_, 0, size_ * size_, false);
+        drawFunctionPatterns(version);
+        drawCodewords(getRawDataModules(version) / 8);
+
+        // マスクパターンを順に試して、失点のもっとも少ないものを選ぶ
+        int bestMask = 0;
+        int bestPenalty = Integer.MAX_VALUE;
+        for (int mask = 0; mask < 8; mask++) {
+            applyMask(mask);
+            drawFormatBits(ecc, mask);
+            final int penalty = getPenalty();
+            if (penalty < bestPenalty) {
+                bestMask = mask;
+                bestPenalty = penalty;
+            }
+            // マスクは XOR なので、もう一度かけると元に戻る
+            applyMask(mask);
+        }
+        applyMask(bestMask);
+        drawFormatBits(ecc, bestMask);
+        mask_ = bestMask;
+
+        final int size = size_;
+        out.reset(size, size);
+        final long[] words = out.getWords();
+        final int wordsPerRow = out.getWordsPerRow();
+        for (int y = 0; y < size; y++) {
+            final int row = y * size;
+            final int base = y * wordsPerRow;
+            for (int x = 0; x < size; x++) {
+                if (modules_[row + x] != 0) {
+                    words[base + (x >>> 6)] |= Long.MIN_VALUE >>> x;
+                }
+            }
+        }
+    }
+
+    private static int selectMode(String text) {
+        boolean numeric = true;
+        boolean alphanumeric = true;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || '9' < c) {
+                numeric = false;
+            }
+            if (ALPHANUMERIC_CHARSET.indexOf(c) < 0) {
+                alphanumeric = false;
+            }
+        }
+        return numeric ? MODE_NUMERIC : alphanumeric ? MODE_ALPHANUMERIC : MODE_BYTE;
+    }
+
+    private static byte[] toUtf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * モード指示子と文字数指示子を除いた、データのビット数を返します。
+     */
+    private static int getDataBits(int mode, int count) {
+        switch (mode) {
+            case MODE_NUMERIC:
+                return count / 3 * 10 + ((count % 3 == 0) ? 0 : (count % 3 == 1) ? 4 : 7);
+            case MODE_ALPHANUMERIC:
+                return count / 2 * 11 + count % 2 * 6;
+            default:
+                return count * 8;
+        }
+    }
+
+    /**
+     * 文字数指示子のビット数を返します。
+     */
+    private static int getCountBits(int mode, int version) {
+        final int range = (version <= 9) ? 0 : (version <= 26) ? 1 : 2;
+        switch (mode) {
+            case MODE_NUMERIC:
+                return 10 + range * 2;
+            case MODE_ALPHANUMERIC:
+                return 9 + range * 2;
+            default:
+                return (range == 0) ? 8 : 16;
+        }
+    }
+
+    /**
+     * 機能パターンと形式情報・型番情報を除いた、コード語を置けるモジュール数を返します。
+     */
+    static int getRawDataModules(int version) {
+        int result = (16 * version + 128) * version + 64;
+        if (2 <= version) {
+            final int alignments = version / 7 + 2;
+            result -= (25 * alignments - 10) * alignments - 55;
+            if (7 <= version) {
+                result -= 36;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * データコード語数を返します。
+     */
+    static int getDataCodewords(int version, ErrorCorrection ecc) {
+        return getRawDataModules(version) / 8 - ECC_CODEWORDS_PER_BLOCK[ecc.ordinal()][version]
+                * ERROR_CORRECTION_BLOCKS[ecc.ordinal()][version];
+    }
+
+    /**
+     * モード指示子、文字数指示子、データ、終端パターン、埋め草コード語を {@link #data_} に書き込みます。
+     */
+    private void writeData(String text, byte[] bytes, int mode, int count, int version,
+            int dataCodewords) {
+        final byte[] data = data_;
+        Arrays.fill(data, 0, dataCodewords, (byte) 0);
+        int bit = appendBits(mode, 4, 0);
+        bit = appendBits(count, getCountBits(mode, version), bit);
+        switch (mode) {
+            case MODE_NUMERIC:
+                for (int i = 0; i < count; i += 3) {
+                    final int n = Math.min(3, count - i);
+                    final int value = Integer.parseInt(text.substring(i, i + n));
+                    bit = appendBits(value, n * 3 + 1, bit);
+                }
+                break;
+            case MODE_ALPHANUMERIC:
+                for (int i = 0; i < count; i += 2) {
+                    final int first = ALPHANUMERIC_CHARSET.indexOf(text.charAt(i));
+                    if (i + 1 < count) {
+                        final int second = ALPHANUMERIC_CHARSET.indexOf(text.charAt(i + 1));
+                        bit = appendBits(first * 45 + second, 11, bit);
+                    } else {
+                        bit = appendBits(first, 6, bit);
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    bit = appendBits(bytes[i] & 0xff, 8, bit);
+                }
+                break;
+        }
+        // 終端パターン (最大4ビットの 0) の後、バイト境界まで 0 を詰めてから埋め草コード語を交互に置く
+        final int capacity = dataCodewords * 8;
+        bit = Math.min(capacity, bit + 4);
+        int index = (bit + 7) / 8;
+        for (int pad = 0xec; index < dataCodewords; pad ^= 0xec ^ 0x11) {
+            data[index++] = (byte) pad;
+        }
+    }
+
+    private int appendBits(int value, int length, int bit) {
+        for (int i = length - 1; 0 <= i; i--, bit++) {
+            if (((value >>> i) & 1) != 0) {
+                data_[bit >>> 3] |= (byte) (0x80 >>> (bit & 7));
+            }
+        }
+        return bit;
+    }
+
+    /**
+     * データコード語をブロックに分けて誤り訂正コード語を計算し、インターリーブして {@link #codewords_} に並べます。
+     */
+    private void addErrorCorrection(int version, ErrorCorrection ecc, int dataCodewords) {
+        final int blocks = ERROR_CORRECTION_BLOCKS[ecc.ordinal()][version];
+        final int eccLength = ECC_CODEWORDS_PER_BLOCK[ecc.ordinal()][version];
+        final int rawCodewords = getRawDataModules(version) / 8;
+        // 前半の短いブロックと、データコード語が1つ多い後半の長いブロックに分かれる
+        final int shortBlocks = blocks - rawCodewords % blocks;
+        final int shortDataLength = rawCodewords / blocks - eccLength;
+        prepareGenerator(eccLength);
+
+        final byte[] data = data_;
+        final byte[] out = codewords_;
+        // データコード語は、各ブロックの先頭から1つずつ順に並べる
+        int index = 0;
+        for (int i = 0; i <= shortDataLength; i++) {
+            int offset = 0;
+            for (int b = 0; b < blocks; b++) {
+                final int length = shortDataLength + ((b < shortBlocks) ? 0 : 1);
+                if (i < length) {
+                    out[index++] = data[offset + i];
+                }
+                offset += length;
+            }
+        }
+        // 誤り訂正コード語も同じように並べる
+        int offset = 0;
+        for (int b = 0; b < blocks; b++) {
+            final int length = shortDataLength + ((b < shortBlocks) ? 0 : 1);
+            computeRemainder(data, offset, length, eccLength);
+            for (int i = 0; i < eccLength; i++) {
+                out[dataCodewords + i * blocks + b] = (byte) remainder_[i];
+            }
+            offset += length;
+        }
+    }
+
+    /**
+     * 次数 {@code degree} のリード・ソロモン符号の生成多項式 (根は α^0 から α^(degree-1)) の係数を、
+     * 最高次を除いて {@link #generator_} に求めます。
+     */
+    private void prepareGenerator(int degree) {
+        if (generatorDegree_ == degree) {
+            return;
+        }
+        final int[] g = generator_;
+        Arrays.fill(g, 0, degree, 0);
+        g[degree - 1] = 1;
+        int root = 1;
+        for (int i = 0; i < degree; i++) {
+            for (int j = 0; j < degree; j++) {
+                g[j] = multiply(g[j], root);
+                if (j + 1 < degree) {
+                    g[j] ^= g[j + 1];
+                }
+            }
+            root = multiply(root, 2);
+        }
+        generatorDegree_ = degree;
+    }
+
+    /**
+     * {@code data} の {@code offset} から {@code length} 個のコード語を生成多項式で割った余りを
+     * {@link #remainder_} に求めます。
+     */
+    private void computeRemainder(byte[] data, int offset, int length, int degree) {
+        final int[] r = remainder_;
+        final int[] g = generator_;
+        Arrays.fill(r, 0, degree, 0);
+        for (int i = 0; i < length; i++) {
+            final int factor = (data[offset + i] & 0xff) ^ r[0];
+            System.arraycopy(r, 1, r, 0, degree - 1);
+            r[degree - 1] = 0;
+            if (factor != 0) {
+                for (int j = 0; j < degree; j++) {
+                    r[j] ^= multiply(g[j], factor);
+                }
+            }
+        }
+    }
+
+    private static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    /**
+     * 位置検出パターン、分離パターン、タイミングパターン、位置合わせパターン、型番情報を描き、形式情報の領域を予約します。
+     */
+    private void drawFunctionPatterns(int version) {
+        final int size = size_;
+        for (int i = 0; i < size; i++) {
+            setFunction(6, i, i % 2 == 0);
+            setFunction(i, 6, i % 2 == 0);
+        }
+        drawFinder(3, 3);
+        drawFinder(size - 4, 3);
+        drawFinder(3, size - 4);
+
+        if (2 <= version) {
+            final int alignments = version / 7 + 2;
+            final int step = (version == 32) ? 26
+                    : (version * 4 + alignments * 2 + 1) / (alignments * 2 - 2) * 2;
+            final int[] positions = new int[alignments];
+            positions[0] = 6;
+            for (int i = alignments - 1, pos = size - 7; 1 <= i; i--, pos -= step) {
+                positions[i] = pos;
+            }
+            for (int i = 0; i < alignments; i++) {
+                for (int j = 0; j < alignments; j++) {
+                    // 位置検出パターンと重なる3つの角には置かない
+                    if (i == 0 && j == 0 || i == 0 && j == alignments - 1 || i == alignments - 1
+                            && j == 0) {
+                        continue;
+                    }
+                    drawAlignment(positions[i], positions[j]);
+                }
+            }
+        }
+
+        // 形式情報の領域は、ここでは予約だけしておく
+        drawFormatBits(ErrorCorrection.M, 0);
+
+        if (7 <= version) {
+            int remainder = version;
+            for (int i = 0; i < 12; i++) {
+                remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1f25);
+            }
+            final int bits = version << 12 | remainder;
+            for (int i = 0; i < 18; i++) {
+                final boolean dark = ((bits >>> i) & 1) != 0;
+                final int a = size - 11 + i % 3;
+                final int b = i / 3;
+                setFunction(a, b, dark);
+                setFunction(b, a, dark);
+            }
+        }
+    }
+
+    private void drawFinder(int cx, int cy) {
+        for (int dy = -4; dy <= 4; dy++) {
+            for (int dx = -4; dx <= 4; dx++) {
+                final int x = cx + dx;
+                final int y = cy + dy;
+                if (0 <= x && x < size_ && 0 <= y && y < size_) {
+                    final int distance = Math.max(Math.abs(dx), Math.abs(dy));
+                    setFunction(x, y, distance != 2 && distance != 4);
+                }
+            }
+        }
+    }
+
+    private void drawAlignment(int cx, int cy) {
+        for (int dy = -2; dy <= 2; dy++) {
+            for (int dx = -2; dx <= 2; dx++) {
+                setFunction(cx + dx, cy + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+            }
+        }
+    }
+
+    /**
+     * 形式情報 (誤り訂正レベルとマスクパターン) を2箇所に描き、暗モジュールを置きます。
+     */
+    private void drawFormatBits(ErrorCorrection ecc, int mask) {
+        final int data = ecc.formatBits_ << 3 | mask;
+        int remainder = data;
+        for (int i = 0; i < 10; i++) {
+            remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+        }
+        final int bits = (data << 10 | remainder) ^ 0x5412;
+
+        final int size = size_;
+        for (int i = 0; i <= 5; i++) {
+            setFunction(8, i, bit(bits, i));
+        }
+        setFunction(8, 7, bit(bits, 6));
+        setFunction(8, 8, bit(bits, 7));
+        setFunction(7, 8, bit(bits, 8));
+        for (int i = 9; i < 15; i++) {
+            setFunction(14 - i, 8, bit(bits, i));
+        }
+        for (int i = 0; i < 8; i++) {
+            setFunction(size - 1 - i, 8, bit(bits, i));
+        }
+        for (int i = 8; i < 15; i++) {
+            setFunction(8, size - 15 + i, bit(bits, i));
+        }
+        setFunction(8, size - 8, true);
+    }
+
+    private static boolean bit(int bits, int i) {
+        return ((bits >>> i) & 1) != 0;
+    }
+
+    private void setFunction(int x, int y, boolean dark) {
+        final int index = y * size_ + x;
+        modules_[index] = (byte) (dark ? 1 : 0);
+        function_[index] = true;
+    }
+
+    /**
+     * コード語を、右下から2列ずつ上下に往復しながら、機能パターン以外のモジュールに置きます。
+     */
+    private void drawCodewords(int count) {
+        final int size = size_;
+        final byte[] codewords = codewords_;
+        final int bits = count * 8;
+        int i = 0;
+        for (int right = size - 1; 1 <= right; right -= 2) {
+            // 縦のタイミングパターンの列は飛ばす
+            if (right == 6) {
+                right = 5;
+            }
+            final boolean upward = ((right + 1) & 2) == 0;
+            for (int v = 0; v < size; v++) {
+                final int y = upward ? size - 1 - v : v;
+                for (int j = 0; j < 2; j++) {
+                    final int index = y * size + right - j;
+                    if (!function_[index] && i < bits) {
+                        modules_[index] = (byte) ((codewords[i >>> 3] >>> (7 - (i & 7))) & 1);
+                        i++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 機能パターン以外のモジュールにマスクパターンを XOR します。
+     */
+    private void applyMask(int mask) {
+        final int size = size_;
+        final byte[] modules = modules_;
+        final boolean[] function = function_;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int index = y * size + x;
+                if (!function[index] && isMasked(mask, x, y)) {
+                    modules[index] ^= 1;
+                }
+            }
+        }
+    }
+
+    private static boolean isMasked(int mask, int x, int y) {
+        switch (mask) {
+            case 0:
+                return (x + y) % 2 == 0;
+            case 1:
+                return y % 2 == 0;
+            case 2:
+                return x % 3 == 0;
+            case 3:
+                return (x + y) % 3 == 0;
+            case 4:
+                return (x / 3 + y / 2) % 2 == 0;
+            case 5:
+                return x * y % 2 + x * y % 3 == 0;
+            case 6:
+                return (x * y % 2 + x * y % 3) % 2 == 0;
+            case 7:
+                return ((x + y) % 2 + x * y % 3) % 2 == 0;
+            default:
+                throw new IllegalArgumentException("unexpected mask: " + mask);
+        }
+    }
+
+    /**
+     * 現在のモジュールの失点を計算します。
+     */
+    private int getPenalty() {
+        final int size = size_;
+        final byte[] modules = modules_;
+        final byte[] line = line_;
+        int penalty = 0;
+        int dark = 0;
+        for (int y = 0; y < size; y++) {
+            System.arraycopy(modules, y * size, line, 0, size);
+            penalty += getLinePenalty(line, size);
+        }
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                line[y] = modules[y * size + x];
+                dark += line[y];
+            }
+            penalty += getLinePenalty(line, size);
+        }
+        // 2×2 の同色のブロック
+        for (int y = 0; y + 1 < size; y++) {
+            for (int x = 0; x + 1 < size; x++) {
+                final int index = y * size + x;
+                final int c = modules[index];
+                if (c == modules[index + 1] && c == modules[index + size]
+                        && c == modules[index + size + 1]) {
+                    penalty += 3;
+                }
+            }
+        }
+        // 暗モジュールの割合の、50% からの偏り
+        final int total = size * size;
+        final int k = (Math.abs(dark * 20 - total * 10) + total - 1) / total - 1;
+        return penalty + k * 10;
+    }
+
+    /**
+     * 1行 (または1列) の、同色の連続と位置検出パターンに似た並びの失点を計算します。
+     */
+    private static int getLinePenalty(byte[] line, int size) {
+        int penalty = 0;
+        int run = 1;
+        for (int i = 1; i <= size; i++) {
+            if (i < size && line[i] == line[i - 1]) {
+                run++;
+                continue;
+            }
+            if (5 <= run) {
+                penalty += run - 2;
+            }
+            run = 1;
+        }
+        // 暗:明:暗:暗:暗:明:暗 の前後どちらかに明が4つ (シンボルの外は明とみなす)
+        for (int i = 0; i + 7 <= size; i++) {
+            if (line[i] == 1 && line[i + 1] == 0 && line[i + 2] == 1 && line[i + 3] == 1
+                    && line[i + 4] == 1 && line[i + 5] == 0 && line[i + 6] == 1
+                    && (isLight(line, size, i - 4, i) || isLight(line, size, i + 7, i + 11))) {
+                penalty += 40;
+            }
+        }
+        return penalty;
+    }
+
+    private static boolean isLight(byte[] line, int size, int from, int to) {
+        for (int i = Math.max(0, from); i < Math.min(size, to); i++) {
+            if (line[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
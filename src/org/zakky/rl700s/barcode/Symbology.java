@@ -0,0 +1,110 @@
+package org.zakky.rl700s.barcode;
+
+import org.zakky.rl700s.raster.MonoBitmap;
+import org.zakky.rl700s.raster.TapeGeometry;
+
+/**
+ * ラベルに印刷できるバーコードの種類です。
+ * <p>
+ * 種類ごとのエンコーダーでシンボルを作成し、 {@link BarcodeLabel} としてテープに配置します。 1次元のバーコードは
+ * 1モジュールを {@value #LINEAR_MODULE_WIDTH} ラインにしてバーをテープの幅いっぱいに伸ばし、 QR コードはテープの幅に収まる最大の
+ * 正方形のモジュールにします。
+ * </p>
+ */
+public enum Symbology {
+    /**
+     * Code 128。 ASCII の文字列を印刷できます。
+     */
+    CODE128("code128") {
+        @Override
+        void encode(String text, MonoBitmap out) {
+            Code128.encode(text, out);
+        }
+
+        @Override
+        BarcodeLabel layout(MonoBitmap symbol, TapeGeometry tape) {
+            return BarcodeLabel.linear(symbol, tape, LINEAR_MODULE_WIDTH, Code128.QUIET_ZONE);
+        }
+    },
+    /**
+     * EAN-13 (JAN)。 12桁または13桁の数字を印刷できます。
+     */
+    EAN13("ean13") {
+        @Override
+        void encode(String text, MonoBitmap out) {
+            Ean13.encode(text, out);
+        }
+
+        @Override
+        BarcodeLabel layout(MonoBitmap symbol, TapeGeometry tape) {
+            return BarcodeLabel.linear(symbol, tape, LINEAR_MODULE_WIDTH, Ean13.QUIET_ZONE);
+        }
+    },
+    /**
+     * QR コード。 誤り訂正レベルは M です。
+     */
+    QR_CODE("qr") {
+        @Override
+        void encode(String text, MonoBitmap out) {
+            QR_ENCODER.get().encode(text, QrCodeEncoder.ErrorCorrection.M, out);
+        }
+
+        @Override
+        BarcodeLabel layout(MonoBitmap symbol, TapeGeometry tape) {
+            return BarcodeLabel.matrix(symbol, tape, QrCodeEncoder.QUIET_ZONE);
+        }
+    };
+
+    /**
+     * 1次元のバーコードの、1モジュールあたりのライン数 (360dpi で約0.28mm)。 EAN-13 の最小のモジュール幅
+     * (約0.264mm) を下回らないようにします。
+     */
+    public static final int LINEAR_MODULE_WIDTH = 4;
+
+    /**
+     * {@link QrCodeEncoder} は作業領域を使い回すので、スレッドごとに1つ用意します。
+     */
+    private static final ThreadLocal<QrCodeEncoder> QR_ENCODER = new ThreadLocal<QrCodeEncoder>() {
+        @Override
+        protected QrCodeEncoder initialValue() {
+            return new QrCodeEncoder();
+        }
+    };
+
+    private final String keyPrefix_;
+
+    private Symbology(String keyPrefix) {
+        keyPrefix_ = keyPrefix;
+    }
+
+    /**
+     * ラベルのキャッシュのキーなどに使用する、種類ごとの接頭辞を返します。
+     *
+     * @return 接頭辞。
+     */
+    public String getKeyPrefix() {
+        return keyPrefix_;
+    }
+
+    /**
+     * 文字列をエンコードしたラベルを作成します。
+     *
+     * @param text エンコードする文字列。
+     * @param tape 装着されているテープの {@link TapeGeometry}。
+     * @param work シンボルの作成に使用する作業領域。 内容は上書きされます。 ラベルは作業領域を参照しないので、
+     * 続けて作成する場合は同じものを渡せます。
+     * @return ラベル。
+     * @throws IllegalArgumentException この種類では {@code text} をエンコードできない場合や、テープに収まらない場合。
+     */
+    public BarcodeLabel createLabel(String text, TapeGeometry tape, MonoBitmap work) {
+        if (work == null) {
+            throw new IllegalArgumentException("'work' must not be null");
+        }
+        encode(text, work);
+        return layout(work, tape);
+    }
+
+    abstract void encode(String text, MonoBitmap out);
+
+    abstract BarcodeLabel layout(MonoBitmap symbol, TapeGeometry tape);
+}
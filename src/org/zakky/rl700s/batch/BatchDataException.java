@@ -0,0 +1,25 @@
+package org.zakky.rl700s.batch;
+
+import java.io.IOException;
+
+/**
+ * 連続印刷で、データファイルの読み込みか、変換済みのラベルの書き出しに失敗したことを表す例外です。
+ * <p>
+ * プリンターへの送信は失敗していません。 それまでに作成したラベルは印刷して排出してあるので、
+ * 同じ {@link org.zakky.rl700s.print.PrintSession} でそのまま次のジョブを印刷できます。
+ * </p>
+ */
+public final class BatchDataException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * {@link BatchDataException} を構築します。
+     *
+     * @param message 詳細メッセージ。
+     * @param cause 原因。
+     */
+    public BatchDataException(String message, IOException cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,470 @@
+package org.zakky.rl700s.batch;
+
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.metrics.BatchSummary;
+import org.zakky.rl700s.print.EncodedLabel;
+import org.zakky.rl700s.print.PrintSession;
+import org.zakky.rl700s.print.PrintSettings;
+import org.zakky.rl700s.raster.MonoBitmap;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.text.GlyphAtlas;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+
+/**
+ * データファイルのレコードごとに {@link LabelTemplate} からラベルを作成し、1つの {@link PrintSession} で連続印刷します。
+ * <p>
+ * ラベルの作成 (テンプレートの展開、描画、コマンド列への変換) は複数のワーカースレッドで印刷より先に進め、変換済みのラベルを
+ * {@link EncodedLabel} としてスプールディレクトリに置きます。 先に作成しておくラベルは最大 {@code renderAhead}
+ * 枚で、それを超えるとワーカーは印刷が追いつくまで待つので、レコードが何件あってもメモリとディスクの使用量は一定です。
+ * ラベルはワーカーが作成を終えた順ではなく、データファイルの順に印刷します。
+ * </p>
+ * <p>
+ * ラベルの間はチェーン印刷でつなぎ、 {@link PrintSettings#isHalfCut()} ならハーフカットで区切ります。
+ * {@code chainLength} 枚ごとと最後のラベルの後では、排出 (フルカット) します。 どのラベルで排出するかを決めるため、
+ * 各ラベルは次のラベルができるまで送信を保留します。 作成できなかったレコード (列がない、エンコードできない値など)
+ * は飛ばして、 {@link Listener} に通知します。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。 {@link #print(RecordReader, PrintSession, PrintSettings, int, Listener)}
+ * は、 {@link PrintSession} を使用するスレッドから呼び出してください。
+ * </p>
+ */
+public final class BatchPrinter {
+
+    /**
+     * 連続印刷の経過の通知先です。 {@link BatchPrinter#print} を呼び出したスレッドで呼び出されます。
+     */
+    public interface Listener {
+        /**
+         * ラベルを1枚送信したときに呼び出されます。
+         *
+         * @param labelCount これまでに送信したラベルの数。
+         * @param labelsPerMinute 開始してからの、1分あたりの枚数。
+         */
+        public void onLabelSent(int labelCount, double labelsPerMinute);
+
+        /**
+         * レコードからラベルを作成できず、飛ばしたときに呼び出されます。
+         *
+         * @param recordNumber レコードの番号 (1 から)。
+         * @param cause 原因。
+         */
+        public void onRecordSkipped(int recordNumber, RuntimeException cause);
+    }
+
+    private static final String SPOOL_PREFIX = "batch";
+
+    private static final String SPOOL_SUFFIX = ".label";
+
+    private final LabelTemplate template_;
+
+    private final TapeGeometry tape_;
+
+    private final GlyphAtlas atlas_;
+
+    private final File spoolDir_;
+
+    private final int workerCount_;
+
+    private final int renderAhead_;
+
+    /**
+     * {@link BatchPrinter} を構築します。
+     *
+     * @param template ラベルのテンプレート。
+     * @param tape 装着されているテープの {@link TapeGeometry}。
+     * @param atlas 文字ラベルの描画に使用する {@link GlyphAtlas}。 バーコードのテンプレートなら {@code null}
+     *            でも構いません。
+     * @param spoolDir 変換済みのラベルを一時的に置くディレクトリ。 なければ作成します。
+     * @param workerCount ラベルを作成するワーカースレッドの数。
+     * @param renderAhead 印刷より先に作成しておくラベルの最大数。
+     */
+    public BatchPrinter(LabelTemplate template, TapeGeometry tape, GlyphAtlas atlas,
+            File spoolDir, int workerCount, int renderAhead) {
+        if (template == null) {
+            throw new IllegalArgumentException("'template' must not be null");
+        }
+        if (tape == null) {
+            throw new IllegalArgumentException("'tape' must not be null");
+        }
+        if (template.getSymbology() == null && atlas == null) {
+            throw new IllegalArgumentException("'atlas' must not be null for a text template");
+        }
+        if (spoolDir == null) {
+            throw new IllegalArgumentException("'spoolDir' must not be null");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("'workerCount' must be positive: " + workerCount);
+        }
+        if (renderAhead <= 0) {
+            throw new IllegalArgumentException("'renderAhead' must be positive: " + renderAhead);
+        }
+        template_ = template;
+        tape_ = tape;
+        atlas_ = atlas;
+        spoolDir_ = spoolDir;
+        workerCount_ = workerCount;
+        renderAhead_ = renderAhead;
+    }
+
+    /**
+     * すべてのレコードのラベルを印刷します。
+     * <p>
+     * 送信を終えると戻ります。 最後のラベルの転送の完了は待たないので、必要なら呼び出し側で待ってください。
+     * 送信に失敗した場合は、作成済みで送信していないラベルを破棄して例外をスローします。
+     * </p>
+     *
+     * @param records データファイルのリーダー。 閉じるのは呼び出し側です。
+     * @param session 印刷に使用する {@link PrintSession}。
+     * @param settings 印刷に使用するパラメーター。
+     * @param chainLength 排出するまでにつなげるラベルの数。 0 ならすべてのラベルをつなげます。
+     * @param listener 経過の通知先。 不要なら {@code null}。
+     * @return 統計。
+     * @throws BatchDataException データファイルの読み込みか、ラベルの書き出しに失敗した場合。
+     *             失敗したレコードより前のラベルは印刷して排出してあります。
+     * @throws IOException 送信に失敗した場合。 {@link org.zakky.rl700s.print.PreflightException}
+     *             の場合もあります。
+     */
+    public BatchSummary print(RecordReader records, PrintSession session,
+            PrintSettings settings, int chainLength, Listener listener) throws IOException {
+        if (records == null) {
+            throw new IllegalArgumentException("'records' must not be null");
+        }
+        if (session == null) {
+            throw new IllegalArgumentException("'session' must not be null");
+        }
+        if (settings == null) {
+            throw new IllegalArgumentException("'settings' must not be null");
+        }
+        if (chainLength < 0) {
+            throw new IllegalArgumentException("'chainLength' must not be negative: "
+                    + chainLength);
+        }
+        if (!spoolDir_.isDirectory() && !spoolDir_.mkdirs()) {
+            throw new IOException("failed to create spool directory: " + spoolDir_);
+        }
+        return new Run(records, session, settings, chainLength, listener).execute();
+    }
+
+    /**
+     * 1回の連続印刷の状態です。
+     */
+    private final class Run {
+        private final RecordReader records_;
+
+        private final PrintSession session_;
+
+        private final PrintSettings settings_;
+
+        private final int chainLength_;
+
+        private final Listener listener_;
+
+        private final Object lock_ = new Object();
+
+        /**
+         * {@link #records_} を読み込むワーカーを1つに限るためのロック。 ファイルを読んでいる間も印刷スレッドが
+         * {@link #lock_} を取れるように、別のロックにします。 両方を取る場合は、このロックを先に取ります。
+         */
+        private final Object readLock_ = new Object();
+
+        /**
+         * 作成を終えたラベル。 {@code index % renderAhead_} 番目にレコード {@code index} の {@link EncodedLabel}
+         * か、作成できなかった原因の {@link RuntimeException} が入ります。 {@link #lock_} で保護します。
+         */
+        private final Object[] slots_ = new Object[renderAhead_];
+
+        /**
+         * 次にワーカーが読み込むレコードのインデックス。 {@link #lock_} で保護し、 {@link #readLock_}
+         * を持つワーカーだけが更新します。
+         */
+        private int nextRecord_ = 0;
+
+        /**
+         * 印刷スレッドが {@link #slots_} から取り出したラベルの数。 {@link #lock_} で保護します。
+         */
+        private int consumed_ = 0;
+
+        /**
+         * データファイルの終わりに達していれば、レコードの数。 まだなら -1。 {@link #lock_} で保護します。
+         */
+        private int recordCount_ = -1;
+
+        /**
+         * データファイルの読み込みかラベルの書き出しの失敗。 {@link #lock_} で保護します。
+         */
+        private BatchDataException failure_ = null;
+
+        /**
+         * {@link #failure_} で作成できなかった最初のレコードのインデックス。 それより前のラベルは印刷します。
+         * {@link #lock_} で保護します。
+         */
+        private int failedIndex_ = Integer.MAX_VALUE;
+
+        /**
+         * ワーカーを止めるかどうか。 {@link #lock_} で保護します。
+         */
+        private boolean stopped_ = false;
+
+        private final Thread[] workers_ = new Thread[workerCount_];
+
+        private final long start_ = System.nanoTime();
+
+        private int sent_ = 0;
+
+        private int skipped_ = 0;
+
+        private int strips_ = 0;
+
+        /**
+         * 排出していない連なりの、送信済みのラベルの数。
+         */
+        private int inStrip_ = 0;
+
+        Run(RecordReader records, PrintSession session, PrintSettings settings,
+                int chainLength, Listener listener) {
+            records_ = records;
+            session_ = session;
+            settings_ = settings;
+            chainLength_ = chainLength;
+            listener_ = listener;
+        }
+
+        BatchSummary execute() throws IOException {
+            // 送信を保留しているラベル
+            EncodedLabel held = null;
+            try {
+                for (int i = 0; i < workers_.length; i++) {
+                    workers_[i] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            render();
+                        }
+                    }, "BatchRender-" + i);
+                    workers_[i].setPriority(Thread.NORM_PRIORITY - 1);
+                    workers_[i].start();
+                }
+                for (int index = 0;; index++) {
+                    final Object result;
+                    try {
+                        result = take(index);
+                    } catch (BatchDataException e) {
+                        // 作成済みのラベルは印刷して排出しておく
+                        if (held != null) {
+                            final EncodedLabel last = held;
+                            held = null;
+                            send(last, true);
+                        }
+                        throw e;
+                    }
+                    if (result == null) {
+                        break;
+                    }
+                    if (result instanceof RuntimeException) {
+                        skipped_++;
+                        if (listener_ != null) {
+                            listener_.onRecordSkipped(index + 1, (RuntimeException) result);
+                        }
+                        continue;
+                    }
+                    // 送信に失敗しても finally で片付けられるように、送信する前に入れ替えておく
+                    final EncodedLabel previous = held;
+                    held = (EncodedLabel) result;
+                    if (previous != null) {
+                        send(previous, false);
+                    }
+                }
+                if (held != null) {
+                    final EncodedLabel last = held;
+                    held = null;
+                    send(last, true);
+                }
+                synchronized (lock_) {
+                    return new BatchSummary(recordCount_, sent_, skipped_, strips_,
+                            System.nanoTime() - start_);
+                }
+            } finally {
+                stop();
+                if (held != null) {
+                    held.getFile().delete();
+                }
+            }
+        }
+
+        /**
+         * レコード {@code index} のラベルができるまで待って、取り出します。
+         *
+         * @return ラベルか、作成できなかった原因。 レコードがもうなければ {@code null}。
+         */
+        private Object take(int index) throws IOException {
+            final int slot = index % renderAhead_;
+            synchronized (lock_) {
+                while (slots_[slot] == null && index < failedIndex_
+                        && (recordCount_ < 0 || index < recordCount_)) {
+                    try {
+                        lock_.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while waiting for label "
+                                + (index + 1));
+                    }
+                }
+                final Object result = slots_[slot];
+                if (result == null && failedIndex_ <= index) {
+                    throw failure_;
+                }
+                if (result != null) {
+                    slots_[slot] = null;
+                    consumed_++;
+                    lock_.notifyAll();
+                }
+                return result;
+            }
+        }
+
+        /**
+         * ラベルを送信して、ファイルを削除します。
+         *
+         * @param end 最後のラベルなら {@code true}。
+         */
+        private void send(EncodedLabel label, boolean end) throws IOException {
+            inStrip_++;
+            final boolean last = end || (chainLength_ != 0 && chainLength_ <= inStrip_);
+            try {
+                session_.print(label, settings_, last);
+            } finally {
+                label.getFile().delete();
+            }
+            sent_++;
+            if (last) {
+                strips_++;
+                inStrip_ = 0;
+            }
+            if (listener_ != null) {
+                listener_.onLabelSent(sent_, BatchSummary.labelsPerMinute(sent_, System
+                        .nanoTime()
+                        - start_));
+            }
+        }
+
+        /**
+         * ワーカースレッドで、レコードを読み込んでラベルを作成することを繰り返します。
+         */
+        private void render() {
+            final MonoBitmap work = new MonoBitmap(1, 1);
+            while (true) {
+                final int index;
+                final Map<String, String> record;
+                synchronized (readLock_) {
+                    synchronized (lock_) {
+                        // 作成済みのラベルが renderAhead_ 枚になったら、印刷が追いつくまで待つ
+                        while (!stopped_ && recordCount_ < 0 && failure_ == null
+                                && consumed_ + renderAhead_ <= nextRecord_) {
+                            try {
+                                lock_.wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        if (stopped_ || 0 <= recordCount_ || failure_ != null) {
+                            return;
+                        }
+                    }
+                    // nextRecord_ を進めるのは readLock_ を持つワーカーだけなので、読み込む間は lock_ を放しておける
+                    try {
+                        record = records_.read();
+                    } catch (IOException e) {
+                        synchronized (lock_) {
+                            fail(nextRecord_, new BatchDataException("failed to read record "
+                                    + (nextRecord_ + 1) + ": " + e.getMessage(), e));
+                        }
+                        return;
+                    }
+                    synchronized (lock_) {
+                        if (record == null) {
+                            recordCount_ = nextRecord_;
+                            lock_.notifyAll();
+                            return;
+                        }
+                        index = nextRecord_++;
+                    }
+                }
+
+                Object result;
+                try {
+                    final RasterJob job = template_.render(record, tape_, atlas_, work);
+                    final File file = File.createTempFile(SPOOL_PREFIX, SPOOL_SUFFIX, spoolDir_);
+                    result = EncodedLabel.encode(job, file, PrintSession.COMPRESSION_MODE);
+                } catch (RuntimeException e) {
+                    result = e;
+                } catch (IOException e) {
+                    synchronized (lock_) {
+                        fail(index, new BatchDataException("failed to write label "
+                                + (index + 1) + ": " + e.getMessage(), e));
+                    }
+                    return;
+                }
+                synchronized (lock_) {
+                    if (stopped_) {
+                        discard(result);
+                        return;
+                    }
+                    slots_[index % renderAhead_] = result;
+                    lock_.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * レコード {@code index} から先を作成できなかったことを記録し、ワーカーがレコードを読み込むのを止めます。
+         * {@link #lock_} を保持して呼び出すこと。
+         */
+        private void fail(int index, BatchDataException e) {
+            if (index < failedIndex_) {
+                failure_ = e;
+                failedIndex_ = index;
+            }
+            lock_.notifyAll();
+        }
+
+        /**
+         * ワーカーを止めて終了を待ち、送信していないラベルを削除します。
+         */
+        private void stop() {
+            synchronized (lock_) {
+                stopped_ = true;
+                lock_.notifyAll();
+            }
+            boolean interrupted = false;
+            for (Thread worker : workers_) {
+                while (worker != null) {
+                    try {
+                        worker.join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (lock_) {
+                for (int i = 0; i < slots_.length; i++) {
+                    discard(slots_[i]);
+                    slots_[i] = null;
+                }
+            }
+        }
+
+        private void discard(Object result) {
+            if (result instanceof EncodedLabel) {
+                ((EncodedLabel) result).getFile().delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.zakky.rl700s.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CSV (RFC 4180) のデータファイルを読み込む {@link RecordReader} です。
+ * <p>
+ * 1行目を列名とし、2行目以降を1行1レコードとして読み込みます。 値は {@code "} で囲むと、カンマ、改行、
+ * {@code ""} と書いた {@code "} を含められます。 改行は CRLF と LF のどちらでも構いません。 何も書かれていない行は読み飛ばすので、
+ * 列が1つだけのデータで空の値を書くときは {@code ""} としてください。
+ * 列の数が1行目と異なる行があれば、 {@link IOException} をスローします。 表計算ソフトが先頭に付ける BOM は無視します。
+ * </p>
+ */
+public final class CsvRecordReader implements RecordReader {
+
+    private final Reader in_;
+
+    /**
+     * 列名。 まだ1行目を読んでいなければ {@code null}。
+     */
+    private String[] header_ = null;
+
+    /**
+     * 1行分の値を読み込む作業領域。
+     */
+    private final List<String> fields_ = new ArrayList<String>();
+
+    private final StringBuilder field_ = new StringBuilder();
+
+    /**
+     * 読み込み中の行番号 (1 から)。 値に含まれる改行は数えません。
+     */
+    private int lineNumber_ = 0;
+
+    /**
+     * 1文字先読みした文字。 先読みしていなければ {@code -2}。
+     */
+    private int peeked_ = -2;
+
+    /**
+     * {@link CsvRecordReader} を構築します。
+     *
+     * @param in 読み込むデータ。 バッファリングされている必要はありません。
+     */
+    public CsvRecordReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("'in' must not be null");
+        }
+        in_ = (in instanceof BufferedReader) ? in : new BufferedReader(in);
+    }
+
+    @Override
+    public Map<String, String> read() throws IOException {
+        if (header_ == null) {
+            final int first = next();
+            if (first != '\ufeff') {
+                peeked_ = first;
+            }
+            if (!readRow()) {
+                return null;
+            }
+            header_ = fields_.toArray(new String[fields_.size()]);
+        }
+        if (!readRow()) {
+            return null;
+        }
+        if (fields_.size() != header_.length) {
+            throw new IOException("line " + lineNumber_ + " has " + fields_.size()
+                    + " fields, but the header has " + header_.length);
+        }
+        final Map<String, String> record = new HashMap<String, String>();
+        for (int i = 0; i < header_.length; i++) {
+            record.put(header_[i], fields_.get(i));
+        }
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in_.close();
+    }
+
+    /**
+     * 空でない次の行を {@link #fields_} に読み込みます。
+     *
+     * @return データの終わりに達した場合は {@code false}。
+     */
+    private boolean readRow() throws IOException {
+        while (true) {
+            final int first = next();
+            if (first == -1) {
+                return false;
+            }
+            peeked_ = first;
+            lineNumber_++;
+            fields_.clear();
+            int end;
+            do {
+                end = readField();
+                fields_.add(field_.toString());
+            } while (end == ',');
+            // 何も書かれていない行は読み飛ばす。 "" と書かれた行は空の値が1つのレコード
+            if (first == '"' || fields_.size() != 1 || fields_.get(0).length() != 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 値を1つ {@link #field_} に読み込みます。
+     *
+     * @return 値の後の区切り。 {@code ','}、 {@code '\n'}、データの終わりなら {@code -1}。
+     */
+    private int readField() throws IOException {
+        field_.setLength(0);
+        int c = next();
+        if (c == '"') {
+            while (true) {
+                c = next();
+                if (c == -1) {
+                    throw new IOException("line " + lineNumber_ + ": unterminated quoted field");
+                }
+                if (c == '"') {
+                    c = next();
+                    if (c != '"') {
+                        break;
+                    }
+                }
+                field_.append((char) c);
+            }
+            if (c == '\r') {
+                c = next();
+            }
+            if (c != ',' && c != '\n' && c != -1) {
+                throw new IOException("line " + lineNumber_
+                        + ": unexpected character after quoted field: " + (char) c);
+            }
+            return c;
+        }
+        while (c != ',' && c != '\n' && c != -1) {
+            if (c == '\r') {
+                final int following = next();
+                if (following == '\n' || following == -1) {
+                    return following;
+                }
+                peeked_ = following;
+            }
+            field_.append((char) c);
+            c = next();
+        }
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (peeked_ != -2) {
+            final int c = peeked_;
+            peeked_ = -2;
+            return c;
+        }
+        return in_.read();
+    }
+}
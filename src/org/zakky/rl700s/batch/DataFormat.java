@@ -0,0 +1,70 @@
+package org.zakky.rl700s.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * 連続印刷のデータファイルの形式の一覧です。
+ */
+public enum DataFormat {
+    /** 1行目を列名とする CSV。 */
+    CSV(".csv") {
+        @Override
+        public RecordReader newReader(Reader in) {
+            return new CsvRecordReader(in);
+        }
+    },
+    /** オブジェクトの配列の JSON。 */
+    JSON(".json") {
+        @Override
+        public RecordReader newReader(Reader in) {
+            return new JsonRecordReader(in);
+        }
+    };
+
+    private final String extension_;
+
+    private DataFormat(String extension) {
+        extension_ = extension;
+    }
+
+    /**
+     * この形式のデータを読み込む {@link RecordReader} を新たに作成します。
+     *
+     * @param in 読み込むデータ。
+     * @return {@link RecordReader}。
+     */
+    public abstract RecordReader newReader(Reader in);
+
+    /**
+     * ファイル名の拡張子から形式を判定します。
+     *
+     * @param fileName ファイル名。
+     * @return 形式。 拡張子が {@code .json} でなければ {@link #CSV}。
+     */
+    public static DataFormat fromFileName(String fileName) {
+        if (fileName == null) {
+            throw new IllegalArgumentException("'fileName' must not be null");
+        }
+        return fileName.toLowerCase(Locale.US).endsWith(JSON.extension_) ? JSON : CSV;
+    }
+
+    /**
+     * UTF-8 のデータファイルを、拡張子から判定した形式で開きます。
+     *
+     * @param file データファイル。
+     * @return {@link RecordReader}。
+     * @throws IOException ファイルを開けなかった場合。
+     */
+    public static RecordReader open(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("'file' must not be null");
+        }
+        final Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        return fromFileName(file.getName()).newReader(in);
+    }
+}
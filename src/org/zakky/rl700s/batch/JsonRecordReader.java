@@ -0,0 +1,234 @@
+package org.zakky.rl700s.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JSON のデータファイルを読み込む {@link RecordReader} です。
+ * <p>
+ * データはオブジェクトの配列で、オブジェクト1つが1レコードです。 配列全体を読み込まずに、1つずつ読み込みます。
+ * 値は文字列、数値、真偽値、 {@code null} のいずれかで、数値と真偽値は JSON に書かれたとおりの文字列、
+ * {@code null} は空文字列として扱います。 オブジェクトや配列を値にすることはできません。
+ * </p>
+ *
+ * <pre>
+ * [
+ *   {"sku": "A-1001", "name": "Cable", "qty": 3},
+ *   {"sku": "A-1002", "name": "Adapter", "qty": 12}
+ * ]
+ * </pre>
+ */
+public final class JsonRecordReader implements RecordReader {
+
+    private final Reader in_;
+
+    private final StringBuilder buffer_ = new StringBuilder();
+
+    /**
+     * 読み込んだレコードの数。
+     */
+    private int count_ = 0;
+
+    /**
+     * 配列の終わりまで読み込んだかどうか。
+     */
+    private boolean finished_ = false;
+
+    /**
+     * 1文字先読みした文字。 先読みしていなければ {@code -2}。
+     */
+    private int peeked_ = -2;
+
+    /**
+     * 読み込んだ文字数。 エラーの位置の表示に使用します。
+     */
+    private long position_ = 0;
+
+    /**
+     * {@link JsonRecordReader} を構築します。
+     *
+     * @param in 読み込むデータ。 バッファリングされている必要はありません。
+     */
+    public JsonRecordReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("'in' must not be null");
+        }
+        in_ = (in instanceof BufferedReader) ? in : new BufferedReader(in);
+    }
+
+    @Override
+    public Map<String, String> read() throws IOException {
+        if (finished_) {
+            return null;
+        }
+        int c = nextToken();
+        if (count_ == 0) {
+            if (c == '\ufeff') {
+                c = nextToken();
+            }
+            if (c != '[') {
+                throw error("data must be an array of objects");
+            }
+            c = nextToken();
+        } else if (c == ',') {
+            // 末尾のカンマ ([{...},]) は受け付けない
+            c = nextToken();
+            if (c != '{') {
+                throw error("array element must be an object");
+            }
+        } else if (c != ']') {
+            throw error("expected ',' or ']'");
+        }
+        if (c == ']') {
+            finished_ = true;
+            if (nextToken() != -1) {
+                throw error("unexpected data after the array");
+            }
+            return null;
+        }
+        if (c != '{') {
+            throw error("array element must be an object");
+        }
+        final Map<String, String> record = new HashMap<String, String>();
+        c = nextToken();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') {
+                    throw error("expected a field name");
+                }
+                final String name = readString();
+                if (nextToken() != ':') {
+                    throw error("expected ':'");
+                }
+                record.put(name, readValue());
+                c = nextToken();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+                c = nextToken();
+            }
+        }
+        count_++;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in_.close();
+    }
+
+    /**
+     * 値を1つ読み込みます。
+     */
+    private String readValue() throws IOException {
+        final int c = nextToken();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            throw error("nested objects and arrays are not supported");
+        }
+        // 数値、 true、 false、 null
+        buffer_.setLength(0);
+        int next = c;
+        while (next != -1 && (Character.isLetterOrDigit(next) || next == '-' || next == '+'
+                || next == '.')) {
+            buffer_.append((char) next);
+            next = readChar();
+        }
+        peeked_ = next;
+        final String literal = buffer_.toString();
+        if ("null".equals(literal)) {
+            return "";
+        }
+        if (literal.length() == 0) {
+            throw error("expected a value");
+        }
+        return literal;
+    }
+
+    /**
+     * 開始の {@code "} の後から、文字列を読み込みます。
+     */
+    private String readString() throws IOException {
+        buffer_.setLength(0);
+        while (true) {
+            int c = readChar();
+            if (c == -1) {
+                throw error("unterminated string");
+            }
+            if (c == '"') {
+                return buffer_.toString();
+            }
+            if (c == '\\') {
+                c = readChar();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            final int digit = Character.digit(readChar(), 16);
+                            if (digit < 0) {
+                                throw error("invalid unicode escape");
+                            }
+                            c = c << 4 | digit;
+                        }
+                        break;
+                    default:
+                        throw error("invalid escape sequence");
+                }
+            }
+            buffer_.append((char) c);
+        }
+    }
+
+    /**
+     * 空白を読み飛ばして、次の文字を返します。
+     */
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = readChar();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    private int readChar() throws IOException {
+        if (peeked_ != -2) {
+            final int c = peeked_;
+            peeked_ = -2;
+            return c;
+        }
+        position_++;
+        return in_.read();
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " (record " + (count_ + 1) + ", character "
+                + position_ + ")");
+    }
+}
@@ -0,0 +1,225 @@
+package org.zakky.rl700s.batch;
+
+import org.zakky.rl700s.barcode.Symbology;
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.raster.MonoBitmap;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.text.GlyphAtlas;
+import org.zakky.rl700s.text.TextLabel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 連続印刷で、レコードごとのラベルの内容を作るテンプレートです。
+ * <p>
+ * テンプレートの文字列の、波括弧で囲んだ列名 ({@code {name}}) をレコードの値に置き換えたものを、文字ラベルにするか、
+ * バーコードにエンコードします。 波括弧そのものは、2つ重ねて書きます。
+ * </p>
+ * <p>
+ * {@link #parse(String)} では、先頭に {@code text:} や {@link Symbology#getKeyPrefix()} と {@code :}
+ * を付けてラベルの種類を指定します。 付けなければ文字ラベルです。
+ * </p>
+ *
+ * <pre>
+ * text:{name}\n{sku}
+ * code128:{serial}
+ * qr:https://example.com/asset/{id}
+ * </pre>
+ * <p>
+ * このクラスは不変です。
+ * </p>
+ */
+public final class LabelTemplate {
+
+    /**
+     * 文字ラベルを指定する接頭辞。
+     */
+    public static final String TEXT_PREFIX = "text";
+
+    /**
+     * バーコードの種類。 文字ラベルなら {@code null}。
+     */
+    private final Symbology symbology_;
+
+    private final String pattern_;
+
+    /**
+     * 置き換える箇所で区切ったテンプレートの文字列。 {@link #fields_} より1つ多くなります。
+     */
+    private final String[] literals_;
+
+    /**
+     * 置き換える列名。 {@code literals_[i]} と {@code literals_[i + 1]} の間に入ります。
+     */
+    private final String[] fields_;
+
+    /**
+     * ラベルの種類を表す接頭辞の付いたテンプレートを解析します。
+     *
+     * @param spec テンプレート。
+     * @return {@link LabelTemplate}。
+     * @throws IllegalArgumentException テンプレートの波括弧が対応していない場合。
+     */
+    public static LabelTemplate parse(String spec) {
+        if (spec == null) {
+            throw new IllegalArgumentException("'spec' must not be null");
+        }
+        final int colon = spec.indexOf(':');
+        if (0 < colon) {
+            final String prefix = spec.substring(0, colon);
+            final String pattern = spec.substring(colon + 1);
+            if (TEXT_PREFIX.equals(prefix)) {
+                return new LabelTemplate(null, pattern);
+            }
+            for (Symbology symbology : Symbology.values()) {
+                if (symbology.getKeyPrefix().equals(prefix)) {
+                    return new LabelTemplate(symbology, pattern);
+                }
+            }
+        }
+        return new LabelTemplate(null, spec);
+    }
+
+    /**
+     * {@link LabelTemplate} を構築します。
+     *
+     * @param symbology バーコードの種類。 文字ラベルなら {@code null}。
+     * @param pattern テンプレートの文字列。 文字ラベルでは {@code '\n'} で改行します。
+     * @throws IllegalArgumentException テンプレートの波括弧が対応していない場合。
+     */
+    public LabelTemplate(Symbology symbology, String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("'pattern' must not be null");
+        }
+        symbology_ = symbology;
+        pattern_ = pattern;
+
+        final List<String> literals = new ArrayList<String>();
+        final List<String> fields = new ArrayList<String>();
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            final char c = pattern.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < pattern.length()
+                    && pattern.charAt(i + 1) == c) {
+                literal.append(c);
+                i += 2;
+            } else if (c == '{') {
+                final int end = pattern.indexOf('}', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("unterminated field at " + i + ": "
+                            + pattern);
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+                fields.add(pattern.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == '}') {
+                throw new IllegalArgumentException("unmatched '}' at " + i + ": " + pattern);
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        literals_ = literals.toArray(new String[literals.size()]);
+        fields_ = fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * バーコードの種類を返します。
+     *
+     * @return バーコードの種類。 文字ラベルなら {@code null}。
+     */
+    public Symbology getSymbology() {
+        return symbology_;
+    }
+
+    /**
+     * テンプレートの文字列を返します。
+     *
+     * @return テンプレートの文字列。
+     */
+    public String getPattern() {
+        return pattern_;
+    }
+
+    /**
+     * ラベルの種類を表す接頭辞を付けたテンプレートを返します。 {@link #parse(String)} で元に戻せます。
+     *
+     * @return 接頭辞の付いたテンプレート。
+     */
+    public String toSpec() {
+        final String prefix = (symbology_ == null) ? TEXT_PREFIX : symbology_.getKeyPrefix();
+        return prefix + ":" + pattern_;
+    }
+
+    /**
+     * テンプレートの文字列の行数を返します。 文字ラベルの文字サイズを決めるのに使用します。
+     *
+     * @return 行数。
+     */
+    public int getLineCount() {
+        return pattern_.split("\n", -1).length;
+    }
+
+    /**
+     * テンプレートが参照する列名を返します。
+     *
+     * @return 列名。 出現順で、重複を含みます。
+     */
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(Arrays.asList(fields_));
+    }
+
+    /**
+     * テンプレートの列名をレコードの値に置き換えます。
+     *
+     * @param record レコード。
+     * @return 置き換えた文字列。
+     * @throws IllegalArgumentException レコードにテンプレートが参照する列がない場合。
+     */
+    public String expand(Map<String, String> record) {
+        if (record == null) {
+            throw new IllegalArgumentException("'record' must not be null");
+        }
+        final StringBuilder sb = new StringBuilder(pattern_.length() + 16 * fields_.length);
+        sb.append(literals_[0]);
+        for (int i = 0; i < fields_.length; i++) {
+            final String value = record.get(fields_[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("record has no field '" + fields_[i] + "'");
+            }
+            sb.append(value).append(literals_[i + 1]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * レコードからラベルを作成します。
+     *
+     * @param record レコード。
+     * @param tape 装着されているテープの {@link TapeGeometry}。
+     * @param atlas 文字ラベルの描画に使用する {@link GlyphAtlas}。 バーコードなら {@code null} でも構いません。
+     * @param work バーコードのシンボルの作成に使用する作業領域。 内容は上書きされます。
+     * @return ラベル。
+     * @throws IllegalArgumentException レコードに列がない場合や、エンコードできない値の場合、テープに収まらない場合。
+     */
+    public RasterJob render(Map<String, String> record, TapeGeometry tape, GlyphAtlas atlas,
+            MonoBitmap work) {
+        final String content = expand(record);
+        if (symbology_ != null) {
+            return symbology_.createLabel(content, tape, work);
+        }
+        if (atlas == null) {
+            throw new IllegalArgumentException("'atlas' must not be null for a text template");
+        }
+        // 文字の前後には、行の高さの 1/4 の余白を置く
+        return new TextLabel(atlas, tape, content, TextLabel.Alignment.CENTER,
+                atlas.getLineHeight() / 4);
+    }
+}
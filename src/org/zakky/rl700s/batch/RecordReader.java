@@ -0,0 +1,28 @@
+package org.zakky.rl700s.batch;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 連続印刷のデータファイルから、1枚のラベルに対応するレコードを順に読み込むリーダーです。
+ * <p>
+ * レコードは列名から値への対応で、値はすべて文字列です。 実装はスレッドセーフである必要はありません。
+ * </p>
+ */
+public interface RecordReader {
+
+    /**
+     * 次のレコードを読み込みます。
+     *
+     * @return 列名から値への対応。 データの終わりに達した場合は {@code null}。
+     * @throws IOException 読み込みに失敗した場合や、データの形式が正しくない場合。
+     */
+    public Map<String, String> read() throws IOException;
+
+    /**
+     * リーダーを閉じます。
+     *
+     * @throws IOException 閉じるのに失敗した場合。
+     */
+    public void close() throws IOException;
+}
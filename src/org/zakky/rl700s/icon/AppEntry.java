@@ -0,0 +1,73 @@
+package org.zakky.rl700s.icon;
+
+/**
+ * ランチャーから起動できるアクティビティ1つ分の、キャッシュ可能な情報です。
+ * <p>
+ * このクラスは不変です。
+ * </p>
+ */
+public final class AppEntry {
+    /** アプリケーションのパッケージ名 */
+    private final String packageName_;
+
+    /** アプリケーションの FQCN */
+    private final String activityName_;
+
+    /** パッケージのバージョンコード */
+    private final int versionCode_;
+
+    /** アプリケーションのラベル */
+    private final String label_;
+
+    public AppEntry(String packageName, String activityName, int versionCode, String label) {
+        if (packageName == null) {
+            throw new IllegalArgumentException("'packageName' must not be null");
+        }
+        if (activityName == null) {
+            throw new IllegalArgumentException("'activityName' must not be null");
+        }
+        if (label == null) {
+            throw new IllegalArgumentException("'label' must not be null");
+        }
+        packageName_ = packageName;
+        activityName_ = activityName;
+        versionCode_ = versionCode;
+        label_ = label;
+    }
+
+    public String getPackageName() {
+        return packageName_;
+    }
+
+    public String getActivityName() {
+        return activityName_;
+    }
+
+    public int getVersionCode() {
+        return versionCode_;
+    }
+
+    public String getLabel() {
+        return label_;
+    }
+
+    /**
+     * このアクティビティのアイコンを {@link IconCache} から取り出すためのキーを返します。
+     *
+     * @param iconSize 縮小したアイコンの大きさ(ピクセル)。
+     * @return キー。
+     */
+    public String getIconKey(int iconSize) {
+        return IconCache.makeKey(packageName_, versionCode_, activityName_, iconSize);
+    }
+
+    /**
+     * パッケージのバージョンまで含めて、このアクティビティを識別する文字列を返します。
+     * アプリが更新されると変わるので、アイコンから作ったものをキャッシュするときのキーに使えます。
+     *
+     * @return 識別する文字列。
+     */
+    public String getComponentId() {
+        return packageName_ + '_' + versionCode_ + '_' + activityName_;
+    }
+}
@@ -0,0 +1,162 @@
+package org.zakky.rl700s.icon;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ランチャーから起動できるアクティビティの一覧 (ラベルを含む) のキャッシュです。
+ * <p>
+ * 一覧はメモリ上に保持するとともに、キャッシュディレクトリ内のファイルにも保存します。
+ * パッケージが追加・削除・更新されたときは {@link #invalidate()} で破棄してください。
+ * ラベルは言語によって変わるので、保存したときとロケールが異なる場合もキャッシュを使いません。
+ * </p>
+ * <p>
+ * プロセス内で1つのインスタンスを共有します。 このクラスはスレッドセーフです。
+ * </p>
+ */
+public final class AppListCache {
+    private static final String TAG = AppListCache.class.getSimpleName();
+
+    private static final String FILE_NAME = "applist";
+
+    /**
+     * ファイルの先頭に置くマジックナンバー ("RL7A")。
+     */
+    private static final int MAGIC = 0x524c3741;
+
+    private static AppListCache instance_ = null;
+
+    private final File file_;
+
+    /**
+     * メモリ上の一覧。 読み込んでいなければ {@code null}。
+     */
+    private List<AppEntry> entries_ = null;
+
+    /**
+     * プロセス内で共有する {@link AppListCache} を返します。
+     *
+     * @param context コンテキスト。 参照は保持しません。
+     * @return {@link AppListCache}。
+     */
+    public static synchronized AppListCache getInstance(Context context) {
+        if (instance_ == null) {
+            instance_ = new AppListCache(new File(context.getCacheDir(), FILE_NAME));
+        }
+        return instance_;
+    }
+
+    private AppListCache(File file) {
+        file_ = file;
+    }
+
+    /**
+     * メモリ上にある一覧を返します。 ファイルは読みません。
+     *
+     * @return 変更できない一覧。 メモリ上になければ {@code null}。
+     */
+    public synchronized List<AppEntry> getFromMemory() {
+        return entries_;
+    }
+
+    /**
+     * キャッシュされた一覧を返します。 メモリ上になければファイルから読み込みます。
+     *
+     * @return 変更できない一覧。 キャッシュがなければ {@code null}。
+     */
+    public synchronized List<AppEntry> load() {
+        if (entries_ == null && file_.isFile()) {
+            try {
+                entries_ = readFile();
+            } catch (IOException e) {
+                Log.w(TAG, "discarded broken app list cache.", e);
+                file_.delete();
+            }
+        }
+        return entries_;
+    }
+
+    /**
+     * 一覧をキャッシュし、ファイルに保存します。
+     *
+     * @param entries 一覧。 コピーを保持します。
+     */
+    public synchronized void save(List<AppEntry> entries) {
+        entries_ = Collections.unmodifiableList(new ArrayList<AppEntry>(entries));
+        try {
+            writeFile(entries_);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save app list cache.", e);
+            file_.delete();
+        }
+    }
+
+    /**
+     * キャッシュを破棄します。
+     */
+    public synchronized void invalidate() {
+        entries_ = null;
+        file_.delete();
+    }
+
+    private List<AppEntry> readFile() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file_)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an app list cache: " + file_);
+            }
+            if (!in.readUTF().equals(Locale.getDefault().toString())) {
+                throw new IOException("locale has been changed.");
+            }
+            final int count = in.readInt();
+            final List<AppEntry> entries = new ArrayList<AppEntry>(count);
+            for (int i = 0; i < count; i++) {
+                final String packageName = in.readUTF();
+                final String activityName = in.readUTF();
+                final int versionCode = in.readInt();
+                final String label = in.readUTF();
+                entries.add(new AppEntry(packageName, activityName, versionCode, label));
+            }
+            return Collections.unmodifiableList(entries);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeFile(List<AppEntry> entries) throws IOException {
+        final File temp = new File(file_.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(Locale.getDefault().toString());
+            out.writeInt(entries.size());
+            for (AppEntry entry : entries) {
+                out.writeUTF(entry.getPackageName());
+                out.writeUTF(entry.getActivityName());
+                out.writeInt(entry.getVersionCode());
+                out.writeUTF(entry.getLabel());
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file_)) {
+            temp.delete();
+            throw new IOException("failed to rename " + temp + " to " + file_);
+        }
+    }
+}
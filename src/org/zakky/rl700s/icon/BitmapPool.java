@@ -0,0 +1,62 @@
+package org.zakky.rl700s.icon;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使い終わったアイコン画像を再利用するためのプールです。
+ * <p>
+ * {@link android.graphics.BitmapFactory.Options#inBitmap} は大きさと {@link Config}
+ * が同じビットマップしか再利用できないので、同じ大きさのものだけを探して返します。 このクラスはスレッドセーフです。
+ * </p>
+ */
+final class BitmapPool {
+
+    private final int maxCount_;
+
+    private final List<Bitmap> pool_;
+
+    /**
+     * {@link BitmapPool} を構築します。
+     *
+     * @param maxCount 保持するビットマップの最大数。
+     */
+    BitmapPool(int maxCount) {
+        maxCount_ = maxCount;
+        pool_ = new ArrayList<Bitmap>(maxCount);
+    }
+
+    /**
+     * 指定した大きさと {@link Config} のビットマップをプールから取り出します。
+     *
+     * @return 書き換え可能なビットマップ。 内容は不定です。 該当するものがなければ {@code null}。
+     */
+    synchronized Bitmap acquire(int width, int height, Config config) {
+        for (int i = pool_.size() - 1; 0 <= i; i--) {
+            final Bitmap candidate = pool_.get(i);
+            if (candidate.getWidth() == width && candidate.getHeight() == height
+                    && candidate.getConfig() == config) {
+                pool_.remove(i);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 使い終わったビットマップをプールに戻します。 プールが一杯の場合や、再利用できないビットマップは捨てます。
+     *
+     * @param bitmap 誰からも参照されなくなったビットマップ。
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        if (pool_.size() < maxCount_) {
+            pool_.add(bitmap);
+        }
+    }
+}
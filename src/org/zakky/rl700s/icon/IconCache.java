@@ -0,0 +1,312 @@
+package org.zakky.rl700s.icon;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * アプリ一覧に表示する、縮小済みのアイコン画像のキャッシュです。
+ * <p>
+ * メモリ上のキャッシュ (バイト数で上限を決めた LRU) と、キャッシュディレクトリ内の PNG
+ * ファイルの2段構成です。 キーはパッケージ名、バージョンコード、アクティビティ名、アイコンの大きさから
+ * {@link #makeKey(String, int, String, int)} で作ります。 アプリが更新されるとバージョンコードが変わり、
+ * 一覧のセルの大きさが変わるとアイコンの大きさが変わるので、古いアイコンが使われることはありません。
+ * </p>
+ * <p>
+ * アイコンは {@link #ICON_CONFIG} で保持し、参照カウントで管理します。 {@link #acquire(String)} などで取り出したアイコンは、
+ * 表示し終わったら {@link #release(Bitmap)} してください。 メモリ上のキャッシュから追い出され、
+ * どこからも参照されなくなったアイコンはプールに戻し、次のアイコンの読み込みに再利用します。
+ * </p>
+ * <p>
+ * プロセス内で1つのインスタンスを共有します。 このクラスはスレッドセーフです。
+ * </p>
+ */
+public final class IconCache {
+    private static final String TAG = IconCache.class.getSimpleName();
+
+    /**
+     * アイコンを保存するディレクトリの、キャッシュディレクトリからの相対パス。
+     */
+    private static final String DIR_NAME = "icons";
+
+    private static final String FILE_SUFFIX = ".png";
+
+    /**
+     * メモリ上のキャッシュに使う、アプリが使えるメモリ量に対する割合の逆数。
+     */
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+
+    /**
+     * アイコンを保持する {@link Config}。 一覧に表示する小さなアイコンなので、 ARGB_8888 の半分の大きさで透過も扱えるものにします。
+     */
+    public static final Config ICON_CONFIG = Config.ARGB_4444;
+
+    /**
+     * 再利用のために保持しておくビットマップの最大数。
+     */
+    private static final int POOL_SIZE = 32;
+
+    private static IconCache instance_ = null;
+
+    private final LruCache<String, Bitmap> memoryCache_;
+
+    private final File dir_;
+
+    private final BitmapPool pool_ = new BitmapPool(POOL_SIZE);
+
+    /**
+     * アイコンごとの参照カウント。 メモリ上のキャッシュ自身も1つ参照を持ちます。
+     */
+    private final Map<Bitmap, Integer> refCounts_ = new IdentityHashMap<Bitmap, Integer>();
+
+    /**
+     * プロセス内で共有する {@link IconCache} を返します。
+     *
+     * @param context コンテキスト。 アプリケーションコンテキストのみ保持します。
+     * @return {@link IconCache}。
+     */
+    public static synchronized IconCache getInstance(Context context) {
+        if (instance_ == null) {
+            final Context appContext = context.getApplicationContext();
+            final ActivityManager am = (ActivityManager) appContext
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+            final int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVISOR;
+            instance_ = new IconCache(new File(appContext.getCacheDir(), DIR_NAME), maxBytes);
+        }
+        return instance_;
+    }
+
+    private IconCache(File dir, int maxBytes) {
+        dir_ = dir;
+        memoryCache_ = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                    Bitmap newValue) {
+                release(oldValue);
+            }
+        };
+    }
+
+    /**
+     * キャッシュのキーを作成します。
+     *
+     * @param packageName パッケージ名。
+     * @param versionCode パッケージのバージョンコード。
+     * @param activityName アクティビティの FQCN。
+     * @param iconSize 縮小したアイコンの大きさ(ピクセル)。
+     * @return キー。 ファイル名としてそのまま使用できます。
+     */
+    public static String makeKey(String packageName, int versionCode, String activityName,
+            int iconSize) {
+        return packageName + '_' + versionCode + '_' + activityName + '_' + iconSize;
+    }
+
+    /**
+     * キャッシュされたアイコンを取り出します。 メモリ上になければファイルから読み込みます。
+     * <p>
+     * ファイルを読む可能性があるので、 UI スレッドからは {@link #acquireFromMemory(String)} を使ってください。
+     * </p>
+     *
+     * @param key キー。
+     * @return アイコン。 使い終わったら {@link #release(Bitmap)} してください。 キャッシュされていなければ {@code null}。
+     */
+    public Bitmap acquire(String key) {
+        final Bitmap cached = acquireFromMemory(key);
+        if (cached != null) {
+            return cached;
+        }
+        final File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Bitmap loaded = decodeFile(file);
+        if (loaded == null) {
+            // 壊れたファイルは捨てる
+            file.delete();
+            return null;
+        }
+        synchronized (refCounts_) {
+            refCounts_.put(loaded, Integer.valueOf(1));
+        }
+        addToMemory(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * メモリ上にキャッシュされたアイコンを取り出します。
+     *
+     * @param key キー。
+     * @return アイコン。 使い終わったら {@link #release(Bitmap)} してください。 メモリ上になければ {@code null}。
+     */
+    public Bitmap acquireFromMemory(String key) {
+        // 取り出してから参照カウントを増やすまでの間に、追い出されて再利用されないようにする
+        synchronized (refCounts_) {
+            final Bitmap cached = memoryCache_.get(key);
+            if (cached != null) {
+                retain(cached);
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * アイコンを描画するための、 {@link #ICON_CONFIG} の書き換え可能なビットマップを返します。
+     * プールに同じ大きさのものがあれば再利用します。
+     *
+     * @param width 幅。
+     * @param height 高さ。
+     * @return 透明で塗りつぶしたビットマップ。 {@link #put(String, Bitmap)} した後で {@link #release(Bitmap)} してください。
+     */
+    public Bitmap newBitmap(int width, int height) {
+        Bitmap bitmap = pool_.acquire(width, height, ICON_CONFIG);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, ICON_CONFIG);
+        } else {
+            bitmap.eraseColor(0);
+        }
+        synchronized (refCounts_) {
+            refCounts_.put(bitmap, Integer.valueOf(1));
+        }
+        return bitmap;
+    }
+
+    /**
+     * アイコンをキャッシュに追加し、ファイルにも保存します。 呼び出し側の参照はそのまま残ります。
+     *
+     * @param key キー。
+     * @param icon {@link #newBitmap(int, int)} で作成し、描画を終えたアイコン。
+     */
+    public void put(String key, Bitmap icon) {
+        addToMemory(key, icon);
+
+        if (!dir_.isDirectory() && !dir_.mkdirs()) {
+            Log.w(TAG, "failed to create icon cache directory: " + dir_);
+            return;
+        }
+        // 書きかけのファイルを読まないように、別名で書いてから置き換える
+        final File file = getFile(key);
+        final File temp = new File(dir_, key + ".tmp");
+        try {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                icon.compress(CompressFormat.PNG, 100, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("failed to rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to save icon: " + key, e);
+            temp.delete();
+        }
+    }
+
+    /**
+     * 取り出したアイコンの参照を解放します。 どこからも参照されなくなったアイコンはプールに戻します。
+     * このキャッシュが管理していないビットマップは無視します。
+     *
+     * @param icon アイコン。
+     */
+    public void release(Bitmap icon) {
+        synchronized (refCounts_) {
+            final Integer count = refCounts_.get(icon);
+            if (count == null) {
+                return;
+            }
+            if (1 < count.intValue()) {
+                refCounts_.put(icon, Integer.valueOf(count.intValue() - 1));
+                return;
+            }
+            refCounts_.remove(icon);
+        }
+        pool_.release(icon);
+    }
+
+    private void retain(Bitmap icon) {
+        synchronized (refCounts_) {
+            final Integer count = refCounts_.get(icon);
+            refCounts_.put(icon, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+    }
+
+    /**
+     * メモリ上のキャッシュに追加します。 キャッシュ自身の参照を1つ増やします。
+     */
+    private void addToMemory(String key, Bitmap icon) {
+        retain(icon);
+        memoryCache_.put(key, icon);
+    }
+
+    /**
+     * PNG ファイルを {@link #ICON_CONFIG} で読み込みます。 プールに同じ大きさのビットマップがあれば再利用します。
+     */
+    private Bitmap decodeFile(File file) {
+        final BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = ICON_CONFIG;
+        options.inMutable = true;
+        options.inBitmap = pool_.acquire(bounds.outWidth, bounds.outHeight, ICON_CONFIG);
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // 再利用できなかった場合は、新しく確保して読み込み直す
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * 指定したパッケージのアイコンを、メモリとファイルの両方から削除します。
+     * <p>
+     * パッケージ名の後ろに '_' が続く別のパッケージのアイコンも削除されることがありますが、次回作り直されるだけです。
+     * </p>
+     *
+     * @param packageName パッケージ名。
+     */
+    public void removePackage(String packageName) {
+        final String prefix = packageName + '_';
+        for (String key : memoryCache_.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                memoryCache_.remove(key);
+            }
+        }
+        final String[] names = dir_.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix)) {
+                new File(dir_, name).delete();
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(dir_, key + FILE_SUFFIX);
+    }
+}
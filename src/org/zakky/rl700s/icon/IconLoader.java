@@ -0,0 +1,198 @@
+package org.zakky.rl700s.icon;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Process;
+import android.widget.ImageView;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * グリッドのセルに表示するアイコンを、必要になった時点でバックグラウンドで読み込むローダーです。
+ * <p>
+ * {@link IconCache} のメモリ上にあるアイコンはすぐに表示します。 それ以外はセルに仮の画像を表示しておき、
+ * {@value #THREAD_COUNT} 本のスレッドでファイルか {@link PackageManager} から読み込んでから差し替えます。
+ * セルが別のアプリに再利用された場合は、前のアプリの読み込みを取り消します。 そのため、読み込み待ちの数は画面に見えているセルの数程度に収まります。
+ * </p>
+ * <p>
+ * アイコンは一覧のセルの大きさに縮小してから {@link IconCache} に追加するので、描画のたびに縮小することはありません。
+ * セルに表示している間は {@link IconCache} の参照を持ち、別のアイコンに差し替えたときに解放します。
+ * </p>
+ * <p>
+ * {@link #load(AppEntry, ImageView)} と {@link #shutdown()} は UI スレッドから呼び出してください。
+ * </p>
+ */
+public final class IconLoader {
+
+    /**
+     * アイコンを読み込むスレッドの数。
+     */
+    private static final int THREAD_COUNT = 2;
+
+    private final PackageManager packageManager_;
+
+    private final IconCache iconCache_;
+
+    private final int iconSize_;
+
+    private final Handler handler_ = new Handler();
+
+    private final ExecutorService executor_;
+
+    /**
+     * セルごとの、実行中または実行待ちの読み込み。
+     */
+    private final Map<ImageView, Future<?>> pending_ = new WeakHashMap<ImageView, Future<?>>();
+
+    /**
+     * セルごとの、表示しているアイコン。
+     */
+    private final Map<ImageView, Bitmap> displayed_ = new WeakHashMap<ImageView, Bitmap>();
+
+    /**
+     * {@link IconLoader} を構築します。
+     *
+     * @param context コンテキスト。 参照は保持しません。
+     * @param iconSize アイコンを縮小する大きさ(ピクセル)。
+     */
+    public IconLoader(Context context, int iconSize) {
+        packageManager_ = context.getPackageManager();
+        iconCache_ = IconCache.getInstance(context);
+        iconSize_ = iconSize;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor_ = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                // スクロールなど UI スレッドの処理を邪魔しないようにする
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "IconLoader-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * アイコンを {@code view} に表示します。 メモリ上になければ読み込みを開始し、読み込み終わった時点で表示します。
+     *
+     * @param entry アイコンを表示するアプリ。
+     * @param view 表示先。
+     */
+    public void load(final AppEntry entry, final ImageView view) {
+        final String key = entry.getIconKey(iconSize_);
+        final Future<?> previous = pending_.remove(view);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        view.setTag(key);
+
+        final Bitmap cached = iconCache_.acquireFromMemory(key);
+        if (cached != null) {
+            show(view, cached);
+            return;
+        }
+        show(view, null);
+
+        final Future<?> future = executor_.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap icon = loadIcon(entry);
+                handler_.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // 読み込んでいる間に別のアプリに再利用されていれば表示しない
+                        if (!key.equals(view.getTag())) {
+                            if (icon != null) {
+                                iconCache_.release(icon);
+                            }
+                            return;
+                        }
+                        pending_.remove(view);
+                        if (icon != null) {
+                            show(view, icon);
+                        }
+                    }
+                });
+            }
+        });
+        pending_.put(view, future);
+    }
+
+    /**
+     * 読み込みを中止し、スレッドを終了します。
+     */
+    public void shutdown() {
+        executor_.shutdownNow();
+        pending_.clear();
+        for (Map.Entry<ImageView, Bitmap> e : displayed_.entrySet()) {
+            e.getKey().setImageDrawable(null);
+            iconCache_.release(e.getValue());
+        }
+        displayed_.clear();
+    }
+
+    /**
+     * {@code view} にアイコンを表示し、それまで表示していたアイコンの参照を解放します。
+     *
+     * @param icon 取り出し済みのアイコン。 {@code null} の場合は何も表示しません。
+     */
+    private void show(ImageView view, Bitmap icon) {
+        final Bitmap previous = (icon == null) ? displayed_.remove(view) : displayed_.put(view,
+                icon);
+        if (icon == null) {
+            view.setImageDrawable(null);
+        } else {
+            view.setImageBitmap(icon);
+        }
+        if (previous != null) {
+            iconCache_.release(previous);
+        }
+    }
+
+    /**
+     * {@link IconCache} からアイコンを取り出します。 キャッシュになければ読み込んで縮小し、キャッシュに追加します。
+     *
+     * @return 取り出したアイコン。 アプリが見つからない場合は {@code null}。
+     */
+    private Bitmap loadIcon(AppEntry entry) {
+        final String key = entry.getIconKey(iconSize_);
+        final Bitmap cached = iconCache_.acquire(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Drawable icon;
+        try {
+            icon = packageManager_.getActivityIcon(new ComponentName(entry.getPackageName(),
+                    entry.getActivityName()));
+        } catch (NameNotFoundException e) {
+            return null;
+        }
+        final Bitmap bmp = iconCache_.newBitmap(iconSize_, iconSize_);
+        final Canvas canvas = new Canvas(bmp);
+        icon.setBounds(0, 0, iconSize_, iconSize_);
+        icon.draw(canvas);
+        iconCache_.put(key, bmp);
+        return bmp;
+    }
+}
@@ -0,0 +1,52 @@
+package org.zakky.rl700s.job;
+
+import org.zakky.rl700s.raster.RasterBuffer;
+
+/**
+ * {@link RasterBuffer} 上のラスターデータをそのまま提供する {@link RasterJob} です。
+ * <p>
+ * 同一プロセス内で作成と印刷を行う場合に使用します。 保持している {@link RasterBuffer} は、ジョブを使い終わるまで変更しないでください。
+ * </p>
+ */
+public final class MemoryRasterJob implements RasterJob {
+
+    private final RasterBuffer buffer_;
+
+    public MemoryRasterJob(RasterBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("'buffer' must not be null");
+        }
+        buffer_ = buffer;
+    }
+
+    @Override
+    public int getLineCount() {
+        return buffer_.getLineCount();
+    }
+
+    @Override
+    public int getBytesPerLine() {
+        return buffer_.getBytesPerLine();
+    }
+
+    @Override
+    public RasterLineReader openReader() {
+        return new RasterLineReader() {
+            private int next_ = 0;
+
+            @Override
+            public boolean readLine(byte[] dest) {
+                if (buffer_.getLineCount() <= next_) {
+                    return false;
+                }
+                buffer_.copyLine(next_++, dest);
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // 何もしない
+            }
+        };
+    }
+}
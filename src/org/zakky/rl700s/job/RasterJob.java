@@ -0,0 +1,37 @@
+package org.zakky.rl700s.job;
+
+import java.io.IOException;
+
+/**
+ * 1枚のラベル分のラスターデータを表す印刷ジョブです。
+ * <p>
+ * ラスターデータ全体をメモリ上に持つ必要がないように、 {@link RasterLineReader} を通じてラスターラインを先頭から1本ずつ読み出します。
+ * </p>
+ */
+public interface RasterJob {
+
+    /**
+     * ラスターラインの本数を返します。
+     *
+     * @return ラスターラインの本数。
+     */
+    public int getLineCount();
+
+    /**
+     * ラスターライン1本あたりのバイト数を返します。
+     *
+     * @return ラスターライン1本あたりのバイト数。
+     */
+    public int getBytesPerLine();
+
+    /**
+     * ラスターラインを先頭から読み出すための {@link RasterLineReader} を開きます。
+     * <p>
+     * 使い終わった {@link RasterLineReader} は必ず {@link RasterLineReader#close()} してください。
+     * </p>
+     *
+     * @return {@link RasterLineReader}。
+     * @throws IOException 開くことができなかった場合。
+     */
+    public RasterLineReader openReader() throws IOException;
+}
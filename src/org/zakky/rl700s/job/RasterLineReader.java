@@ -0,0 +1,25 @@
+package org.zakky.rl700s.job;
+
+import java.io.IOException;
+
+/**
+ * {@link RasterJob} のラスターラインを先頭から順に読み出すためのリーダーです。
+ */
+public interface RasterLineReader {
+
+    /**
+     * 次のラスターラインを {@code dest} の先頭に読み込みます。
+     *
+     * @param dest 読み込み先。 {@link RasterJob#getBytesPerLine()} 以上の長さが必要です。
+     * @return 読み込んだ場合は {@code true}、すべてのラインを読み終えている場合は {@code false}。
+     * @throws IOException 読み込みに失敗した場合。
+     */
+    public boolean readLine(byte[] dest) throws IOException;
+
+    /**
+     * リーダーを閉じます。
+     *
+     * @throws IOException 閉じる際にエラーが発生した場合。
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,88 @@
+package org.zakky.rl700s.metrics;
+
+import java.util.Locale;
+
+/**
+ * 連続印刷1回分の統計です。
+ * <p>
+ * 枚数はプリンターへの送信を終えたラベルの数で、最後のラベルの印刷が終わるのを待った時間は含みません。
+ * 送信はプリンターの受信が追いつかないと待たされるので、枚数が多ければ1分あたりの枚数は印刷の速さとほぼ同じです。
+ * </p>
+ */
+public final class BatchSummary {
+
+    private final int recordCount_;
+
+    private final int labelCount_;
+
+    private final int skippedCount_;
+
+    private final int stripCount_;
+
+    private final long elapsedNanos_;
+
+    /**
+     * {@link BatchSummary} を構築します。
+     *
+     * @param recordCount 読み込んだレコードの数。
+     * @param labelCount 送信したラベルの数。
+     * @param skippedCount ラベルを作成できずに飛ばしたレコードの数。
+     * @param stripCount 排出した (最後にフルカットした) ラベルの連なりの数。
+     * @param elapsedNanos 開始してから最後のラベルを送信し終わるまでの時間 (ナノ秒)。
+     */
+    public BatchSummary(int recordCount, int labelCount, int skippedCount, int stripCount,
+            long elapsedNanos) {
+        recordCount_ = recordCount;
+        labelCount_ = labelCount;
+        skippedCount_ = skippedCount;
+        stripCount_ = stripCount;
+        elapsedNanos_ = elapsedNanos;
+    }
+
+    public int getRecordCount() {
+        return recordCount_;
+    }
+
+    public int getLabelCount() {
+        return labelCount_;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount_;
+    }
+
+    public int getStripCount() {
+        return stripCount_;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos_;
+    }
+
+    /**
+     * 1分あたりに送信したラベルの枚数を返します。
+     *
+     * @return 1分あたりの枚数。 時間を計測できなかった場合は 0。
+     */
+    public double getLabelsPerMinute() {
+        return labelsPerMinute(labelCount_, elapsedNanos_);
+    }
+
+    /**
+     * 1分あたりの枚数を計算します。
+     *
+     * @param labels 枚数。
+     * @param elapsedNanos 経過時間 (ナノ秒)。
+     * @return 1分あたりの枚数。 {@code elapsedNanos} が 0 以下なら 0。
+     */
+    public static double labelsPerMinute(int labels, long elapsedNanos) {
+        return (elapsedNanos <= 0) ? 0 : labels * 60e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d labels from %d records (%d skipped) in %d strips;"
+                + " %.1fs, %.1f labels/min", labelCount_, recordCount_, skippedCount_,
+                stripCount_, elapsedNanos_ / 1e9, getLabelsPerMinute());
+    }
+}
@@ -0,0 +1,167 @@
+package org.zakky.rl700s.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 値の分布を2のべき乗ごとの区間で数えるヒストグラムです。
+ * <p>
+ * 値 {@code v} は {@code 2^(k-1) <= v < 2^k} となる区間 {@code k} に数えます (0 以下の値は区間 0)。
+ * 区間の数は固定なので、記録するときにメモリを確保せず、どれだけ記録しても使用するメモリは変わりません。
+ * パーセンタイルは区間の上限で返すので、誤差は最大で2倍です。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフです。 記録はロックを取らずに行いますが、記録中に読み出した各値は互いに一致しない場合があります。
+ * </p>
+ */
+public final class Histogram {
+
+    /**
+     * 区間の数。 long の正の値はすべて区間 1 から 63 に入ります。
+     */
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets_ = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count_ = new AtomicLong();
+
+    private final AtomicLong sum_ = new AtomicLong();
+
+    private final AtomicLong max_ = new AtomicLong();
+
+    /**
+     * 値を1つ記録します。
+     *
+     * @param value 記録する値。
+     */
+    public void record(long value) {
+        buckets_.incrementAndGet(bucketOf(value));
+        count_.incrementAndGet();
+        sum_.addAndGet(value);
+        long max;
+        while (value > (max = max_.get())) {
+            if (max_.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 記録した値の数を返します。
+     *
+     * @return 値の数。
+     */
+    public long getCount() {
+        return count_.get();
+    }
+
+    /**
+     * 記録した値の合計を返します。
+     *
+     * @return 値の合計。
+     */
+    public long getSum() {
+        return sum_.get();
+    }
+
+    /**
+     * 記録した値の最大値を返します。
+     *
+     * @return 最大値。 記録していなければ {@code 0}。
+     */
+    public long getMax() {
+        return max_.get();
+    }
+
+    /**
+     * 記録した値の平均を返します。
+     *
+     * @return 平均。 記録していなければ {@code 0}。
+     */
+    public long getMean() {
+        final long count = count_.get();
+        return (count == 0) ? 0 : sum_.get() / count;
+    }
+
+    /**
+     * 記録した値のうち、小さいほうから {@code percent} % の位置にある値の上限を返します。
+     *
+     * @param percent 0 から 100 までのパーセンテージ。
+     * @return その値が含まれる区間の上限。 ただし最大値を超えることはありません。 記録していなければ {@code 0}。
+     */
+    public long getPercentile(double percent) {
+        if (percent < 0.0 || 100.0 < percent) {
+            throw new IllegalArgumentException("'percent' must be in [0, 100]: " + percent);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buckets_.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(total * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets_.get(i);
+            if (rank <= seen) {
+                return Math.min(upperBoundOf(i), max_.get());
+            }
+        }
+        return max_.get();
+    }
+
+    /**
+     * 区間 {@code bucket} に数えた値の数を返します。
+     *
+     * @param bucket 区間の番号。 0 以上 {@value #BUCKET_COUNT} 未満。
+     * @return 値の数。
+     */
+    public long getBucketCount(int bucket) {
+        return buckets_.get(bucket);
+    }
+
+    /**
+     * 区間の数を返します。
+     *
+     * @return 区間の数。
+     */
+    public int getBucketLength() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * 記録した値をすべて捨てます。
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets_.set(i, 0);
+        }
+        count_.set(0);
+        sum_.set(0);
+        max_.set(0);
+    }
+
+    /**
+     * 区間 {@code bucket} に含まれる値の上限を返します。
+     *
+     * @param bucket 区間の番号。
+     * @return 上限。
+     */
+    public static long upperBoundOf(int bucket) {
+        return (bucket == 0) ? 0 : (1L << bucket) - 1;
+    }
+
+    private static int bucketOf(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram[count=" + getCount() + ", mean=" + getMean() + ", p50<="
+                + getPercentile(50) + ", p99<=" + getPercentile(99) + ", max=" + getMax() + "]";
+    }
+}
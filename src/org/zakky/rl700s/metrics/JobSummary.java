@@ -0,0 +1,112 @@
+package org.zakky.rl700s.metrics;
+
+import java.util.Locale;
+
+/**
+ * 1つのジョブを送信したときの統計です。
+ * <p>
+ * 転送のバイト数と回数は、ジョブの送信中に完了した転送のものです。 複数のジョブのコマンドが1回の転送にまとめられることがあるので、
+ * ジョブごとの値は目安です。
+ * </p>
+ */
+public final class JobSummary {
+
+    private final int lineCount_;
+
+    private final int blankLineCount_;
+
+    private final int repeatedLineCount_;
+
+    private final long bytesEncoded_;
+
+    private final long uncompressedBytes_;
+
+    private final int commandCount_;
+
+    private final long bytesSent_;
+
+    private final int transferCount_;
+
+    private final long preflightNanos_;
+
+    private final long encodeNanos_;
+
+    /**
+     * {@link JobSummary} を構築します。
+     *
+     * @param lineCount 送信したラスターラインの本数。
+     * @param blankLineCount そのうち空ラインコマンドで送った本数。
+     * @param repeatedLineCount そのうち直前のラインのコマンドを送り直した本数。
+     * @param bytesEncoded ラスターラインのコマンドのバイト数。
+     * @param uncompressedBytes 無圧縮で送った場合のバイト数。
+     * @param commandCount 送信したコマンドの数。
+     * @param bytesSent 転送したバイト数。
+     * @param transferCount 転送回数。
+     * @param preflightNanos 印刷前のステータス確認にかかった時間 (ナノ秒)。 確認しなかった場合は {@code 0}。
+     * @param encodeNanos ラスターデータの圧縮と送信にかかった時間 (ナノ秒)。
+     */
+    public JobSummary(int lineCount, int blankLineCount, int repeatedLineCount,
+            long bytesEncoded, long uncompressedBytes, int commandCount, long bytesSent,
+            int transferCount, long preflightNanos, long encodeNanos) {
+        lineCount_ = lineCount;
+        blankLineCount_ = blankLineCount;
+        repeatedLineCount_ = repeatedLineCount;
+        bytesEncoded_ = bytesEncoded;
+        uncompressedBytes_ = uncompressedBytes;
+        commandCount_ = commandCount;
+        bytesSent_ = bytesSent;
+        transferCount_ = transferCount;
+        preflightNanos_ = preflightNanos;
+        encodeNanos_ = encodeNanos;
+    }
+
+    public int getLineCount() {
+        return lineCount_;
+    }
+
+    public int getBlankLineCount() {
+        return blankLineCount_;
+    }
+
+    public int getRepeatedLineCount() {
+        return repeatedLineCount_;
+    }
+
+    public long getBytesEncoded() {
+        return bytesEncoded_;
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes_;
+    }
+
+    public int getCommandCount() {
+        return commandCount_;
+    }
+
+    public long getBytesSent() {
+        return bytesSent_;
+    }
+
+    public int getTransferCount() {
+        return transferCount_;
+    }
+
+    public long getPreflightNanos() {
+        return preflightNanos_;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos_;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d lines (%d blank, %d repeated) encoded into %d of %d"
+                + " bytes; %d commands, %d bytes in %d transfers;"
+                + " preflight %.1fms, encode %.1fms", lineCount_, blankLineCount_,
+                repeatedLineCount_, bytesEncoded_, uncompressedBytes_, commandCount_,
+                bytesSent_, transferCount_, preflightNanos_ / 1000000.0,
+                encodeNanos_ / 1000000.0);
+    }
+}
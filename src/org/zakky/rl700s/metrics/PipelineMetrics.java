@@ -0,0 +1,264 @@
+package org.zakky.rl700s.metrics;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ラベルの作成から USB 転送までの、各段階の所要時間とイベントの回数を集計するクラスです。
+ * <p>
+ * 所要時間は段階 ({@link Stage}) ごとの {@link Histogram} にナノ秒で記録し、回数やバイト数は {@link Counter}
+ * ごとに加算します。 記録はメモリ確保もロックも行わないので、ラスターライン単位の処理の中から呼び出すことができます。
+ * 計測する側のクラスは {@code setMetrics()} で受け取ったインスタンスに記録し、 {@code null} のときは
+ * {@link System#nanoTime()} の呼び出しも含めて何もしません。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフです。 アプリ内では {@link #getShared()} のインスタンスを共有して、
+ * {@link #dump(Appendable)} で logcat やファイルに書き出します。
+ * </p>
+ */
+public final class PipelineMetrics {
+
+    /**
+     * 所要時間を計測する段階。
+     */
+    public enum Stage {
+        /**
+         * 画像ソースの描画。 {@link org.zakky.rl700s.raster.RasterSource} の窓1つ分ごとに記録します。
+         */
+        RENDER,
+
+        /**
+         * 二値化とビットへの詰め込み。 2つの処理は同じループで行うので、まとめてラスターライン1本ごとに記録します。
+         */
+        RASTERIZE,
+
+        /**
+         * 印刷前のステータス確認。 ステータスを要求してから応答が届くまでを、ジョブごとに記録します。
+         */
+        PREFLIGHT,
+
+        /**
+         * ラスターデータの圧縮と送信キューへの投入。 ジョブごとに記録します。 転送用のバッファが空くのを待った時間を含みます。
+         */
+        ENCODE,
+
+        /**
+         * USB 転送1回。 転送を開始してから完了するまでを記録します。
+         */
+        TRANSFER,
+
+        /**
+         * 最後のラベルの印刷開始コマンドを送ってから、すべての転送が完了するまで。
+         */
+        DRAIN
+    }
+
+    /**
+     * 回数やバイト数を数えるイベント。
+     */
+    public enum Counter {
+        /**
+         * 送信を終えたジョブの数。
+         */
+        JOBS,
+
+        /**
+         * 印刷前のステータス確認で中止したジョブの数。
+         */
+        PREFLIGHT_REJECTS,
+
+        /**
+         * 送信したラスターラインの本数。
+         */
+        LINES,
+
+        /**
+         * 完了した USB 転送の回数。
+         */
+        TRANSFERS,
+
+        /**
+         * 完了した USB 転送のバイト数。
+         */
+        BYTES_TRANSFERRED,
+
+        /**
+         * タイムアウトした USB 転送の回数。
+         */
+        USB_TIMEOUTS,
+
+        /**
+         * 要求したバイト数の一部しか送れなかった USB 転送の回数。
+         */
+        SHORT_WRITES,
+
+        /**
+         * タイムアウト以外の理由で失敗した USB 転送の回数。
+         */
+        TRANSFER_ERRORS
+    }
+
+    private static final PipelineMetrics SHARED = new PipelineMetrics();
+
+    private final Histogram[] latencies_;
+
+    /**
+     * USB 転送1回あたりのバイト数。
+     */
+    private final Histogram transferSizes_ = new Histogram();
+
+    private final AtomicLongArray counters_ = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * {@link PipelineMetrics} を構築します。
+     */
+    public PipelineMetrics() {
+        final Stage[] stages = Stage.values();
+        latencies_ = new Histogram[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            latencies_[i] = new Histogram();
+        }
+    }
+
+    /**
+     * アプリ全体で共有するインスタンスを返します。
+     *
+     * @return 共有の {@link PipelineMetrics}。
+     */
+    public static PipelineMetrics getShared() {
+        return SHARED;
+    }
+
+    /**
+     * {@code startNanos} から現在までの時間を、 {@code stage} の所要時間として記録します。
+     *
+     * @param stage 段階。
+     * @param startNanos 段階を開始したときの {@link System#nanoTime()}。
+     * @return 現在の {@link System#nanoTime()}。 続く段階の開始時刻として使えます。
+     */
+    public long record(Stage stage, long startNanos) {
+        final long now = System.nanoTime();
+        latencies_[stage.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * 完了した USB 転送を記録します。
+     *
+     * @param bytes 転送したバイト数。
+     * @param startNanos 転送を開始したときの {@link System#nanoTime()}。
+     */
+    public void recordTransfer(int bytes, long startNanos) {
+        record(Stage.TRANSFER, startNanos);
+        transferSizes_.record(bytes);
+        counters_.incrementAndGet(Counter.TRANSFERS.ordinal());
+        counters_.addAndGet(Counter.BYTES_TRANSFERRED.ordinal(), bytes);
+    }
+
+    /**
+     * {@code counter} に 1 を加えます。
+     *
+     * @param counter 数えるイベント。
+     */
+    public void increment(Counter counter) {
+        counters_.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * {@code counter} に {@code delta} を加えます。
+     *
+     * @param counter 数えるイベント。
+     * @param delta 加える値。
+     */
+    public void add(Counter counter, long delta) {
+        counters_.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * {@code counter} の現在の値を返します。
+     *
+     * @param counter イベント。
+     * @return 現在の値。
+     */
+    public long get(Counter counter) {
+        return counters_.get(counter.ordinal());
+    }
+
+    /**
+     * {@code stage} の所要時間 (ナノ秒) のヒストグラムを返します。
+     *
+     * @param stage 段階。
+     * @return ヒストグラム。
+     */
+    public Histogram getLatency(Stage stage) {
+        return latencies_[stage.ordinal()];
+    }
+
+    /**
+     * USB 転送1回あたりのバイト数のヒストグラムを返します。
+     *
+     * @return ヒストグラム。
+     */
+    public Histogram getTransferSizes() {
+        return transferSizes_;
+    }
+
+    /**
+     * 記録したすべての値を捨てます。
+     */
+    public void reset() {
+        for (Histogram h : latencies_) {
+            h.reset();
+        }
+        transferSizes_.reset();
+        for (int i = 0; i < counters_.length(); i++) {
+            counters_.set(i, 0);
+        }
+    }
+
+    /**
+     * 集計結果を、1項目1行のテキストで書き出します。
+     * <p>
+     * 所要時間はミリ秒で、パーセンタイルは {@link Histogram#getPercentile(double)} の上限で表します。
+     * </p>
+     *
+     * @param out 書き出し先。
+     * @throws IOException 書き出しに失敗した場合。
+     */
+    public void dump(Appendable out) throws IOException {
+        for (Stage stage : Stage.values()) {
+            final Histogram h = getLatency(stage);
+            out.append(String.format(Locale.US,
+                    "%-10s n=%d mean=%.3fms p50<=%.3fms p90<=%.3fms p99<=%.3fms max=%.3fms\n",
+                    stage, h.getCount(), toMillis(h.getMean()), toMillis(h.getPercentile(50)),
+                    toMillis(h.getPercentile(90)), toMillis(h.getPercentile(99)),
+                    toMillis(h.getMax())));
+        }
+        final Histogram sizes = transferSizes_;
+        out.append(String.format(Locale.US,
+                "%-10s n=%d mean=%dB p50<=%dB p90<=%dB max=%dB\n", "XFER_SIZE",
+                sizes.getCount(), sizes.getMean(), sizes.getPercentile(50),
+                sizes.getPercentile(90), sizes.getMax()));
+        for (Counter counter : Counter.values()) {
+            out.append(counter.name()).append('=').append(Long.toString(get(counter)))
+                    .append('\n');
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            dump(sb);
+        } catch (IOException e) {
+            // StringBuilder への書き出しは失敗しない
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,375 @@
+package org.zakky.rl700s.print;
+
+import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.raster.RasterSink;
+import org.zakky.rl700s.transport.BatchingSender;
+import org.zakky.rl700s.transport.TransferOutput;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link RasterEncoder} で変換済みのラスターラインのコマンド列を保存したファイルです。
+ * <p>
+ * ファイルは 32 バイトのヘッダ (マジックナンバー、ライン1本あたりのバイト数、圧縮モード、ラインの本数、空ラインの本数、
+ * 繰り返しのラインの本数、無圧縮で送った場合のバイト数) の後に、プリンターへ送るコマンドをそのまま並べた形式です。
+ * 初期化や印刷情報などの設定コマンドと印刷開始コマンドは含まないので、
+ * {@link PrintSession#print(EncodedLabel, PrintSettings, boolean)} でプリアンブルや他のラベルと組み合わせて送信します。
+ * 送信時にはラインの二値化も圧縮も行わず、ファイルの内容をそのまま転送します。
+ * </p>
+ * <p>
+ * このクラスは不変です。
+ * </p>
+ */
+public final class EncodedLabel {
+
+    /**
+     * ファイルの先頭に置くマジックナンバー ("RL7E")。
+     */
+    private static final int MAGIC = 0x524c3745;
+
+    /**
+     * ヘッダのバイト数。
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * 読み書きに使用するバッファのバイト数。
+     */
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    private final File file_;
+
+    private final int bytesPerLine_;
+
+    private final CompressionMode compressionMode_;
+
+    private final int lineCount_;
+
+    private final int blankLineCount_;
+
+    private final int repeatedLineCount_;
+
+    private final long uncompressedBytes_;
+
+    private EncodedLabel(File file, int bytesPerLine, CompressionMode compressionMode,
+            int lineCount, int blankLineCount, int repeatedLineCount, long uncompressedBytes) {
+        file_ = file;
+        bytesPerLine_ = bytesPerLine;
+        compressionMode_ = compressionMode;
+        lineCount_ = lineCount;
+        blankLineCount_ = blankLineCount;
+        repeatedLineCount_ = repeatedLineCount;
+        uncompressedBytes_ = uncompressedBytes;
+    }
+
+    /**
+     * 既存のファイルを開きます。
+     *
+     * @param file 変換済みのラベルのファイル。
+     * @return {@link EncodedLabel}。
+     * @throws IOException ファイルを読めない場合や、変換済みのラベルの形式でない場合。
+     */
+    public static EncodedLabel open(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not an encoded label file: " + file);
+            }
+            final int bytesPerLine = in.readInt();
+            final int compression = in.readInt();
+            final int lineCount = in.readInt();
+            final int blankLineCount = in.readInt();
+            final int repeatedLineCount = in.readInt();
+            final long uncompressedBytes = in.readLong();
+            final CompressionMode[] modes = CompressionMode.values();
+            if (bytesPerLine < 0 || compression < 0 || modes.length <= compression
+                    || lineCount < 0 || blankLineCount < 0 || repeatedLineCount < 0
+                    || file.length() < HEADER_SIZE) {
+                throw new IOException("broken encoded label file: " + file);
+            }
+            return new EncodedLabel(file, bytesPerLine, modes[compression], lineCount,
+                    blankLineCount, repeatedLineCount, uncompressedBytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * {@code job} のラスターラインをすべて変換して、ファイルに書き出します。
+     *
+     * @param job ラスターラインを読み出す {@link RasterJob}。
+     * @param file 作成するファイル。 既に存在する場合は上書きします。
+     * @param compressionMode 空でないラインの変換に使う圧縮モード。
+     * @return 書き出したファイルの {@link EncodedLabel}。
+     * @throws IOException 読み出しか書き出しに失敗した場合。 ファイルは削除します。
+     */
+    public static EncodedLabel encode(RasterJob job, File file, CompressionMode compressionMode)
+            throws IOException {
+        if (job == null) {
+            throw new IllegalArgumentException("'job' must not be null");
+        }
+        final Writer writer = new Writer(file, job.getBytesPerLine(), compressionMode);
+        boolean success = false;
+        try {
+            final byte[] line = new byte[job.getBytesPerLine()];
+            final RasterLineReader reader = job.openReader();
+            try {
+                while (reader.readLine(line)) {
+                    writer.writeLine(line, 0);
+                }
+            } finally {
+                reader.close();
+            }
+            final EncodedLabel label = writer.close();
+            success = true;
+            return label;
+        } finally {
+            if (!success) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * ファイルを返します。
+     *
+     * @return ファイル。
+     */
+    public File getFile() {
+        return file_;
+    }
+
+    /**
+     * 変換前のラスターライン1本あたりのバイト数を返します。
+     *
+     * @return ライン1本あたりのバイト数。
+     */
+    public int getBytesPerLine() {
+        return bytesPerLine_;
+    }
+
+    /**
+     * 空でないラインの変換に使った圧縮モードを返します。 プリンターに設定済みの圧縮モードと同じでなければ送信できません。
+     *
+     * @return 圧縮モード。
+     */
+    public CompressionMode getCompressionMode() {
+        return compressionMode_;
+    }
+
+    /**
+     * ラスターラインの本数を返します。
+     *
+     * @return ラスターラインの本数。
+     */
+    public int getLineCount() {
+        return lineCount_;
+    }
+
+    /**
+     * 空ラインコマンドで変換したラインの本数を返します。
+     *
+     * @return 空ラインの本数。
+     */
+    public int getBlankLineCount() {
+        return blankLineCount_;
+    }
+
+    /**
+     * 直前のラインと同じ内容だったラインの本数を返します。
+     *
+     * @return 繰り返しのラインの本数。
+     */
+    public int getRepeatedLineCount() {
+        return repeatedLineCount_;
+    }
+
+    /**
+     * すべてのラインを無圧縮のラスターラインコマンドで送った場合のバイト数を返します。
+     *
+     * @return 無圧縮で送った場合のバイト数。
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes_;
+    }
+
+    /**
+     * コマンド列のバイト数を返します。
+     *
+     * @return コマンド列のバイト数。
+     */
+    public long getEncodedBytes() {
+        return file_.length() - HEADER_SIZE;
+    }
+
+    /**
+     * コマンド列を先頭から読み出して {@code sender} で送信します。
+     *
+     * @param sender 送信に使用する {@link BatchingSender}。
+     * @throws IOException ファイルの読み込みか、送信に失敗した場合。
+     */
+    public void writeTo(BatchingSender sender) throws IOException {
+        final FileInputStream in = new FileInputStream(file_);
+        try {
+            if (in.skip(HEADER_SIZE) != HEADER_SIZE) {
+                throw new EOFException("broken encoded label file: " + file_);
+            }
+            final ByteBuffer chunk = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            int n;
+            while ((n = in.read(chunk.array(), 0, chunk.capacity())) != -1) {
+                chunk.limit(n).position(0);
+                sender.send(chunk);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * ラスターラインを1本ずつ {@link RasterEncoder} で変換しながら、ファイルに書き出すライターです。
+     * <p>
+     * ラインの本数などはヘッダに書き込むので、事前に知っておく必要はありません。
+     * {@link org.zakky.rl700s.raster.StreamingRasterizer} の出力先に指定すれば、ラスターデータ全体をメモリ上に持たずに変換できます。
+     * </p>
+     */
+    public static final class Writer implements RasterSink {
+        private final File file_;
+
+        private final int bytesPerLine_;
+
+        private final CompressionMode compressionMode_;
+
+        private final FileOutput output_;
+
+        private final BatchingSender sender_;
+
+        private final RasterEncoder encoder_;
+
+        /**
+         * {@link RasterSink#writeLine(byte[], int)} で渡されたラインをコピーするバッファ。
+         */
+        private final byte[] line_;
+
+        /**
+         * ファイルを作成します。
+         *
+         * @param file 作成するファイル。 既に存在する場合は上書きします。
+         * @param bytesPerLine ラスターライン1本あたりのバイト数。
+         * @param compressionMode 空でないラインの変換に使う圧縮モード。
+         * @throws IOException ファイルを作成できなかった場合。
+         */
+        public Writer(File file, int bytesPerLine, CompressionMode compressionMode)
+                throws IOException {
+            if (bytesPerLine < 0) {
+                throw new IllegalArgumentException("'bytesPerLine' must not be negative: "
+                        + bytesPerLine);
+            }
+            if (compressionMode == null) {
+                throw new IllegalArgumentException("'compressionMode' must not be null");
+            }
+            file_ = file;
+            bytesPerLine_ = bytesPerLine;
+            compressionMode_ = compressionMode;
+            line_ = new byte[bytesPerLine];
+            output_ = new FileOutput(new FileOutputStream(file));
+            // ヘッダは close() で確定させる
+            output_.out_.write(new byte[HEADER_SIZE]);
+            sender_ = new BatchingSender(output_);
+            encoder_ = new RasterEncoder(sender_, compressionMode);
+        }
+
+        /**
+         * ラスターラインを1本変換して追記します。
+         *
+         * @param data ラスターラインを含む配列。
+         * @param offset {@code data} 内のラスターラインの開始位置。
+         * @throws IOException 書き込みに失敗した場合。
+         */
+        @Override
+        public void writeLine(byte[] data, int offset) throws IOException {
+            System.arraycopy(data, offset, line_, 0, bytesPerLine_);
+            encoder_.encodeLine(line_);
+        }
+
+        /**
+         * ヘッダを確定させてファイルを閉じます。
+         *
+         * @return 書き出したファイルの {@link EncodedLabel}。
+         * @throws IOException 書き込みに失敗した場合。
+         */
+        public EncodedLabel close() throws IOException {
+            encoder_.flush();
+            sender_.flush();
+            output_.out_.close();
+            final RandomAccessFile raf = new RandomAccessFile(file_, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(bytesPerLine_);
+                raf.writeInt(compressionMode_.ordinal());
+                raf.writeInt(encoder_.getLineCount());
+                raf.writeInt(encoder_.getBlankLineCount());
+                raf.writeInt(encoder_.getRepeatedLineCount());
+                raf.writeLong(encoder_.getUncompressedBytes());
+            } finally {
+                raf.close();
+            }
+            return new EncodedLabel(file_, bytesPerLine_, compressionMode_, encoder_
+                    .getLineCount(), encoder_.getBlankLineCount(), encoder_
+                    .getRepeatedLineCount(), encoder_.getUncompressedBytes());
+        }
+
+        /**
+         * 書き込みを中止し、ファイルを削除します。
+         */
+        public void abort() {
+            try {
+                output_.out_.close();
+            } catch (IOException e) {
+                // 削除するので無視する
+            }
+            file_.delete();
+        }
+    }
+
+    /**
+     * 送信されたバッファの内容をファイルに書き込む {@link TransferOutput} です。
+     */
+    private static final class FileOutput implements TransferOutput {
+        final OutputStream out_;
+
+        private final ByteBuffer buffer_ = ByteBuffer.allocate(IO_BUFFER_SIZE);
+
+        FileOutput(OutputStream out) {
+            out_ = out;
+        }
+
+        @Override
+        public ByteBuffer lease() {
+            buffer_.clear();
+            return buffer_;
+        }
+
+        @Override
+        public void commit(ByteBuffer buffer) throws IOException {
+            out_.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+        }
+
+        @Override
+        public void drain() {
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.zakky.rl700s.print;
+
+import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.raster.DitherMode;
+import org.zakky.rl700s.raster.ProgressListener;
+import org.zakky.rl700s.raster.StreamingRasterizer;
+import org.zakky.rl700s.raster.TapeGeometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 変換済みのラベル ({@link EncodedLabel}) を、キャッシュディレクトリ内に保存しておくキャッシュです。
+ * <p>
+ * キーは、ラベルの元になった画像を識別する文字列、テープ、 {@link DitherMode}、 {@link CompressionMode} から
+ * {@link #makeKey(String, TapeGeometry, DitherMode, CompressionMode)} で作るハッシュ値です。 文字ラベルやバーコードのように
+ * 二値化しないラベルは、 {@link DitherMode} を含まない {@link #makeKey(String, TapeGeometry, CompressionMode)}
+ * でキーを作ります。
+ * 同じキーのラベルを印刷し直すときは、描画・二値化・圧縮をすべて省いて、保存したコマンド列をそのまま送信できます。
+ * ランダムディザのように結果が毎回変わる二値化でも、印刷し直したラベルは最初のものと同じになります。
+ * </p>
+ * <p>
+ * ファイルの合計サイズが上限を超えると、最後に使ってから長い時間が経ったものから削除します (LRU)。
+ * 使った時刻はファイルの更新日時に記録するので、プロセスが変わっても順序は引き継がれます。
+ * 元の画像が変わったラベルは、キーが変わるので使われなくなり、いずれ削除されます。
+ * </p>
+ * <p>
+ * 印刷キューに入っているラベルが削除された場合、そのジョブは印刷できません。 上限はキューに入るラベルの合計より十分大きくしてください。
+ * </p>
+ * <p>
+ * プロセス内では、ディレクトリごとに1つのインスタンスを共有します。 このクラスはスレッドセーフです。
+ * </p>
+ */
+public final class EncodedLabelCache {
+
+    /**
+     * ラベルを保存するディレクトリの、キャッシュディレクトリからの相対パス。
+     */
+    private static final String DIR_NAME = "labels";
+
+    private static final String FILE_SUFFIX = ".label";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * ファイルの合計サイズの既定の上限 (バイト)。 24mm テープの正方形のラベルなら数百枚分です。
+     */
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * キーに含める、ファイル形式とコマンドの作り方のバージョン。 変換の結果が変わる修正をしたときは増やしてください。
+     */
+    private static final int KEY_VERSION = 1;
+
+    private static EncodedLabelCache instance_ = null;
+
+    private final File dir_;
+
+    private final long maxBytes_;
+
+    /**
+     * キーからファイルサイズへの対応。 使った順に並びます。 読み込んでいなければ {@code null}。
+     */
+    private Map<String, Long> index_ = null;
+
+    /**
+     * {@link #index_} のファイルサイズの合計。
+     */
+    private long totalBytes_ = 0;
+
+    /**
+     * プロセス内で共有する {@link EncodedLabelCache} を返します。
+     *
+     * @param cacheDir アプリのキャッシュディレクトリ。 この中の {@value #DIR_NAME} ディレクトリを使用します。
+     * @return 上限が {@link #DEFAULT_MAX_BYTES} の {@link EncodedLabelCache}。
+     */
+    public static synchronized EncodedLabelCache getInstance(File cacheDir) {
+        final File dir = new File(cacheDir, DIR_NAME);
+        if (instance_ == null || !instance_.dir_.equals(dir)) {
+            instance_ = new EncodedLabelCache(dir, DEFAULT_MAX_BYTES);
+        }
+        return instance_;
+    }
+
+    /**
+     * {@link EncodedLabelCache} を構築します。 同じディレクトリに対して複数のインスタンスを使用しないでください。
+     *
+     * @param dir ラベルを保存するディレクトリ。 存在しなければ作成します。
+     * @param maxBytes ファイルの合計サイズの上限 (バイト)。
+     */
+    public EncodedLabelCache(File dir, long maxBytes) {
+        if (dir == null) {
+            throw new IllegalArgumentException("'dir' must not be null");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("'maxBytes' must be positive: " + maxBytes);
+        }
+        dir_ = dir;
+        maxBytes_ = maxBytes;
+    }
+
+    /**
+     * キャッシュのキーを作成します。
+     *
+     * @param sourceId ラベルの元になった画像を識別する文字列。 画像が変わったときは別の値にしてください。
+     * @param tape ラベルを作成したテープ。
+     * @param ditherMode 二値化に使用した {@link DitherMode}。
+     * @param compressionMode 変換に使用した {@link CompressionMode}。
+     * @return キー。 ファイル名としてそのまま使用できます。
+     */
+    public static String makeKey(String sourceId, TapeGeometry tape, DitherMode ditherMode,
+            CompressionMode compressionMode) {
+        if (ditherMode == null) {
+            throw new IllegalArgumentException("'ditherMode' must not be null");
+        }
+        return makeKeyInternal(sourceId, tape, ditherMode, compressionMode);
+    }
+
+    /**
+     * 二値化せずに作成したラベルの、キャッシュのキーを作成します。 二値化の方法を変えても、同じキーになります。
+     *
+     * @param sourceId ラベルの内容を識別する文字列。 内容が変わったときは別の値にしてください。
+     * @param tape ラベルを作成したテープ。
+     * @param compressionMode 変換に使用した {@link CompressionMode}。
+     * @return キー。 ファイル名としてそのまま使用できます。
+     */
+    public static String makeKey(String sourceId, TapeGeometry tape,
+            CompressionMode compressionMode) {
+        return makeKeyInternal(sourceId, tape, null, compressionMode);
+    }
+
+    private static String makeKeyInternal(String sourceId, TapeGeometry tape,
+            DitherMode ditherMode, CompressionMode compressionMode) {
+        if (sourceId == null) {
+            throw new IllegalArgumentException("'sourceId' must not be null");
+        }
+        if (tape == null) {
+            throw new IllegalArgumentException("'tape' must not be null");
+        }
+        if (compressionMode == null) {
+            throw new IllegalArgumentException("'compressionMode' must not be null");
+        }
+        final String identity = KEY_VERSION + "\n" + sourceId + "\n" + tape.getMediaWidth()
+                + "\n" + ((ditherMode == null) ? "" : ditherMode.name()) + "\n"
+                + compressionMode.name();
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(identity.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        final StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * キャッシュされたラベルを返します。 返したラベルは、もっとも最近使ったものとして扱います。
+     *
+     * @param key キー。
+     * @return ラベル。 キャッシュされていなければ {@code null}。
+     */
+    public synchronized EncodedLabel get(String key) {
+        // LRU の順序は get() で更新される
+        if (getIndex().get(key) == null) {
+            return null;
+        }
+        final File file = getFile(key);
+        try {
+            final EncodedLabel label = EncodedLabel.open(file);
+            file.setLastModified(System.currentTimeMillis());
+            return label;
+        } catch (IOException e) {
+            // 壊れたファイルや、外から削除されたファイルは捨てる
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * {@code rasterizer} が作成するラスターラインを変換して、キャッシュに追加します。
+     * <p>
+     * 変換は一時ファイルに対して行うので、その間も他のスレッドからキャッシュを使用できます。 同じキーのラベルがあれば置き換えます。
+     * </p>
+     *
+     * @param key キー。
+     * @param rasterizer ラスターラインを作成する {@link StreamingRasterizer}。
+     * @param compressionMode 変換に使用する {@link CompressionMode}。 キーを作成したときと同じものを指定してください。
+     * @param listener 進捗の通知先。 {@code null} の場合は通知しません。
+     * @return 追加したラベル。
+     * @throws IOException 書き出しに失敗した場合。
+     * @throws java.util.concurrent.CancellationException {@code listener} が処理の中止を要求した場合。
+     */
+    public EncodedLabel put(String key, StreamingRasterizer rasterizer,
+            CompressionMode compressionMode, ProgressListener listener) throws IOException {
+        final File temp = createTempFile(key);
+        final EncodedLabel.Writer writer = new EncodedLabel.Writer(temp, rasterizer
+                .getBytesPerLine(), compressionMode);
+        boolean success = false;
+        try {
+            rasterizer.writeTo(writer, listener);
+            writer.close();
+            success = true;
+        } finally {
+            if (!success) {
+                writer.abort();
+            }
+        }
+        return commit(key, temp);
+    }
+
+    /**
+     * {@code job} のラスターラインを変換して、キャッシュに追加します。
+     * <p>
+     * 変換は一時ファイルに対して行うので、その間も他のスレッドからキャッシュを使用できます。 同じキーのラベルがあれば置き換えます。
+     * </p>
+     *
+     * @param key キー。
+     * @param job ラスターラインを読み出す {@link RasterJob}。
+     * @param compressionMode 変換に使用する {@link CompressionMode}。 キーを作成したときと同じものを指定してください。
+     * @return 追加したラベル。
+     * @throws IOException 読み出しか書き出しに失敗した場合。
+     */
+    public EncodedLabel put(String key, RasterJob job, CompressionMode compressionMode)
+            throws IOException {
+        final File temp = createTempFile(key);
+        EncodedLabel.encode(job, temp, compressionMode);
+        return commit(key, temp);
+    }
+
+    /**
+     * 書きかけのファイルを読まないように、ラベルは一時ファイルに書いてから {@link #commit(String, File)} で置き換える。
+     */
+    private File createTempFile(String key) throws IOException {
+        if (key == null) {
+            throw new IllegalArgumentException("'key' must not be null");
+        }
+        synchronized (this) {
+            // 残っている一時ファイルの削除を、ここで作る一時ファイルより先に済ませておく
+            getIndex();
+            if (!dir_.isDirectory() && !dir_.mkdirs()) {
+                throw new IOException("failed to create label cache directory: " + dir_);
+            }
+        }
+        return File.createTempFile(key, TEMP_SUFFIX, dir_);
+    }
+
+    private synchronized EncodedLabel commit(String key, File temp) throws IOException {
+        final Map<String, Long> index = getIndex();
+        final File file = getFile(key);
+        remove(key);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("failed to rename " + temp + " to " + file);
+        }
+        final long size = file.length();
+        index.put(key, Long.valueOf(size));
+        totalBytes_ += size;
+        trimToSize(key);
+        return EncodedLabel.open(file);
+    }
+
+    /**
+     * ラベルを削除します。
+     *
+     * @param key キー。
+     */
+    public synchronized void remove(String key) {
+        final Long size = getIndex().remove(key);
+        if (size != null) {
+            totalBytes_ -= size.longValue();
+        }
+        getFile(key).delete();
+    }
+
+    /**
+     * すべてのラベルを削除します。
+     */
+    public synchronized void clear() {
+        for (String key : getIndex().keySet()) {
+            getFile(key).delete();
+        }
+        index_.clear();
+        totalBytes_ = 0;
+    }
+
+    /**
+     * キャッシュされているラベルのファイルサイズの合計を返します。
+     *
+     * @return バイト数。
+     */
+    public synchronized long getSize() {
+        getIndex();
+        return totalBytes_;
+    }
+
+    /**
+     * キャッシュされているラベルの数を返します。
+     *
+     * @return ラベルの数。
+     */
+    public synchronized int getCount() {
+        return getIndex().size();
+    }
+
+    /**
+     * 合計サイズが上限に収まるまで、古いラベルから削除します。 {@code keep} は削除しません。
+     */
+    private void trimToSize(String keep) {
+        final Iterator<Map.Entry<String, Long>> it = index_.entrySet().iterator();
+        while (maxBytes_ < totalBytes_ && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            totalBytes_ -= eldest.getValue().longValue();
+            getFile(eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * ディレクトリ内のファイルから {@link #index_} を作成します。 前のプロセスが残した一時ファイルは削除します。
+     */
+    private Map<String, Long> getIndex() {
+        if (index_ != null) {
+            return index_;
+        }
+        index_ = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        totalBytes_ = 0;
+        final File[] files = dir_.listFiles();
+        if (files == null) {
+            return index_;
+        }
+        Arrays.sort(files, LAST_MODIFIED_ORDER);
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            if (!name.endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            final long size = file.length();
+            index_.put(name.substring(0, name.length() - FILE_SUFFIX.length()), Long
+                    .valueOf(size));
+            totalBytes_ += size;
+        }
+        trimToSize(null);
+        return index_;
+    }
+
+    private File getFile(String key) {
+        return new File(dir_, key + FILE_SUFFIX);
+    }
+
+    /**
+     * 更新日時の古い順に並べるための {@link Comparator}。
+     */
+    private static final Comparator<File> LAST_MODIFIED_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+            final long t1 = f1.lastModified();
+            final long t2 = f2.lastModified();
+            return (t1 < t2) ? -1 : (t1 == t2) ? 0 : 1;
+        }
+    };
+}
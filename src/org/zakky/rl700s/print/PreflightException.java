@@ -0,0 +1,74 @@
+package org.zakky.rl700s.print;
+
+import org.zakky.rl700s.comm.RL700SStatus;
+
+import java.io.IOException;
+
+/**
+ * 印刷前のステータス確認で、プリンターがジョブを印刷できる状態ではなかったことを表す例外です。
+ * <p>
+ * この例外がスローされた時点では、ラスターデータは送信されていません。
+ * </p>
+ */
+public final class PreflightException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 印刷できなかった理由。
+     */
+    public enum Reason {
+        /**
+         * ステータスリクエストに応答がなかった。
+         */
+        TIMEOUT,
+
+        /**
+         * プリンターがエラーを通知した。
+         */
+        PRINTER_ERROR,
+
+        /**
+         * 装着されているテープの種類が、ジョブのものと異なる。
+         */
+        MEDIA_TYPE_MISMATCH,
+
+        /**
+         * 装着されているテープの幅が、ラベルを作成したテープと異なる。
+         */
+        MEDIA_WIDTH_MISMATCH
+    }
+
+    private final Reason reason_;
+
+    /**
+     * 確認に使用したステータス。 直列化はしません。
+     */
+    private final transient RL700SStatus status_;
+
+    /**
+     * {@link PreflightException} を構築します。
+     *
+     * @param reason 印刷できなかった理由。
+     * @param status 確認に使用したステータス。 応答がなかった場合は {@code null}。
+     * @param message 詳細メッセージ。
+     */
+    public PreflightException(Reason reason, RL700SStatus status, String message) {
+        super(message);
+        reason_ = reason;
+        status_ = status;
+    }
+
+    public Reason getReason() {
+        return reason_;
+    }
+
+    /**
+     * 確認に使用したステータスを返します。
+     *
+     * @return ステータス。 応答がなかった場合は {@code null}。
+     */
+    public RL700SStatus getStatus() {
+        return status_;
+    }
+}
@@ -0,0 +1,421 @@
+package org.zakky.rl700s.print;
+
+import org.zakky.rl700s.comm.RL700SCommands;
+import org.zakky.rl700s.comm.RL700SCommands.CommandMode;
+import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
+import org.zakky.rl700s.comm.RL700SCommands.EnhancedMode;
+import org.zakky.rl700s.comm.RL700SCommands.Paper;
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.metrics.JobSummary;
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.metrics.PipelineMetrics.Counter;
+import org.zakky.rl700s.metrics.PipelineMetrics.Stage;
+import org.zakky.rl700s.print.PreflightException.Reason;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.status.StatusMonitor;
+import org.zakky.rl700s.transport.BatchingSender;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+
+/**
+ * 1台のプリンターに対して、複数のラベルを続けて印刷するセッションです。
+ * <p>
+ * 初期化とモード・印刷情報・余白などの設定コマンド (プリアンブル) は、最初のジョブと、
+ * {@link PrintSettings} が直前のジョブから変わったときにだけ送信します。 続けて印刷するラベルの間は
+ * チェーン印刷 ({@link EnhancedMode#CUT_ON_CHAIN_PRINT}) で区切り、最後のラベルだけを排出します。
+ * チェーンを続けられなくなった場合は、 {@link #finishChain()} で排出していないラベルを排出してください。
+ * </p>
+ * <p>
+ * {@link StatusMonitor} を指定した場合は、ジョブごとにラスターデータを送る前にステータスを問い合わせ、
+ * 応答を {@value #PREFLIGHT_TIMEOUT_MILLIS} ms まで待ちます。 エラーが発生している場合や、装着されているテープが
+ * {@link PrintSettings} と合わない場合は、何も印刷せずに {@link PreflightException} をスローします。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。 1つのワーカースレッドから使用してください。
+ * </p>
+ */
+public final class PrintSession {
+
+    /**
+     * SZ 以外のテープで、ラベルの後ろに追加で送る空ラインの本数。
+     */
+    private static final int TRAILING_ZERO_LINES = 300;
+
+    /**
+     * ラスターラインの送信に使う圧縮モード。 {@link EncodedLabel} はこの圧縮モードで作成してください。
+     */
+    public static final CompressionMode COMPRESSION_MODE = CompressionMode.TIFF;
+
+    /**
+     * 印刷前のステータスリクエストへの応答を待つ時間(ミリ秒)。
+     */
+    private static final long PREFLIGHT_TIMEOUT_MILLIS = 2000L;
+
+    private final BatchingSender sender_;
+
+    private final RasterEncoder encoder_;
+
+    /**
+     * 印刷前のステータス確認に使用するモニター。 確認しない場合は {@code null}。
+     */
+    private final StatusMonitor statusMonitor_;
+
+    private final ByteBuffer outBuff_ = RL700SCommands.allocateOutBuffer();
+
+    /**
+     * ラスターラインの読み出しに使うバッファ。 ライン長が変わったときにだけ作り直します。
+     */
+    private byte[] line_ = new byte[0];
+
+    /**
+     * プリンターに設定済みのパラメーター。 プリアンブルを送っていなければ {@code null}。
+     */
+    private PrintSettings current_ = null;
+
+    /**
+     * 排出していないラベルが残っているかどうか。
+     */
+    private boolean chaining_ = false;
+
+    /**
+     * 所要時間の記録先。 記録しない場合は {@code null}。
+     */
+    private PipelineMetrics metrics_ = null;
+
+    /**
+     * 最後に送信を終えたジョブの統計。 まだなければ {@code null}。
+     */
+    private JobSummary lastSummary_ = null;
+
+    /**
+     * {@link PrintSession} を構築します。
+     *
+     * @param sender コマンドの送信に使用する {@link BatchingSender}。
+     */
+    public PrintSession(BatchingSender sender) {
+        this(sender, null);
+    }
+
+    /**
+     * ジョブごとに印刷前のステータス確認を行う {@link PrintSession} を構築します。
+     *
+     * @param sender コマンドの送信に使用する {@link BatchingSender}。
+     * @param statusMonitor 同じプリンターのステータスを受信している、開始済みの {@link StatusMonitor}。
+     *            {@code null} の場合は確認しません。
+     */
+    public PrintSession(BatchingSender sender, StatusMonitor statusMonitor) {
+        if (sender == null) {
+            throw new IllegalArgumentException("'sender' must not be null");
+        }
+        sender_ = sender;
+        encoder_ = new RasterEncoder(sender, COMPRESSION_MODE);
+        statusMonitor_ = statusMonitor;
+    }
+
+    /**
+     * ラスターラインの送信に使っている {@link RasterEncoder} を返します。 統計は直前のジョブのものです。
+     *
+     * @return {@link RasterEncoder}。
+     */
+    public RasterEncoder getEncoder() {
+        return encoder_;
+    }
+
+    /**
+     * 印刷前のステータス確認とラスターデータの送信にかかった時間、送信したジョブとラインの数を {@code metrics}
+     * に記録するように設定します。
+     *
+     * @param metrics 記録先。 {@code null} の場合は記録しません。
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        metrics_ = metrics;
+    }
+
+    /**
+     * 最後に送信を終えたジョブの統計を返します。
+     *
+     * @return 統計。 まだジョブを送信していなければ {@code null}。
+     */
+    public JobSummary getLastJobSummary() {
+        return lastSummary_;
+    }
+
+    /**
+     * プリンターの設定を不明な状態に戻します。 次のジョブではプリアンブルから送り直します。
+     * <p>
+     * エラーからの復帰後など、プリンターが設定を失っている可能性がある場合に呼び出してください。
+     * 排出していないラベルは排出しないので、必要なら先に {@link #finishChain()} を呼び出してください。
+     * </p>
+     */
+    public void invalidate() {
+        encoder_.reset();
+        current_ = null;
+        chaining_ = false;
+    }
+
+    /**
+     * 排出していないラベルが残っているかどうかを返します。
+     *
+     * @return 直前のジョブを {@code last == false} で印刷していれば {@code true}。
+     */
+    public boolean isChaining() {
+        return chaining_;
+    }
+
+    /**
+     * 排出していないラベルがあれば、ラスターデータのない排出付きの印刷コマンドを送って排出します。
+     * <p>
+     * 次のジョブを {@code last == true} で印刷できない場合 (ジョブを読み込めなかった場合や、接続を閉じる場合など)
+     * に呼び出してください。 排出していないラベルがなければ何もしません。
+     * </p>
+     *
+     * @throws IOException 送信に失敗した場合。 次のジョブではプリアンブルから送り直します。
+     */
+    public void finishChain() throws IOException {
+        if (!chaining_) {
+            return;
+        }
+        try {
+            RL700SCommands.getStartPrintWithEvacuation(outBuff_);
+            sender_.send(outBuff_);
+            sender_.flush();
+            chaining_ = false;
+        } catch (IOException e) {
+            invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * ラスタージョブを1枚のラベルとして送信します。
+     * <p>
+     * {@code last} が {@code false} の場合は、ラベルを排出せずに次のラベルを待ちます。 そのあとで別のジョブを
+     * {@code last == true} で印刷するか、 {@link #finishChain()} を呼び出してください。 パラメーターが直前のジョブと
+     * 違う場合や、印刷前のステータス確認で印刷できなかった場合は、排出していないラベルを先に排出します。
+     * </p>
+     *
+     * @param job 印刷するジョブ。
+     * @param settings 印刷に使用するパラメーター。
+     * @param last 続けて印刷するラベルがなければ {@code true}。
+     * @throws PreflightException 印刷前のステータス確認で、印刷できない状態だとわかった場合。
+     * @throws IOException 送信に失敗した場合。
+     */
+    public void print(RasterJob job, PrintSettings settings, boolean last) throws IOException {
+        if (job == null) {
+            throw new IllegalArgumentException("'job' must not be null");
+        }
+        print(job, null, settings, last);
+    }
+
+    /**
+     * 変換済みのラベルを1枚のラベルとして送信します。
+     * <p>
+     * ラベルのコマンド列は変換し直さずにそのまま送信します。 それ以外は
+     * {@link #print(RasterJob, PrintSettings, boolean)} と同じです。
+     * </p>
+     *
+     * @param label 印刷するラベル。 {@link #COMPRESSION_MODE} で作成したものでなければなりません。
+     * @param settings 印刷に使用するパラメーター。
+     * @param last 続けて印刷するラベルがなければ {@code true}。
+     * @throws PreflightException 印刷前のステータス確認で、印刷できない状態だとわかった場合。
+     * @throws IOException ラベルの読み込みか、送信に失敗した場合。
+     */
+    public void print(EncodedLabel label, PrintSettings settings, boolean last)
+            throws IOException {
+        if (label == null) {
+            throw new IllegalArgumentException("'label' must not be null");
+        }
+        if (label.getCompressionMode() != COMPRESSION_MODE) {
+            throw new IllegalArgumentException("label is encoded with "
+                    + label.getCompressionMode() + ", but the session uses " + COMPRESSION_MODE);
+        }
+        print(null, label, settings, last);
+    }
+
+    /**
+     * {@code job} か {@code label} のどちらか一方を送信します。
+     */
+    private void print(RasterJob job, EncodedLabel label, PrintSettings settings, boolean last)
+            throws IOException {
+        if (settings == null) {
+            throw new IllegalArgumentException("'settings' must not be null");
+        }
+        final boolean settingsChanged = !settings.equals(current_);
+        if (settingsChanged) {
+            // 初期化コマンドでチェーン中のラベルが失われてしまうので、先に排出する
+            finishChain();
+        }
+        final long bytesSentBefore = sender_.getBytesSent();
+        final int transfersBefore = sender_.getTransferCount();
+        final int commandsBefore = sender_.getCommandCount();
+        long preflightNanos = 0;
+        try {
+            if (settingsChanged) {
+                RL700SCommands.getInit(outBuff_);
+                sender_.send(outBuff_);
+            }
+            if (statusMonitor_ != null) {
+                final long start = System.nanoTime();
+                try {
+                    preflight(settings);
+                } catch (PreflightException e) {
+                    if (metrics_ != null) {
+                        metrics_.increment(Counter.PREFLIGHT_REJECTS);
+                    }
+                    throw e;
+                }
+                preflightNanos = System.nanoTime() - start;
+                if (metrics_ != null) {
+                    metrics_.getLatency(Stage.PREFLIGHT).record(preflightNanos);
+                }
+            } else if (settingsChanged) {
+                RL700SCommands.getStatus(outBuff_);
+                sender_.send(outBuff_);
+                // ステータスの応答をすぐに受け取れるように、ここまでを先に送る
+                sender_.flush();
+            }
+            if (settingsChanged) {
+                sendSettings(settings);
+                current_ = settings;
+            }
+            final long encodeStart = System.nanoTime();
+            encoder_.resetCounters();
+            final int bytesPerLine;
+            if (label != null) {
+                encoder_.reset();
+                label.writeTo(sender_);
+                bytesPerLine = label.getBytesPerLine();
+            } else {
+                sendRasterJob(job);
+                bytesPerLine = job.getBytesPerLine();
+            }
+            if (settings.getPaper() != Paper.SZ) {
+                // SZ 以外では、余計にデータを送らないとなぜか短く切られてしまう。
+                encoder_.encodeBlankLines(TRAILING_ZERO_LINES, bytesPerLine);
+            }
+            encoder_.flush();
+            if (last) {
+                RL700SCommands.getStartPrintWithEvacuation(outBuff_);
+            } else {
+                RL700SCommands.getStartPrint(outBuff_);
+            }
+            sender_.send(outBuff_);
+            sender_.flush();
+            chaining_ = !last;
+
+            final long encodeNanos = System.nanoTime() - encodeStart;
+            // 変換済みのラベルの分は、ラベルに記録された統計を加える
+            int lineCount = encoder_.getLineCount();
+            int blankLineCount = encoder_.getBlankLineCount();
+            int repeatedLineCount = encoder_.getRepeatedLineCount();
+            long bytesEncoded = encoder_.getBytesEncoded();
+            long uncompressedBytes = encoder_.getUncompressedBytes();
+            if (label != null) {
+                lineCount += label.getLineCount();
+                blankLineCount += label.getBlankLineCount();
+                repeatedLineCount += label.getRepeatedLineCount();
+                bytesEncoded += label.getEncodedBytes();
+                uncompressedBytes += label.getUncompressedBytes();
+            }
+            lastSummary_ = new JobSummary(lineCount, blankLineCount, repeatedLineCount,
+                    bytesEncoded, uncompressedBytes, sender_.getCommandCount() - commandsBefore,
+                    sender_.getBytesSent() - bytesSentBefore, sender_.getTransferCount()
+                            - transfersBefore, preflightNanos, encodeNanos);
+            if (metrics_ != null) {
+                metrics_.getLatency(Stage.ENCODE).record(encodeNanos);
+                metrics_.increment(Counter.JOBS);
+                metrics_.add(Counter.LINES, lineCount);
+            }
+        } catch (PreflightException e) {
+            // このジョブは印刷しないので、チェーン中のラベルはここで排出しておく
+            finishChain();
+            invalidate();
+            throw e;
+        } catch (IOException e) {
+            // どこまで届いたかわからないので、次のジョブでは最初から送り直す
+            invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * ステータスを問い合わせて応答を待ち、ジョブを印刷できる状態かどうかを確認します。
+     */
+    private void preflight(PrintSettings settings) throws IOException {
+        statusMonitor_.expectReply();
+        RL700SCommands.getStatus(outBuff_);
+        sender_.send(outBuff_);
+        sender_.flush();
+
+        final RL700SStatus status;
+        try {
+            status = statusMonitor_.awaitReply(PREFLIGHT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for status reply");
+        }
+        if (status == null) {
+            throw new PreflightException(Reason.TIMEOUT, null, "no status reply in "
+                    + PREFLIGHT_TIMEOUT_MILLIS + " ms");
+        }
+        final EnumSet<ErrorInfo> errors = status.getErrorInfoSet();
+        if (!errors.isEmpty()) {
+            throw new PreflightException(Reason.PRINTER_ERROR, status, "printer error: "
+                    + errors);
+        }
+        if (status.getMediaType() != settings.getPaper().rawValue()) {
+            throw new PreflightException(Reason.MEDIA_TYPE_MISMATCH, status, "loaded media type "
+                    + status.getMediaType() + " does not match " + settings.getPaper());
+        }
+        final TapeGeometry tape = settings.getTape();
+        if (tape != null && status.getMediaWidth() != tape.getMediaWidth()) {
+            throw new PreflightException(Reason.MEDIA_WIDTH_MISMATCH, status, "loaded tape is "
+                    + status.getMediaWidth() + "mm, but the label is made for " + tape);
+        }
+    }
+
+    private void sendSettings(PrintSettings settings) throws IOException {
+        RL700SCommands.getSwitchCommandMode(outBuff_, CommandMode.RASTER);
+        sender_.send(outBuff_);
+
+        RL700SCommands.getSetPrintInformation(outBuff_, settings.getPaper(), null, null, true,
+                false);
+        sender_.send(outBuff_);
+
+        RL700SCommands.getSetMergin(outBuff_, settings.getMargin());
+        sender_.send(outBuff_);
+
+        final EnumSet<EnhancedMode> enhancedMode = EnumSet.of(EnhancedMode.CUT_ON_CHAIN_PRINT);
+        if (settings.isHalfCut()) {
+            enhancedMode.add(EnhancedMode.HALF_CUT);
+        }
+        RL700SCommands.getSetEnhancedMode(outBuff_, enhancedMode);
+        sender_.send(outBuff_);
+
+        RL700SCommands.getSelectCompressionMode(outBuff_, COMPRESSION_MODE);
+        sender_.send(outBuff_);
+    }
+
+    /**
+     * ラスターデータをラインごとに読み出しながら {@link #encoder_} で送信します。 ラスターデータ全体をメモリに読み込むことはありません。
+     */
+    private void sendRasterJob(RasterJob job) throws IOException {
+        if (line_.length != job.getBytesPerLine()) {
+            line_ = new byte[job.getBytesPerLine()];
+        }
+        final RasterLineReader reader = job.openReader();
+        try {
+            while (reader.readLine(line_)) {
+                encoder_.encodeLine(line_);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.zakky.rl700s.print;
+
+import org.zakky.rl700s.comm.RL700SCommands.Paper;
+import org.zakky.rl700s.raster.TapeGeometry;
+
+/**
+ * ラベルの印刷に使用するパラメーターです。
+ * <p>
+ * {@link PrintSession} は直前のジョブとパラメーターが等しい間は、プリンターの初期化や設定のコマンドを送り直しません。
+ * このクラスは不変です。
+ * </p>
+ */
+public final class PrintSettings {
+
+    /**
+     * これまで固定で使用していたパラメーター。
+     */
+    public static final PrintSettings DEFAULT = new PrintSettings(Paper.SZ, 20, true);
+
+    private final Paper paper_;
+
+    /**
+     * ラベルを作成したテープ。 {@code null} の場合はテープ幅を確認しません。
+     */
+    private final TapeGeometry tape_;
+
+    private final int margin_;
+
+    private final boolean halfCut_;
+
+    /**
+     * {@link PrintSettings} を構築します。
+     *
+     * @param paper テープの種類。
+     * @param margin 余白のドット数。
+     * @param halfCut ハーフカットを行う場合は {@code true}。
+     */
+    public PrintSettings(Paper paper, int margin, boolean halfCut) {
+        this(paper, null, margin, halfCut);
+    }
+
+    /**
+     * {@link PrintSettings} を構築します。
+     *
+     * @param paper テープの種類。
+     * @param tape ラベルを作成したテープ。 印刷の前に、プリンターに装着されているテープと同じ幅かどうかを確認します。
+     *            {@code null} の場合は確認しません。
+     * @param margin 余白のドット数。
+     * @param halfCut ハーフカットを行う場合は {@code true}。
+     */
+    public PrintSettings(Paper paper, TapeGeometry tape, int margin, boolean halfCut) {
+        if (paper == null) {
+            throw new IllegalArgumentException("'paper' must not be null");
+        }
+        if (margin < 0) {
+            throw new IllegalArgumentException("'margin' must not be negative: " + margin);
+        }
+        paper_ = paper;
+        tape_ = tape;
+        margin_ = margin;
+        halfCut_ = halfCut;
+    }
+
+    public Paper getPaper() {
+        return paper_;
+    }
+
+    /**
+     * ラベルを作成したテープを返します。
+     *
+     * @return ラベルを作成したテープ。 テープ幅を確認しない場合は {@code null}。
+     */
+    public TapeGeometry getTape() {
+        return tape_;
+    }
+
+    public int getMargin() {
+        return margin_;
+    }
+
+    public boolean isHalfCut() {
+        return halfCut_;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = paper_.hashCode();
+        result = 31 * result + (tape_ == null ? 0 : tape_.hashCode());
+        result = 31 * result + margin_;
+        result = 31 * result + (halfCut_ ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PrintSettings)) {
+            return false;
+        }
+        final PrintSettings other = (PrintSettings) obj;
+        return paper_ == other.paper_ && tape_ == other.tape_ && margin_ == other.margin_
+                && halfCut_ == other.halfCut_;
+    }
+
+    @Override
+    public String toString() {
+        return "PrintSettings[paper=" + paper_ + ", tape=" + tape_ + ", margin=" + margin_
+                + ", halfCut=" + halfCut_ + "]";
+    }
+}
@@ -0,0 +1,267 @@
+package org.zakky.rl700s.print;
+
+import org.zakky.rl700s.comm.RL700SCommands;
+import org.zakky.rl700s.comm.RL700SCommands.CompressionMode;
+import org.zakky.rl700s.transport.BatchingSender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ラスターラインをプリンターのコマンドに変換して送信するエンコーダーです。
+ * <p>
+ * ラインごとに、もっとも少ないバイト数で送れるコマンドを選びます。
+ * </p>
+ * <ul>
+ * <li>すべてのビットが 0 のラインは、1 バイトの空ラインコマンドで送ります。 続く空ラインはまとめて1回で送信します。</li>
+ * <li>それ以外のラインは、 {@link #getCompressionMode()} で圧縮したラスターラインコマンドで送ります。
+ * 直前と同じ内容のラインは、変換済みのコマンドをそのまま送り直し、圧縮をやり直しません。</li>
+ * </ul>
+ * <p>
+ * 圧縮モードはラインごとではなくページ全体で切り替えるコマンドなので、ラインごとに変えることはしません。
+ * TIFF (PackBits) は圧縮できないラインでも 128 バイトあたり 1 バイトしか増えないため、無圧縮に切り替えるより得になります。
+ * </p>
+ * <p>
+ * 送信したバイト数と、すべてのラインを無圧縮で送った場合のバイト数を数えているので、削減できた量を確認できます。
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class RasterEncoder {
+
+    /**
+     * 空ラインコマンドをまとめて送信するときの最大本数。
+     */
+    private static final int BLANK_BLOCK_LINES = 256;
+
+    /**
+     * 無圧縮のラスターラインコマンドのうち、データ以外の部分のバイト数 ('G' n1 n2)。
+     */
+    private static final int RASTER_LINE_HEADER_SIZE = 3;
+
+    private final BatchingSender sender_;
+
+    private final CompressionMode compressionMode_;
+
+    private final ByteBuffer outBuff_ = RL700SCommands.allocateOutBuffer();
+
+    /**
+     * 空ラインコマンドを {@link #BLANK_BLOCK_LINES} 個並べたもの。
+     */
+    private final ByteBuffer blankBlock_;
+
+    /**
+     * 空ラインコマンド1個のバイト数。
+     */
+    private final int blankCommandSize_;
+
+    /**
+     * 直前に送ったラインの内容。 まだ送っていなければ長さ 0。
+     */
+    private byte[] previousLine_ = new byte[0];
+
+    /**
+     * {@link #previousLine_} が空ラインではないかどうか。 {@code true} の場合は、
+     * {@link #outBuff_} の position 0 から limit までが、そのラインを変換したコマンドです。
+     */
+    private boolean previousEncoded_ = false;
+
+    /**
+     * 送信が保留されている空ラインの本数。
+     */
+    private int pendingBlankLines_ = 0;
+
+    private int lineCount_ = 0;
+
+    private int blankLineCount_ = 0;
+
+    private int repeatedLineCount_ = 0;
+
+    private long bytesEncoded_ = 0;
+
+    private long uncompressedBytes_ = 0;
+
+    /**
+     * {@link RasterEncoder} を構築します。
+     *
+     * @param sender コマンドの送信に使用する {@link BatchingSender}。
+     * @param compressionMode 空ラインでないラインに使う圧縮モード。 プリンターに設定済みのものと同じでなければなりません。
+     */
+    public RasterEncoder(BatchingSender sender, CompressionMode compressionMode) {
+        if (sender == null) {
+            throw new IllegalArgumentException("'sender' must not be null");
+        }
+        if (compressionMode == null) {
+            throw new IllegalArgumentException("'compressionMode' must not be null");
+        }
+        sender_ = sender;
+        compressionMode_ = compressionMode;
+
+        RL700SCommands.getSendZeroRasterLine(outBuff_);
+        blankCommandSize_ = outBuff_.remaining();
+        final byte[] block = new byte[blankCommandSize_ * BLANK_BLOCK_LINES];
+        for (int i = 0; i < BLANK_BLOCK_LINES; i++) {
+            outBuff_.get(block, i * blankCommandSize_, blankCommandSize_);
+            outBuff_.position(0);
+        }
+        blankBlock_ = ByteBuffer.wrap(block);
+        outBuff_.clear();
+    }
+
+    public CompressionMode getCompressionMode() {
+        return compressionMode_;
+    }
+
+    /**
+     * ラスターライン1本を変換して送信します。 空ラインの送信は、空でないラインが来るか
+     * {@link #flush()} が呼ばれるまで保留されます。
+     *
+     * @param line ラスターライン。
+     * @throws IOException 送信に失敗した場合。
+     */
+    public void encodeLine(byte[] line) throws IOException {
+        lineCount_++;
+        uncompressedBytes_ += RASTER_LINE_HEADER_SIZE + line.length;
+
+        if (isBlank(line)) {
+            blankLineCount_++;
+            pendingBlankLines_++;
+            previousEncoded_ = false;
+            return;
+        }
+        sendPendingBlankLines();
+
+        if (previousEncoded_ && Arrays.equals(line, previousLine_)) {
+            // 変換済みのコマンドを送り直す
+            repeatedLineCount_++;
+            outBuff_.position(0);
+        } else {
+            RL700SCommands.getSendRasterLine(outBuff_, line, compressionMode_);
+            if (previousLine_.length != line.length) {
+                previousLine_ = new byte[line.length];
+            }
+            System.arraycopy(line, 0, previousLine_, 0, line.length);
+            previousEncoded_ = true;
+        }
+        bytesEncoded_ += outBuff_.remaining();
+        sender_.send(outBuff_);
+    }
+
+    /**
+     * 空ラインを {@code count} 本送信します。 送信は {@link #encodeLine(byte[])} と同様に保留されます。
+     *
+     * @param count 空ラインの本数。
+     * @param bytesPerLine 無圧縮で送った場合のバイト数を数えるための、ライン1本あたりのバイト数。
+     */
+    public void encodeBlankLines(int count, int bytesPerLine) {
+        if (count < 0) {
+            throw new IllegalArgumentException("'count' must not be negative: " + count);
+        }
+        lineCount_ += count;
+        blankLineCount_ += count;
+        uncompressedBytes_ += (long) count * (RASTER_LINE_HEADER_SIZE + bytesPerLine);
+        pendingBlankLines_ += count;
+        previousEncoded_ = false;
+    }
+
+    /**
+     * 保留している空ラインを送信します。 印刷開始コマンドの前に呼び出してください。
+     *
+     * @throws IOException 送信に失敗した場合。
+     */
+    public void flush() throws IOException {
+        sendPendingBlankLines();
+    }
+
+    /**
+     * 次のページのために、直前のラインの情報を捨てます。 統計は {@link #resetCounters()} でリセットします。
+     */
+    public void reset() {
+        pendingBlankLines_ = 0;
+        previousEncoded_ = false;
+    }
+
+    /**
+     * 統計をリセットします。
+     */
+    public void resetCounters() {
+        lineCount_ = 0;
+        blankLineCount_ = 0;
+        repeatedLineCount_ = 0;
+        bytesEncoded_ = 0;
+        uncompressedBytes_ = 0;
+    }
+
+    /**
+     * 変換したラインの本数を返します。
+     *
+     * @return 変換したラインの本数。
+     */
+    public int getLineCount() {
+        return lineCount_;
+    }
+
+    /**
+     * 空ラインコマンドで送ったラインの本数を返します。
+     *
+     * @return 空ラインの本数。
+     */
+    public int getBlankLineCount() {
+        return blankLineCount_;
+    }
+
+    /**
+     * 直前のラインと同じ内容だったため、変換済みのコマンドを送り直したラインの本数を返します。
+     *
+     * @return 繰り返しのラインの本数。
+     */
+    public int getRepeatedLineCount() {
+        return repeatedLineCount_;
+    }
+
+    /**
+     * 送信したコマンドのバイト数を返します。 保留中の空ラインは含みません。
+     *
+     * @return 送信したバイト数。
+     */
+    public long getBytesEncoded() {
+        return bytesEncoded_;
+    }
+
+    /**
+     * すべてのラインを無圧縮のラスターラインコマンドで送った場合のバイト数を返します。
+     *
+     * @return 無圧縮で送った場合のバイト数。
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes_;
+    }
+
+    /**
+     * 無圧縮で送った場合と比べて削減できたバイト数を返します。
+     *
+     * @return 削減できたバイト数。
+     */
+    public long getSavedBytes() {
+        return uncompressedBytes_ - bytesEncoded_;
+    }
+
+    private void sendPendingBlankLines() throws IOException {
+        while (pendingBlankLines_ > 0) {
+            final int n = Math.min(pendingBlankLines_, BLANK_BLOCK_LINES);
+            blankBlock_.limit(n * blankCommandSize_).position(0);
+            bytesEncoded_ += blankBlock_.remaining();
+            sender_.send(blankBlock_);
+            pendingBlankLines_ -= n;
+        }
+    }
+
+    private static boolean isBlank(byte[] line) {
+        for (int i = 0; i < line.length; i++) {
+            if (line[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * Atkinson の誤差拡散法で二値化する {@link Ditherer} です。
+ * <p>
+ * 誤差の 6/8 だけを周囲 6 画素に均等に配るので、 Floyd–Steinberg よりもコントラストが強く、
+ * 小さな文字の輪郭がつぶれにくくなります。 誤差は 2 行先まで拡散するので、誤差バッファは3行分を使用します。
+ * </p>
+ */
+public final class AtkinsonDitherer extends ErrorDiffusionDitherer {
+
+    public AtkinsonDitherer() {
+        super(2, 2);
+    }
+
+    @Override
+    public boolean diffuse(int[] error, int index, int stride, int luma) {
+        final int value = luma + (error[index] >> 3);
+        final boolean black = value < 128;
+        final int e = black ? value : value - 255;
+
+        final int below = index + stride;
+        error[index + 1] += e;
+        error[index + 2] += e;
+        error[below - 1] += e;
+        error[below] += e;
+        error[below + 1] += e;
+        error[below + stride] += e;
+        return black;
+    }
+}
@@ -0,0 +1,422 @@
+package org.zakky.rl700s.raster;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 画像を列 (ラスターライン) の帯に分割し、 {@link Executor} で並列に二値化する1回分の処理です。
+ * <p>
+ * {@link StatelessDitherer} の場合は、帯ごとに独立したタスクとして処理します。
+ * </p>
+ * <p>
+ * {@link ErrorDiffusionDitherer} の場合は、逐次処理と同じ結果になるように次のように処理します。
+ * </p>
+ * <ul>
+ * <li>誤差バッファは画像全体分を用意し、すべての帯で共有します。</li>
+ * <li>帯の境界は 1 行ごとに 1 画素ずつ左へずらします。 誤差は左方向へは 1 行につき 1 画素までしか配られないので、
+ * どの画素の誤差も同じ帯か右側の帯にしか届きません。 境界の位置は、ずらした後の各帯の画素数がほぼ等しくなるように決めます。</li>
+ * <li>帯を {@value #TILE_ROWS} 行ごとのタイルに分け、タイル (k, j) は (k - 1, j)、 (k, j - 1)、 (k + 1, j - 1)
+ * が終わってから処理します。 同時に処理されるタイルが同じ誤差や同じ出力バイトに書き込むことはありません。</li>
+ * </ul>
+ * <p>
+ * タイルは待ち合わせを行わず、依存するタイルがすべて終わった時点で {@link Executor} に投入するので、
+ * スレッド数の少ない {@link Executor} でもデッドロックしません。 {@link Executor} に投入を拒否された場合は、
+ * 残りのタイルをすべて省略して終わらせます。
+ * </p>
+ */
+final class BandRasterizeJob {
+
+    /**
+     * タイルの行数。 出力の1バイトが複数のタイルにまたがらないように 8 の倍数にします。
+     */
+    private static final int TILE_ROWS = 8;
+
+    /**
+     * 進捗を確認する間隔(ミリ秒)。
+     */
+    private static final long PROGRESS_POLL_MILLIS = 20L;
+
+    private final Executor executor_;
+
+    private final int[] argb_;
+
+    private final int width_;
+
+    private final int height_;
+
+    private final byte[] data_;
+
+    private final int bytesPerLine_;
+
+    private final int marginBytes_;
+
+    private final Ditherer ditherer_;
+
+    /**
+     * 誤差拡散法の場合の {@link #ditherer_}。 それ以外は {@code null}。
+     */
+    private final ErrorDiffusionDitherer diffuser_;
+
+    /**
+     * 画像全体分の誤差バッファ。 誤差拡散法でなければ {@code null}。
+     */
+    private final int[] error_;
+
+    /**
+     * {@link #error_} の1行あたりの要素数。
+     */
+    private final int stride_;
+
+    /**
+     * 帯の数。
+     */
+    private final int bandCount_;
+
+    /**
+     * 帯ごとのタイルの数。
+     */
+    private final int tileRows_;
+
+    /**
+     * 帯の境界を 1 行ごとに左へずらす画素数。
+     */
+    private final int skew_;
+
+    /**
+     * 帯 k の、行 0 での左端の x 座標。 {@code bounds_[0]} は常に 0、 {@code bounds_[bandCount_]} は常に幅です。
+     */
+    private final int[] bounds_;
+
+    /**
+     * タイルごとの、終わっていない依存タイルの数。
+     */
+    private final AtomicIntegerArray pendingDeps_;
+
+    private final AtomicInteger completedTiles_ = new AtomicInteger();
+
+    private final CountDownLatch done_;
+
+    private volatile boolean cancelled_ = false;
+
+    /**
+     * タイルの処理中に発生した最初の例外。
+     */
+    private volatile Throwable failure_ = null;
+
+    /**
+     * {@link BandRasterizeJob} を構築します。
+     *
+     * @param errorBuffer 再利用する誤差バッファ。 足りなければ新たに確保します。
+     */
+    BandRasterizeJob(Executor executor, int bandCount, int[] argb, int width, int height,
+            byte[] data, int bytesPerLine, int marginBytes, Ditherer ditherer, int[] errorBuffer) {
+        executor_ = executor;
+        argb_ = argb;
+        width_ = width;
+        height_ = height;
+        data_ = data;
+        bytesPerLine_ = bytesPerLine;
+        marginBytes_ = marginBytes;
+        ditherer_ = ditherer;
+        bandCount_ = bandCount;
+
+        if (ditherer instanceof ErrorDiffusionDitherer) {
+            diffuser_ = (ErrorDiffusionDitherer) ditherer;
+            stride_ = width + diffuser_.getReachX() * 2;
+            final int length = stride_ * (height + diffuser_.getReachY());
+            if (errorBuffer != null && length <= errorBuffer.length) {
+                Arrays.fill(errorBuffer, 0, length, 0);
+                error_ = errorBuffer;
+            } else {
+                error_ = new int[length];
+            }
+            tileRows_ = (height + TILE_ROWS - 1) / TILE_ROWS;
+            skew_ = 1;
+        } else {
+            diffuser_ = null;
+            stride_ = 0;
+            error_ = null;
+            tileRows_ = 1;
+            skew_ = 0;
+        }
+
+        // 縦長の画像では境界をずらすと両端の帯に画素が偏るので、画像に収まる画素数が揃うように境界を決める
+        bounds_ = new int[bandCount + 1];
+        final long total = (long) width * height;
+        int low = 0;
+        for (int k = 1; k < bandCount; k++) {
+            // 行 0 での位置が x のときに左側に入る画素数は x について単調に増えるので、二分探索する
+            final long target = total * k / bandCount;
+            int high = width + skew_ * (height - 1);
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (countPixelsLeftOf(mid) < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            bounds_[k] = low;
+        }
+        bounds_[bandCount] = width;
+
+        final int tileCount = bandCount * tileRows_;
+        pendingDeps_ = new AtomicIntegerArray(tileCount);
+        for (int k = 0; k < bandCount; k++) {
+            for (int j = 0; j < tileRows_; j++) {
+                // 誤差拡散法でなければ、帯どうしに依存関係はない (タイルは帯ごとに1つだけ)
+                int deps = 0;
+                if (diffuser_ != null && 0 < k) {
+                    deps++;
+                }
+                if (0 < j) {
+                    deps++;
+                    if (k + 1 < bandCount) {
+                        deps++;
+                    }
+                }
+                pendingDeps_.set(tileIndex(k, j), deps);
+            }
+        }
+        done_ = new CountDownLatch(tileCount);
+    }
+
+    /**
+     * 行 0 での位置が {@code x} の境界より左側にある画素の数を返します。
+     */
+    private long countPixelsLeftOf(int x) {
+        if (skew_ == 0) {
+            return (long) Math.min(x, width_) * height_;
+        }
+        long count = 0;
+        for (int y = 0; y < height_; y++) {
+            count += Math.max(0, Math.min(width_, x - skew_ * y));
+        }
+        return count;
+    }
+
+    /**
+     * 使用した誤差バッファを返します。 次回の処理で再利用できます。
+     *
+     * @return 誤差バッファ。 誤差拡散法でなければ {@code null}。
+     */
+    int[] getErrorBuffer() {
+        return error_;
+    }
+
+    /**
+     * すべてのタイルを処理し、終わるまで待ちます。
+     *
+     * @param listener 進捗の通知先。 {@code null} の場合は通知しません。 呼び出し元のスレッドから通知します。
+     * @throws CancellationException {@code listener} が処理の中止を要求した場合や、待機中に割り込まれた場合。
+     */
+    void run(ProgressListener listener) {
+        // 依存のないタイルから開始する。 開始したタイルが終わると依存カウントが変わるので、先にすべて数えておく
+        final int[] initialTiles = new int[bandCount_ * tileRows_];
+        int initialCount = 0;
+        for (int i = 0; i < initialTiles.length; i++) {
+            if (pendingDeps_.get(i) == 0) {
+                initialTiles[initialCount++] = i;
+            }
+        }
+        for (int i = 0; i < initialCount; i++) {
+            submit(initialTiles[i] / tileRows_, initialTiles[i] % tileRows_);
+        }
+
+        try {
+            final int total = bandCount_ * tileRows_;
+            while (!done_.await(PROGRESS_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (listener != null) {
+                    listener.onProgress((int) ((long) completedTiles_.get() * height_ / total),
+                            height_);
+                }
+            }
+        } catch (CancellationException e) {
+            cancelAndDrain();
+            throw e;
+        } catch (InterruptedException e) {
+            cancelAndDrain();
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+
+        final Throwable failure = failure_;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+        if (listener != null) {
+            listener.onProgress(height_, height_);
+        }
+    }
+
+    /**
+     * 残りのタイルの処理を省略させ、実行中のタイルが終わるまで待ちます。
+     */
+    private void cancelAndDrain() {
+        cancelled_ = true;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done_.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int tileIndex(int band, int tileRow) {
+        return band * tileRows_ + tileRow;
+    }
+
+    private void submit(final int band, final int tileRow) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runTile(band, tileRow);
+            }
+        };
+        try {
+            executor_.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 残りのタイルはすべて省略し、この場で依存関係だけをたどって終わらせる
+            fail(e);
+            skipFrom(band, tileRow);
+        }
+    }
+
+    /**
+     * タイル (band, tileRow) と、それが終わると開始できるタイルを、処理せずに終わったことにします。
+     * <p>
+     * 再帰すると深さがタイルの数に比例するので、開始できるようになったタイルはスタックに積んで順に片付けます。
+     * 各タイルが開始できるようになるのは1回だけなので、スタックはタイルの数の分あれば足ります。
+     * </p>
+     */
+    private void skipFrom(int band, int tileRow) {
+        final int[] stack = new int[bandCount_ * tileRows_];
+        int size = 0;
+        stack[size++] = tileIndex(band, tileRow);
+        while (0 < size) {
+            final int tile = stack[--size];
+            final int k = tile / tileRows_;
+            final int j = tile % tileRows_;
+            completedTiles_.incrementAndGet();
+            if (diffuser_ != null) {
+                if (releaseDependency(k + 1, j)) {
+                    stack[size++] = tileIndex(k + 1, j);
+                }
+                if (releaseDependency(k, j + 1)) {
+                    stack[size++] = tileIndex(k, j + 1);
+                }
+                if (releaseDependency(k - 1, j + 1)) {
+                    stack[size++] = tileIndex(k - 1, j + 1);
+                }
+            }
+            done_.countDown();
+        }
+    }
+
+    private void fail(Throwable cause) {
+        if (failure_ == null) {
+            failure_ = cause;
+        }
+        cancelled_ = true;
+    }
+
+    private void runTile(int band, int tileRow) {
+        try {
+            if (!cancelled_) {
+                final int y0 = tileRow * TILE_ROWS;
+                final int y1 = (tileRows_ == 1) ? height_ : Math.min(height_, y0 + TILE_ROWS);
+                for (int y = y0; y < y1; y++) {
+                    rasterizeRow(y, boundary(band, y), boundary(band + 1, y));
+                }
+            }
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            completedTiles_.incrementAndGet();
+            if (diffuser_ != null) {
+                release(band + 1, tileRow);
+                release(band, tileRow + 1);
+                release(band - 1, tileRow + 1);
+            }
+            done_.countDown();
+        }
+    }
+
+    /**
+     * 依存タイルが1つ終わったことをタイル (band, tileRow) に伝え、すべて終わっていれば開始します。
+     */
+    private void release(int band, int tileRow) {
+        if (releaseDependency(band, tileRow)) {
+            submit(band, tileRow);
+        }
+    }
+
+    /**
+     * 依存タイルが1つ終わったことをタイル (band, tileRow) に伝えます。
+     *
+     * @return 依存タイルがすべて終わり、開始できるようになった場合は {@code true}。
+     */
+    private boolean releaseDependency(int band, int tileRow) {
+        if (band < 0 || bandCount_ <= band || tileRows_ <= tileRow) {
+            return false;
+        }
+        return pendingDeps_.decrementAndGet(tileIndex(band, tileRow)) == 0;
+    }
+
+    /**
+     * 帯 {@code band} の、行 {@code y} での左端の x 座標を返します。
+     */
+    private int boundary(int band, int y) {
+        if (band == 0 || band == bandCount_) {
+            return bounds_[band];
+        }
+        final int x = bounds_[band] - skew_ * y;
+        return Math.max(0, Math.min(width_, x));
+    }
+
+    private void rasterizeRow(int y, int x0, int x1) {
+        final byte[] data = data_;
+        final int bytesPerLine = bytesPerLine_;
+        final int byteIndex = marginBytes_ + (y >> 3);
+        final byte mask = (byte) (0x80 >>> (y & 7));
+        int index = y * width_ + x0;
+        if (diffuser_ != null) {
+            final ErrorDiffusionDitherer diffuser = diffuser_;
+            final int[] error = error_;
+            final int stride = stride_;
+            int e = y * stride + x0 + diffuser.getReachX();
+            for (int x = x0; x < x1; x++) {
+                final int luma = Luma.fromArgb(argb_[index++]);
+                if (diffuser.diffuse(error, e++, stride, luma)) {
+                    data[x * bytesPerLine + byteIndex] |= mask;
+                }
+            }
+        } else {
+            final Ditherer ditherer = ditherer_;
+            for (int x = x0; x < x1; x++) {
+                final int luma = Luma.fromArgb(argb_[index++]);
+                if (ditherer.isBlack(x, y, luma)) {
+                    data[x * bytesPerLine + byteIndex] |= mask;
+                }
+            }
+        }
+    }
+}
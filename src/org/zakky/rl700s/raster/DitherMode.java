@@ -0,0 +1,56 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * 利用可能なディザリングアルゴリズムの一覧です。
+ */
+public enum DitherMode {
+    /** 座標から求めた擬似乱数をしきい値とする Random Dithering。 */
+    RANDOM {
+        @Override
+        public Ditherer newDitherer() {
+            return new RandomDitherer();
+        }
+    },
+    /** 固定しきい値による単純な二値化。 */
+    THRESHOLD {
+        @Override
+        public Ditherer newDitherer() {
+            return new ThresholdDitherer();
+        }
+    },
+    /** 4x4 の Bayer 行列による組織的ディザリング。 */
+    BAYER_4X4 {
+        @Override
+        public Ditherer newDitherer() {
+            return new OrderedDitherer(4);
+        }
+    },
+    /** 8x8 の Bayer 行列による組織的ディザリング。 */
+    BAYER_8X8 {
+        @Override
+        public Ditherer newDitherer() {
+            return new OrderedDitherer(8);
+        }
+    },
+    /** Floyd–Steinberg の誤差拡散法。 */
+    FLOYD_STEINBERG {
+        @Override
+        public Ditherer newDitherer() {
+            return new FloydSteinbergDitherer();
+        }
+    },
+    /** Atkinson の誤差拡散法。 */
+    ATKINSON {
+        @Override
+        public Ditherer newDitherer() {
+            return new AtkinsonDitherer();
+        }
+    };
+
+    /**
+     * このアルゴリズムを実装する {@link Ditherer} を新たに作成します。
+     *
+     * @return {@link Ditherer}。
+     */
+    public abstract Ditherer newDitherer();
+}
@@ -0,0 +1,30 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * 輝度を白黒に二値化するディザリングアルゴリズムです。
+ * <p>
+ * 実装は状態(誤差バッファなど)を持つことがあるので、1つのインスタンスを複数の画像で同時に使用しないでください。
+ * 画像ごとに {@link #start(int, int)} を呼び出し、その後画素を row-major 順に
+ * {@link #isBlack(int, int, int)} に渡します。 画素ごとのメモリ確保は行いません。
+ * </p>
+ */
+public interface Ditherer {
+
+    /**
+     * 新しい画像の二値化を開始します。
+     *
+     * @param width 画像の幅。
+     * @param height 画像の高さ。
+     */
+    public void start(int width, int height);
+
+    /**
+     * 画素 {@code (x, y)} を二値化します。
+     *
+     * @param x 画素の x 座標。
+     * @param y 画素の y 座標。
+     * @param luma 画素の輝度。 {@code 0} (黒) から {@code 255} (白) まで。
+     * @return 黒にする場合は {@code true}、白にする場合は {@code false}。
+     */
+    public boolean isBlack(int x, int y, int luma);
+}
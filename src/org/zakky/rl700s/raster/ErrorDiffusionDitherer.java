@@ -0,0 +1,116 @@
+package org.zakky.rl700s.raster;
+
+import java.util.Arrays;
+
+/**
+ * 誤差拡散法で二値化する {@link Ditherer} の基底クラスです。
+ * <p>
+ * サブクラスは {@link #diffuse(int[], int, int, int)} で、1画素の二値化と周囲への誤差の配分だけを実装します。
+ * 誤差バッファの管理はこのクラスが行い、 {@link #isBlack(int, int, int)} では
+ * {@code reachY + 1} 行分のバッファを1行ずつずらしながら使用します。
+ * </p>
+ * <p>
+ * 誤差を配る先は、右へ {@code reachX} 画素、下へ {@code reachY} 行以内で、かつ左方向へは 1 行下るごとに 1
+ * 画素までに限ります。 この制約があるので、 {@link Rasterizer} は画像全体の誤差バッファを使い、
+ * 境界を 1 行ごとに左へずらした列の帯に分割して、逐次処理と同じ結果のまま並列に処理できます。
+ * </p>
+ */
+public abstract class ErrorDiffusionDitherer implements Ditherer {
+
+    /**
+     * 誤差を左右に配る最大の画素数。 誤差バッファの左右にこの数だけ番兵を置きます。
+     */
+    private final int reachX_;
+
+    /**
+     * 誤差を下に配る最大の行数。
+     */
+    private final int reachY_;
+
+    /**
+     * {@link #isBlack(int, int, int)} で使用する、現在行から {@link #reachY_} 行先までの誤差バッファ。
+     */
+    private int[] window_ = new int[0];
+
+    /**
+     * {@link #window_} の1行あたりの要素数。
+     */
+    private int stride_;
+
+    /**
+     * {@link #window_} の先頭行が対応する行。
+     */
+    private int currentY_;
+
+    /**
+     * {@link ErrorDiffusionDitherer} を構築します。
+     *
+     * @param reachX 誤差を左右に配る最大の画素数。
+     * @param reachY 誤差を下に配る最大の行数。
+     */
+    protected ErrorDiffusionDitherer(int reachX, int reachY) {
+        if (reachX < 1 || reachY < 1) {
+            throw new IllegalArgumentException("invalid reach. reachX=" + reachX + ", reachY="
+                    + reachY);
+        }
+        reachX_ = reachX;
+        reachY_ = reachY;
+    }
+
+    /**
+     * 誤差を左右に配る最大の画素数を返します。
+     *
+     * @return 画素数。
+     */
+    public final int getReachX() {
+        return reachX_;
+    }
+
+    /**
+     * 誤差を下に配る最大の行数を返します。
+     *
+     * @return 行数。
+     */
+    public final int getReachY() {
+        return reachY_;
+    }
+
+    @Override
+    public final void start(int width, int height) {
+        stride_ = width + reachX_ * 2;
+        final int length = stride_ * (reachY_ + 1);
+        if (window_.length < length) {
+            window_ = new int[length];
+        } else {
+            Arrays.fill(window_, 0, length, 0);
+        }
+        currentY_ = 0;
+    }
+
+    @Override
+    public final boolean isBlack(int x, int y, int luma) {
+        if (y != currentY_) {
+            // 先頭行を捨てて1行ずらし、新たに最終行となる行を消去する
+            final int kept = stride_ * reachY_;
+            System.arraycopy(window_, stride_, window_, 0, kept);
+            Arrays.fill(window_, kept, kept + stride_, 0);
+            currentY_ = y;
+        }
+        return diffuse(window_, x + reachX_, stride_, luma);
+    }
+
+    /**
+     * 誤差バッファ上の1画素を二値化し、まだ処理していない周囲の画素へ誤差を配ります。
+     * <p>
+     * {@code error[index]} がこの画素に配られた誤差で、 {@code error[index + stride]} が 1 行下の画素に対応します。
+     * 配る先はクラスの説明にある範囲に限ってください。 このメソッドは状態を変更してはいけません。
+     * </p>
+     *
+     * @param error 誤差バッファ。
+     * @param index この画素の、誤差バッファ上の位置。
+     * @param stride 誤差バッファの1行あたりの要素数。
+     * @param luma 画素の輝度。 {@code 0} (黒) から {@code 255} (白) まで。
+     * @return 黒にする場合は {@code true}、白にする場合は {@code false}。
+     */
+    public abstract boolean diffuse(int[] error, int index, int stride, int luma);
+}
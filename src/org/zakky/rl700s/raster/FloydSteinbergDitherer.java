@@ -0,0 +1,29 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * Floyd–Steinberg の誤差拡散法で二値化する {@link Ditherer} です。
+ * <p>
+ * 誤差は次の行までしか配らないので、誤差バッファは2行分で済みます。
+ * 係数 (7, 3, 5, 1)/16 の除算は、誤差を 1/16 単位で蓄積しておき、読み出し時のシフトで行います。
+ * </p>
+ */
+public final class FloydSteinbergDitherer extends ErrorDiffusionDitherer {
+
+    public FloydSteinbergDitherer() {
+        super(1, 1);
+    }
+
+    @Override
+    public boolean diffuse(int[] error, int index, int stride, int luma) {
+        final int value = luma + ((error[index] + 8) >> 4);
+        final boolean black = value < 128;
+        final int e = black ? value : value - 255;
+
+        final int below = index + stride;
+        error[index + 1] += e * 7;
+        error[below - 1] += e * 3;
+        error[below] += e * 5;
+        error[below + 1] += e;
+        return black;
+    }
+}
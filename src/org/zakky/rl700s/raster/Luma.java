@@ -0,0 +1,26 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * 画素の輝度を計算するユーティリティクラスです。
+ */
+public final class Luma {
+
+    private Luma() {
+    }
+
+    /**
+     * ARGB の画素から輝度を求めます。
+     * <p>
+     * {@code y=0.587*g+0.299*r+0.114*b} を 8 ビットの固定小数点で計算します。 アルファ値は無視します。
+     * </p>
+     *
+     * @param argb ARGB の画素値。
+     * @return {@code 0} (黒) から {@code 255} (白) までの輝度。
+     */
+    public static int fromArgb(int argb) {
+        final int r = (argb >> 16) & 0xff;
+        final int g = (argb >> 8) & 0xff;
+        final int b = argb & 0xff;
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+}
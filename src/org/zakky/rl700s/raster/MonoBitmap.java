@@ -0,0 +1,491 @@
+package org.zakky.rl700s.raster;
+
+import java.util.Arrays;
+
+/**
+ * 1画素1ビットの白黒画像です。
+ * <p>
+ * 画素は row-major 順に {@code long[]} に詰めて保持します。 各行は64ビット単位の語の境界から始まり、語の中では x
+ * の小さい画素ほど上位ビットに配置されます。 ビットが 1 の画素が黒 (印刷する画素) です。 行の末尾の、幅を超える分のビットは常に 0 です。
+ * </p>
+ * <p>
+ * 合成 ({@link #blit(MonoBitmap, int, int, int, int, int, int, Op)}) や回転は語単位で処理するので、
+ * ARGB の画像を合成してから二値化するよりもメモリも処理量も大幅に少なくなります。 ラスターラインは画像の列なので、
+ * 合成が終わったら {@link #transpose()} で行と列を入れ替えると、各行がそのままラスターラインになります。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。 Android に依存しないので、通常の JVM 上でも使用できます。
+ * </p>
+ */
+public final class MonoBitmap {
+
+    /**
+     * {@link MonoBitmap#blit(MonoBitmap, int, int, int, int, int, int, Op)} での画素の合成方法です。
+     */
+    public enum Op {
+        /**
+         * 転送元の画素で置き換えます。
+         */
+        COPY,
+        /**
+         * 転送元か転送先のどちらかが黒なら黒にします。
+         */
+        OR,
+        /**
+         * 転送元と転送先の両方が黒なら黒にします。 転送元をマスクとして使う場合に指定します。
+         */
+        AND,
+        /**
+         * 転送元が黒の画素を白にします。 転送元の形に転送先を切り抜く場合に指定します。
+         */
+        AND_NOT,
+        /**
+         * 転送元が黒の画素を反転します。
+         */
+        XOR,
+    }
+
+    private static final int WORD_BITS = 64;
+
+    private int width_;
+
+    private int height_;
+
+    /**
+     * 1行あたりの語数。
+     */
+    private int wordsPerRow_;
+
+    /**
+     * 画素データ。 {@code height_ * wordsPerRow_} 語までが有効です。
+     */
+    private long[] words_ = new long[0];
+
+    /**
+     * すべての画素が白の {@link MonoBitmap} を構築します。
+     *
+     * @param width 画像の幅。
+     * @param height 画像の高さ。
+     */
+    public MonoBitmap(int width, int height) {
+        reset(width, height);
+    }
+
+    /**
+     * 画像を指定されたサイズに設定し、すべての画素を白にします。
+     * <p>
+     * 内部の配列が必要なサイズに満たない場合のみ、配列を確保し直します。
+     * </p>
+     *
+     * @param width 画像の幅。
+     * @param height 画像の高さ。
+     */
+    public void reset(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("invalid size. width=" + width + ", height="
+                    + height);
+        }
+        final int wordsPerRow = (width + WORD_BITS - 1) / WORD_BITS;
+        final int size = wordsPerRow * height;
+        if (words_.length < size) {
+            words_ = new long[size];
+        } else {
+            Arrays.fill(words_, 0, size, 0L);
+        }
+        width_ = width;
+        height_ = height;
+        wordsPerRow_ = wordsPerRow;
+    }
+
+    /**
+     * 画像の幅を返します。
+     *
+     * @return 画像の幅。
+     */
+    public int getWidth() {
+        return width_;
+    }
+
+    /**
+     * 画像の高さを返します。
+     *
+     * @return 画像の高さ。
+     */
+    public int getHeight() {
+        return height_;
+    }
+
+    /**
+     * 1行あたりの語数を返します。
+     *
+     * @return 1行あたりの語数。
+     */
+    public int getWordsPerRow() {
+        return wordsPerRow_;
+    }
+
+    /**
+     * 画素データを保持する配列を返します。
+     * <p>
+     * 行 {@code y} は {@code y * }{@link #getWordsPerRow()} 番目の語から始まります。 配列の長さは有効なデータ長よりも長い場合があります。
+     * 行の末尾の、幅を超える分のビットには 0 以外を書き込まないでください。
+     * </p>
+     *
+     * @return 内部配列。コピーではありません。
+     */
+    public long[] getWords() {
+        return words_;
+    }
+
+    /**
+     * 画素が黒かどうかを返します。
+     *
+     * @param x 画素の x 座標。
+     * @param y 画素の y 座標。
+     * @return 黒の場合は {@code true}。
+     * @throws IndexOutOfBoundsException 座標が範囲外の場合。
+     */
+    public boolean get(int x, int y) {
+        checkPoint(x, y);
+        return (words_[y * wordsPerRow_ + (x >>> 6)] & (Long.MIN_VALUE >>> x)) != 0;
+    }
+
+    /**
+     * 画素を設定します。
+     *
+     * @param x 画素の x 座標。
+     * @param y 画素の y 座標。
+     * @param black 黒にする場合は {@code true}、白にする場合は {@code false}。
+     * @throws IndexOutOfBoundsException 座標が範囲外の場合。
+     */
+    public void set(int x, int y, boolean black) {
+        checkPoint(x, y);
+        final int index = y * wordsPerRow_ + (x >>> 6);
+        if (black) {
+            words_[index] |= Long.MIN_VALUE >>> x;
+        } else {
+            words_[index] &= ~(Long.MIN_VALUE >>> x);
+        }
+    }
+
+    /**
+     * 矩形の範囲を塗りつぶします。 画像からはみ出した部分は無視します。
+     *
+     * @param x 矩形の左端の x 座標。
+     * @param y 矩形の上端の y 座標。
+     * @param width 矩形の幅。
+     * @param height 矩形の高さ。
+     * @param black 黒で塗る場合は {@code true}、白で塗る場合は {@code false}。
+     */
+    public void fill(int x, int y, int width, int height, boolean black) {
+        final int left = Math.max(0, x);
+        final int right = Math.min(width_, x + width);
+        final int top = Math.max(0, y);
+        final int bottom = Math.min(height_, y + height);
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        final long[] words = words_;
+        final int firstWord = left >>> 6;
+        final int lastWord = (right - 1) >>> 6;
+        for (int row = top; row < bottom; row++) {
+            final int base = row * wordsPerRow_;
+            for (int k = firstWord; k <= lastWord; k++) {
+                final long mask = rangeMask(k, left, right);
+                if (black) {
+                    words[base + k] |= mask;
+                } else {
+                    words[base + k] &= ~mask;
+                }
+            }
+        }
+    }
+
+    /**
+     * すべての画素を白にします。
+     */
+    public void clear() {
+        Arrays.fill(words_, 0, height_ * wordsPerRow_, 0L);
+    }
+
+    /**
+     * 画像を複製します。
+     *
+     * @return 同じ内容の {@link MonoBitmap}。
+     */
+    public MonoBitmap copy() {
+        final MonoBitmap copy = new MonoBitmap(width_, height_);
+        System.arraycopy(words_, 0, copy.words_, 0, height_ * wordsPerRow_);
+        return copy;
+    }
+
+    /**
+     * 別の画像 (または同じ画像) の矩形の範囲を、この画像に合成します。
+     * <p>
+     * 転送元と転送先のどちらかからはみ出した部分は無視します。 処理は行ごとに、転送先の語単位で行います。
+     * </p>
+     *
+     * @param src 転送元の画像。
+     * @param srcX 転送元の矩形の左端の x 座標。
+     * @param srcY 転送元の矩形の上端の y 座標。
+     * @param width 矩形の幅。
+     * @param height 矩形の高さ。
+     * @param dstX 転送先の左端の x 座標。
+     * @param dstY 転送先の上端の y 座標。
+     * @param op 合成方法。
+     */
+    public void blit(MonoBitmap src, int srcX, int srcY, int width, int height, int dstX,
+            int dstY, Op op) {
+        if (src == null) {
+            throw new IllegalArgumentException("'src' must not be null");
+        }
+        if (op == null) {
+            throw new IllegalArgumentException("'op' must not be null");
+        }
+        if (src == this) {
+            // 重なった範囲を壊さないように、転送元を先に複製しておく
+            src = copy();
+        }
+        // 転送元と転送先の両方に収まるように切り詰める
+        int clip = Math.max(Math.max(0, -srcX), -dstX);
+        srcX += clip;
+        dstX += clip;
+        width -= clip;
+        clip = Math.max(Math.max(0, -srcY), -dstY);
+        srcY += clip;
+        dstY += clip;
+        height -= clip;
+        width = Math.min(width, Math.min(src.width_ - srcX, width_ - dstX));
+        height = Math.min(height, Math.min(src.height_ - srcY, height_ - dstY));
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        final long[] dst = words_;
+        final long[] srcWords = src.words_;
+        final int srcWordsPerRow = src.wordsPerRow_;
+        final int right = dstX + width;
+        final int firstWord = dstX >>> 6;
+        final int lastWord = (right - 1) >>> 6;
+        // 転送先の語の先頭のビットに対応する、転送元のビット位置のずれ
+        final int shift = srcX - dstX;
+        for (int row = 0; row < height; row++) {
+            final int dstBase = (dstY + row) * wordsPerRow_;
+            final int srcBase = (srcY + row) * srcWordsPerRow;
+            for (int k = firstWord; k <= lastWord; k++) {
+                final long mask = rangeMask(k, dstX, right);
+                final long s = extract(srcWords, srcBase, srcWordsPerRow, k * WORD_BITS + shift)
+                        & mask;
+                final int index = dstBase + k;
+                switch (op) {
+                    case COPY:
+                        dst[index] = (dst[index] & ~mask) | s;
+                        break;
+                    case OR:
+                        dst[index] |= s;
+                        break;
+                    case AND:
+                        dst[index] &= s | ~mask;
+                        break;
+                    case AND_NOT:
+                        dst[index] &= ~s;
+                        break;
+                    case XOR:
+                        dst[index] ^= s;
+                        break;
+                    default:
+                        throw new AssertionError(op);
+                }
+            }
+        }
+    }
+
+    /**
+     * 行と列を入れ替えた画像を返します。
+     * <p>
+     * 結果の画素 {@code (x, y)} は、この画像の画素 {@code (y, x)} です。 この画像の列 {@code x} が結果の行 {@code x}
+     * になるので、 {@link Rasterizer} と同じ向きに配置した画像なら、結果の各行がラスターラインのピンの並びと一致します。
+     * 64×64 画素のブロックごとに、語単位で入れ替えます。
+     * </p>
+     *
+     * @return 入れ替えた画像。
+     */
+    public MonoBitmap transpose() {
+        final MonoBitmap result = new MonoBitmap(height_, width_);
+        final long[] block = new long[WORD_BITS];
+        final long[] words = words_;
+        final long[] out = result.words_;
+        for (int by = 0; by < result.wordsPerRow_; by++) {
+            final int top = by * WORD_BITS;
+            final int rows = Math.min(WORD_BITS, height_ - top);
+            for (int bx = 0; bx < wordsPerRow_; bx++) {
+                for (int i = 0; i < rows; i++) {
+                    block[i] = words[(top + i) * wordsPerRow_ + bx];
+                }
+                Arrays.fill(block, rows, WORD_BITS, 0L);
+                transpose64(block);
+                final int left = bx * WORD_BITS;
+                final int columns = Math.min(WORD_BITS, width_ - left);
+                for (int j = 0; j < columns; j++) {
+                    out[(left + j) * result.wordsPerRow_ + by] = block[j];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 時計回りに 90 度回転した画像を返します。
+     *
+     * @return 回転した画像。
+     */
+    public MonoBitmap rotateClockwise() {
+        final MonoBitmap result = transpose();
+        result.flipHorizontal();
+        return result;
+    }
+
+    /**
+     * 反時計回りに 90 度回転した画像を返します。
+     *
+     * @return 回転した画像。
+     */
+    public MonoBitmap rotateCounterClockwise() {
+        final MonoBitmap result = transpose();
+        result.flipVertical();
+        return result;
+    }
+
+    /**
+     * 180 度回転した画像を返します。
+     *
+     * @return 回転した画像。
+     */
+    public MonoBitmap rotate180() {
+        final MonoBitmap result = copy();
+        result.flipHorizontal();
+        result.flipVertical();
+        return result;
+    }
+
+    /**
+     * この画像を左右反転します。
+     */
+    public void flipHorizontal() {
+        final long[] words = words_;
+        final int wordsPerRow = wordsPerRow_;
+        // 語の並びとビットの並びを逆にすると、行の末尾の余りのビットが先頭に来るので、その分だけ詰める
+        final int padding = wordsPerRow * WORD_BITS - width_;
+        for (int row = 0; row < height_; row++) {
+            final int base = row * wordsPerRow;
+            for (int i = 0, j = wordsPerRow - 1; i <= j; i++, j--) {
+                final long w = Long.reverse(words[base + i]);
+                words[base + i] = Long.reverse(words[base + j]);
+                words[base + j] = w;
+            }
+            if (padding != 0) {
+                for (int k = 0; k < wordsPerRow; k++) {
+                    final long next = (k + 1 < wordsPerRow) ? words[base + k + 1] : 0L;
+                    words[base + k] = (words[base + k] << padding)
+                            | (next >>> (WORD_BITS - padding));
+                }
+            }
+        }
+    }
+
+    /**
+     * この画像を上下反転します。
+     */
+    public void flipVertical() {
+        final long[] words = words_;
+        final int wordsPerRow = wordsPerRow_;
+        for (int top = 0, bottom = height_ - 1; top < bottom; top++, bottom--) {
+            final int a = top * wordsPerRow;
+            final int b = bottom * wordsPerRow;
+            for (int k = 0; k < wordsPerRow; k++) {
+                final long w = words[a + k];
+                words[a + k] = words[b + k];
+                words[b + k] = w;
+            }
+        }
+    }
+
+    /**
+     * 1行分の画素を、バイト配列の {@code bitOffset} ビット目から OR します。
+     * <p>
+     * {@link #transpose()} した画像の行をラスターラインに書き込む場合に使用します。 x の小さい画素ほど上位ビットに配置されます。
+     * </p>
+     *
+     * @param y 行。
+     * @param dest 書き込み先。
+     * @param offset {@code dest} 内の書き込み先の開始位置。
+     * @param bitOffset 行の先頭の画素を書き込む、 {@code offset} からのビット位置。
+     */
+    public void orRowInto(int y, byte[] dest, int offset, int bitOffset) {
+        if (y < 0 || height_ <= y) {
+            throw new IndexOutOfBoundsException("y=" + y + ", height=" + height_);
+        }
+        final long[] words = words_;
+        final int base = y * wordsPerRow_;
+        final int bytes = (width_ + 7) >>> 3;
+        final int shift = bitOffset & 7;
+        int index = offset + (bitOffset >> 3);
+        int carry = 0;
+        for (int i = 0; i < bytes; i++) {
+            final int b = (int) (words[base + (i >>> 3)] >>> (56 - ((i & 7) << 3))) & 0xff;
+            dest[index++] |= (byte) ((carry << (8 - shift)) | (b >>> shift));
+            carry = b;
+        }
+        // バイト境界からずれている場合、最後のバイトの下位ビットが次のバイトにはみ出す
+        if (shift != 0 && bytes != 0 && 8 < shift + width_ - ((bytes - 1) << 3)) {
+            dest[index] |= (byte) (carry << (8 - shift));
+        }
+    }
+
+    private void checkPoint(int x, int y) {
+        if (x < 0 || width_ <= x || y < 0 || height_ <= y) {
+            throw new IndexOutOfBoundsException("x=" + x + ", y=" + y + ", width=" + width_
+                    + ", height=" + height_);
+        }
+    }
+
+    /**
+     * 行の {@code k} 番目の語のうち、 x 座標が {@code left} 以上 {@code right} 未満のビットを 1 にしたマスクを返します。
+     */
+    private static long rangeMask(int k, int left, int right) {
+        final int base = k * WORD_BITS;
+        final int start = Math.max(left, base) - base;
+        final int end = Math.min(right, base + WORD_BITS) - base;
+        final long head = -1L >>> start;
+        return (end == WORD_BITS) ? head : head & ~(-1L >>> end);
+    }
+
+    /**
+     * 行の {@code bit} ビット目から64ビットを取り出します。 行の範囲外のビットは 0 です。
+     */
+    private static long extract(long[] words, int base, int wordsPerRow, int bit) {
+        final int k = bit >> 6;
+        final int shift = bit & (WORD_BITS - 1);
+        final long hi = (0 <= k && k < wordsPerRow) ? words[base + k] : 0L;
+        if (shift == 0) {
+            return hi;
+        }
+        final long lo = (0 <= k + 1 && k + 1 < wordsPerRow) ? words[base + k + 1] : 0L;
+        return (hi << shift) | (lo >>> (WORD_BITS - shift));
+    }
+
+    /**
+     * 64×64 ビットの行列を入れ替えます。 {@code a[i]} の上位から {@code j} 番目のビットが、 {@code a[j]} の上位から
+     * {@code i} 番目のビットになります。 ブロックを半分ずつに分けて入れ替える処理を、6段階繰り返します。
+     */
+    private static void transpose64(long[] a) {
+        long m = 0x00000000FFFFFFFFL;
+        for (int j = 32; j != 0; j >>>= 1, m ^= m << j) {
+            for (int k = 0; k < WORD_BITS; k = (k + j + 1) & ~j) {
+                final long t = (a[k] ^ (a[k + j] >>> j)) & m;
+                a[k] ^= t;
+                a[k + j] ^= t << j;
+            }
+        }
+    }
+}
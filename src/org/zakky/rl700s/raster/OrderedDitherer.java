@@ -0,0 +1,71 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * Bayer 行列を用いた組織的ディザリングを行う {@link Ditherer} です。
+ * <p>
+ * 画素ごとの処理は表引きと比較だけなので、誤差拡散法よりも高速です。
+ * </p>
+ */
+public final class OrderedDitherer implements StatelessDitherer {
+
+    /**
+     * 行列の一辺の大きさから 1 を引いた値。座標のマスクとして使用します。
+     */
+    private final int mask_;
+
+    /**
+     * 行列の一辺の大きさの log2。
+     */
+    private final int shift_;
+
+    /**
+     * {@code 0} から {@code 255} の範囲に変換済みの、 row-major 順のしきい値行列。
+     */
+    private final int[] thresholds_;
+
+    /**
+     * {@link OrderedDitherer} を構築します。
+     *
+     * @param size Bayer 行列の一辺の大きさ。 2 のべき乗で、 {@code 2} 以上 {@code 16} 以下であること。
+     */
+    public OrderedDitherer(int size) {
+        if (size < 2 || 16 < size || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("unsupported matrix size: " + size);
+        }
+        mask_ = size - 1;
+        shift_ = Integer.numberOfTrailingZeros(size);
+
+        final int cells = size * size;
+        thresholds_ = new int[cells];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int rank = bayerRank(x, y, shift_);
+                thresholds_[(y << shift_) + x] = (rank * 256 + 128) / cells;
+            }
+        }
+    }
+
+    /**
+     * 大きさ {@code 2^order} の Bayer 行列の {@code (x, y)} の値を求めます。
+     */
+    private static int bayerRank(int x, int y, int order) {
+        int rank = 0;
+        for (int bit = 0; bit < order; bit++) {
+            final int xb = (x >> bit) & 1;
+            final int yb = (y >> bit) & 1;
+            // 2x2 の基本行列 {{0, 2}, {3, 1}} を再帰的に並べたもの。下位ビットほど上位桁に効く
+            rank = (rank << 2) | ((xb ^ yb) << 1) | yb;
+        }
+        return rank;
+    }
+
+    @Override
+    public void start(int width, int height) {
+        // 状態を持たないので何もしない
+    }
+
+    @Override
+    public boolean isBlack(int x, int y, int luma) {
+        return luma < thresholds_[((y & mask_) << shift_) + (x & mask_)];
+    }
+}
@@ -0,0 +1,19 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * 時間のかかる変換処理の進捗を受け取るリスナーです。
+ */
+public interface ProgressListener {
+
+    /**
+     * 進捗を通知します。
+     * <p>
+     * 処理を中止させたい場合は、このメソッドから {@link java.util.concurrent.CancellationException}
+     * をスローしてください。
+     * </p>
+     *
+     * @param done 完了した量。
+     * @param total 全体の量。
+     */
+    public void onProgress(int done, int total);
+}
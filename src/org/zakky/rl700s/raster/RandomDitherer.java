@@ -0,0 +1,52 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * Random Dithering を行う {@link Ditherer} です。
+ * <p>
+ * しきい値は座標とシードから計算するハッシュ値で決めるので、 {@link java.util.Random}
+ * を画素ごとに呼び出す必要がなく、同じ画像からは常に同じ結果が得られます。
+ * </p>
+ */
+public final class RandomDitherer implements StatelessDitherer {
+
+    /**
+     * シードのデフォルト値。
+     */
+    public static final int DEFAULT_SEED = 0x2545F491;
+
+    /**
+     * ハッシュ計算に混ぜるシード。
+     */
+    private final int seed_;
+
+    public RandomDitherer() {
+        this(DEFAULT_SEED);
+    }
+
+    public RandomDitherer(int seed) {
+        seed_ = seed;
+    }
+
+    @Override
+    public void start(int width, int height) {
+        // 状態を持たないので何もしない
+    }
+
+    @Override
+    public boolean isBlack(int x, int y, int luma) {
+        return luma < threshold(x, y);
+    }
+
+    /**
+     * 座標に対応する {@code 0} から {@code 255} までのしきい値を返します。
+     */
+    private int threshold(int x, int y) {
+        int h = seed_ ^ (x * 0x9E3779B1) ^ (y * 0x85EBCA77);
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        h *= 0x297A2D39;
+        h ^= h >>> 15;
+        return h & 0xff;
+    }
+}
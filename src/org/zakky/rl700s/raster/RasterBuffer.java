@@ -0,0 +1,110 @@
+package org.zakky.rl700s.raster;
+
+import java.util.Arrays;
+
+/**
+ * 印刷用ラスターデータを保持するバッファです。
+ * <p>
+ * ラスターライン（ヘッド1列分のデータ）を1本の {@code byte[]} に連続して詰めて保持します。
+ * 容量が足りるかぎり内部の配列を再利用するので、ラベルを作るたびに配列を確保し直す必要はありません。
+ * </p>
+ * <p>
+ * Android に依存しないので、通常の JVM 上でも使用できます。
+ * </p>
+ */
+public final class RasterBuffer {
+
+    /**
+     * ラスターデータ本体。 {@code lineCount_ * bytesPerLine_} バイトまでが有効です。
+     */
+    private byte[] data_ = new byte[0];
+
+    /**
+     * ラスターラインの本数。
+     */
+    private int lineCount_ = 0;
+
+    /**
+     * ラスターライン1本あたりのバイト数。
+     */
+    private int bytesPerLine_ = 0;
+
+    /**
+     * バッファを指定されたサイズに設定し、内容をすべて {@code 0} (白) にします。
+     * <p>
+     * 内部の配列が必要なサイズに満たない場合のみ、配列を確保し直します。
+     * </p>
+     *
+     * @param lineCount ラスターラインの本数。
+     * @param bytesPerLine ラスターライン1本あたりのバイト数。
+     */
+    public void reset(int lineCount, int bytesPerLine) {
+        if (lineCount < 0 || bytesPerLine < 0) {
+            throw new IllegalArgumentException("unexpected size. lineCount=" + lineCount
+                    + ", bytesPerLine=" + bytesPerLine);
+        }
+        final int size = lineCount * bytesPerLine;
+        if (data_.length < size) {
+            data_ = new byte[size];
+        } else {
+            Arrays.fill(data_, 0, size, (byte) 0);
+        }
+        lineCount_ = lineCount;
+        bytesPerLine_ = bytesPerLine;
+    }
+
+    /**
+     * ラスターデータを保持する配列を返します。
+     * <p>
+     * 配列の長さは有効なデータ長よりも長い場合があります。ライン {@code n} のデータは
+     * {@link #getLineOffset(int) getLineOffset(n)} から {@link #getBytesPerLine()} バイトです。
+     * </p>
+     *
+     * @return 内部配列。コピーではありません。
+     */
+    public byte[] getData() {
+        return data_;
+    }
+
+    /**
+     * ラスターラインの本数を返します。
+     *
+     * @return ラスターラインの本数。
+     */
+    public int getLineCount() {
+        return lineCount_;
+    }
+
+    /**
+     * ラスターライン1本あたりのバイト数を返します。
+     *
+     * @return ラスターライン1本あたりのバイト数。
+     */
+    public int getBytesPerLine() {
+        return bytesPerLine_;
+    }
+
+    /**
+     * 指定されたラスターラインの、 {@link #getData()} 内での開始位置を返します。
+     *
+     * @param line ラスターラインのインデックス。 0 ベース。
+     * @return 開始位置。
+     * @throws IndexOutOfBoundsException インデックスが範囲外の場合。
+     */
+    public int getLineOffset(int line) {
+        if (line < 0 || lineCount_ <= line) {
+            throw new IndexOutOfBoundsException("line=" + line + ", lineCount=" + lineCount_);
+        }
+        return line * bytesPerLine_;
+    }
+
+    /**
+     * 指定されたラスターラインを {@code dest} の先頭にコピーします。
+     *
+     * @param line ラスターラインのインデックス。 0 ベース。
+     * @param dest コピー先。 {@link #getBytesPerLine()} 以上の長さが必要です。
+     */
+    public void copyLine(int line, byte[] dest) {
+        System.arraycopy(data_, getLineOffset(line), dest, 0, bytesPerLine_);
+    }
+}
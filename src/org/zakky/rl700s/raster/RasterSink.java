@@ -0,0 +1,18 @@
+package org.zakky.rl700s.raster;
+
+import java.io.IOException;
+
+/**
+ * {@link StreamingRasterizer} が作成したラスターラインを、先頭から1本ずつ受け取る出力先です。
+ */
+public interface RasterSink {
+
+    /**
+     * ラスターラインを1本受け取ります。
+     *
+     * @param data ラスターラインを含む配列。 呼び出しから戻った後は再利用されるので、参照を保持しないでください。
+     * @param offset {@code data} 内のラスターラインの開始位置。
+     * @throws IOException 出力に失敗した場合。
+     */
+    public void writeLine(byte[] data, int offset) throws IOException;
+}
@@ -0,0 +1,37 @@
+package org.zakky.rl700s.raster;
+
+import java.io.IOException;
+
+/**
+ * {@link StreamingRasterizer} に、ラベルの画像を数ラインずつの窓に分けて提供するソースです。
+ * <p>
+ * 画像全体をメモリ上に用意する必要はなく、要求された列の範囲だけを描画またはデコードすれば十分です。
+ * 窓は先頭から順に、重ならないように要求されます。
+ * </p>
+ */
+public interface RasterSource {
+
+    /**
+     * 画像の幅を返します。 ラスターラインの本数、つまりラベルの長さになります。
+     *
+     * @return 画像の幅(ピクセル)。
+     */
+    public int getWidth();
+
+    /**
+     * 画像の高さを返します。 ラスターライン1本あたりのピンの数になります。
+     *
+     * @return 画像の高さ(ピクセル)。
+     */
+    public int getHeight();
+
+    /**
+     * 画像の列 {@code x} から {@code count} 列分の画素を読み込みます。
+     *
+     * @param x 窓の左端の x 座標。
+     * @param count 窓の幅。
+     * @param argb 読み込み先。 窓の画素を、1行あたり {@code count} 要素の row-major 順で先頭から格納します。
+     * @throws IOException 読み込みに失敗した場合。
+     */
+    public void readWindow(int x, int count, int[] argb) throws IOException;
+}
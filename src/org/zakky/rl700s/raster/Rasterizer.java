@@ -0,0 +1,262 @@
+package org.zakky.rl700s.raster;
+
+import java.util.concurrent.Executor;
+
+/**
+ * ARGB の画素データを二値化し、印刷用ラスターデータに変換するクラスです。
+ * <p>
+ * 二値化とラスターデータへの詰め込みを1回の走査で行います。 二値化のアルゴリズムは {@link Ditherer}
+ * として差し替えることができ、デフォルトは {@link DitherMode#RANDOM} です。 画素は row-major
+ * 順に先頭から読み出すので、入力配列へのアクセスはシーケンシャルになります。
+ * </p>
+ * <p>
+ * 画像の x 座標がラスターラインのインデックスに、 y 座標がライン内のピン位置に対応します。
+ * ライン内では、 y の小さい画素ほど上位ビットに配置されます。
+ * </p>
+ * <p>
+ * {@link #setExecutor(Executor, int)} で {@link Executor} を設定すると、長いラベルは画像を列 (ラスターライン)
+ * 方向の帯に分割して並列に処理します。 並列に処理できるのは {@link StatelessDitherer} と
+ * {@link ErrorDiffusionDitherer} で、結果は逐次処理と同じになります。 それ以外の {@link Ditherer} は常に逐次処理します。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。 Android に依存しないので、通常の JVM 上でも使用できます。
+ * </p>
+ */
+public final class Rasterizer {
+
+    /**
+     * ラスターラインの先頭にある、印刷されない領域のバイト数のデフォルト値。
+     */
+    public static final int DEFAULT_MARGIN_BYTES = 4;
+
+    /**
+     * 進捗を通知する間隔 (行数)。
+     */
+    private static final int PROGRESS_INTERVAL_ROWS = 16;
+
+    /**
+     * 並列処理で、1つの帯に割り当てる最小のラスターライン数。
+     */
+    private static final int MIN_BAND_WIDTH = 16;
+
+    /**
+     * ラスターラインの先頭にある、印刷されない領域のバイト数。
+     */
+    private final int marginBytes_;
+
+    /**
+     * 二値化に使用する {@link Ditherer}。
+     */
+    private Ditherer ditherer_ = DitherMode.RANDOM.newDitherer();
+
+    /**
+     * 並列処理に使用する {@link Executor}。 {@code null} の場合は逐次処理します。
+     */
+    private Executor executor_ = null;
+
+    /**
+     * 並列処理で分割する帯の最大数。
+     */
+    private int parallelism_ = 1;
+
+    /**
+     * 並列処理で使用した誤差バッファ。 次回の処理で再利用します。
+     */
+    private int[] errorBuffer_ = null;
+
+    /**
+     * 印刷されない領域として {@value #DEFAULT_MARGIN_BYTES} バイトを確保する {@link Rasterizer}
+     * を構築します。
+     */
+    public Rasterizer() {
+        this(DEFAULT_MARGIN_BYTES);
+    }
+
+    /**
+     * {@link Rasterizer} を構築します。
+     *
+     * @param marginBytes ラスターラインの先頭にある、印刷されない領域のバイト数。
+     */
+    public Rasterizer(int marginBytes) {
+        if (marginBytes < 0) {
+            throw new IllegalArgumentException("'marginBytes' must not be negative: "
+                    + marginBytes);
+        }
+        marginBytes_ = marginBytes;
+    }
+
+    /**
+     * 二値化に使用するアルゴリズムを設定します。
+     *
+     * @param ditherer 以降の {@link #rasterize(int[], int, int, RasterBuffer)} で使用する
+     *            {@link Ditherer}。
+     */
+    public void setDitherer(Ditherer ditherer) {
+        if (ditherer == null) {
+            throw new IllegalArgumentException("'ditherer' must not be null");
+        }
+        ditherer_ = ditherer;
+    }
+
+    /**
+     * 二値化に使用するアルゴリズムを設定します。
+     *
+     * @param mode 以降の {@link #rasterize(int[], int, int, RasterBuffer)} で使用するアルゴリズム。
+     */
+    public void setDitherMode(DitherMode mode) {
+        setDitherer(mode.newDitherer());
+    }
+
+    /**
+     * 並列処理に使用する {@link Executor} を設定します。
+     * <p>
+     * {@code executor} のスレッド数に合わせて {@code parallelism} を指定してください。 {@code executor}
+     * のタスクは互いの終了を待たないので、スレッド数が {@code parallelism} より少なくてもデッドロックはしません。
+     * </p>
+     *
+     * @param executor 並列処理に使用する {@link Executor}。 {@code null} の場合は逐次処理します。
+     * @param parallelism 画像を分割する帯の最大数。 {@code 1} 以下の場合は逐次処理します。
+     */
+    public void setExecutor(Executor executor, int parallelism) {
+        executor_ = executor;
+        parallelism_ = parallelism;
+        if (executor == null) {
+            errorBuffer_ = null;
+        }
+    }
+
+    /**
+     * 指定された高さの画像に対する、ラスターライン1本あたりのバイト数を返します。
+     *
+     * @param height 画像の高さ(ピクセル)。
+     * @return ラスターライン1本あたりのバイト数。
+     */
+    public int getBytesPerLine(int height) {
+        return marginBytes_ + (height + 7) / 8;
+    }
+
+    /**
+     * ARGB の画素データを {@link #setDitherer(Ditherer)} で設定されたアルゴリズムで二値化し、ラスターデータとして {@code out} に書き込みます。
+     *
+     * @param argb row-major 順の ARGB 画素データ。
+     * @param width 画像の幅。ラスターラインの本数になります。
+     * @param height 画像の高さ。
+     * @param out 出力先。内容はすべて上書きされます。
+     */
+    public void rasterize(int[] argb, int width, int height, RasterBuffer out) {
+        rasterize(argb, width, height, out, null);
+    }
+
+    /**
+     * ARGB の画素データを二値化し、ラスターデータとして {@code out} に書き込みます。
+     * <p>
+     * 画像の {@value #PROGRESS_INTERVAL_ROWS} 行ごとに {@code listener} へ進捗を通知します。 進捗は行数で表します。
+     * 並列処理の場合は、呼び出し元のスレッドから一定時間ごとに、処理済みの割合を行数に換算して通知します。
+     * </p>
+     *
+     * @param argb row-major 順の ARGB 画素データ。
+     * @param width 画像の幅。ラスターラインの本数になります。
+     * @param height 画像の高さ。
+     * @param out 出力先。内容はすべて上書きされます。
+     * @param listener 進捗の通知先。 {@code null} の場合は通知しません。
+     * @throws java.util.concurrent.CancellationException {@code listener} が処理の中止を要求した場合。
+     */
+    public void rasterize(int[] argb, int width, int height, RasterBuffer out,
+            ProgressListener listener) {
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("pixel data is too short. length=" + argb.length
+                    + ", width=" + width + ", height=" + height);
+        }
+        final int bytesPerLine = getBytesPerLine(height);
+        out.reset(width, bytesPerLine);
+        final byte[] data = out.getData();
+        final Ditherer ditherer = ditherer_;
+
+        final int bandCount = getBandCount(width, ditherer);
+        if (2 <= bandCount) {
+            final BandRasterizeJob job = new BandRasterizeJob(executor_, bandCount, argb, width,
+                    height, data, bytesPerLine, marginBytes_, ditherer, errorBuffer_);
+            errorBuffer_ = job.getErrorBuffer();
+            job.run(listener);
+            return;
+        }
+
+        ditherer.start(width, height);
+
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            if (listener != null && y % PROGRESS_INTERVAL_ROWS == 0) {
+                listener.onProgress(y, height);
+            }
+            final int byteIndex = marginBytes_ + (y >> 3);
+            final byte mask = (byte) (0x80 >>> (y & 7));
+            for (int x = 0; x < width; x++) {
+                final int luma = Luma.fromArgb(argb[index++]);
+                if (ditherer.isBlack(x, y, luma)) {
+                    data[x * bytesPerLine + byteIndex] |= mask;
+                }
+            }
+        }
+        if (listener != null) {
+            listener.onProgress(height, height);
+        }
+    }
+
+    /**
+     * ARGB の画素データを二値化し、1ビットの画像として {@code out} に書き込みます。
+     * <p>
+     * 画素の配置は入力と同じ row-major 順のままで、64画素ごとに1語にまとめて書き込みます。 二値化の結果は
+     * {@link #rasterize(int[], int, int, RasterBuffer)} と同じです。 他の {@link MonoBitmap} と合成してから
+     * {@link MonoBitmap#transpose()} でラスターラインの順に並べ替える場合に使用します。 常に逐次処理します。
+     * </p>
+     *
+     * @param argb row-major 順の ARGB 画素データ。
+     * @param width 画像の幅。
+     * @param height 画像の高さ。
+     * @param out 出力先。 画像のサイズに設定し直し、内容はすべて上書きされます。
+     */
+    public void rasterize(int[] argb, int width, int height, MonoBitmap out) {
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("pixel data is too short. length=" + argb.length
+                    + ", width=" + width + ", height=" + height);
+        }
+        out.reset(width, height);
+        final long[] words = out.getWords();
+        final Ditherer ditherer = ditherer_;
+        ditherer.start(width, height);
+
+        int index = 0;
+        int wordIndex = 0;
+        for (int y = 0; y < height; y++) {
+            long bits = 0;
+            int x = 0;
+            while (x < width) {
+                final int luma = Luma.fromArgb(argb[index++]);
+                bits = (bits << 1) | (ditherer.isBlack(x, y, luma) ? 1 : 0);
+                if ((++x & 63) == 0) {
+                    words[wordIndex++] = bits;
+                    bits = 0;
+                }
+            }
+            if ((width & 63) != 0) {
+                words[wordIndex++] = bits << (64 - (width & 63));
+            }
+        }
+    }
+
+    /**
+     * 並列処理で分割する帯の数を返します。
+     *
+     * @return 帯の数。 {@code 1} 以下の場合は逐次処理します。
+     */
+    private int getBandCount(int width, Ditherer ditherer) {
+        if (executor_ == null || parallelism_ <= 1) {
+            return 1;
+        }
+        if (!(ditherer instanceof StatelessDitherer)
+                && !(ditherer instanceof ErrorDiffusionDitherer)) {
+            return 1;
+        }
+        return Math.min(parallelism_, width / MIN_BAND_WIDTH);
+    }
+}
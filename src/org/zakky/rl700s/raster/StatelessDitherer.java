@@ -0,0 +1,11 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * 画素ごとの結果が座標と輝度だけで決まり、状態を持たない {@link Ditherer} です。
+ * <p>
+ * {@link #isBlack(int, int, int)} は任意の順序で、複数のスレッドから同時に呼び出すことができます。
+ * {@link Rasterizer} はこのインターフェースを実装したアルゴリズムを、画像を列方向に分割して並列に処理します。
+ * </p>
+ */
+public interface StatelessDitherer extends Ditherer {
+}
@@ -0,0 +1,274 @@
+package org.zakky.rl700s.raster;
+
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.metrics.PipelineMetrics.Stage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link RasterSource} から数ラインずつ画素を読み込み、ラスターラインを先頭から1本ずつ作成するクラスです。
+ * <p>
+ * 保持するのは {@value #WINDOW_LINES} ライン分の画素と、 {@link Ditherer} の作業領域だけなので、
+ * 使用するメモリはラベルの長さによらず一定です。 作成したラインはすぐに {@link RasterSink} や
+ * {@link #readLine(byte[])} の呼び出し元に渡せるので、描画が終わる前に送信を始めることができます。
+ * </p>
+ * <p>
+ * 画素はラスターライン順 (列ごと) に二値化します。 {@link StatelessDitherer} の結果は {@link Rasterizer}
+ * と同じですが、それ以外の {@link Ditherer} は座標を転置して、ラスターラインを行とみなして処理します。
+ * 誤差拡散法では誤差がテープの送り方向に配られるので、 {@link Rasterizer} とは異なる (同等の品質の) 結果になります。
+ * </p>
+ * <p>
+ * 1つのインスタンスで1枚の画像を1回だけ処理します。 このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class StreamingRasterizer {
+
+    /**
+     * {@link RasterSource} から一度に読み込むラスターラインの本数。
+     */
+    public static final int WINDOW_LINES = 64;
+
+    /**
+     * 進捗を通知する間隔 (ライン数)。
+     */
+    private static final int PROGRESS_INTERVAL_LINES = 16;
+
+    private final RasterSource source_;
+
+    private final Ditherer ditherer_;
+
+    /**
+     * 画像の先頭行を書き込む、ラスターライン上のピン位置 (ビット位置)。
+     */
+    private final int pinOffset_;
+
+    private final int width_;
+
+    private final int height_;
+
+    private final int bytesPerLine_;
+
+    /**
+     * 座標を転置して {@link #ditherer_} に渡すかどうか。
+     */
+    private final boolean transposed_;
+
+    /**
+     * 読み込んだ窓の画素。
+     */
+    private final int[] window_;
+
+    /**
+     * {@link #window_} の左端の x 座標。
+     */
+    private int windowX_ = 0;
+
+    /**
+     * {@link #window_} の幅。
+     */
+    private int windowCount_ = 0;
+
+    /**
+     * 次に作成するラスターラインのインデックス。
+     */
+    private int nextLine_ = 0;
+
+    /**
+     * 所要時間の記録先。 記録しない場合は {@code null}。
+     */
+    private PipelineMetrics metrics_ = null;
+
+    /**
+     * ラスターラインの先頭に、印刷されない領域として {@value Rasterizer#DEFAULT_MARGIN_BYTES}
+     * バイトを確保する {@link StreamingRasterizer} を構築します。
+     *
+     * @param source 画像のソース。
+     * @param ditherer 二値化に使用する {@link Ditherer}。 処理が終わるまで他の画像に使用しないでください。
+     */
+    public StreamingRasterizer(RasterSource source, Ditherer ditherer) {
+        this(source, ditherer, Rasterizer.DEFAULT_MARGIN_BYTES);
+    }
+
+    /**
+     * {@link StreamingRasterizer} を構築します。
+     *
+     * @param source 画像のソース。
+     * @param ditherer 二値化に使用する {@link Ditherer}。 処理が終わるまで他の画像に使用しないでください。
+     * @param marginBytes ラスターラインの先頭にある、印刷されない領域のバイト数。
+     */
+    public StreamingRasterizer(RasterSource source, Ditherer ditherer, int marginBytes) {
+        this(source, ditherer, marginBytes * 8, getBytesPerLine(source, marginBytes));
+    }
+
+    /**
+     * テープの印刷可能な範囲に画像を配置する {@link StreamingRasterizer} を構築します。
+     * <p>
+     * ラスターライン1本あたりのバイト数は {@link TapeGeometry#BYTES_PER_LINE} になり、印刷されない範囲のビットは 0 になります。
+     * </p>
+     *
+     * @param source 画像のソース。 高さは {@link TapeGeometry#getPins()} と同じでなければなりません。
+     * @param ditherer 二値化に使用する {@link Ditherer}。 処理が終わるまで他の画像に使用しないでください。
+     * @param geometry 装着されているテープの {@link TapeGeometry}。
+     */
+    public StreamingRasterizer(RasterSource source, Ditherer ditherer, TapeGeometry geometry) {
+        this(source, ditherer, getPinOffset(geometry), TapeGeometry.BYTES_PER_LINE);
+        if (height_ != geometry.getPins()) {
+            throw new IllegalArgumentException("image height must be " + geometry.getPins()
+                    + " for " + geometry + ": " + height_);
+        }
+    }
+
+    private StreamingRasterizer(RasterSource source, Ditherer ditherer, int pinOffset,
+            int bytesPerLine) {
+        if (source == null) {
+            throw new IllegalArgumentException("'source' must not be null");
+        }
+        if (ditherer == null) {
+            throw new IllegalArgumentException("'ditherer' must not be null");
+        }
+        source_ = source;
+        ditherer_ = ditherer;
+        pinOffset_ = pinOffset;
+        width_ = source.getWidth();
+        height_ = source.getHeight();
+        bytesPerLine_ = bytesPerLine;
+        transposed_ = !(ditherer instanceof StatelessDitherer);
+        window_ = new int[Math.min(WINDOW_LINES, width_) * height_];
+
+        if (transposed_) {
+            ditherer.start(height_, width_);
+        } else {
+            ditherer.start(width_, height_);
+        }
+    }
+
+    private static int getPinOffset(TapeGeometry geometry) {
+        if (geometry == null) {
+            throw new IllegalArgumentException("'geometry' must not be null");
+        }
+        return geometry.getPinOffset();
+    }
+
+    private static int getBytesPerLine(RasterSource source, int marginBytes) {
+        if (source == null) {
+            throw new IllegalArgumentException("'source' must not be null");
+        }
+        if (marginBytes < 0) {
+            throw new IllegalArgumentException("'marginBytes' must not be negative: "
+                    + marginBytes);
+        }
+        return marginBytes + (source.getHeight() + 7) / 8;
+    }
+
+    /**
+     * 画像ソースの描画 ({@link Stage#RENDER}) と、二値化とビットへの詰め込み ({@link Stage#RASTERIZE})
+     * にかかった時間を {@code metrics} に記録するように設定します。
+     *
+     * @param metrics 記録先。 {@code null} の場合は記録しません。
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        metrics_ = metrics;
+    }
+
+    /**
+     * ラスターラインの本数を返します。
+     *
+     * @return ラスターラインの本数。
+     */
+    public int getLineCount() {
+        return width_;
+    }
+
+    /**
+     * ラスターライン1本あたりのバイト数を返します。
+     *
+     * @return ラスターライン1本あたりのバイト数。
+     */
+    public int getBytesPerLine() {
+        return bytesPerLine_;
+    }
+
+    /**
+     * 次のラスターラインを作成して {@code dest} の先頭に書き込みます。
+     *
+     * @param dest 書き込み先。 {@link #getBytesPerLine()} 以上の長さが必要です。
+     * @return 書き込んだ場合は {@code true}、すべてのラインを作成済みの場合は {@code false}。
+     * @throws IOException {@link RasterSource} からの読み込みに失敗した場合。
+     */
+    public boolean readLine(byte[] dest) throws IOException {
+        if (width_ <= nextLine_) {
+            return false;
+        }
+        final PipelineMetrics metrics = metrics_;
+        long start = (metrics == null) ? 0 : System.nanoTime();
+        if (windowX_ + windowCount_ <= nextLine_) {
+            windowX_ = nextLine_;
+            windowCount_ = Math.min(WINDOW_LINES, width_ - nextLine_);
+            source_.readWindow(windowX_, windowCount_, window_);
+            if (metrics != null) {
+                start = metrics.record(Stage.RENDER, start);
+            }
+        }
+        rasterizeLine(nextLine_, dest);
+        if (metrics != null) {
+            metrics.record(Stage.RASTERIZE, start);
+        }
+        nextLine_++;
+        return true;
+    }
+
+    /**
+     * 残りのラスターラインをすべて作成し、 {@code sink} に渡します。
+     * <p>
+     * {@value #PROGRESS_INTERVAL_LINES} ラインごとに {@code listener} へ進捗を通知します。 進捗はライン数で表します。
+     * </p>
+     *
+     * @param sink 出力先。
+     * @param listener 進捗の通知先。 {@code null} の場合は通知しません。
+     * @throws IOException 読み込みまたは出力に失敗した場合。
+     * @throws java.util.concurrent.CancellationException {@code listener} が処理の中止を要求した場合。
+     */
+    public void writeTo(RasterSink sink, ProgressListener listener) throws IOException {
+        final byte[] line = new byte[bytesPerLine_];
+        while (true) {
+            if (listener != null && nextLine_ % PROGRESS_INTERVAL_LINES == 0) {
+                listener.onProgress(nextLine_, width_);
+            }
+            if (!readLine(line)) {
+                break;
+            }
+            sink.writeLine(line, 0);
+        }
+        if (listener != null) {
+            listener.onProgress(width_, width_);
+        }
+    }
+
+    private void rasterizeLine(int x, byte[] dest) {
+        Arrays.fill(dest, 0, bytesPerLine_, (byte) 0);
+        final Ditherer ditherer = ditherer_;
+        final int[] window = window_;
+        final int stride = windowCount_;
+        int index = x - windowX_;
+        int byteIndex = pinOffset_ >> 3;
+        // 先頭のバイトの、画像より前のビットは 0 を詰めたものとして数えておく
+        int bitCount = pinOffset_ & 7;
+        int bits = 0;
+        for (int y = 0; y < height_; y++) {
+            final int luma = Luma.fromArgb(window[index]);
+            index += stride;
+            final boolean black = transposed_ ? ditherer.isBlack(y, x, luma) : ditherer.isBlack(
+                    x, y, luma);
+            bits = (bits << 1) | (black ? 1 : 0);
+            if (++bitCount == 8) {
+                dest[byteIndex++] = (byte) bits;
+                bits = 0;
+                bitCount = 0;
+            }
+        }
+        if (bitCount != 0) {
+            dest[byteIndex] = (byte) (bits << (8 - bitCount));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * テープ幅ごとの、ラスターライン上の印刷可能なピンの範囲です。
+ * <p>
+ * ラスターラインの長さはテープ幅によらず {@value #BYTES_PER_LINE} バイトで、先頭の
+ * {@value Rasterizer#DEFAULT_MARGIN_BYTES} バイトは印刷されません。 24mm テープではその後の 320 ピンがすべて印刷され、
+ * それより狭いテープでは、同じ位置を中心とした範囲だけが印刷されます。 範囲外のピンはテープに届かないので、
+ * 画像はこの範囲の高さに合わせて作成し、 {@link #getPinOffset()} の位置に配置してください。
+ * </p>
+ */
+public enum TapeGeometry {
+    /**
+     * 3.5mm テープ。 ステータスでは 4mm として通知されます。
+     */
+    TAPE_3_5MM(4, 48),
+
+    /**
+     * 6mm テープ。
+     */
+    TAPE_6MM(6, 64),
+
+    /**
+     * 9mm テープ。
+     */
+    TAPE_9MM(9, 106),
+
+    /**
+     * 12mm テープ。
+     */
+    TAPE_12MM(12, 150),
+
+    /**
+     * 18mm テープ。
+     */
+    TAPE_18MM(18, 234),
+
+    /**
+     * 24mm テープ。
+     */
+    TAPE_24MM(24, 320);
+
+    /**
+     * テープ幅が不明な場合に使用する、もっとも広いテープ。
+     */
+    public static final TapeGeometry DEFAULT = TAPE_24MM;
+
+    /**
+     * ラスターライン1本あたりのバイト数。
+     */
+    public static final int BYTES_PER_LINE = 44;
+
+    /**
+     * 24mm テープで印刷される範囲の先頭のピン位置。
+     */
+    private static final int WIDEST_PIN_OFFSET = Rasterizer.DEFAULT_MARGIN_BYTES * 8;
+
+    /**
+     * 24mm テープで印刷されるピンの数。
+     */
+    private static final int WIDEST_PINS = 320;
+
+    private final int mediaWidth_;
+
+    private final int pins_;
+
+    private TapeGeometry(int mediaWidth, int pins) {
+        mediaWidth_ = mediaWidth;
+        pins_ = pins;
+    }
+
+    /**
+     * ステータスで通知されるテープ幅 (mm) に対応する {@link TapeGeometry} を返します。
+     *
+     * @param mediaWidth ステータスのテープ幅。
+     * @return 対応する {@link TapeGeometry}。 対応するものがなければ {@code null}。
+     */
+    public static TapeGeometry fromMediaWidth(int mediaWidth) {
+        for (TapeGeometry g : values()) {
+            if (g.mediaWidth_ == mediaWidth) {
+                return g;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ステータスで通知されるテープ幅を返します。
+     *
+     * @return テープ幅 (mm)。
+     */
+    public int getMediaWidth() {
+        return mediaWidth_;
+    }
+
+    /**
+     * 印刷されるピンの数を返します。 画像の高さはこの値にしてください。
+     *
+     * @return 印刷されるピンの数。
+     */
+    public int getPins() {
+        return pins_;
+    }
+
+    /**
+     * 印刷される範囲の先頭の、ラスターライン上のピン位置 (ビット位置) を返します。
+     *
+     * @return 先頭のピン位置。
+     */
+    public int getPinOffset() {
+        return WIDEST_PIN_OFFSET + (WIDEST_PINS - pins_) / 2;
+    }
+}
@@ -0,0 +1,38 @@
+package org.zakky.rl700s.raster;
+
+/**
+ * 固定のしきい値で二値化する {@link Ditherer} です。
+ * <p>
+ * 線画や文字など、もともと白黒に近い画像に向いています。
+ * </p>
+ */
+public final class ThresholdDitherer implements StatelessDitherer {
+
+    /**
+     * しきい値のデフォルト値。
+     */
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    /**
+     * この値より輝度が小さい画素を黒にします。
+     */
+    private final int threshold_;
+
+    public ThresholdDitherer() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public ThresholdDitherer(int threshold) {
+        threshold_ = threshold;
+    }
+
+    @Override
+    public void start(int width, int height) {
+        // 状態を持たないので何もしない
+    }
+
+    @Override
+    public boolean isBlack(int x, int y, int luma) {
+        return luma < threshold_;
+    }
+}
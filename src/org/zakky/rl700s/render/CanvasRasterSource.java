@@ -0,0 +1,93 @@
+package org.zakky.rl700s.render;
+
+import org.zakky.rl700s.raster.RasterSource;
+import org.zakky.rl700s.raster.StreamingRasterizer;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+
+/**
+ * {@link Canvas} に描画できる内容を、窓ごとに描画し直して提供する {@link RasterSource} です。
+ * <p>
+ * 描画先は {@link StreamingRasterizer#WINDOW_LINES} 列分の {@link Bitmap} だけで、窓の位置に合わせて
+ * {@link Canvas} を平行移動してから {@link #draw(Canvas)} を呼び出します。 ラベル全体の {@link Bitmap}
+ * は作成しません。
+ * </p>
+ * <p>
+ * 使い終わったら {@link #recycle()} を呼び出してください。
+ * </p>
+ */
+public abstract class CanvasRasterSource implements RasterSource {
+
+    private final int width_;
+
+    private final int height_;
+
+    private final int backgroundColor_;
+
+    private Bitmap bitmap_ = null;
+
+    private Canvas canvas_ = null;
+
+    /**
+     * {@link CanvasRasterSource} を構築します。
+     *
+     * @param width 画像の幅。ラスターラインの本数になります。
+     * @param height 画像の高さ。
+     * @param backgroundColor 窓ごとに描画の前に塗りつぶす色。
+     */
+    protected CanvasRasterSource(int width, int height, int backgroundColor) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("invalid size. width=" + width + ", height="
+                    + height);
+        }
+        width_ = width;
+        height_ = height;
+        backgroundColor_ = backgroundColor;
+    }
+
+    @Override
+    public int getWidth() {
+        return width_;
+    }
+
+    @Override
+    public int getHeight() {
+        return height_;
+    }
+
+    @Override
+    public void readWindow(int x, int count, int[] argb) {
+        if (bitmap_ == null) {
+            bitmap_ = Bitmap.createBitmap(Math.min(StreamingRasterizer.WINDOW_LINES, width_),
+                    height_, Config.ARGB_8888);
+            canvas_ = new Canvas(bitmap_);
+        }
+        bitmap_.eraseColor(backgroundColor_);
+        canvas_.save();
+        canvas_.translate(-x, 0);
+        draw(canvas_);
+        canvas_.restore();
+        bitmap_.getPixels(argb, 0, count, 0, 0, count, height_);
+    }
+
+    /**
+     * 描画に使用した {@link Bitmap} を解放します。
+     */
+    public void recycle() {
+        if (bitmap_ != null) {
+            bitmap_.recycle();
+            bitmap_ = null;
+            canvas_ = null;
+        }
+    }
+
+    /**
+     * 画像全体を描画します。 {@code canvas} は窓の位置に合わせて平行移動済みなので、画像の座標系で描画してください。
+     * 窓の外にはみ出した部分は切り捨てられます。
+     *
+     * @param canvas 描画先。
+     */
+    protected abstract void draw(Canvas canvas);
+}
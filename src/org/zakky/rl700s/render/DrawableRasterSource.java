@@ -0,0 +1,36 @@
+package org.zakky.rl700s.render;
+
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+
+/**
+ * {@link Drawable} を描画する {@link CanvasRasterSource} です。
+ * <p>
+ * {@link Drawable} は {@link Drawable#setBounds(int, int, int, int)} で画像上の位置を設定してから渡してください。
+ * </p>
+ */
+public final class DrawableRasterSource extends CanvasRasterSource {
+
+    private final Drawable drawable_;
+
+    /**
+     * {@link DrawableRasterSource} を構築します。
+     *
+     * @param drawable 描画する {@link Drawable}。
+     * @param width 画像の幅。ラスターラインの本数になります。
+     * @param height 画像の高さ。
+     * @param backgroundColor 背景色。
+     */
+    public DrawableRasterSource(Drawable drawable, int width, int height, int backgroundColor) {
+        super(width, height, backgroundColor);
+        if (drawable == null) {
+            throw new IllegalArgumentException("'drawable' must not be null");
+        }
+        drawable_ = drawable;
+    }
+
+    @Override
+    protected void draw(Canvas canvas) {
+        drawable_.draw(canvas);
+    }
+}
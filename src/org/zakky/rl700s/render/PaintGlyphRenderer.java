@@ -0,0 +1,159 @@
+package org.zakky.rl700s.render;
+
+import org.zakky.rl700s.text.GlyphAtlas;
+import org.zakky.rl700s.text.GlyphRenderer;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetricsInt;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link Paint} でグリフを描画する {@link GlyphRenderer} です。
+ * <p>
+ * グリフは1文字ずつ、インクのある範囲だけの {@link Config#ALPHA_8} の {@link Bitmap} にアンチエイリアスをかけて描画し、
+ * その濃さを {@link GlyphAtlas} に渡します。 描画はアトラスに登録するときに1文字1回だけ行います。
+ * </p>
+ * <p>
+ * 文字サイズごとの {@link GlyphAtlas} は {@link #getAtlas(int)} でプロセス内で共有します。
+ * </p>
+ */
+public final class PaintGlyphRenderer implements GlyphRenderer {
+
+    /**
+     * ラベルに使用する書体。
+     */
+    private static final Typeface TYPEFACE = Typeface.DEFAULT_BOLD;
+
+    /**
+     * {@link #getAtlasToFit(int, int)} で選ぶ文字サイズの下限。
+     */
+    private static final int MIN_TEXT_SIZE = 8;
+
+    /**
+     * 文字サイズから {@link GlyphAtlas} への対応。
+     */
+    private static final Map<Integer, GlyphAtlas> atlases_ = new HashMap<Integer, GlyphAtlas>();
+
+    private final Paint paint_;
+
+    private final int ascent_;
+
+    private final int descent_;
+
+    private final char[] chars_ = new char[2];
+
+    private final Rect bounds_ = new Rect();
+
+    /**
+     * {@link PaintGlyphRenderer} を構築します。
+     *
+     * @param typeface 書体。
+     * @param textSize 文字サイズ (ピクセル)。
+     */
+    public PaintGlyphRenderer(Typeface typeface, int textSize) {
+        if (textSize <= 0) {
+            throw new IllegalArgumentException("'textSize' must be positive: " + textSize);
+        }
+        paint_ = newPaint(typeface, textSize);
+        final FontMetricsInt metrics = paint_.getFontMetricsInt();
+        ascent_ = -metrics.ascent;
+        descent_ = metrics.descent;
+    }
+
+    /**
+     * 文字サイズに対応する {@link GlyphAtlas} を返します。
+     *
+     * @param textSize 文字サイズ (ピクセル)。
+     * @return プロセス内で共有する {@link GlyphAtlas}。
+     */
+    public static synchronized GlyphAtlas getAtlas(int textSize) {
+        final Integer key = Integer.valueOf(textSize);
+        GlyphAtlas atlas = atlases_.get(key);
+        if (atlas == null) {
+            atlas = new GlyphAtlas(new PaintGlyphRenderer(TYPEFACE, textSize));
+            atlases_.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * {@code lineCount} 行の文字列が {@code pins} ピンの高さに収まる、もっとも大きな文字サイズの
+     * {@link GlyphAtlas} を返します。
+     *
+     * @param pins 文字列を置く範囲の高さ (テープの印刷範囲のピン数)。
+     * @param lineCount 行数。
+     * @return {@link GlyphAtlas}。 収まる文字サイズがなければ、下限の文字サイズのもの。
+     */
+    public static GlyphAtlas getAtlasToFit(int pins, int lineCount) {
+        if (lineCount <= 0) {
+            throw new IllegalArgumentException("'lineCount' must be positive: " + lineCount);
+        }
+        int textSize = Math.max(MIN_TEXT_SIZE, pins / lineCount);
+        for (; MIN_TEXT_SIZE < textSize; textSize--) {
+            final FontMetricsInt metrics = newPaint(TYPEFACE, textSize).getFontMetricsInt();
+            if ((metrics.descent - metrics.ascent) * lineCount <= pins) {
+                break;
+            }
+        }
+        return getAtlas(textSize);
+    }
+
+    @Override
+    public int getAscent() {
+        return ascent_;
+    }
+
+    @Override
+    public int getDescent() {
+        return descent_;
+    }
+
+    @Override
+    public byte[] render(int codePoint, int[] metrics) {
+        final int count = Character.toChars(codePoint, chars_, 0);
+        final Rect bounds = bounds_;
+        paint_.getTextBounds(chars_, 0, count, bounds);
+        metrics[0] = Math.round(paint_.measureText(chars_, 0, count));
+        metrics[1] = bounds.left;
+        metrics[2] = bounds.top;
+        final int width = bounds.width();
+        final int height = bounds.height();
+        if (width <= 0 || height <= 0) {
+            metrics[3] = 0;
+            metrics[4] = 0;
+            return new byte[0];
+        }
+        metrics[3] = width;
+        metrics[4] = height;
+
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ALPHA_8);
+        try {
+            new Canvas(bitmap).drawText(chars_, 0, count, -bounds.left, -bounds.top, paint_);
+            final int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            final byte[] coverage = new byte[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                coverage[i] = (byte) (pixels[i] >>> 24);
+            }
+            return coverage;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static Paint newPaint(Typeface typeface, int textSize) {
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSize);
+        paint.setColor(Color.BLACK);
+        return paint;
+    }
+}
@@ -0,0 +1,41 @@
+package org.zakky.rl700s.render;
+
+/**
+ * {@link RenderPipeline} からレンダリングの経過と結果を受け取るコールバックです。
+ * <p>
+ * すべてのメソッドは {@link RenderPipeline} の構築時に指定されたコールバック用の
+ * {@link java.util.concurrent.Executor} 上で呼び出されます。 後から投入されたレンダリングによって中止されたものについては、
+ * {@link #onCancelled()} 以外のメソッドは呼び出されません。
+ * </p>
+ *
+ * @param <T> レンダリング結果の型。
+ */
+public interface RenderCallback<T> {
+
+    /**
+     * レンダリングの進捗を通知します。
+     *
+     * @param done 完了した量。
+     * @param total 全体の量。
+     */
+    public void onProgress(int done, int total);
+
+    /**
+     * レンダリングが完了したことを通知します。
+     *
+     * @param result レンダリング結果。
+     */
+    public void onComplete(T result);
+
+    /**
+     * レンダリングが中止されたことを通知します。
+     */
+    public void onCancelled();
+
+    /**
+     * レンダリングに失敗したことを通知します。
+     *
+     * @param cause 失敗の原因。
+     */
+    public void onError(Throwable cause);
+}
@@ -0,0 +1,212 @@
+package org.zakky.rl700s.render;
+
+import org.zakky.rl700s.raster.ProgressListener;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ラベルのレンダリングをバックグラウンドで実行するパイプラインです。
+ * <p>
+ * レンダリングは専用のワーカースレッド1本で順に実行します。 新しいレンダリングを {@link #submit(RenderTask, RenderCallback)}
+ * すると、実行中または待機中の古いレンダリングは中止されるので、結果が不要になったレンダリングに CPU を使い続けることはありません。
+ * </p>
+ * <p>
+ * {@link #submit(RenderTask, RenderCallback)} と {@link #cancel()} 、 {@link #shutdown()}
+ * は、コールバック用の {@link Executor} が処理を実行するスレッド(通常は UI スレッド)から呼び出してください。
+ * </p>
+ */
+public final class RenderPipeline {
+
+    /**
+     * レンダリングを実行するワーカースレッド。
+     */
+    private final ExecutorService worker_;
+
+    /**
+     * コールバックを呼び出すための {@link Executor}。
+     */
+    private final Executor callbackExecutor_;
+
+    /**
+     * 最後に投入したレンダリングの世代番号。 コールバック用スレッドからのみアクセスします。
+     */
+    private int generation_ = 0;
+
+    /**
+     * 実行中または待機中のレンダリング。 存在しない場合は {@code null}。
+     */
+    private Future<?> current_ = null;
+
+    /**
+     * 実行中または待機中のレンダリングのコールバック。 存在しない場合は {@code null}。
+     */
+    private RenderCallback<?> currentCallback_ = null;
+
+    /**
+     * {@link RenderPipeline} を構築します。
+     *
+     * @param callbackExecutor {@link RenderCallback} を呼び出すための {@link Executor}。
+     */
+    public RenderPipeline(Executor callbackExecutor) {
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("'callbackExecutor' must not be null");
+        }
+        callbackExecutor_ = callbackExecutor;
+        worker_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "RenderPipeline");
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * レンダリングを投入します。 実行中または待機中のレンダリングがあれば中止します。
+     *
+     * @param task レンダリング処理。
+     * @param callback 経過と結果の通知先。
+     */
+    public <T> void submit(RenderTask<T> task, RenderCallback<T> callback) {
+        if (task == null) {
+            throw new IllegalArgumentException("'task' must not be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("'callback' must not be null");
+        }
+        cancel();
+
+        final int generation = ++generation_;
+        current_ = worker_.submit(new Job<T>(generation, task, callback));
+        currentCallback_ = callback;
+    }
+
+    /**
+     * 実行中または待機中のレンダリングがあれば中止し、 {@link RenderCallback#onCancelled()} を通知します。
+     */
+    public void cancel() {
+        final Future<?> current = current_;
+        final RenderCallback<?> callback = currentCallback_;
+        current_ = null;
+        currentCallback_ = null;
+        // 世代を進め、中止したレンダリングからの通知を捨てる
+        generation_++;
+        if (current != null) {
+            current.cancel(true);
+            // 完了していても結果はもう通知されないので、常に中止として扱う
+            callback.onCancelled();
+        }
+    }
+
+    /**
+     * レンダリングを中止し、ワーカースレッドを終了します。 以降、このパイプラインは使用できません。
+     */
+    public void shutdown() {
+        cancel();
+        worker_.shutdownNow();
+    }
+
+    /**
+     * 指定された世代のレンダリングが最新のものであるかどうかを返します。 コールバック用スレッドから呼び出すこと。
+     */
+    private boolean isCurrent(int generation) {
+        return generation == generation_;
+    }
+
+    /**
+     * ワーカースレッドで実行される1回分のレンダリングです。
+     */
+    private final class Job<T> implements Runnable, ProgressListener {
+        private final int jobGeneration_;
+
+        private final RenderTask<T> task_;
+
+        private final RenderCallback<T> callback_;
+
+        /**
+         * 最後に通知した進捗 (パーセント)。 ワーカースレッドからのみアクセスします。
+         */
+        private int lastPercent_ = -1;
+
+        public Job(int generation, RenderTask<T> task, RenderCallback<T> callback) {
+            jobGeneration_ = generation;
+            task_ = task;
+            callback_ = callback;
+        }
+
+        @Override
+        public void run() {
+            final T result;
+            try {
+                result = task_.render(this);
+            } catch (CancellationException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            } catch (final Exception e) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish();
+                        callback_.onError(e);
+                    }
+                });
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                    callback_.onComplete(result);
+                }
+            });
+        }
+
+        @Override
+        public void onProgress(final int done, final int total) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            final int percent = (total <= 0) ? 100 : (int) (done * 100L / total);
+            if (percent == lastPercent_) {
+                return;
+            }
+            lastPercent_ = percent;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    callback_.onProgress(done, total);
+                }
+            });
+        }
+
+        /**
+         * このレンダリングが最新である場合のみ、コールバック用スレッドで {@code r} を実行します。
+         */
+        private void post(final Runnable r) {
+            callbackExecutor_.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCurrent(jobGeneration_)) {
+                        r.run();
+                    }
+                }
+            });
+        }
+
+        /**
+         * パイプラインから完了したレンダリングの参照を外します。 コールバック用スレッドから呼び出すこと。
+         */
+        private void finish() {
+            current_ = null;
+            currentCallback_ = null;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.zakky.rl700s.render;
+
+import org.zakky.rl700s.raster.ProgressListener;
+
+/**
+ * {@link RenderPipeline} のワーカースレッドで実行されるレンダリング処理です。
+ *
+ * @param <T> レンダリング結果の型。
+ */
+public interface RenderTask<T> {
+
+    /**
+     * レンダリングを行います。
+     * <p>
+     * 時間のかかる処理の途中では {@code progress} に進捗を通知してください。
+     * レンダリングが中止された場合は、通知の際に {@link java.util.concurrent.CancellationException} がスローされます。
+     * </p>
+     *
+     * @param progress 進捗の通知先。
+     * @return レンダリング結果。
+     * @throws Exception レンダリングに失敗した場合。
+     */
+    public T render(ProgressListener progress) throws Exception;
+}
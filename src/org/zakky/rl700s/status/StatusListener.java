@@ -0,0 +1,48 @@
+package org.zakky.rl700s.status;
+
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.comm.RL700SStatus.ErrorInfo;
+
+import java.util.EnumSet;
+
+/**
+ * {@link StatusMonitor} が受信したプリンターのステータスを、種類ごとに受け取るリスナーです。
+ */
+public interface StatusListener {
+
+    /**
+     * ステータスリクエストへの応答を受信したことを通知します。
+     *
+     * @param status 受信したステータス。
+     */
+    public void onStatusReply(RL700SStatus status);
+
+    /**
+     * 印刷が終了したことを通知します。
+     *
+     * @param status 受信したステータス。
+     */
+    public void onPrintFinished(RL700SStatus status);
+
+    /**
+     * エラーが発生したことを通知します。
+     *
+     * @param status 受信したステータス。
+     * @param errors 発生したエラー。
+     */
+    public void onError(RL700SStatus status, EnumSet<ErrorInfo> errors);
+
+    /**
+     * プリンターからの通知を受信したことを通知します。
+     *
+     * @param status 受信したステータス。
+     */
+    public void onNotification(RL700SStatus status);
+
+    /**
+     * プリンターのフェーズが変わったことを通知します。
+     *
+     * @param status 受信したステータス。
+     */
+    public void onPhaseChange(RL700SStatus status);
+}
@@ -0,0 +1,252 @@
+package org.zakky.rl700s.status;
+
+import org.zakky.rl700s.comm.RL700SStatus;
+import org.zakky.rl700s.transport.PrinterTransport;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * プリンターから送られてくるステータスを受信し、 {@link StatusListener} へ通知するモニターです。
+ * <p>
+ * 専用のスレッドで短いタイムアウト付きの受信を繰り返します。 データが届いていればすぐに次の受信を行い、
+ * 届いていなければ待ち時間を {@value #MIN_IDLE_WAIT_MILLIS} ms から {@value #MAX_IDLE_WAIT_MILLIS}
+ * ms まで段階的に延ばします。 そのため、印刷終了やエラーは 100 ms 以内に通知されます。
+ * </p>
+ * <p>
+ * 印刷を行うスレッドは、 {@link #expectReply()} と {@link #awaitReply(long)} でステータスリクエストへの応答を待つことができます。
+ * 応答は待っているスレッドに渡すとともに、通常どおり {@link StatusListener} にも通知します。
+ * </p>
+ * <p>
+ * {@link #start()} から {@link #stop()} までが1回の監視です。 停止したモニターを再開することはできません。
+ * </p>
+ */
+public final class StatusMonitor {
+
+    /** ステータス種別: ステータスリクエストへの応答 */
+    public static final int STATUS_TYPE_REPLY = 0;
+
+    /** ステータス種別: 印刷終了 */
+    public static final int STATUS_TYPE_PRINT_FINISHED = 1;
+
+    /** ステータス種別: エラー発生 */
+    public static final int STATUS_TYPE_ERROR = 2;
+
+    /** ステータス種別: 通知 */
+    public static final int STATUS_TYPE_NOTIFICATION = 5;
+
+    /** ステータス種別: フェーズ変更 */
+    public static final int STATUS_TYPE_PHASE_CHANGE = 6;
+
+    /**
+     * 1回の受信のタイムアウト(ミリ秒)。
+     */
+    private static final int READ_TIMEOUT_MILLIS = 50;
+
+    /**
+     * データが届かなかった場合の最短の待ち時間(ミリ秒)。
+     */
+    private static final long MIN_IDLE_WAIT_MILLIS = 2L;
+
+    /**
+     * データが届かなかった場合の最長の待ち時間(ミリ秒)。
+     */
+    private static final long MAX_IDLE_WAIT_MILLIS = 32L;
+
+    private final PrinterTransport transport_;
+
+    private final StatusListener listener_;
+
+    private final Executor callbackExecutor_;
+
+    private final Thread thread_;
+
+    /**
+     * 停止を要求されたかどうか。
+     */
+    private volatile boolean stopped_ = false;
+
+    private final Object replyLock_ = new Object();
+
+    /**
+     * ステータスリクエストへの応答を待っているかどうか。 {@link #replyLock_} で保護します。
+     */
+    private boolean replyExpected_ = false;
+
+    /**
+     * 待っているスレッドに渡す応答。 {@link #replyLock_} で保護します。
+     */
+    private RL700SStatus reply_ = null;
+
+    /**
+     * {@link StatusMonitor} を構築します。
+     *
+     * @param transport ステータスを受信する転送経路。
+     * @param listener ステータスの通知先。
+     * @param callbackExecutor {@code listener} を呼び出すための {@link Executor}。
+     */
+    public StatusMonitor(PrinterTransport transport, StatusListener listener,
+            Executor callbackExecutor) {
+        if (transport == null) {
+            throw new IllegalArgumentException("'transport' must not be null");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("'listener' must not be null");
+        }
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("'callbackExecutor' must not be null");
+        }
+        transport_ = transport;
+        listener_ = listener;
+        callbackExecutor_ = callbackExecutor;
+        thread_ = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveLoop();
+            }
+        }, "StatusMonitor");
+        thread_.setDaemon(true);
+    }
+
+    /**
+     * 監視を開始します。
+     */
+    public void start() {
+        thread_.start();
+    }
+
+    /**
+     * 監視を停止します。 受信スレッドの終了は待ちません。
+     */
+    public void stop() {
+        stopped_ = true;
+        thread_.interrupt();
+        synchronized (replyLock_) {
+            replyLock_.notifyAll();
+        }
+    }
+
+    /**
+     * 監視が停止されたかどうかを返します。
+     *
+     * @return {@link #stop()} が呼ばれていれば {@code true}。
+     */
+    public boolean isStopped() {
+        return stopped_;
+    }
+
+    /**
+     * これから送るステータスリクエストへの応答を待つ準備をします。 それまでに受信していた応答は捨てます。
+     * <p>
+     * 応答を取り逃さないように、ステータスリクエストを送る前に呼び出してください。
+     * </p>
+     */
+    public void expectReply() {
+        synchronized (replyLock_) {
+            replyExpected_ = true;
+            reply_ = null;
+        }
+    }
+
+    /**
+     * {@link #expectReply()} の後に受信したステータスリクエストへの応答を待ちます。
+     *
+     * @param timeoutMillis 待つ時間の上限(ミリ秒)。
+     * @return 受信した応答。 時間内に受信できなかった場合や、モニターが停止された場合は {@code null}。
+     * @throws InterruptedException 待っている間に割り込まれた場合。
+     */
+    public RL700SStatus awaitReply(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (replyLock_) {
+            try {
+                while (reply_ == null) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || stopped_) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(replyLock_, remaining);
+                }
+                return reply_;
+            } finally {
+                replyExpected_ = false;
+                reply_ = null;
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        final ByteBuffer inBuf = RL700SStatus.allocateInBuffer();
+        long idleWait = MIN_IDLE_WAIT_MILLIS;
+        while (!stopped_) {
+            final int received = transport_.read(inBuf.array(), inBuf.arrayOffset()
+                    + inBuf.position(), inBuf.remaining(), READ_TIMEOUT_MILLIS);
+            if (received <= 0) {
+                // タイムアウトか空のパケット。 少しずつ間隔を延ばして再度受信する
+                try {
+                    TimeUnit.MILLISECONDS.sleep(idleWait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                idleWait = Math.min(idleWait * 2, MAX_IDLE_WAIT_MILLIS);
+                continue;
+            }
+            idleWait = MIN_IDLE_WAIT_MILLIS;
+            inBuf.position(inBuf.position() + received);
+            if (inBuf.hasRemaining()) {
+                continue;
+            }
+
+            inBuf.flip();
+            try {
+                final RL700SStatus status = RL700SStatus.parse(inBuf);
+                if (status.getStatusType() == STATUS_TYPE_REPLY) {
+                    offerReply(status);
+                }
+                dispatch(status);
+            } catch (ParseException e) {
+                // 壊れたステータスは捨てて、次のステータスを待つ
+            }
+            inBuf.clear();
+        }
+    }
+
+    private void offerReply(RL700SStatus status) {
+        synchronized (replyLock_) {
+            if (replyExpected_ && reply_ == null) {
+                reply_ = status;
+                replyLock_.notifyAll();
+            }
+        }
+    }
+
+    private void dispatch(final RL700SStatus status) {
+        callbackExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped_) {
+                    return;
+                }
+                switch (status.getStatusType()) {
+                    case STATUS_TYPE_REPLY:
+                        listener_.onStatusReply(status);
+                        break;
+                    case STATUS_TYPE_PRINT_FINISHED:
+                        listener_.onPrintFinished(status);
+                        break;
+                    case STATUS_TYPE_ERROR:
+                        listener_.onError(status, status.getErrorInfoSet());
+                        break;
+                    case STATUS_TYPE_NOTIFICATION:
+                        listener_.onNotification(status);
+                        break;
+                    case STATUS_TYPE_PHASE_CHANGE:
+                        listener_.onPhaseChange(status);
+                        break;
+                    default:
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,263 @@
+package org.zakky.rl700s.text;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 1つのフォント・文字サイズのグリフを、二値化済みのビット列として保持するアトラスです。
+ * <p>
+ * グリフは初めて使われたときに {@link GlyphRenderer} で一度だけ描画し、濃さ
+ * {@value #THRESHOLD} 以上の画素を黒としてビットに詰めます。 ビットはラスターラインと同じ向き (列ごとに、上の行を上位ビットから)
+ * に並べるので、ラベルを作るときは {@link Glyph#blitColumn(int, byte[], int, int)}
+ * でラスターラインへそのまま OR できます。 ラベルごとに画像を描画したり、二値化したりする必要はありません。
+ * </p>
+ * <p>
+ * グリフは行の範囲 (アセントからディセントまで) で切り詰めるので、行の範囲の外にビットを書き込むことはありません。
+ * このクラスはスレッドセーフです。 {@link Glyph} は不変です。
+ * </p>
+ */
+public final class GlyphAtlas {
+
+    /**
+     * 黒とみなす濃さの下限。
+     */
+    public static final int THRESHOLD = 128;
+
+    /**
+     * 配列で直接引くコードポイントの範囲 (Latin-1)。
+     */
+    private static final int DIRECT_RANGE = 256;
+
+    /**
+     * 二値化済みのグリフです。
+     */
+    public static final class Glyph {
+        private final int advance_;
+
+        private final int left_;
+
+        private final int top_;
+
+        private final int width_;
+
+        private final int height_;
+
+        /**
+         * 1列あたりのバイト数。
+         */
+        private final int columnBytes_;
+
+        /**
+         * 列ごとのビット列。
+         */
+        private final byte[] bits_;
+
+        Glyph(int advance, int left, int top, int width, int height, byte[] bits) {
+            advance_ = advance;
+            left_ = left;
+            top_ = top;
+            width_ = width;
+            height_ = height;
+            columnBytes_ = (height + 7) / 8;
+            bits_ = bits;
+        }
+
+        /**
+         * 次の文字までのペン位置の送り幅を返します。
+         *
+         * @return 送り幅。
+         */
+        public int getAdvance() {
+            return advance_;
+        }
+
+        /**
+         * ペン位置から、インクのある範囲の左端までの距離を返します。
+         *
+         * @return 左端の位置。
+         */
+        public int getLeft() {
+            return left_;
+        }
+
+        /**
+         * ベースラインから、インクのある範囲の上端までの距離を返します。 ベースラインより上なら負の値です。
+         *
+         * @return 上端の位置。
+         */
+        public int getTop() {
+            return top_;
+        }
+
+        /**
+         * インクのある範囲の幅 (列の数) を返します。
+         *
+         * @return 幅。
+         */
+        public int getWidth() {
+            return width_;
+        }
+
+        /**
+         * インクのある範囲の高さ (ビット数) を返します。
+         *
+         * @return 高さ。
+         */
+        public int getHeight() {
+            return height_;
+        }
+
+        /**
+         * 1列分のビットを、ラスターラインの {@code pin} ビット目から OR します。
+         *
+         * @param column 列 (0 から {@link #getWidth()} - 1)。
+         * @param line ラスターラインを含む配列。
+         * @param lineOffset {@code line} 内のラスターラインの開始位置。
+         * @param pin グリフの上端を書き込む、ラスターライン上のビット位置。
+         */
+        public void blitColumn(int column, byte[] line, int lineOffset, int pin) {
+            final byte[] bits = bits_;
+            final int columnBytes = columnBytes_;
+            final int src = column * columnBytes;
+            int dest = lineOffset + (pin >> 3);
+            final int shift = pin & 7;
+            if (shift == 0) {
+                for (int i = 0; i < columnBytes; i++) {
+                    line[dest++] |= bits[src + i];
+                }
+                return;
+            }
+            // バイト境界からずれている分だけ、前のバイトの下位ビットを繰り越す
+            final int outBytes = (shift + height_ + 7) >> 3;
+            int carry = 0;
+            for (int i = 0; i < outBytes; i++) {
+                final int b = (i < columnBytes) ? bits[src + i] & 0xff : 0;
+                line[dest++] |= (byte) ((carry << (8 - shift)) | (b >>> shift));
+                carry = b;
+            }
+        }
+    }
+
+    private final GlyphRenderer renderer_;
+
+    private final int ascent_;
+
+    private final int descent_;
+
+    private final Glyph[] direct_ = new Glyph[DIRECT_RANGE];
+
+    private final Map<Integer, Glyph> others_ = new HashMap<Integer, Glyph>();
+
+    /**
+     * {@link GlyphRenderer#render(int, int[])} の寸法の格納先。
+     */
+    private final int[] metrics_ = new int[5];
+
+    /**
+     * {@link GlyphAtlas} を構築します。
+     *
+     * @param renderer グリフを描画するレンダラー。 このアトラスからのみ使用します。
+     */
+    public GlyphAtlas(GlyphRenderer renderer) {
+        if (renderer == null) {
+            throw new IllegalArgumentException("'renderer' must not be null");
+        }
+        renderer_ = renderer;
+        ascent_ = renderer.getAscent();
+        descent_ = renderer.getDescent();
+    }
+
+    /**
+     * ベースラインから、行の上端までの距離を返します。
+     *
+     * @return アセント。
+     */
+    public int getAscent() {
+        return ascent_;
+    }
+
+    /**
+     * ベースラインから、行の下端までの距離を返します。
+     *
+     * @return ディセント。
+     */
+    public int getDescent() {
+        return descent_;
+    }
+
+    /**
+     * 1行の高さ (アセントとディセントの和) を返します。
+     *
+     * @return 行の高さ。
+     */
+    public int getLineHeight() {
+        return ascent_ + descent_;
+    }
+
+    /**
+     * グリフを返します。 まだ描画していなければ、描画して二値化します。
+     *
+     * @param codePoint 文字のコードポイント。
+     * @return グリフ。
+     */
+    public synchronized Glyph getGlyph(int codePoint) {
+        Glyph glyph;
+        if (0 <= codePoint && codePoint < DIRECT_RANGE) {
+            glyph = direct_[codePoint];
+            if (glyph == null) {
+                glyph = renderGlyph(codePoint);
+                direct_[codePoint] = glyph;
+            }
+        } else {
+            final Integer key = Integer.valueOf(codePoint);
+            glyph = others_.get(key);
+            if (glyph == null) {
+                glyph = renderGlyph(codePoint);
+                others_.put(key, glyph);
+            }
+        }
+        return glyph;
+    }
+
+    /**
+     * 描画済みのグリフの数を返します。
+     *
+     * @return グリフの数。
+     */
+    public synchronized int getGlyphCount() {
+        int count = others_.size();
+        for (Glyph glyph : direct_) {
+            if (glyph != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Glyph renderGlyph(int codePoint) {
+        final int[] m = metrics_;
+        final byte[] coverage = renderer_.render(codePoint, m);
+        final int advance = m[0];
+        final int left = m[1];
+        final int width = m[3];
+        // 行の範囲の外は切り捨てる
+        final int skip = Math.max(0, -ascent_ - m[2]);
+        final int top = m[2] + skip;
+        final int height = Math.max(0, Math.min(m[2] + m[4], descent_) - top);
+        if (width <= 0 || height <= 0) {
+            return new Glyph(advance, 0, 0, 0, 0, new byte[0]);
+        }
+
+        final int columnBytes = (height + 7) / 8;
+        final byte[] bits = new byte[width * columnBytes];
+        for (int x = 0; x < width; x++) {
+            final int column = x * columnBytes;
+            for (int y = 0; y < height; y++) {
+                if (THRESHOLD <= (coverage[(y + skip) * width + x] & 0xff)) {
+                    bits[column + (y >> 3)] |= (byte) (0x80 >>> (y & 7));
+                }
+            }
+        }
+        return new Glyph(advance, left, top, width, height, bits);
+    }
+}
@@ -0,0 +1,35 @@
+package org.zakky.rl700s.text;
+
+/**
+ * 1つのフォント・文字サイズのグリフを描画して、 {@link GlyphAtlas} に渡すレンダラーです。
+ * <p>
+ * 座標の単位はピクセル (プリンターのドット) です。 y はベースラインを 0 として下向きに増えます。
+ * </p>
+ */
+public interface GlyphRenderer {
+
+    /**
+     * ベースラインから、行の上端までの距離を返します。
+     *
+     * @return アセント (正の値)。
+     */
+    public int getAscent();
+
+    /**
+     * ベースラインから、行の下端までの距離を返します。
+     *
+     * @return ディセント (正の値)。
+     */
+    public int getDescent();
+
+    /**
+     * グリフを1つ描画します。
+     *
+     * @param codePoint 文字のコードポイント。
+     * @param metrics 描画したグリフの寸法の格納先。 次の順に5つの値を格納してください: 送り幅、
+     *            描画した範囲の左端 (ペン位置から)、上端 (ベースラインから)、幅、高さ。
+     * @return 描画した範囲の濃さ (0 が白、 255 が黒) を行優先で並べた配列。 長さは幅×高さ以上です。
+     *         インクのない文字 (空白など) では幅と高さを 0 にして、空の配列を返します。
+     */
+    public byte[] render(int codePoint, int[] metrics);
+}
@@ -0,0 +1,244 @@
+package org.zakky.rl700s.text;
+
+import org.zakky.rl700s.job.RasterJob;
+import org.zakky.rl700s.job.RasterLineReader;
+import org.zakky.rl700s.raster.TapeGeometry;
+import org.zakky.rl700s.text.GlyphAtlas.Glyph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 文字列を、テープの印刷範囲に収まるように配置したラベルの {@link RasterJob} です。
+ * <p>
+ * 改行 ({@code '\n'}) で区切った各行を、 {@link GlyphAtlas} の行の高さで上から順に並べ、全体をテープの印刷範囲の中央に置きます。
+ * ラスターラインは読み出しのたびに、そのラインにかかるグリフの列を {@link Glyph#blitColumn(int, byte[], int, int)}
+ * で OR して作成するので、画像の描画も二値化も行わず、ラベル全体のラスターデータもメモリ上に持ちません。
+ * </p>
+ * <p>
+ * 文字の配置は構築時に決まります。 このクラスは不変で、複数の {@link RasterLineReader} を同時に使用できます。
+ * </p>
+ */
+public final class TextLabel implements RasterJob {
+
+    /**
+     * 複数行の場合の、各行の揃え方です。
+     */
+    public enum Alignment {
+        /**
+         * 先頭 (ラベルの左端) に揃えます。
+         */
+        START,
+        /**
+         * 中央に揃えます。
+         */
+        CENTER,
+        /**
+         * 末尾 (ラベルの右端) に揃えます。
+         */
+        END,
+    }
+
+    private final TapeGeometry tape_;
+
+    private final int lineCount_;
+
+    /**
+     * 配置したグリフ。 インクのある範囲の開始ライン順に並びます。
+     */
+    private final Placement[] placements_;
+
+    /**
+     * {@link TextLabel} を構築します。
+     *
+     * @param atlas 文字を描画する {@link GlyphAtlas}。
+     * @param tape ラベルを印刷するテープ。
+     * @param text 文字列。 {@code '\n'} で改行します。
+     * @param alignment 各行の揃え方。
+     * @param padding ラベルの前後に置く余白のライン数。
+     * @throws IllegalArgumentException すべての行がテープの印刷範囲に収まらない場合。
+     */
+    public TextLabel(GlyphAtlas atlas, TapeGeometry tape, String text, Alignment alignment,
+            int padding) {
+        if (atlas == null) {
+            throw new IllegalArgumentException("'atlas' must not be null");
+        }
+        if (tape == null) {
+            throw new IllegalArgumentException("'tape' must not be null");
+        }
+        if (text == null) {
+            throw new IllegalArgumentException("'text' must not be null");
+        }
+        if (alignment == null) {
+            throw new IllegalArgumentException("'alignment' must not be null");
+        }
+        if (padding < 0) {
+            throw new IllegalArgumentException("'padding' must not be negative: " + padding);
+        }
+        tape_ = tape;
+
+        final String[] lines = text.split("\n", -1);
+        final int lineHeight = atlas.getLineHeight();
+        final int textHeight = lines.length * lineHeight;
+        if (tape.getPins() < textHeight) {
+            throw new IllegalArgumentException("text does not fit in " + tape + ": "
+                    + lines.length + " lines of " + lineHeight + " pins");
+        }
+
+        final int[] widths = new int[lines.length];
+        int maxWidth = 0;
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i];
+            int width = 0;
+            for (int offset = 0; offset < line.length();) {
+                final int codePoint = line.codePointAt(offset);
+                width += atlas.getGlyph(codePoint).getAdvance();
+                offset += Character.charCount(codePoint);
+            }
+            widths[i] = width;
+            maxWidth = Math.max(maxWidth, width);
+        }
+
+        final List<Placement> placements = new ArrayList<Placement>();
+        int baseline = tape.getPinOffset() + (tape.getPins() - textHeight) / 2
+                + atlas.getAscent();
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i];
+            int pen = padding;
+            if (alignment == Alignment.CENTER) {
+                pen += (maxWidth - widths[i]) / 2;
+            } else if (alignment == Alignment.END) {
+                pen += maxWidth - widths[i];
+            }
+            for (int offset = 0; offset < line.length();) {
+                final int codePoint = line.codePointAt(offset);
+                final Glyph glyph = atlas.getGlyph(codePoint);
+                // はみ出した列はラベルの外なので描かない
+                final int start = pen + glyph.getLeft();
+                final int skip = Math.max(0, -start);
+                if (skip < glyph.getWidth()) {
+                    placements.add(new Placement(glyph, start + skip, skip, baseline
+                            + glyph.getTop()));
+                }
+                pen += glyph.getAdvance();
+                offset += Character.charCount(codePoint);
+            }
+            baseline += lineHeight;
+        }
+        placements_ = placements.toArray(new Placement[placements.size()]);
+        Arrays.sort(placements_, START_ORDER);
+
+        int lineCount = maxWidth + padding * 2;
+        for (Placement placement : placements_) {
+            lineCount = Math.max(lineCount, placement.end_ + padding);
+        }
+        lineCount_ = lineCount;
+    }
+
+    /**
+     * ラベルを印刷するテープを返します。
+     *
+     * @return テープ。
+     */
+    public TapeGeometry getTape() {
+        return tape_;
+    }
+
+    @Override
+    public int getLineCount() {
+        return lineCount_;
+    }
+
+    @Override
+    public int getBytesPerLine() {
+        return TapeGeometry.BYTES_PER_LINE;
+    }
+
+    @Override
+    public RasterLineReader openReader() {
+        return new RasterLineReader() {
+            private int next_ = 0;
+
+            /**
+             * まだ描き終えていないグリフのうち、開始ラインがもっとも前のもの。
+             */
+            private int first_ = 0;
+
+            @Override
+            public boolean readLine(byte[] dest) {
+                if (lineCount_ <= next_) {
+                    return false;
+                }
+                final int x = next_++;
+                Arrays.fill(dest, 0, TapeGeometry.BYTES_PER_LINE, (byte) 0);
+                final Placement[] placements = placements_;
+                while (first_ < placements.length && placements[first_].end_ <= x) {
+                    first_++;
+                }
+                for (int i = first_; i < placements.length; i++) {
+                    final Placement placement = placements[i];
+                    if (x < placement.start_) {
+                        break;
+                    }
+                    if (x < placement.end_) {
+                        placement.glyph_.blitColumn(x - placement.start_ + placement.skip_,
+                                dest, 0, placement.pin_);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // 何もしない
+            }
+        };
+    }
+
+    /**
+     * ラベル上に配置したグリフです。
+     */
+    private static final class Placement {
+        final Glyph glyph_;
+
+        /**
+         * グリフの {@link #skip_} 列目を描くライン。
+         */
+        final int start_;
+
+        /**
+         * グリフの最後の列を描いた次のライン。
+         */
+        final int end_;
+
+        /**
+         * ラベルの先頭からはみ出して、描かない列の数。
+         */
+        final int skip_;
+
+        /**
+         * グリフの上端を描くピンの位置。
+         */
+        final int pin_;
+
+        Placement(Glyph glyph, int start, int skip, int pin) {
+            glyph_ = glyph;
+            start_ = start;
+            end_ = start + glyph.getWidth() - skip;
+            skip_ = skip;
+            pin_ = pin;
+        }
+    }
+
+    /**
+     * 開始ラインの順に並べるための {@link Comparator}。
+     */
+    private static final Comparator<Placement> START_ORDER = new Comparator<Placement>() {
+        @Override
+        public int compare(Placement p1, Placement p2) {
+            return (p1.start_ < p2.start_) ? -1 : (p1.start_ == p2.start_) ? 0 : 1;
+        }
+    };
+}
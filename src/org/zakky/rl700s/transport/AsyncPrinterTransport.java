@@ -0,0 +1,59 @@
+package org.zakky.rl700s.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * プリンターへの送信を非同期に行う転送経路です。
+ * <p>
+ * {@link #queue(ByteBuffer)} で転送を開始し、 {@link #awaitCompletion()} で完了を待ちます。
+ * 複数の転送を同時に開始しておくことで、次のデータを準備している間にも USB の転送を進めることができます。
+ * </p>
+ * <p>
+ * すべてのメソッドは同じスレッドから呼び出してください。
+ * </p>
+ */
+public interface AsyncPrinterTransport {
+
+    /**
+     * 1回の転送で送信できる最大のバイト数を返します。
+     *
+     * @return 最大転送バイト数。
+     */
+    public int getMaxTransferSize();
+
+    /**
+     * 同時に開始しておける転送の最大数を返します。
+     *
+     * @return 転送の最大数。
+     */
+    public int getMaxInFlight();
+
+    /**
+     * {@code buffer} の先頭から limit までの送信を開始します。
+     * <p>
+     * 転送が完了して {@link #awaitCompletion()} から返されるまで、 {@code buffer} の内容を変更しないでください。
+     * </p>
+     *
+     * @param buffer 送信するデータ。 position は {@code 0} であること。
+     * @return 転送を開始できた場合は {@code true}。
+     */
+    public boolean queue(ByteBuffer buffer);
+
+    /**
+     * 開始済みの転送のうち、いずれか1つが完了するのを待ちます。
+     * <p>
+     * 実装は、完了しない転送をいつまでも待たずに {@link TransferTimeoutException} をスローしてください。
+     * </p>
+     *
+     * @return 完了した転送の {@link ByteBuffer}。
+     * @throws TransferTimeoutException 決められた時間内に転送が完了しなかった場合。
+     * @throws IOException 転送に失敗した場合。
+     */
+    public ByteBuffer awaitCompletion() throws IOException;
+
+    /**
+     * 未完了の転送を取り消し、転送経路を閉じます。
+     */
+    public void close();
+}
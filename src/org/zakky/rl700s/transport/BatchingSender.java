@@ -0,0 +1,134 @@
+package org.zakky.rl700s.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 複数のコマンドを1回の転送にまとめて送信するセンダーです。
+ * <p>
+ * {@link #send(ByteBuffer)} されたコマンドは {@link TransferOutput} から借りた転送用バッファに直接書き込み、
+ * バッファが一杯になったときか、 {@link #flush()} が呼ばれたときにまとめて送信します。 ラスターライン1本ごとに転送していた場合と比べて、
+ * 転送回数とタイムアウト待ちの機会を大きく減らせます。 定常状態ではメモリ確保を行いません。
+ * </p>
+ * <p>
+ * プリンターからの応答を待つ前など、それまでのコマンドを確実に届けたい箇所では {@link #flush()} を呼んでください。
+ * このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class BatchingSender {
+
+    private final TransferOutput output_;
+
+    /**
+     * 書き込み中の転送用バッファ。 借りていなければ {@code null}。
+     */
+    private ByteBuffer batch_ = null;
+
+    /**
+     * 転送したバイト数の累計。
+     */
+    private long bytesSent_ = 0;
+
+    /**
+     * 転送回数の累計。
+     */
+    private int transferCount_ = 0;
+
+    /**
+     * 受け付けたコマンド数の累計。
+     */
+    private int commandCount_ = 0;
+
+    /**
+     * {@link BatchingSender} を構築します。
+     *
+     * @param output 転送先。
+     */
+    public BatchingSender(TransferOutput output) {
+        if (output == null) {
+            throw new IllegalArgumentException("'output' must not be null");
+        }
+        output_ = output;
+    }
+
+    /**
+     * {@code command} の position から limit までを送信待ちに追加し、 position を limit まで進めます。
+     * <p>
+     * 転送用バッファが一杯になった場合は、その時点で送信します。
+     * </p>
+     *
+     * @param command 送信するコマンド。
+     * @throws IOException 転送に失敗した場合。
+     */
+    public void send(ByteBuffer command) throws IOException {
+        commandCount_++;
+        while (command.hasRemaining()) {
+            if (batch_ == null) {
+                batch_ = output_.lease();
+            } else if (!batch_.hasRemaining()) {
+                flush();
+                batch_ = output_.lease();
+            }
+            final int n = Math.min(command.remaining(), batch_.remaining());
+            if (command.hasArray()) {
+                batch_.put(command.array(), command.arrayOffset() + command.position(), n);
+                command.position(command.position() + n);
+            } else {
+                command.get(batch_.array(), batch_.arrayOffset() + batch_.position(), n);
+                batch_.position(batch_.position() + n);
+            }
+        }
+    }
+
+    /**
+     * 送信待ちのデータをすべて転送します。
+     * <p>
+     * 転送の完了を待つかどうかは {@link TransferOutput} の実装によります。 完了を待つ必要がある場合は、さらに
+     * {@link TransferOutput#drain()} を呼んでください。
+     * </p>
+     *
+     * @throws IOException 転送に失敗した場合。
+     */
+    public void flush() throws IOException {
+        final ByteBuffer batch = batch_;
+        if (batch == null) {
+            return;
+        }
+        batch_ = null;
+        final int length = batch.position();
+        if (length == 0) {
+            output_.release(batch);
+            return;
+        }
+        output_.commit(batch);
+        bytesSent_ += length;
+        transferCount_++;
+    }
+
+    /**
+     * 転送したバイト数の累計を返します。
+     *
+     * @return バイト数。
+     */
+    public long getBytesSent() {
+        return bytesSent_;
+    }
+
+    /**
+     * 転送回数の累計を返します。
+     *
+     * @return 転送回数。
+     */
+    public int getTransferCount() {
+        return transferCount_;
+    }
+
+    /**
+     * {@link #send(ByteBuffer)} で受け付けたコマンド数の累計を返します。
+     *
+     * @return コマンド数。
+     */
+    public int getCommandCount() {
+        return commandCount_;
+    }
+}
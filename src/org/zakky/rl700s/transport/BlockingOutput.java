@@ -0,0 +1,117 @@
+package org.zakky.rl700s.transport;
+
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.metrics.PipelineMetrics.Counter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PrinterTransport} で1回ずつ同期的に送信する {@link TransferOutput} です。
+ * <p>
+ * 送信用のバッファは1つだけで、 {@link #commit(ByteBuffer)} は送信が完了してから戻ります。
+ * </p>
+ */
+public final class BlockingOutput implements TransferOutput {
+
+    private final PrinterTransport transport_;
+
+    private final int timeoutMillis_;
+
+    private final ByteBuffer buffer_;
+
+    /**
+     * バッファを貸し出し中かどうか。
+     */
+    private boolean leased_ = false;
+
+    /**
+     * 転送の記録先。 記録しない場合は {@code null}。
+     */
+    private PipelineMetrics metrics_ = null;
+
+    /**
+     * {@link BlockingOutput} を構築します。
+     *
+     * @param transport 転送先。
+     * @param timeoutMillis 1回の転送のタイムアウト(ミリ秒)。
+     */
+    public BlockingOutput(PrinterTransport transport, int timeoutMillis) {
+        if (transport == null) {
+            throw new IllegalArgumentException("'transport' must not be null");
+        }
+        transport_ = transport;
+        timeoutMillis_ = timeoutMillis;
+        buffer_ = ByteBuffer.allocate(transport.getMaxTransferSize());
+    }
+
+    /**
+     * 転送ごとの所要時間とバイト数、タイムアウトと送信しきれなかった転送の回数を {@code metrics} に記録するように設定します。
+     * <p>
+     * API Level 12 の USB ホスト API はタイムアウトとその他のエラーを区別しないので、
+     * タイムアウトの時間が経過してから失敗した転送をタイムアウトとして数えます。
+     * </p>
+     *
+     * @param metrics 記録先。 {@code null} の場合は記録しません。
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        metrics_ = metrics;
+    }
+
+    @Override
+    public ByteBuffer lease() {
+        if (leased_) {
+            throw new IllegalStateException("buffer is already leased.");
+        }
+        leased_ = true;
+        buffer_.clear();
+        return buffer_;
+    }
+
+    @Override
+    public void commit(ByteBuffer buffer) throws IOException {
+        checkLeased(buffer);
+        leased_ = false;
+        final int length = buffer.position();
+        final PipelineMetrics metrics = metrics_;
+        final long start = (metrics == null) ? 0 : System.nanoTime();
+        final int sent = transport_.write(buffer.array(), buffer.arrayOffset(), length,
+                timeoutMillis_);
+        if (metrics != null) {
+            recordTransfer(metrics, length, sent, start);
+        }
+        if (sent != length) {
+            throw new IOException("failed to send " + length + " bytes. result=" + sent);
+        }
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        checkLeased(buffer);
+        leased_ = false;
+    }
+
+    @Override
+    public void drain() {
+        // commit() の時点で送信は完了している
+    }
+
+    private void recordTransfer(PipelineMetrics metrics, int length, int sent, long start) {
+        if (sent == length) {
+            metrics.recordTransfer(sent, start);
+        } else if (0 <= sent) {
+            metrics.increment(Counter.SHORT_WRITES);
+        } else if (0 < timeoutMillis_
+                && timeoutMillis_ <= (System.nanoTime() - start) / 1000000L) {
+            metrics.increment(Counter.USB_TIMEOUTS);
+        } else {
+            metrics.increment(Counter.TRANSFER_ERRORS);
+        }
+    }
+
+    private void checkLeased(ByteBuffer buffer) {
+        if (!leased_ || buffer != buffer_) {
+            throw new IllegalArgumentException("buffer is not leased from this output.");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.zakky.rl700s.transport;
+
+import org.zakky.rl700s.metrics.PipelineMetrics;
+import org.zakky.rl700s.metrics.PipelineMetrics.Counter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * {@link AsyncPrinterTransport} 上で、複数の転送を同時に進めながら送信する {@link TransferOutput} です。
+ * <p>
+ * {@link #commit(ByteBuffer)} は転送を開始すると、完了を待たずに戻ります。 空いているバッファがないときの
+ * {@link #lease()} は、いずれかの転送が完了するまで待つので、呼び出し側が USB よりも速くデータを作っても、
+ * メモリ使用量はウィンドウ ({@link AsyncPrinterTransport#getMaxInFlight()}) 分で頭打ちになります。
+ * バッファは構築時に確保したものを使い回します。
+ * </p>
+ * <p>
+ * 転送の失敗は、その後の {@link #lease()} か {@link #drain()} の例外で通知されます。 このクラスはスレッドセーフではありません。
+ * </p>
+ */
+public final class PipelinedOutput implements TransferOutput {
+
+    private final AsyncPrinterTransport transport_;
+
+    /**
+     * 転送にも貸し出しにも使用していないバッファ。
+     */
+    private final ArrayDeque<ByteBuffer> freeBuffers_;
+
+    /**
+     * 構築時に確保したすべてのバッファ。 {@link #startNanos_} の添字を探すために使います。
+     */
+    private final ByteBuffer[] buffers_;
+
+    /**
+     * {@link #buffers_} の各バッファの転送を開始したときの {@link System#nanoTime()}。
+     */
+    private final long[] startNanos_;
+
+    /**
+     * 転送中のバッファの数。
+     */
+    private int inFlight_ = 0;
+
+    /**
+     * 発生した転送エラー。 発生していなければ {@code null}。
+     */
+    private IOException error_ = null;
+
+    /**
+     * 転送の記録先。 記録しない場合は {@code null}。
+     */
+    private PipelineMetrics metrics_ = null;
+
+    /**
+     * {@link PipelinedOutput} を構築します。
+     *
+     * @param transport 転送先。
+     */
+    public PipelinedOutput(AsyncPrinterTransport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("'transport' must not be null");
+        }
+        transport_ = transport;
+        final int window = transport.getMaxInFlight();
+        freeBuffers_ = new ArrayDeque<ByteBuffer>(window);
+        buffers_ = new ByteBuffer[window];
+        startNanos_ = new long[window];
+        for (int i = 0; i < window; i++) {
+            buffers_[i] = ByteBuffer.allocate(transport.getMaxTransferSize());
+            freeBuffers_.add(buffers_[i]);
+        }
+    }
+
+    /**
+     * 転送ごとの所要時間とバイト数、タイムアウトと失敗した転送の回数を {@code metrics} に記録するように設定します。
+     * <p>
+     * {@link TransferTimeoutException} で失敗した転送を {@link Counter#USB_TIMEOUTS}、それ以外の失敗を
+     * {@link Counter#TRANSFER_ERRORS} として数えます。
+     * </p>
+     *
+     * @param metrics 記録先。 {@code null} の場合は記録しません。
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        metrics_ = metrics;
+    }
+
+    @Override
+    public ByteBuffer lease() throws IOException {
+        while (freeBuffers_.isEmpty() && error_ == null) {
+            completeOne();
+        }
+        if (error_ != null) {
+            throw error_;
+        }
+        final ByteBuffer buffer = freeBuffers_.poll();
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void commit(ByteBuffer buffer) throws IOException {
+        final int length = buffer.position();
+        buffer.flip();
+        if (metrics_ != null) {
+            startNanos_[indexOf(buffer)] = System.nanoTime();
+        }
+        if (!transport_.queue(buffer)) {
+            if (metrics_ != null) {
+                metrics_.increment(Counter.TRANSFER_ERRORS);
+            }
+            freeBuffers_.add(buffer);
+            error_ = new IOException("failed to queue " + length + " bytes.");
+            throw error_;
+        }
+        inFlight_++;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        freeBuffers_.add(buffer);
+    }
+
+    @Override
+    public void drain() throws IOException {
+        while (0 < inFlight_ && error_ == null) {
+            completeOne();
+        }
+        if (error_ != null) {
+            throw error_;
+        }
+    }
+
+    /**
+     * 未完了の転送を取り消し、転送経路を閉じます。
+     */
+    public void close() {
+        transport_.close();
+        inFlight_ = 0;
+    }
+
+    private void completeOne() {
+        try {
+            final ByteBuffer done = transport_.awaitCompletion();
+            inFlight_--;
+            if (metrics_ != null) {
+                metrics_.recordTransfer(done.limit(), startNanos_[indexOf(done)]);
+            }
+            freeBuffers_.add(done);
+        } catch (IOException e) {
+            if (metrics_ != null) {
+                metrics_.increment((e instanceof TransferTimeoutException) ? Counter.USB_TIMEOUTS
+                        : Counter.TRANSFER_ERRORS);
+            }
+            error_ = e;
+        }
+    }
+
+    private int indexOf(ByteBuffer buffer) {
+        // ウィンドウは数個なので、線形探索で十分
+        for (int i = 0; i < buffers_.length; i++) {
+            if (buffers_[i] == buffer) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("buffer is not owned by this output.");
+    }
+}
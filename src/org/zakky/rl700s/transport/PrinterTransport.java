@@ -0,0 +1,40 @@
+package org.zakky.rl700s.transport;
+
+/**
+ * プリンターとの間でデータを転送する経路です。
+ * <p>
+ * USB のバルク転送を抽象化したもので、実機以外の転送先に差し替えて計測や試験を行うことができます。
+ * 配列内の任意の位置から読み書きできるので、呼び出し側で一時配列にコピーし直す必要はありません。
+ * </p>
+ */
+public interface PrinterTransport {
+
+    /**
+     * 1回の {@link #write(byte[], int, int, int)} で転送できる最大のバイト数を返します。
+     *
+     * @return 最大転送バイト数。
+     */
+    public int getMaxTransferSize();
+
+    /**
+     * プリンターへデータを送信します。
+     *
+     * @param data 送信するデータ。
+     * @param offset {@code data} 内の送信するデータの開始位置。
+     * @param length 送信するバイト数。 {@link #getMaxTransferSize()} 以下であること。
+     * @param timeoutMillis タイムアウト(ミリ秒)。
+     * @return 送信できたバイト数。エラーの場合は負の値。
+     */
+    public int write(byte[] data, int offset, int length, int timeoutMillis);
+
+    /**
+     * プリンターからデータを受信します。
+     *
+     * @param data 受信したデータの格納先。
+     * @param offset {@code data} 内の格納を開始する位置。
+     * @param length 受信する最大のバイト数。
+     * @param timeoutMillis タイムアウト(ミリ秒)。
+     * @return 受信したバイト数。エラーやタイムアウトの場合は負の値。
+     */
+    public int read(byte[] data, int offset, int length, int timeoutMillis);
+}
@@ -0,0 +1,52 @@
+package org.zakky.rl700s.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 転送用のバッファを貸し出し、書き込まれたバッファをプリンターへ送信する出力先です。
+ * <p>
+ * 呼び出し側は {@link #lease()} で借りたバッファに直接データを書き込み、 {@link #commit(ByteBuffer)}
+ * で送信します。 送信用のバッファは出力先が使い回すので、送信のたびに配列を確保したりコピーしたりする必要はありません。
+ * </p>
+ */
+public interface TransferOutput {
+
+    /**
+     * 送信用のバッファを借ります。
+     * <p>
+     * 返されるバッファは配列を持つヒープバッファで、 position が {@code 0} 、 limit が capacity に設定されています。
+     * capacity は1回に転送できる最大のバイト数です。
+     * 借りたバッファは必ず {@link #commit(ByteBuffer)} か {@link #release(ByteBuffer)} で返してください。
+     * </p>
+     *
+     * @return バッファ。
+     * @throws IOException それまでの転送でエラーが発生していた場合。
+     */
+    public ByteBuffer lease() throws IOException;
+
+    /**
+     * 借りたバッファの先頭から position までを送信し、バッファを返却します。
+     * <p>
+     * 送信が完了するのを待たずに戻る場合があります。 返却したバッファは以降使用しないでください。
+     * </p>
+     *
+     * @param buffer {@link #lease()} で借りたバッファ。
+     * @throws IOException 送信に失敗した場合。
+     */
+    public void commit(ByteBuffer buffer) throws IOException;
+
+    /**
+     * 借りたバッファを送信せずに返却します。
+     *
+     * @param buffer {@link #lease()} で借りたバッファ。
+     */
+    public void release(ByteBuffer buffer);
+
+    /**
+     * それまでに {@link #commit(ByteBuffer)} したデータの送信がすべて完了するまで待ちます。
+     *
+     * @throws IOException 送信に失敗していた場合。
+     */
+    public void drain() throws IOException;
+}
@@ -0,0 +1,23 @@
+package org.zakky.rl700s.transport;
+
+import java.io.IOException;
+
+/**
+ * 転送が決められた時間内に完了しなかったことを表す例外です。
+ * <p>
+ * プリンターが止まったか、取り外された可能性があります。 転送経路は使い続けられないので、閉じて開き直してください。
+ * </p>
+ */
+public final class TransferTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * {@link TransferTimeoutException} を構築します。
+     *
+     * @param message 詳細メッセージ。
+     */
+    public TransferTimeoutException(String message) {
+        super(message);
+    }
+}
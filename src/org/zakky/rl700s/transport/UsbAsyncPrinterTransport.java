@@ -0,0 +1,240 @@
+package org.zakky.rl700s.transport;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * {@link UsbRequest} のキューを用いて非同期にバルク転送を行う {@link AsyncPrinterTransport} です。
+ * <p>
+ * {@link UsbDeviceConnection#requestWait()} はコネクション上のすべての {@link UsbRequest}
+ * の完了を返すので、同じコネクションで他に {@link UsbRequest} を使用しないでください。
+ * </p>
+ * <p>
+ * API Level 12 の {@link UsbDeviceConnection#requestWait()} にはタイムアウトがなく、スレッドへの割り込みでも戻りません。
+ * そのため、監視用のスレッドで待ち時間を計り、タイムアウトの時間内に転送が1つも完了しなければ、開始済みの転送を
+ * {@link UsbRequest#cancel()} で取り消して {@link TransferTimeoutException} をスローします。
+ * プリンターが止まったり取り外されたりしても、送信するスレッドが止まったままになることはありません。
+ * </p>
+ */
+public final class UsbAsyncPrinterTransport implements AsyncPrinterTransport {
+
+    private final UsbDeviceConnection mConnection;
+
+    private final int mMaxInFlight;
+
+    private final long mTimeoutNanos;
+
+    /**
+     * 転送に使用していない {@link UsbRequest}。
+     */
+    private final ArrayDeque<UsbRequest> mFreeRequests;
+
+    /**
+     * 転送中の {@link UsbRequest}。
+     */
+    private final ArrayDeque<UsbRequest> mQueuedRequests;
+
+    /**
+     * {@link #mWatchdog} と待っているスレッドの間で共有する状態のロック。
+     */
+    private final Object mWatchdogLock = new Object();
+
+    /**
+     * 待っている間に取り消す対象の転送。 {@link #mWatchdogLock} で保護します。
+     */
+    private final UsbRequest[] mWatchedRequests;
+
+    /**
+     * {@link #awaitCompletion()} で待っているかどうか。 {@link #mWatchdogLock} で保護します。
+     */
+    private boolean mWaiting = false;
+
+    /**
+     * 待ち始めた {@link System#nanoTime()}。 {@link #mWatchdogLock} で保護します。
+     */
+    private long mWaitStartNanos = 0;
+
+    /**
+     * タイムアウトして転送を取り消したかどうか。 {@link #mWatchdogLock} で保護します。
+     */
+    private boolean mTimedOut = false;
+
+    /**
+     * 閉じたかどうか。 {@link #mWatchdogLock} で保護します。
+     */
+    private boolean mClosed = false;
+
+    /**
+     * 待ち時間を監視するスレッド。
+     */
+    private final Thread mWatchdog;
+
+    /**
+     * {@link UsbAsyncPrinterTransport} を構築します。
+     *
+     * @param connection オープン済みで、インタフェースを claim 済みのコネクション。
+     * @param out 送信用のバルクエンドポイント。
+     * @param maxInFlight 同時に開始しておける転送の最大数。
+     * @param timeoutMillis {@link #awaitCompletion()} で転送の完了を待つ時間の上限 (ミリ秒)。
+     */
+    public UsbAsyncPrinterTransport(UsbDeviceConnection connection, UsbEndpoint out,
+            int maxInFlight, int timeoutMillis) {
+        if (connection == null) {
+            throw new IllegalArgumentException("'connection' must not be null");
+        }
+        if (out == null || out.getDirection() != UsbConstants.USB_DIR_OUT) {
+            throw new IllegalArgumentException("'out' must be an OUT endpoint");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("'maxInFlight' must be positive: " + maxInFlight);
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("'timeoutMillis' must be positive: "
+                    + timeoutMillis);
+        }
+        mConnection = connection;
+        mMaxInFlight = maxInFlight;
+        mTimeoutNanos = timeoutMillis * 1000000L;
+        mFreeRequests = new ArrayDeque<UsbRequest>(maxInFlight);
+        mQueuedRequests = new ArrayDeque<UsbRequest>(maxInFlight);
+        mWatchedRequests = new UsbRequest[maxInFlight];
+        mWatchdog = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "UsbTransferWatchdog");
+        mWatchdog.setDaemon(true);
+        for (int i = 0; i < maxInFlight; i++) {
+            final UsbRequest request = new UsbRequest();
+            if (!request.initialize(connection, out)) {
+                close();
+                throw new IllegalStateException("failed to initialize UsbRequest.");
+            }
+            mFreeRequests.add(request);
+        }
+        mWatchdog.start();
+    }
+
+    @Override
+    public int getMaxTransferSize() {
+        return UsbPrinterTransport.MAX_BULK_TRANSFER_SIZE;
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    @Override
+    public boolean queue(ByteBuffer buffer) {
+        final UsbRequest request = mFreeRequests.poll();
+        if (request == null) {
+            return false;
+        }
+        request.setClientData(buffer);
+        if (!request.queue(buffer, buffer.limit())) {
+            request.setClientData(null);
+            mFreeRequests.add(request);
+            return false;
+        }
+        mQueuedRequests.add(request);
+        return true;
+    }
+
+    @Override
+    public ByteBuffer awaitCompletion() throws IOException {
+        if (mQueuedRequests.isEmpty()) {
+            throw new IllegalStateException("no request in flight.");
+        }
+        synchronized (mWatchdogLock) {
+            mQueuedRequests.toArray(mWatchedRequests);
+            mWaitStartNanos = System.nanoTime();
+            mWaiting = true;
+            mTimedOut = false;
+            mWatchdogLock.notifyAll();
+        }
+        UsbRequest request = null;
+        boolean timedOut;
+        try {
+            request = mConnection.requestWait();
+        } finally {
+            synchronized (mWatchdogLock) {
+                mWaiting = false;
+                timedOut = mTimedOut;
+                for (int i = 0; i < mWatchedRequests.length; i++) {
+                    mWatchedRequests[i] = null;
+                }
+            }
+        }
+        ByteBuffer buffer = null;
+        if (request != null && mQueuedRequests.remove(request)) {
+            buffer = (ByteBuffer) request.getClientData();
+            request.setClientData(null);
+            mFreeRequests.add(request);
+        }
+        if (timedOut) {
+            throw new TransferTimeoutException("no USB request completed in "
+                    + mTimeoutNanos / 1000000L + " ms.");
+        }
+        if (buffer == null) {
+            throw new IOException("failed to wait for USB request.");
+        }
+        return buffer;
+    }
+
+    /**
+     * {@link #awaitCompletion()} の待ち時間を監視し、タイムアウトしたら待っている転送を取り消します。
+     * {@link #mWatchdog} で実行されます。
+     */
+    private void watch() {
+        synchronized (mWatchdogLock) {
+            while (!mClosed) {
+                try {
+                    if (!mWaiting || mTimedOut) {
+                        mWatchdogLock.wait();
+                        continue;
+                    }
+                    final long remainingNanos = mWaitStartNanos + mTimeoutNanos
+                            - System.nanoTime();
+                    if (0 < remainingNanos) {
+                        mWatchdogLock.wait(remainingNanos / 1000000L + 1);
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // 取り消した転送は完了として requestWait() から返る
+                mTimedOut = true;
+                for (UsbRequest request : mWatchedRequests) {
+                    if (request != null) {
+                        request.cancel();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mWatchdogLock) {
+            mClosed = true;
+            mWatchdogLock.notifyAll();
+        }
+        for (UsbRequest request : mQueuedRequests) {
+            request.cancel();
+            request.close();
+        }
+        mQueuedRequests.clear();
+        for (UsbRequest request : mFreeRequests) {
+            request.close();
+        }
+        mFreeRequests.clear();
+    }
+}
@@ -0,0 +1,96 @@
+package org.zakky.rl700s.transport;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+/**
+ * USB のバルク転送でプリンターと通信する {@link PrinterTransport} です。
+ * <p>
+ * API Level 12 の {@link UsbDeviceConnection#bulkTransfer(UsbEndpoint, byte[], int, int)}
+ * は配列の先頭からしか転送できないので、先頭以外の位置を指定された場合は、あらかじめ確保しておいた作業用の配列を経由します。
+ * 転送ごとのメモリ確保は行いません。
+ * </p>
+ * <p>
+ * 送信と受信はそれぞれ別のスレッドから同時に呼び出すことができますが、送信同士、受信同士を同時に呼び出すことはできません。
+ * </p>
+ */
+public final class UsbPrinterTransport implements PrinterTransport {
+
+    /**
+     * 1回のバルク転送で送信できる最大のバイト数。
+     * <p>
+     * 古い Android の USB ホスト実装は、これを超えるバルク転送を受け付けません。
+     * </p>
+     */
+    public static final int MAX_BULK_TRANSFER_SIZE = 16 * 1024;
+
+    private final UsbDeviceConnection mConnection;
+
+    private final UsbEndpoint mIn;
+
+    private final UsbEndpoint mOut;
+
+    /**
+     * 先頭以外の位置から送信する際の作業用配列。 必要になった時点で確保します。
+     */
+    private byte[] mOutScratch = null;
+
+    /**
+     * 先頭以外の位置へ受信する際の作業用配列。
+     */
+    private final byte[] mInScratch;
+
+    /**
+     * {@link UsbPrinterTransport} を構築します。
+     *
+     * @param connection オープン済みで、インタフェースを claim 済みのコネクション。
+     * @param in 受信用のバルクエンドポイント。
+     * @param out 送信用のバルクエンドポイント。
+     */
+    public UsbPrinterTransport(UsbDeviceConnection connection, UsbEndpoint in, UsbEndpoint out) {
+        if (connection == null) {
+            throw new IllegalArgumentException("'connection' must not be null");
+        }
+        if (in == null || in.getDirection() != UsbConstants.USB_DIR_IN) {
+            throw new IllegalArgumentException("'in' must be an IN endpoint");
+        }
+        if (out == null || out.getDirection() != UsbConstants.USB_DIR_OUT) {
+            throw new IllegalArgumentException("'out' must be an OUT endpoint");
+        }
+        mConnection = connection;
+        mIn = in;
+        mOut = out;
+        mInScratch = new byte[in.getMaxPacketSize()];
+    }
+
+    @Override
+    public int getMaxTransferSize() {
+        return MAX_BULK_TRANSFER_SIZE;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length, int timeoutMillis) {
+        if (offset == 0) {
+            return mConnection.bulkTransfer(mOut, data, length, timeoutMillis);
+        }
+        if (mOutScratch == null) {
+            mOutScratch = new byte[MAX_BULK_TRANSFER_SIZE];
+        }
+        System.arraycopy(data, offset, mOutScratch, 0, length);
+        return mConnection.bulkTransfer(mOut, mOutScratch, length, timeoutMillis);
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length, int timeoutMillis) {
+        if (offset == 0) {
+            return mConnection.bulkTransfer(mIn, data, length, timeoutMillis);
+        }
+        final int received = mConnection.bulkTransfer(mIn, mInScratch,
+                Math.min(length, mInScratch.length), timeoutMillis);
+        if (0 < received) {
+            System.arraycopy(mInScratch, 0, data, offset, received);
+        }
+        return received;
+    }
+}